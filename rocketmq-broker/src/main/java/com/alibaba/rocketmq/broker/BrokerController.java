@@ -41,7 +41,6 @@ import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.namesrv.RegisterBrokerResult;
 import com.alibaba.rocketmq.common.protocol.MQProtos;
-import com.alibaba.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
 import com.alibaba.rocketmq.remoting.RemotingServer;
 import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
 import com.alibaba.rocketmq.remoting.netty.NettyRemotingServer;
@@ -76,6 +75,8 @@ public class BrokerController {
     private final ConsumerManager consumerManager;
     // Producer连接管理
     private final ProducerManager producerManager;
+    // 客户端心跳指纹
+    private final ClientHeartbeatManager clientHeartbeatManager;
     // 检测所有客户端连接
     private final ClientHousekeepingService clientHousekeepingService;
     // Broker主动回查Producer事务状态
@@ -88,8 +89,10 @@ public class BrokerController {
     private final SubscriptionGroupManager subscriptionGroupManager;
     // 订阅组内成员发生变化，立刻通知所有成员
     private final ConsumerIdsChangeListener consumerIdsChangeListener;
+    // 合并Consumer组成员变化通知
+    private final ConsumerIdsChangeNotifyService consumerIdsChangeNotifyService;
     // 管理队列的锁分配
-    private final RebalanceLockManager rebalanceLockManager = new RebalanceLockManager();
+    private final RebalanceLockManager rebalanceLockManager;
     // Broker的通信层客户端
     private final BrokerOuterAPI brokerOuterAPI;
     private final ScheduledExecutorService scheduledExecutorService = Executors
@@ -132,13 +135,16 @@ public class BrokerController {
         this.topicConfigManager = new TopicConfigManager(this);
         this.pullMessageProcessor = new PullMessageProcessor(this);
         this.pullRequestHoldService = new PullRequestHoldService(this);
+        this.consumerIdsChangeNotifyService = new ConsumerIdsChangeNotifyService(this);
         this.consumerIdsChangeListener = new DefaultConsumerIdsChangeListener(this);
         this.consumerManager = new ConsumerManager(this.consumerIdsChangeListener);
         this.producerManager = new ProducerManager();
+        this.clientHeartbeatManager = new ClientHeartbeatManager(this.consumerManager);
         this.clientHousekeepingService = new ClientHousekeepingService(this);
         this.defaultTransactionCheckExecuter = new DefaultTransactionCheckExecuter(this);
         this.broker2Client = new Broker2Client(this);
         this.subscriptionGroupManager = new SubscriptionGroupManager(this);
+        this.rebalanceLockManager = new RebalanceLockManager(this);
         this.brokerOuterAPI = new BrokerOuterAPI(nettyClientConfig);
 
         if (this.brokerConfig.getNamesrvAddr() != null) {
@@ -245,6 +251,32 @@ public class BrokerController {
                 }
             }, 1000 * 10, this.brokerConfig.getFlushConsumerOffsetInterval(), TimeUnit.MILLISECONDS);
 
+            // 定时压缩Topic配置追加日志
+            this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        BrokerController.this.topicConfigManager.compactJournal();
+                    }
+                    catch (Exception e) {
+                        log.error("compactJournal Exception", e);
+                    }
+                }
+            }, 1000 * 10, 1000 * 10, TimeUnit.MILLISECONDS);
+
+            // 定时清理过期的顺序消息队列锁，并通知原持有者
+            this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        BrokerController.this.rebalanceLockManager.scanExpiredLocks();
+                    }
+                    catch (Exception e) {
+                        log.error("scanExpiredLocks Exception", e);
+                    }
+                }
+            }, 1000 * 10, 1000 * 5, TimeUnit.MILLISECONDS);
+
             // 定时打印各个消费组的消费速度
             this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
                 @Override
@@ -302,6 +334,20 @@ public class BrokerController {
                         }
                     }
                 }, 1000 * 10, 1000 * 60, TimeUnit.MILLISECONDS);
+
+                // Slave定时从Master增量同步配置信息与消费进度
+                this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            BrokerController.this.slaveSynchronize.syncMetadataDelta();
+                        }
+                        catch (Exception e) {
+                            log.error("ScheduledTask syncMetadataDelta slave exception", e);
+                        }
+                    }
+                }, 1000 * 10, this.brokerConfig.getSlaveSyncMetadataDeltaInterval(), TimeUnit.MILLISECONDS);
             }
         }
 
@@ -318,12 +364,16 @@ public class BrokerController {
             this.sendMessageExecutor);
         this.remotingServer.registerProcessor(MQProtos.MQRequestCode.CONSUMER_SEND_MSG_BACK_VALUE,
             sendProcessor, this.sendMessageExecutor);
+        this.remotingServer.registerProcessor(MQProtos.MQRequestCode.CONSUMER_SEND_MSG_BACK_BATCH_VALUE,
+            sendProcessor, this.sendMessageExecutor);
 
         /**
          * PullMessageProcessor
          */
         this.remotingServer.registerProcessor(MQProtos.MQRequestCode.PULL_MESSAGE_VALUE,
             this.pullMessageProcessor, this.pullMessageExecutor);
+        this.remotingServer.registerProcessor(MQProtos.MQRequestCode.PULL_MESSAGE_BATCH_VALUE,
+            this.pullMessageProcessor, this.pullMessageExecutor);
 
         /**
          * QueryMessageProcessor
@@ -340,6 +390,8 @@ public class BrokerController {
         NettyRequestProcessor clientProcessor = new ClientManageProcessor(this);
         this.remotingServer.registerProcessor(MQProtos.MQRequestCode.HEART_BEAT_VALUE, clientProcessor,
             this.adminBrokerExecutor);
+        this.remotingServer.registerProcessor(MQProtos.MQRequestCode.HEART_BEAT_LITE_VALUE, clientProcessor,
+            this.adminBrokerExecutor);
         this.remotingServer.registerProcessor(MQProtos.MQRequestCode.UNREGISTER_CLIENT_VALUE,
             clientProcessor, this.adminBrokerExecutor);
         this.remotingServer.registerProcessor(MQProtos.MQRequestCode.GET_CONSUMER_LIST_BY_GROUP_VALUE,
@@ -379,6 +431,16 @@ public class BrokerController {
     }
 
 
+    public ConsumerIdsChangeNotifyService getConsumerIdsChangeNotifyService() {
+        return consumerIdsChangeNotifyService;
+    }
+
+
+    public ClientHeartbeatManager getClientHeartbeatManager() {
+        return clientHeartbeatManager;
+    }
+
+
     public ConsumerOffsetManager getConsumerOffsetManager() {
         return consumerOffsetManager;
     }
@@ -449,6 +511,10 @@ public class BrokerController {
             this.clientHousekeepingService.shutdown();
         }
 
+        if (this.consumerIdsChangeNotifyService != null) {
+            this.consumerIdsChangeNotifyService.shutdown();
+        }
+
         if (this.pullRequestHoldService != null) {
             this.pullRequestHoldService.shutdown();
         }
@@ -487,7 +553,8 @@ public class BrokerController {
         }
         this.digestLogManager.dispose();
 
-        this.consumerOffsetManager.persist();
+        this.consumerOffsetManager.shutdown();
+        this.topicConfigManager.shutdown();
     }
 
 
@@ -519,6 +586,10 @@ public class BrokerController {
             this.brokerOuterAPI.start();
         }
 
+        if (this.consumerIdsChangeNotifyService != null) {
+            this.consumerIdsChangeNotifyService.start();
+        }
+
         if (this.pullRequestHoldService != null) {
             this.pullRequestHoldService.start();
         }
@@ -549,15 +620,12 @@ public class BrokerController {
 
 
     public synchronized void registerBrokerAll() {
-        TopicConfigSerializeWrapper topicConfigWrapper =
-                this.getTopicConfigManager().buildTopicConfigSerializeWrapper();
-
         RegisterBrokerResult registerBrokerResult = this.brokerOuterAPI.registerBrokerAll(//
             this.brokerConfig.getBrokerClusterName(), //
             this.getBrokerAddr(), //
             this.brokerConfig.getBrokerName(), //
             this.brokerConfig.getBrokerId(), //
-            this.getHAServerAddr(), topicConfigWrapper);
+            this.getHAServerAddr(), this.getTopicConfigManager());
 
         if (registerBrokerResult != null) {
             if (this.updateMasterHAServerAddrPeriodically && registerBrokerResult.getHaServerAddr() != null) {
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.client;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.remoting.common.RemotingHelper;
+import io.netty.channel.Channel;
+
+
+/**
+ * 记录每个连接最近一次全量心跳的指纹<br>
+ * 同一个连接始终使用同一个ClientChannelInfo对象注册到各个Producer、Consumer组，
+ * 指纹不变的简化心跳只需要刷新这个对象的时间戳
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-10
+ */
+public class ClientHeartbeatManager {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
+
+    private final ConsumerManager consumerManager;
+    private final ConcurrentHashMap<Channel, HeartbeatInfo> heartbeatTable =
+            new ConcurrentHashMap<Channel, HeartbeatInfo>(1024);
+
+
+    public ClientHeartbeatManager(final ConsumerManager consumerManager) {
+        this.consumerManager = consumerManager;
+    }
+
+
+    /**
+     * 全量心跳时调用，返回这个连接上应当用来注册的ClientChannelInfo
+     */
+    public ClientChannelInfo registerHeartbeat(final ClientChannelInfo clientChannelInfo,
+            final long fingerprint, final Set<String> consumerGroups) {
+        final Channel channel = clientChannelInfo.getChannel();
+        HeartbeatInfo prev = this.heartbeatTable.get(channel);
+        ClientChannelInfo info = clientChannelInfo;
+        if (prev != null && isSameClient(prev.getClientChannelInfo(), clientChannelInfo)) {
+            info = prev.getClientChannelInfo();
+            info.setLastUpdateTimestamp(System.currentTimeMillis());
+        }
+
+        this.heartbeatTable.put(channel, new HeartbeatInfo(info, fingerprint, consumerGroups));
+        return info;
+    }
+
+
+    private static boolean isSameClient(final ClientChannelInfo a, final ClientChannelInfo b) {
+        if (a.getClientId() == null) {
+            return b.getClientId() == null;
+        }
+
+        return a.getClientId().equals(b.getClientId()) && a.getLanguage() == b.getLanguage()
+                && a.getVersion() == b.getVersion();
+    }
+
+
+    /**
+     * 简化心跳，指纹与上次全量心跳一致时刷新时间戳
+     *
+     * @return 指纹不一致或者没有全量心跳记录时返回false，Client需要重新发送全量心跳
+     */
+    public boolean refreshHeartbeat(final Channel channel, final String clientId, final long fingerprint) {
+        if (0 == fingerprint) {
+            return false;
+        }
+
+        HeartbeatInfo heartbeatInfo = this.heartbeatTable.get(channel);
+        if (null == heartbeatInfo || heartbeatInfo.getFingerprint() != fingerprint
+                || !clientId.equals(heartbeatInfo.getClientChannelInfo().getClientId())) {
+            return false;
+        }
+
+        final long now = System.currentTimeMillis();
+        heartbeatInfo.getClientChannelInfo().setLastUpdateTimestamp(now);
+        for (String group : heartbeatInfo.getConsumerGroups()) {
+            ConsumerGroupInfo consumerGroupInfo = this.consumerManager.getConsumerGroupInfo(group);
+            // 组已经被清理，需要重新注册
+            if (null == consumerGroupInfo || null == consumerGroupInfo.findChannel(channel)) {
+                return false;
+            }
+            consumerGroupInfo.setLastUpdateTimestamp(now);
+        }
+
+        return true;
+    }
+
+
+    public void doChannelCloseEvent(final String remoteAddr, final Channel channel) {
+        if (this.heartbeatTable.remove(channel) != null) {
+            log.info("NETTY EVENT: remove channel[{}][{}] from ClientHeartbeatManager",
+                RemotingHelper.parseChannelRemoteAddr(channel), remoteAddr);
+        }
+    }
+
+    static class HeartbeatInfo {
+        private final ClientChannelInfo clientChannelInfo;
+        private final long fingerprint;
+        private final Set<String> consumerGroups;
+
+
+        HeartbeatInfo(ClientChannelInfo clientChannelInfo, long fingerprint, Set<String> consumerGroups) {
+            this.clientChannelInfo = clientChannelInfo;
+            this.fingerprint = fingerprint;
+            this.consumerGroups = consumerGroups;
+        }
+
+
+        public ClientChannelInfo getClientChannelInfo() {
+            return clientChannelInfo;
+        }
+
+
+        public long getFingerprint() {
+            return fingerprint;
+        }
+
+
+        public Set<String> getConsumerGroups() {
+            return consumerGroups;
+        }
+    }
+}
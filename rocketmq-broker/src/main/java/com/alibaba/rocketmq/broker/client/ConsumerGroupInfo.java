@@ -21,6 +21,7 @@ import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,8 +51,14 @@ public class ConsumerGroupInfo {
             new ConcurrentHashMap<String, SubscriptionData>();
     private final ConcurrentHashMap<Channel, ClientChannelInfo> channelInfoTable =
             new ConcurrentHashMap<Channel, ClientChannelInfo>(16);
+    // 按clientId索引channelInfoTable，通知锁过期时按clientId查找连接
+    private final ConcurrentHashMap<String/* clientId */, ClientChannelInfo> clientIdTable =
+            new ConcurrentHashMap<String, ClientChannelInfo>(16);
 
     private volatile long lastUpdateTimestamp = System.currentTimeMillis();
+    // 成员或订阅关系每变化一次加1，随变化通知发给Client
+    // 以创建时间为初值，Broker重启或者组被清理后重建，版本号不会与之前发出的重复
+    private final AtomicLong membershipVersion = new AtomicLong(System.currentTimeMillis());
 
 
     public ConsumerGroupInfo(String groupName, ConsumeType consumeType, MessageModel messageModel,
@@ -87,21 +94,55 @@ public class ConsumerGroupInfo {
     }
 
 
-    public void unregisterChannel(final ClientChannelInfo clientChannelInfo) {
-        ClientChannelInfo old = this.channelInfoTable.remove(clientChannelInfo.getChannel().hashCode());
+    public ClientChannelInfo findChannel(final Channel channel) {
+        return this.channelInfoTable.get(channel);
+    }
+
+
+    public ClientChannelInfo findChannel(final String clientId) {
+        return this.clientIdTable.get(clientId);
+    }
+
+
+    /**
+     * 返回值表示是否发生变更
+     */
+    public boolean unregisterChannel(final ClientChannelInfo clientChannelInfo) {
+        ClientChannelInfo old = this.channelInfoTable.remove(clientChannelInfo.getChannel());
         if (old != null) {
+            this.clientIdTable.remove(old.getClientId(), old);
             log.info("unregister a consumer[{}] from consumerGroupInfo {}", this.groupName, old.toString());
+            return true;
         }
+
+        return false;
     }
 
 
-    public void doChannelCloseEvent(final String remoteAddr, final Channel channel) {
+    /**
+     * 返回值表示是否发生变更
+     */
+    public boolean doChannelCloseEvent(final String remoteAddr, final Channel channel) {
         final ClientChannelInfo info = this.channelInfoTable.remove(channel);
         if (info != null) {
+            this.clientIdTable.remove(info.getClientId(), info);
             log.warn(
                 "NETTY EVENT: remove not active channel[{}] from ConsumerGroupInfo groupChannelTable, consumer group: {}",
                 info.toString(), groupName);
+            return true;
         }
+
+        return false;
+    }
+
+
+    public long getMembershipVersion() {
+        return this.membershipVersion.get();
+    }
+
+
+    public long nextMembershipVersion() {
+        return this.membershipVersion.incrementAndGet();
     }
 
 
@@ -120,6 +161,8 @@ public class ConsumerGroupInfo {
             ClientChannelInfo prev =
                     this.channelInfoTable.put(clientChannelInfo.getChannel(), clientChannelInfo);
             if (null == prev) {
+                // 同一个Client重连后以新连接为准
+                this.clientIdTable.put(clientChannelInfo.getClientId(), clientChannelInfo);
                 log.info("new consumer connected, group: {} {} {} channel: {}", this.groupName, consumeType,
                     messageModel, clientChannelInfo.toString());
                 updated = true;
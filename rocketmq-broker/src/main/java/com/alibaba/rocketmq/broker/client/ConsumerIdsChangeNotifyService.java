@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.client;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import io.netty.channel.Channel;
+
+
+/**
+ * 合并Consumer组成员变化通知<br>
+ * 组内连续发生变化时（例如滚动重启），在窗口内没有新变化或者距第一次变化超过最大延迟后，
+ * 才按当前成员列表通知一次，避免每个成员上下线都让全组Rebalance
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-10
+ */
+public class ConsumerIdsChangeNotifyService extends ServiceThread {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
+
+    private final BrokerController brokerController;
+    private final ConcurrentHashMap<String/* group */, ChangeEvent> changeEventTable =
+            new ConcurrentHashMap<String, ChangeEvent>(64);
+
+
+    public ConsumerIdsChangeNotifyService(final BrokerController brokerController) {
+        this.brokerController = brokerController;
+    }
+
+
+    public void putChangeEvent(final String group) {
+        final long now = System.currentTimeMillis();
+        ChangeEvent event = this.changeEventTable.get(group);
+        if (null == event) {
+            event = new ChangeEvent(now);
+            ChangeEvent prev = this.changeEventTable.putIfAbsent(group, event);
+            if (prev != null) {
+                event = prev;
+            }
+        }
+
+        event.setLastChangeTimestamp(now);
+    }
+
+
+    private void notifyExpiredEvents(final boolean force) {
+        final long delay = this.brokerController.getBrokerConfig().getConsumerIdsChangeNotifyDelay();
+        final long maxDelay = this.brokerController.getBrokerConfig().getConsumerIdsChangeNotifyMaxDelay();
+        final long now = System.currentTimeMillis();
+
+        Iterator<Entry<String, ChangeEvent>> it = this.changeEventTable.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<String, ChangeEvent> entry = it.next();
+            ChangeEvent event = entry.getValue();
+            if (force || now - event.getLastChangeTimestamp() >= delay
+                    || now - event.getFirstChangeTimestamp() >= maxDelay) {
+                // 删除后再读取成员列表，之后的变化会产生新的事件
+                it.remove();
+                this.notifyConsumerIdsChanged(entry.getKey());
+            }
+        }
+    }
+
+
+    /**
+     * 按当前成员列表和版本通知组内所有Consumer
+     */
+    public void notifyConsumerIdsChanged(final String group) {
+        ConsumerGroupInfo consumerGroupInfo =
+                this.brokerController.getConsumerManager().getConsumerGroupInfo(group);
+        if (null == consumerGroupInfo) {
+            return;
+        }
+
+        final long version = consumerGroupInfo.getMembershipVersion();
+        int cnt = 0;
+        for (Channel chl : consumerGroupInfo.getAllChannel()) {
+            this.brokerController.getBroker2Client().notifyConsumerIdsChanged(chl, group, version);
+            cnt++;
+        }
+
+        log.info("notify consumer ids changed, group: {} version: {} channels: {}", group, version, cnt);
+    }
+
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStoped()) {
+            try {
+                long delay = this.brokerController.getBrokerConfig().getConsumerIdsChangeNotifyDelay();
+                this.waitForRunning(Math.max(10, Math.min(delay / 4, 200)));
+                this.notifyExpiredEvents(false);
+            }
+            catch (Exception e) {
+                log.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+
+        this.notifyExpiredEvents(true);
+        log.info(this.getServiceName() + " service end");
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return ConsumerIdsChangeNotifyService.class.getSimpleName();
+    }
+
+    static class ChangeEvent {
+        private final long firstChangeTimestamp;
+        private volatile long lastChangeTimestamp;
+
+
+        ChangeEvent(long firstChangeTimestamp) {
+            this.firstChangeTimestamp = firstChangeTimestamp;
+            this.lastChangeTimestamp = firstChangeTimestamp;
+        }
+
+
+        public long getFirstChangeTimestamp() {
+            return firstChangeTimestamp;
+        }
+
+
+        public long getLastChangeTimestamp() {
+            return lastChangeTimestamp;
+        }
+
+
+        public void setLastChangeTimestamp(long lastChangeTimestamp) {
+            this.lastChangeTimestamp = lastChangeTimestamp;
+        }
+    }
+}
@@ -61,8 +61,9 @@ public class ConsumerManager {
     public void doChannelCloseEvent(final String remoteAddr, final Channel channel) {
         for (String group : this.consumerTable.keySet()) {
             final ConsumerGroupInfo info = this.consumerTable.get(group);
-            if (info != null) {
-                info.doChannelCloseEvent(remoteAddr, channel);
+            // 只通知包含这个连接的组
+            if (info != null && info.doChannelCloseEvent(remoteAddr, channel)) {
+                info.nextMembershipVersion();
                 this.consumerIdsChangeListener.consumerIdsChanged(group, info.getAllChannel());
             }
         }
@@ -88,6 +89,7 @@ public class ConsumerManager {
         boolean r2 = consumerGroupInfo.updateSubscription(subList);
 
         if (r1 || r2) {
+            consumerGroupInfo.nextMembershipVersion();
             this.consumerIdsChangeListener.consumerIdsChanged(group, consumerGroupInfo.getAllChannel());
         }
 
@@ -98,8 +100,10 @@ public class ConsumerManager {
     public void unregisterConsumer(final String group, final ClientChannelInfo clientChannelInfo) {
         ConsumerGroupInfo consumerGroupInfo = this.consumerTable.get(group);
         if (null != consumerGroupInfo) {
-            consumerGroupInfo.unregisterChannel(clientChannelInfo);
-            this.consumerIdsChangeListener.consumerIdsChanged(group, consumerGroupInfo.getAllChannel());
+            if (consumerGroupInfo.unregisterChannel(clientChannelInfo)) {
+                consumerGroupInfo.nextMembershipVersion();
+                this.consumerIdsChangeListener.consumerIdsChanged(group, consumerGroupInfo.getAllChannel());
+            }
         }
     }
 }
@@ -22,7 +22,7 @@ import io.netty.channel.Channel;
 
 
 /**
- * ConsumerId列表变化，通知所有Consumer
+ * ConsumerId列表变化，通知所有Consumer，默认合并一个时间窗口内的变化后再通知
  * 
  * @author shijia.wxr<vintage.wang@gmail.com>
  * @since 2013-7-26
@@ -38,10 +38,12 @@ public class DefaultConsumerIdsChangeListener implements ConsumerIdsChangeListen
 
     @Override
     public void consumerIdsChanged(String group, List<Channel> channels) {
-        if (channels != null) {
-            for (Channel chl : channels) {
-                this.brokerController.getBroker2Client().notifyConsumerIdsChanged(chl, group);
-            }
+        // 合并短时间内的多次变化，由ConsumerIdsChangeNotifyService按最新成员列表通知
+        if (this.brokerController.getBrokerConfig().getConsumerIdsChangeNotifyDelay() > 0) {
+            this.brokerController.getConsumerIdsChangeNotifyService().putChangeEvent(group);
+            return;
         }
+
+        this.brokerController.getConsumerIdsChangeNotifyService().notifyConsumerIdsChanged(group);
     }
 }
@@ -15,13 +15,19 @@
  */
 package com.alibaba.rocketmq.broker.client.net;
 
+import java.util.Set;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.broker.client.ClientChannelInfo;
+import com.alibaba.rocketmq.broker.client.ConsumerGroupInfo;
 import com.alibaba.rocketmq.broker.pagecache.OneMessageTransfer;
 import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.message.MessageQueue;
 import com.alibaba.rocketmq.common.protocol.MQProtos.MQRequestCode;
+import com.alibaba.rocketmq.common.protocol.body.UnlockBatchRequestBody;
 import com.alibaba.rocketmq.common.protocol.header.CheckTransactionStateRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.NotifyConsumerIdsChangedRequestHeader;
 import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
@@ -88,10 +94,12 @@ public class Broker2Client {
      */
     public void notifyConsumerIdsChanged(//
             final Channel channel,//
-            final String consumerGroup//
+            final String consumerGroup,//
+            final long membershipVersion//
     ) {
         NotifyConsumerIdsChangedRequestHeader requestHeader = new NotifyConsumerIdsChangedRequestHeader();
         requestHeader.setConsumerGroup(consumerGroup);
+        requestHeader.setMembershipVersion(membershipVersion);
         RemotingCommand request =
                 RemotingCommand.createRequestCommand(MQRequestCode.NOTIFY_CONSUMER_IDS_CHANGED_VALUE,
                     requestHeader);
@@ -103,4 +111,38 @@ public class Broker2Client {
             log.error("notifyConsumerIdsChanged exception, " + consumerGroup, e);
         }
     }
+
+
+    /**
+     * Broker主动通知Consumer，队列锁已经过期或者被其他Client抢占，Oneway
+     */
+    public void notifyMQLockExpired(//
+            final String consumerGroup,//
+            final String clientId,//
+            final Set<MessageQueue> mqSet//
+    ) {
+        ConsumerGroupInfo consumerGroupInfo =
+                this.brokerController.getConsumerManager().getConsumerGroupInfo(consumerGroup);
+        ClientChannelInfo clientChannelInfo =
+                consumerGroupInfo != null ? consumerGroupInfo.findChannel(clientId) : null;
+        if (null == clientChannelInfo) {
+            return;
+        }
+
+        UnlockBatchRequestBody requestBody = new UnlockBatchRequestBody();
+        requestBody.setConsumerGroup(consumerGroup);
+        requestBody.setClientId(clientId);
+        requestBody.setMqSet(mqSet);
+        RemotingCommand request =
+                RemotingCommand.createRequestCommand(MQRequestCode.NOTIFY_MQ_LOCK_EXPIRED_VALUE, null);
+        request.setBody(requestBody.encode());
+
+        try {
+            this.brokerController.getRemotingServer().invokeOneway(clientChannelInfo.getChannel(), request,
+                1000);
+        }
+        catch (Exception e) {
+            log.error("notifyMQLockExpired exception, " + consumerGroup, e);
+        }
+    }
 }
@@ -15,21 +15,29 @@
  */
 package com.alibaba.rocketmq.broker.client.rebalance;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.common.ConcurrentLongHashMap;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.message.MessageQueue;
 
 
 /**
- * 顺序消息争抢队列锁
+ * 顺序消息争抢队列锁<br>
+ * 锁表以groupId和topicId、queueId拼成的long为Key，判断是否持有锁不需要计算MessageQueue的hashCode<br>
+ * 锁是有租期的，Client在租期内续约，过期或者被抢占时由Broker主动通知原持有者<br>
+ * 按Consumer组分段加锁，不同组之间争抢队列锁互不影响
  * 
  * @author shijia.wxr<vintage.wang@gmail.com>
  * @since 2013-6-26
@@ -38,15 +46,51 @@ public class RebalanceLockManager {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.RebalanceLockLoggerName);
     private final static long RebalanceLockMaxLiveTime = Long.parseLong(System.getProperty(
         "rocketmq.broker.rebalance.lockMaxLiveTime", "60000"));
-    private final Lock lock = new ReentrantLock();
-    private final ConcurrentHashMap<String/* group */, ConcurrentHashMap<MessageQueue, LockEntry>> mqLockTable =
-            new ConcurrentHashMap<String, ConcurrentHashMap<MessageQueue, LockEntry>>(1024);
+    private static final int GroupLockStripes = 32;
+    private final Lock[] groupLocks = new Lock[GroupLockStripes];
+    private final ConcurrentLongHashMap<ConcurrentLongHashMap<LockEntry>> mqLockTable =
+            new ConcurrentLongHashMap<ConcurrentLongHashMap<LockEntry>>(1024);
+    private final BrokerController brokerController;
+    // 锁的租期，随批量锁定的应答返回给Client
+    private final long leaseMillis;
+
+
+    public RebalanceLockManager(final BrokerController brokerController) {
+        this(brokerController, RebalanceLockMaxLiveTime);
+    }
+
+
+    public RebalanceLockManager(final BrokerController brokerController, final long leaseMillis) {
+        this.brokerController = brokerController;
+        this.leaseMillis = leaseMillis;
+        for (int i = 0; i < this.groupLocks.length; i++) {
+            this.groupLocks[i] = new ReentrantLock();
+        }
+    }
 
     class LockEntry {
-        private String clientId;
+        private final String group;
+        private final MessageQueue mq;
+        private volatile String clientId;
         private volatile long lastUpdateTimestamp = System.currentTimeMillis();
 
 
+        LockEntry(String group, MessageQueue mq) {
+            this.group = group;
+            this.mq = mq;
+        }
+
+
+        public String getGroup() {
+            return group;
+        }
+
+
+        public MessageQueue getMq() {
+            return mq;
+        }
+
+
         public String getClientId() {
             return clientId;
         }
@@ -68,8 +112,7 @@ public class RebalanceLockManager {
 
 
         public boolean isExpired() {
-            boolean expired =
-                    (System.currentTimeMillis() - this.lastUpdateTimestamp) > RebalanceLockMaxLiveTime;
+            boolean expired = (System.currentTimeMillis() - this.lastUpdateTimestamp) > leaseMillis;
 
             return expired;
         }
@@ -82,10 +125,74 @@ public class RebalanceLockManager {
     }
 
 
+    /**
+     * 锁的租期，Client需要在租期内续约
+     */
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+
+    private long buildGroupKey(final String group) {
+        return this.brokerController.getSubscriptionGroupManager().getGroupId(group);
+    }
+
+
+    private long buildMQKey(final MessageQueue mq) {
+        final int topicId = this.brokerController.getTopicConfigManager().getTopicId(mq.getTopic());
+        return ConcurrentLongHashMap.buildKey(topicId, mq.getQueueId());
+    }
+
+
+    /**
+     * 只查找不分配id，没有分配过说明一定没有加锁
+     *
+     * @return 没有分配过返回-1
+     */
+    private long findGroupKey(final String group) {
+        return this.brokerController.getSubscriptionGroupManager().findGroupId(group);
+    }
+
+
+    private long findMQKey(final MessageQueue mq) {
+        final int topicId = this.brokerController.getTopicConfigManager().findTopicId(mq.getTopic());
+        if (topicId < 0) {
+            return -1;
+        }
+
+        return ConcurrentLongHashMap.buildKey(topicId, mq.getQueueId());
+    }
+
+
+    private Lock groupLock(final long groupKey) {
+        return this.groupLocks[(int) (groupKey & (GroupLockStripes - 1))];
+    }
+
+
+    private ConcurrentLongHashMap<LockEntry> findOrCreateGroupValue(final long groupKey) {
+        ConcurrentLongHashMap<LockEntry> groupValue = this.mqLockTable.get(groupKey);
+        if (null == groupValue) {
+            groupValue = new ConcurrentLongHashMap<LockEntry>(32);
+            ConcurrentLongHashMap<LockEntry> prev = this.mqLockTable.putIfAbsent(groupKey, groupValue);
+            if (prev != null) {
+                groupValue = prev;
+            }
+        }
+
+        return groupValue;
+    }
+
+
     private boolean isLocked(final String group, final MessageQueue mq, final String clientId) {
-        ConcurrentHashMap<MessageQueue, LockEntry> groupValue = this.mqLockTable.get(group);
+        final long groupKey = this.findGroupKey(group);
+        final long mqKey = this.findMQKey(mq);
+        if (groupKey < 0 || mqKey < 0) {
+            return false;
+        }
+
+        ConcurrentLongHashMap<LockEntry> groupValue = this.mqLockTable.get(groupKey);
         if (groupValue != null) {
-            LockEntry lockEntry = groupValue.get(mq);
+            LockEntry lockEntry = groupValue.get(mqKey);
             if (lockEntry != null) {
                 boolean locked = lockEntry.isLocked(clientId);
                 if (locked) {
@@ -106,71 +213,9 @@ public class RebalanceLockManager {
      * @return 是否lock成功
      */
     public boolean tryLock(final String group, final MessageQueue mq, final String clientId) {
-        // 没有被锁住
-        if (!this.isLocked(group, mq, clientId)) {
-            try {
-                this.lock.lockInterruptibly();
-                try {
-                    ConcurrentHashMap<MessageQueue, LockEntry> groupValue = this.mqLockTable.get(group);
-                    if (null == groupValue) {
-                        groupValue = new ConcurrentHashMap<MessageQueue, LockEntry>(32);
-                        this.mqLockTable.put(group, groupValue);
-                    }
-
-                    LockEntry lockEntry = groupValue.get(mq);
-                    if (null == lockEntry) {
-                        lockEntry = new LockEntry();
-                        lockEntry.setClientId(clientId);
-                        groupValue.put(mq, lockEntry);
-                        log.info("tryLock, message queue not locked, I got it. Group: {} NewClientId: {} {}", //
-                            group, //
-                            clientId, //
-                            mq);
-                    }
-
-                    if (lockEntry.isLocked(clientId)) {
-                        lockEntry.setLastUpdateTimestamp(System.currentTimeMillis());
-                        return true;
-                    }
-
-                    String oldClientId = lockEntry.getClientId();
-
-                    // 锁已经过期，抢占它
-                    if (lockEntry.isExpired()) {
-                        lockEntry.setClientId(clientId);
-                        lockEntry.setLastUpdateTimestamp(System.currentTimeMillis());
-                        log.warn(
-                            "tryLock, message queue lock expired, I got it. Group: {} OldClientId: {} NewClientId: {} {}", //
-                            group, //
-                            oldClientId, //
-                            clientId, //
-                            mq);
-                        return true;
-                    }
-
-                    // 锁被别的Client占用
-                    log.warn(
-                        "tryLock, message queue locked by other client. Group: {} OtherClientId: {} NewClientId: {} {}", //
-                        group, //
-                        oldClientId, //
-                        clientId, //
-                        mq);
-                    return false;
-                }
-                finally {
-                    this.lock.unlock();
-                }
-            }
-            catch (InterruptedException e) {
-                log.error("putMessage exception", e);
-            }
-        }
-        // 已经锁住，尝试更新时间
-        else {
-            // isLocked 中已经更新了时间，这里不需要再更新
-        }
-
-        return true;
+        Set<MessageQueue> mqs = new HashSet<MessageQueue>();
+        mqs.add(mq);
+        return this.tryLockBatch(group, mqs, clientId).contains(mq);
     }
 
 
@@ -195,22 +240,23 @@ public class RebalanceLockManager {
         }
 
         if (!notLockedMqs.isEmpty()) {
+            // 被抢占的锁，在释放组锁后通知原持有者
+            List<LockEntry> preemptedList = new ArrayList<LockEntry>();
+            final long groupKey = this.buildGroupKey(group);
+            final Lock lock = this.groupLock(groupKey);
             try {
-                this.lock.lockInterruptibly();
+                lock.lockInterruptibly();
                 try {
-                    ConcurrentHashMap<MessageQueue, LockEntry> groupValue = this.mqLockTable.get(group);
-                    if (null == groupValue) {
-                        groupValue = new ConcurrentHashMap<MessageQueue, LockEntry>(32);
-                        this.mqLockTable.put(group, groupValue);
-                    }
+                    ConcurrentLongHashMap<LockEntry> groupValue = this.findOrCreateGroupValue(groupKey);
 
                     // 遍历没有锁住的队列
                     for (MessageQueue mq : notLockedMqs) {
-                        LockEntry lockEntry = groupValue.get(mq);
+                        final long mqKey = this.buildMQKey(mq);
+                        LockEntry lockEntry = groupValue.get(mqKey);
                         if (null == lockEntry) {
-                            lockEntry = new LockEntry();
+                            lockEntry = new LockEntry(group, mq);
                             lockEntry.setClientId(clientId);
-                            groupValue.put(mq, lockEntry);
+                            groupValue.put(mqKey, lockEntry);
                             log.info(
                                 "tryLockBatch, message queue not locked, I got it. Group: {} NewClientId: {} {}", //
                                 group, //
@@ -222,12 +268,19 @@ public class RebalanceLockManager {
                         if (lockEntry.isLocked(clientId)) {
                             lockEntry.setLastUpdateTimestamp(System.currentTimeMillis());
                             lockedMqs.add(mq);
+                            continue;
                         }
 
                         String oldClientId = lockEntry.getClientId();
 
                         // 锁已经过期，抢占它
                         if (lockEntry.isExpired()) {
+                            if (!oldClientId.equals(clientId)) {
+                                LockEntry preempted = new LockEntry(group, mq);
+                                preempted.setClientId(oldClientId);
+                                preemptedList.add(preempted);
+                            }
+
                             lockEntry.setClientId(clientId);
                             lockEntry.setLastUpdateTimestamp(System.currentTimeMillis());
                             log.warn(
@@ -237,6 +290,7 @@ public class RebalanceLockManager {
                                 clientId, //
                                 mq);
                             lockedMqs.add(mq);
+                            continue;
                         }
 
                         // 锁被别的Client占用
@@ -249,29 +303,55 @@ public class RebalanceLockManager {
                     }
                 }
                 finally {
-                    this.lock.unlock();
+                    lock.unlock();
                 }
             }
             catch (InterruptedException e) {
                 log.error("putMessage exception", e);
             }
+
+            this.notifyLockExpired(preemptedList);
         }
 
         return lockedMqs;
     }
 
 
+    /**
+     * 一次续约一个Client的多个组的队列锁
+     */
+    public HashMap<String, Set<MessageQueue>> tryLockBatchMultiGroup(
+            final Map<String, Set<MessageQueue>> groupMQTable, final String clientId) {
+        HashMap<String, Set<MessageQueue>> result = new HashMap<String, Set<MessageQueue>>();
+        for (Map.Entry<String, Set<MessageQueue>> entry : groupMQTable.entrySet()) {
+            result.put(entry.getKey(), this.tryLockBatch(entry.getKey(), entry.getValue(), clientId));
+        }
+
+        return result;
+    }
+
+
     public void unlockBatch(final String group, final Set<MessageQueue> mqs, final String clientId) {
+        final long groupKey = this.findGroupKey(group);
+        if (groupKey < 0) {
+            log.warn("unlockBatch, group not exist, Group: {} {}",//
+                group, //
+                clientId);
+            return;
+        }
+
+        final Lock lock = this.groupLock(groupKey);
         try {
-            this.lock.lockInterruptibly();
+            lock.lockInterruptibly();
             try {
-                ConcurrentHashMap<MessageQueue, LockEntry> groupValue = this.mqLockTable.get(group);
+                ConcurrentLongHashMap<LockEntry> groupValue = this.mqLockTable.get(groupKey);
                 if (null != groupValue) {
                     for (MessageQueue mq : mqs) {
-                        LockEntry lockEntry = groupValue.get(mq);
+                        final long mqKey = this.findMQKey(mq);
+                        LockEntry lockEntry = mqKey >= 0 ? groupValue.get(mqKey) : null;
                         if (null != lockEntry) {
                             if (lockEntry.getClientId().equals(clientId)) {
-                                groupValue.remove(mq);
+                                groupValue.remove(mqKey);
                                 log.info("unlockBatch, Group: {} {} {}",//
                                     group, //
                                     mq, //
@@ -300,11 +380,85 @@ public class RebalanceLockManager {
                 }
             }
             finally {
-                this.lock.unlock();
+                lock.unlock();
             }
         }
         catch (InterruptedException e) {
             log.error("putMessage exception", e);
         }
     }
+
+
+    /**
+     * 定时清理过期的锁，并通知原持有者，Client不需要等本地锁过期才发现
+     *
+     * @return 清理掉的锁数量
+     */
+    public int scanExpiredLocks() {
+        List<LockEntry> expiredList = new ArrayList<LockEntry>();
+        for (ConcurrentLongHashMap<LockEntry> groupValue : this.mqLockTable.values()) {
+            for (LockEntry lockEntry : groupValue.values()) {
+                if (!lockEntry.isExpired()) {
+                    continue;
+                }
+
+                final long groupKey = this.buildGroupKey(lockEntry.getGroup());
+                final Lock lock = this.groupLock(groupKey);
+                lock.lock();
+                try {
+                    // 加锁后再确认一次，可能刚刚被续约
+                    if (lockEntry.isExpired()
+                            && groupValue.remove(this.buildMQKey(lockEntry.getMq()), lockEntry)) {
+                        expiredList.add(lockEntry);
+                        log.info("scanExpiredLocks, remove expired lock, Group: {} {} {}",//
+                            lockEntry.getGroup(), //
+                            lockEntry.getMq(), //
+                            lockEntry.getClientId());
+                    }
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        this.notifyLockExpired(expiredList);
+        return expiredList.size();
+    }
+
+
+    /**
+     * 按组和Client合并后通知
+     */
+    private void notifyLockExpired(final List<LockEntry> lockEntryList) {
+        if (lockEntryList.isEmpty()) {
+            return;
+        }
+
+        HashMap<String/* group */, HashMap<String/* clientId */, Set<MessageQueue>>> table =
+                new HashMap<String, HashMap<String, Set<MessageQueue>>>();
+        for (LockEntry lockEntry : lockEntryList) {
+            HashMap<String, Set<MessageQueue>> clientTable = table.get(lockEntry.getGroup());
+            if (null == clientTable) {
+                clientTable = new HashMap<String, Set<MessageQueue>>();
+                table.put(lockEntry.getGroup(), clientTable);
+            }
+
+            Set<MessageQueue> mqs = clientTable.get(lockEntry.getClientId());
+            if (null == mqs) {
+                mqs = new HashSet<MessageQueue>();
+                clientTable.put(lockEntry.getClientId(), mqs);
+            }
+            mqs.add(lockEntry.getMq());
+        }
+
+        for (Map.Entry<String, HashMap<String, Set<MessageQueue>>> entry : table.entrySet()) {
+            for (Map.Entry<String, Set<MessageQueue>> clientEntry : entry.getValue().entrySet()) {
+                this.brokerController.getBroker2Client().notifyMQLockExpired(//
+                    entry.getKey(),//
+                    clientEntry.getKey(),//
+                    clientEntry.getValue());
+            }
+        }
+    }
 }
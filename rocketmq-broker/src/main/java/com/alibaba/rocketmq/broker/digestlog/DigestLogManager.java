@@ -15,16 +15,28 @@
  */
 package com.alibaba.rocketmq.broker.digestlog;
 
+import io.netty.channel.Channel;
+
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.LoggerFactory;
 
 import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.common.protocol.MQProtos.MQRequestCode;
+import com.alibaba.rocketmq.common.protocol.header.PullMessageRequestHeader;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import com.alibaba.rocketmq.store.GetMessageResult;
+import com.alibaba.rocketmq.store.PutMessageResult;
+import com.alibaba.rocketmq.store.PutMessageStatus;
 
 
 /**
- * 统计管理器
+ * 统计管理器<br>
+ * 收发消息请求只在内存中聚合，定时打印摘要，完整的单个请求日志需要按采样率开启
  * 
  * @author 菱叶<jin.qian@alipay.com>
  * @since 2013-7-18
@@ -43,15 +55,83 @@ public class DigestLogManager {
     private final PutStatsMoniter putStatsMoniter;
     private final GetStatsMoniter getStatsMoniter;
     private final StoreStatsMoniter storeStatsMoniter;
+    private final DigestStatsTable sendStatsTable = new DigestStatsTable("SendDigest",
+        LoggerFactory.getLogger("PutStatsMoniter"));
+    private final DigestStatsTable sendBackStatsTable = new DigestStatsTable("SendBackDigest",
+        LoggerFactory.getLogger("PutStatsMoniter"));
+    private final DigestStatsTable pullStatsTable = new DigestStatsTable("PullDigest",
+        LoggerFactory.getLogger("GetStatsMoniter"));
+    private final AtomicLong liveLogSampleCounter = new AtomicLong(0);
+    private final BrokerController brokerController;
 
 
     public DigestLogManager(BrokerController brokerController) {
+        this.brokerController = brokerController;
         putStatsMoniter = new PutStatsMoniter(brokerController);
         getStatsMoniter = new GetStatsMoniter(brokerController);
         storeStatsMoniter = new StoreStatsMoniter(brokerController);
     }
 
 
+    boolean isLiveLogSampled() {
+        final int sampleRate = this.brokerController.getBrokerConfig().getDigestLiveLogSampleRate();
+        return sampleRate > 0 && this.liveLogSampleCounter.incrementAndGet() % sampleRate == 0;
+    }
+
+
+    public void recordSendMessage(final Channel channel, final RemotingCommand request, final String topic,
+            final String group, final int bodySize, final PutMessageResult putMessageResult,
+            final long costMicros) {
+        if (startRealTimeStat) {
+            final boolean ok =
+                    putMessageResult != null
+                            && putMessageResult.getPutMessageStatus() == PutMessageStatus.PUT_OK;
+            this.sendStatsTable.record(topic, group, channel, ok ? 1 : 0, ok ? bodySize : 0, costMicros);
+        }
+
+        if (this.isLiveLogSampled()) {
+            SendmsgLiveMoniter.printProcessSendmsgRequestLive(channel, request, putMessageResult);
+        }
+    }
+
+
+    public void recordSendBackMessage(final Channel channel, final RemotingCommand request,
+            final String topic, final String group, final int bodySize,
+            final PutMessageResult putMessageResult, final int delayLevel, final int reconsumeTimes,
+            final long costMicros) {
+        if (startRealTimeStat) {
+            final boolean ok =
+                    putMessageResult != null
+                            && putMessageResult.getPutMessageStatus() == PutMessageStatus.PUT_OK;
+            this.sendBackStatsTable.record(topic, group, channel, ok ? 1 : 0, ok ? bodySize : 0, costMicros);
+        }
+
+        if (this.isLiveLogSampled()) {
+            SendbackmsgLiveMoniter.printProcessSendmsgRequestLive(channel, request, putMessageResult,
+                delayLevel, reconsumeTimes);
+        }
+    }
+
+
+    public void recordPullMessage(final Channel channel, final RemotingCommand request,
+            final PullMessageRequestHeader requestHeader, final String topic, final String group,
+            final GetMessageResult getMessageResult, final long costMicros) {
+        if (startRealTimeStat) {
+            this.pullStatsTable.record(topic, group, channel, getMessageResult.getMessageCount(),
+                getMessageResult.getBufferTotalSize(), costMicros);
+        }
+
+        if (getMessageResult.getBufferTotalSize() > 0 && this.isLiveLogSampled()) {
+            if (request.getCode() == MQRequestCode.PULL_MESSAGE_BATCH_VALUE) {
+                PullmsgLiveMoniter.printProcessRequestLive(channel, request, requestHeader, getMessageResult);
+            }
+            else {
+                PullmsgLiveMoniter.printProcessRequestLive(channel, request, getMessageResult);
+            }
+        }
+    }
+
+
     public void init() {
 
     }
@@ -80,6 +160,9 @@ public class DigestLogManager {
             putStatsMoniter.tolog();
             getStatsMoniter.tolog();
             storeStatsMoniter.tolog();
+            sendStatsTable.tolog();
+            sendBackStatsTable.tolog();
+            pullStatsTable.tolog();
         }
     }
 
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.digestlog;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * 一个统计维度的计数器，按线程分条带累加，打印摘要时取出并清零<br>
+ * 每个条带补齐到64字节，避免不同线程写同一个缓存行
+ * 
+ * @author 菱叶<jin.qian@alipay.com>
+ * @since 2013-7-18
+ */
+public class DigestStatsItem {
+    private static final int Stripes = 8;
+    private static final int FieldNums = 8;
+    public static final int Times = 0;
+    public static final int Nums = 1;
+    public static final int Size = 2;
+    // 耗时，单位微秒
+    public static final int CostTotal = 3;
+    public static final int CostMax = 4;
+    public static final int ResultLength = 5;
+
+    private final AtomicLongArray values = new AtomicLongArray(Stripes * FieldNums);
+    // 连续没有数据的打印周期数，只有打印线程访问
+    private int idleRounds = 0;
+
+
+    public void add(final int nums, final long size, final long costMicros) {
+        final int base = ((int) Thread.currentThread().getId() & (Stripes - 1)) * FieldNums;
+        this.values.incrementAndGet(base + Times);
+        this.values.addAndGet(base + Nums, nums);
+        this.values.addAndGet(base + Size, size);
+        this.values.addAndGet(base + CostTotal, costMicros);
+        for (;;) {
+            long max = this.values.get(base + CostMax);
+            if (costMicros <= max || this.values.compareAndSet(base + CostMax, max, costMicros)) {
+                break;
+            }
+        }
+    }
+
+
+    /**
+     * 合并各条带上个周期的计数并清零
+     * 
+     * @return 按Times、Nums、Size、CostTotal、CostMax下标取值
+     */
+    public long[] rollup() {
+        long[] result = new long[ResultLength];
+        for (int s = 0; s < Stripes; s++) {
+            final int base = s * FieldNums;
+            for (int i = 0; i < CostMax; i++) {
+                result[i] += this.values.getAndSet(base + i, 0);
+            }
+            result[CostMax] = Math.max(result[CostMax], this.values.getAndSet(base + CostMax, 0));
+        }
+
+        if (result[Times] > 0) {
+            this.idleRounds = 0;
+        }
+        else {
+            this.idleRounds++;
+        }
+
+        return result;
+    }
+
+
+    public int getIdleRounds() {
+        return idleRounds;
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.digestlog;
+
+import io.netty.channel.Channel;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+
+import com.alibaba.rocketmq.remoting.common.RemotingHelper;
+
+
+/**
+ * 按Topic、Group与客户端连接聚合请求数、消息数、字节数与耗时，定时打印摘要<br>
+ * Topic与Group两级索引，直接使用请求头中的字符串查找，请求路径上不拼接Key
+ * 
+ * @author 菱叶<jin.qian@alipay.com>
+ * @since 2013-7-18
+ */
+public class DigestStatsTable {
+    // 连续这么多个周期没有数据则回收，回收瞬间并发写入的少量计数会丢失
+    private static final int MaxIdleRounds = 3;
+
+    private final String statsName;
+    private final Logger log;
+    // Topic -> Group -> 统计
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, DigestStatsItem>> topicGroupTable =
+            new ConcurrentHashMap<String, ConcurrentHashMap<String, DigestStatsItem>>(128);
+    private final ConcurrentHashMap<Channel, DigestStatsItem> clientTable =
+            new ConcurrentHashMap<Channel, DigestStatsItem>(128);
+
+
+    public DigestStatsTable(final String statsName, final Logger log) {
+        this.statsName = statsName;
+        this.log = log;
+    }
+
+
+    public void record(final String topic, final String group, final Channel channel, final int nums,
+            final long size, final long costMicros) {
+        ConcurrentHashMap<String, DigestStatsItem> groupTable = this.topicGroupTable.get(topic);
+        if (null == groupTable) {
+            groupTable = new ConcurrentHashMap<String, DigestStatsItem>(8);
+            ConcurrentHashMap<String, DigestStatsItem> prev =
+                    this.topicGroupTable.putIfAbsent(topic, groupTable);
+            if (prev != null) {
+                groupTable = prev;
+            }
+        }
+
+        getOrCreateItem(groupTable, group != null ? group : "").add(nums, size, costMicros);
+        getOrCreateItem(this.clientTable, channel).add(nums, size, costMicros);
+    }
+
+
+    private static <K> DigestStatsItem getOrCreateItem(final ConcurrentHashMap<K, DigestStatsItem> table,
+            final K key) {
+        DigestStatsItem item = table.get(key);
+        if (null == item) {
+            item = new DigestStatsItem();
+            DigestStatsItem prev = table.putIfAbsent(key, item);
+            if (prev != null) {
+                item = prev;
+            }
+        }
+        return item;
+    }
+
+
+    public void tolog() {
+        Iterator<Entry<String, ConcurrentHashMap<String, DigestStatsItem>>> it =
+                this.topicGroupTable.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<String, ConcurrentHashMap<String, DigestStatsItem>> topicEntry = it.next();
+            Iterator<Entry<String, DigestStatsItem>> itGroup = topicEntry.getValue().entrySet().iterator();
+            while (itGroup.hasNext()) {
+                Entry<String, DigestStatsItem> groupEntry = itGroup.next();
+                long[] values = groupEntry.getValue().rollup();
+                if (values[DigestStatsItem.Times] > 0) {
+                    StringBuffer sb = new StringBuffer();
+                    sb.append(this.statsName).append(",");
+                    sb.append("Topic[").append(topicEntry.getKey()).append("],");
+                    sb.append("Group[").append(groupEntry.getKey()).append("],");
+                    this.appendValues(sb, values);
+                    log.info(sb.toString());
+                }
+                else if (groupEntry.getValue().getIdleRounds() > MaxIdleRounds) {
+                    itGroup.remove();
+                }
+            }
+
+            if (topicEntry.getValue().isEmpty()) {
+                it.remove();
+            }
+        }
+
+        Iterator<Entry<Channel, DigestStatsItem>> itClient = this.clientTable.entrySet().iterator();
+        while (itClient.hasNext()) {
+            Entry<Channel, DigestStatsItem> entry = itClient.next();
+            long[] values = entry.getValue().rollup();
+            if (values[DigestStatsItem.Times] > 0) {
+                StringBuffer sb = new StringBuffer();
+                sb.append(this.statsName).append(",");
+                sb.append("Client[").append(RemotingHelper.parseChannelRemoteAddr(entry.getKey()))
+                    .append("],");
+                this.appendValues(sb, values);
+                log.info(sb.toString());
+            }
+
+            if (!entry.getKey().isActive() || entry.getValue().getIdleRounds() > MaxIdleRounds) {
+                itClient.remove();
+            }
+        }
+    }
+
+
+    private void appendValues(final StringBuffer sb, final long[] values) {
+        final long times = values[DigestStatsItem.Times];
+        sb.append("Times[").append(times).append("],");
+        sb.append("Nums[").append(values[DigestStatsItem.Nums]).append("],");
+        sb.append("Size[").append(values[DigestStatsItem.Size]).append("],");
+        sb.append("AvgRT[").append(times > 0 ? values[DigestStatsItem.CostTotal] / times : 0).append("us],");
+        sb.append("MaxRT[").append(values[DigestStatsItem.CostMax]).append("us]");
+    }
+
+
+    ConcurrentHashMap<String, ConcurrentHashMap<String, DigestStatsItem>> getTopicGroupTable() {
+        return topicGroupTable;
+    }
+
+
+    ConcurrentHashMap<Channel, DigestStatsItem> getClientTable() {
+        return clientTable;
+    }
+}
@@ -1,21 +1,35 @@
-package com.alibaba.rocketmq.broker.digestlog;
-
-import io.netty.channel.Channel;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.alibaba.rocketmq.remoting.common.RemotingHelper;
-import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
-import com.alibaba.rocketmq.store.GetMessageResult;
-
-public class PullmsgLiveMoniter {
-
-    private static final Logger log = LoggerFactory.getLogger("PullmsgLiveMoniter");
-    
-    public static void printProcessRequestLive(Channel channel, RemotingCommand request,GetMessageResult getMessageResult){
-        if(log.isInfoEnabled()){
-            log.info("receive [{}] PullMessage request command[{}] and return result [{}] ",RemotingHelper.parseChannelRemoteName(channel), request,getMessageResult);
-        }
-    }
-}
+package com.alibaba.rocketmq.broker.digestlog;
+
+import io.netty.channel.Channel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.protocol.header.PullMessageRequestHeader;
+import com.alibaba.rocketmq.remoting.common.RemotingHelper;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import com.alibaba.rocketmq.store.GetMessageResult;
+
+public class PullmsgLiveMoniter {
+
+    private static final Logger log = LoggerFactory.getLogger("PullmsgLiveMoniter");
+    
+    public static void printProcessRequestLive(Channel channel, RemotingCommand request,GetMessageResult getMessageResult){
+        if(log.isInfoEnabled()){
+            log.info("receive [{}] PullMessage request command[{}] and return result [{}] ",RemotingHelper.parseChannelRemoteName(channel), request,getMessageResult);
+        }
+    }
+
+
+    /**
+     * 批量拉取请求的Body中包含多个队列，每个队列单独打印自己的请求头
+     */
+    public static void printProcessRequestLive(Channel channel, RemotingCommand request,
+            PullMessageRequestHeader requestHeader, GetMessageResult getMessageResult) {
+        if (log.isInfoEnabled()) {
+            log.info("receive [{}] PullMessage request command[{}] queue[{}] and return result [{}] ",
+                RemotingHelper.parseChannelRemoteName(channel), request.getCode(), requestHeader,
+                getMessageResult);
+        }
+    }
+}
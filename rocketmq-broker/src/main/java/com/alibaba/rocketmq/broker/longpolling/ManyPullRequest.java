@@ -26,9 +26,17 @@ import java.util.List;
  * @since 2013-7-26
  */
 public class ManyPullRequest {
+    private final String topic;
+    private final int queueId;
     private final ArrayList<PullRequest> pullRequestList = new ArrayList<PullRequest>();
 
 
+    public ManyPullRequest(final String topic, final int queueId) {
+        this.topic = topic;
+        this.queueId = queueId;
+    }
+
+
     public synchronized void addPullRequest(final PullRequest pullRequest) {
         this.pullRequestList.add(pullRequest);
     }
@@ -48,4 +56,14 @@ public class ManyPullRequest {
 
         return null;
     }
+
+
+    public String getTopic() {
+        return topic;
+    }
+
+
+    public int getQueueId() {
+        return queueId;
+    }
 }
@@ -17,12 +17,12 @@ package com.alibaba.rocketmq.broker.longpolling;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.common.ConcurrentLongHashMap;
 import com.alibaba.rocketmq.common.ServiceThread;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
@@ -36,10 +36,10 @@ import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
  */
 public class PullRequestHoldService extends ServiceThread {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
-    private static final String TOPIC_QUEUEID_SEPARATOR = "@";
 
-    private ConcurrentHashMap<String/* topic@queueid */, ManyPullRequest> pullRequestTable =
-            new ConcurrentHashMap<String, ManyPullRequest>(1024);
+    // Key为topicId与queueId拼成的long，消息到达时不需要拼接字符串
+    private final ConcurrentLongHashMap<ManyPullRequest> pullRequestTable =
+            new ConcurrentLongHashMap<ManyPullRequest>(1024);
 
     private final BrokerController brokerController;
 
@@ -49,20 +49,17 @@ public class PullRequestHoldService extends ServiceThread {
     }
 
 
-    private String buildKey(final String topic, final int queueId) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(topic);
-        sb.append(TOPIC_QUEUEID_SEPARATOR);
-        sb.append(queueId);
-        return sb.toString();
+    private long buildKey(final String topic, final int queueId) {
+        final int topicId = this.brokerController.getTopicConfigManager().getTopicId(topic);
+        return ConcurrentLongHashMap.buildKey(topicId, queueId);
     }
 
 
     public void suspendPullRequest(final String topic, final int queueId, final PullRequest pullRequest) {
-        String key = this.buildKey(topic, queueId);
+        final long key = this.buildKey(topic, queueId);
         ManyPullRequest mpr = this.pullRequestTable.get(key);
         if (null == mpr) {
-            mpr = new ManyPullRequest();
+            mpr = new ManyPullRequest(topic, queueId);
             ManyPullRequest prev = this.pullRequestTable.putIfAbsent(key, mpr);
             if (prev != null) {
                 mpr = prev;
@@ -74,22 +71,23 @@ public class PullRequestHoldService extends ServiceThread {
 
 
     private void checkHoldRequest() {
-        for (String key : this.pullRequestTable.keySet()) {
-            String[] kArray = key.split(TOPIC_QUEUEID_SEPARATOR);
-            if (kArray != null && 2 == kArray.length) {
-                String topic = kArray[0];
-                int queueId = Integer.parseInt(kArray[1]);
-                final long offset =
-                        this.brokerController.getMessageStore().getMaxOffsetInQuque(topic, queueId);
-                this.notifyMessageArriving(topic, queueId, offset);
-            }
+        for (ManyPullRequest mpr : this.pullRequestTable.values()) {
+            final long offset =
+                    this.brokerController.getMessageStore().getMaxOffsetInQuque(mpr.getTopic(),
+                        mpr.getQueueId());
+            this.notifyMessageArriving(mpr.getTopic(), mpr.getQueueId(), offset);
         }
     }
 
 
     public void notifyMessageArriving(final String topic, final int queueId, final long offset) {
-        String key = this.buildKey(topic, queueId);
-        ManyPullRequest mpr = this.pullRequestTable.get(key);
+        // 消息到达时不分配id，没有分配过说明没有挂起的请求
+        final int topicId = this.brokerController.getTopicConfigManager().findTopicId(topic);
+        if (topicId < 0) {
+            return;
+        }
+
+        ManyPullRequest mpr = this.pullRequestTable.get(ConcurrentLongHashMap.buildKey(topicId, queueId));
         if (mpr != null) {
             List<PullRequest> requestList = mpr.cloneListAndClear();
             if (requestList != null) {
@@ -0,0 +1,241 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.offset;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.MapedFile;
+
+
+/**
+ * 消费进度追加日志，定时刷盘时只追加有变化的消费进度，文件过大时由ConsumerOffsetManager压缩为全量快照<br>
+ * 文件格式：Epoch(8) + N * Record<br>
+ * Record：TotalSize(4) + Magic(4) + KeyLength(2) + Key + QueueNums(4) + QueueNums * (QueueId(4) + Offset(8))
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-8
+ */
+public class ConsumerOffsetJournal {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
+    private static final int RecordMagicCode = 0xBBCCDDEE;
+    private static final int EpochSize = 8;
+    // TotalSize + Magic + KeyLength + QueueNums
+    private static final int MinRecordSize = 4 + 4 + 2 + 4;
+    // QueueId + Offset
+    private static final int QueueOffsetSize = 4 + 8;
+    private static final String CharsetName = "UTF-8";
+
+    private final String fileName;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel fileChannel;
+
+
+    public ConsumerOffsetJournal(final String fileName) {
+        this.fileName = fileName;
+    }
+
+
+    /**
+     * 打开日志文件并回放到offsetTable，日志Epoch与快照不一致时，说明快照已经包含全部数据，丢弃日志
+     *
+     * @return 回放的记录数
+     */
+    public long load(final long snapshotEpoch,
+            final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> offsetTable) throws IOException {
+        File file = new File(this.fileName);
+        File fileParent = file.getParentFile();
+        if (fileParent != null) {
+            fileParent.mkdirs();
+        }
+
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.fileChannel = this.randomAccessFile.getChannel();
+
+        final long fileSize = this.fileChannel.size();
+        if (fileSize < EpochSize) {
+            this.reset(snapshotEpoch);
+            return 0;
+        }
+
+        long records = 0;
+        int validPosition = EpochSize;
+        MappedByteBuffer mappedByteBuffer = this.fileChannel.map(MapMode.READ_ONLY, 0, fileSize);
+        try {
+            final long epoch = mappedByteBuffer.getLong();
+            if (epoch != snapshotEpoch) {
+                log.info("consumer offset journal epoch {} not match snapshot epoch {}, discard it", epoch,
+                    snapshotEpoch);
+                validPosition = -1;
+            }
+            else {
+                while (this.readRecord(mappedByteBuffer, offsetTable)) {
+                    validPosition = mappedByteBuffer.position();
+                    records++;
+                }
+            }
+        }
+        finally {
+            // 映射不释放时，部分系统上无法截断文件
+            MapedFile.clean(mappedByteBuffer);
+        }
+
+        if (validPosition < 0) {
+            this.reset(snapshotEpoch);
+            return 0;
+        }
+
+        // 截掉写了一半或者损坏的记录
+        if (validPosition < fileSize) {
+            log.warn("consumer offset journal has a broken tail, truncate from {} to {}", fileSize,
+                validPosition);
+            this.fileChannel.truncate(validPosition);
+            this.fileChannel.force(false);
+        }
+
+        this.fileChannel.position(validPosition);
+        return records;
+    }
+
+
+    /**
+     * 读取一条记录，长度、魔数与队列数不能自洽时认为日志在此处结束
+     *
+     * @return 读到完整记录返回true
+     */
+    private boolean readRecord(final ByteBuffer byteBuffer,
+            final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> offsetTable) throws IOException {
+        if (byteBuffer.remaining() < MinRecordSize) {
+            return false;
+        }
+
+        final int totalSize = byteBuffer.getInt();
+        if (totalSize < MinRecordSize || totalSize - 4 > byteBuffer.remaining()) {
+            return false;
+        }
+
+        if (byteBuffer.getInt() != RecordMagicCode) {
+            return false;
+        }
+
+        final int keyLength = byteBuffer.getShort() & 0xFFFF;
+        if (MinRecordSize + keyLength > totalSize) {
+            return false;
+        }
+
+        byte[] keyBytes = new byte[keyLength];
+        byteBuffer.get(keyBytes);
+        final int queueNums = byteBuffer.getInt();
+        if (queueNums < 0 || MinRecordSize + keyLength + (long) queueNums * QueueOffsetSize != totalSize) {
+            return false;
+        }
+
+        String key = new String(keyBytes, CharsetName);
+        ConcurrentHashMap<Integer, Long> map = offsetTable.get(key);
+        if (null == map) {
+            map = new ConcurrentHashMap<Integer, Long>(32);
+            offsetTable.put(key, map);
+        }
+
+        for (int i = 0; i < queueNums; i++) {
+            map.put(byteBuffer.getInt(), byteBuffer.getLong());
+        }
+
+        return true;
+    }
+
+
+    /**
+     * 编码一个topic@group的全部队列消费进度
+     */
+    public static void encodeRecord(final DataOutputStream out, final String key, final Map<Integer, Long> map)
+            throws IOException {
+        byte[] keyBytes = key.getBytes(CharsetName);
+        ByteArrayOutputStream queueBytes = new ByteArrayOutputStream(map.size() * QueueOffsetSize);
+        DataOutputStream queueOut = new DataOutputStream(queueBytes);
+        int queueNums = 0;
+        for (Entry<Integer, Long> entry : map.entrySet()) {
+            queueOut.writeInt(entry.getKey());
+            queueOut.writeLong(entry.getValue());
+            queueNums++;
+        }
+
+        out.writeInt(MinRecordSize + keyBytes.length + queueBytes.size());
+        out.writeInt(RecordMagicCode);
+        out.writeShort(keyBytes.length);
+        out.write(keyBytes);
+        out.writeInt(queueNums);
+        queueBytes.writeTo(out);
+    }
+
+
+    /**
+     * 追加后刷盘，定时刷盘的间隔内只调用一次，宕机后最多丢失一个刷盘周期的进度
+     */
+    public void append(final byte[] data) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(data);
+        while (byteBuffer.hasRemaining()) {
+            this.fileChannel.write(byteBuffer);
+        }
+        this.fileChannel.force(false);
+    }
+
+
+    /**
+     * 全量快照写成功后调用，清空日志并写入新的Epoch
+     */
+    public void reset(final long epoch) throws IOException {
+        this.fileChannel.truncate(0);
+        this.fileChannel.position(0);
+        ByteBuffer byteBuffer = ByteBuffer.allocate(EpochSize);
+        byteBuffer.putLong(epoch);
+        byteBuffer.flip();
+        while (byteBuffer.hasRemaining()) {
+            this.fileChannel.write(byteBuffer);
+        }
+        this.fileChannel.force(false);
+    }
+
+
+    public long getFileSize() throws IOException {
+        return this.fileChannel.size();
+    }
+
+
+    public void shutdown() {
+        try {
+            this.fileChannel.close();
+            this.randomAccessFile.close();
+        }
+        catch (IOException e) {
+            log.error("close consumer offset journal exception", e);
+        }
+    }
+}
@@ -15,19 +15,32 @@
  */
 package com.alibaba.rocketmq.broker.offset;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.common.ConcurrentLongHashMap;
 import com.alibaba.rocketmq.common.ConfigManager;
+import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
 
 
 /**
- * Consumer消费进度管理
+ * Consumer消费进度管理<br>
+ * 内存中以topicId、groupId拼成的long为Key，每个队列的进度存放在long数组中，提交进度不拼接字符串、不装箱
  * 
  * @author shijia.wxr<vintage.wang@gmail.com>
  * @since 2013-7-26
@@ -35,13 +48,29 @@ import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
 public class ConsumerOffsetManager extends ConfigManager {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
     private static final String TOPIC_GROUP_SEPARATOR = "@";
-
-    private ConcurrentHashMap<String/* topic@group */, ConcurrentHashMap<Integer, Long>> offsetTable =
-            new ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>>(512);
-
-    private transient volatile ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> offsetTableLastLast;
-    private transient volatile ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> offsetTableLast;
-    private transient BrokerController brokerController;
+    private static final String JOURNAL_FILE_SUFFIX = ".journal";
+    // 日志超过快照的这个倍数时压缩，不必等到日志达到上限，重启回放的数据量与进度表大小相当
+    private static final int CompactSnapshotMultiple = 4;
+    // 进度表很小时，日志至少达到这个大小才压缩，避免频繁写快照
+    private static final long CompactMinSize = 1024 * 1024;
+
+    private final ConcurrentLongHashMap<TopicGroupOffset> offsetTable =
+            new ConcurrentLongHashMap<TopicGroupOffset>(512);
+    // 全量快照对应的追加日志Epoch，日志Epoch不一致时不回放
+    private long journalEpoch = 0;
+    // 最近一次全量快照的大小
+    private long snapshotSize = 0;
+
+    // 上次刷盘后消费进度有变化的topic@group
+    private final ConcurrentLinkedQueue<TopicGroupOffset> dirtyOffsetQueue =
+            new ConcurrentLinkedQueue<TopicGroupOffset>();
+    private ConsumerOffsetJournal journal;
+    private BrokerController brokerController;
+
+    // Slave增量同步的纪元，进程重启后变化，Slave带来的纪元不一致时全量返回
+    private final long syncEpoch = System.currentTimeMillis();
+    // Slave增量同步的版本号，每次同步递增，提交进度时记录在TopicGroupOffset上
+    private final AtomicLong syncVersion = new AtomicLong(1);
 
 
     public ConsumerOffsetManager() {
@@ -53,100 +82,276 @@ public class ConsumerOffsetManager extends ConfigManager {
     }
 
 
-    private static ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> cloneOffsetTable(
-            final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> input) {
-        ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> out =
-                new ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>>(input.size());
+    public long computePullTPS(final String group, final String topic) {
+        TopicGroupOffset topicGroupOffset = this.findTopicGroupOffset(group, topic, false);
+        if (null == topicGroupOffset)
+            return 0;
+
+        return topicGroupOffset.pullTPS;
+    }
 
-        for (String topicgroup : input.keySet()) {
-            ConcurrentHashMap<Integer, Long> map = input.get(topicgroup);
-            if (map != null) {
-                ConcurrentHashMap<Integer, Long> mapNew = new ConcurrentHashMap<Integer, Long>(map.size());
-                for (Integer queueId : map.keySet()) {
-                    Long offset = map.get(queueId);
-                    Integer queueIdNew = new Integer(queueId.intValue());
-                    Long offsetNew = new Long(offset.longValue());
-                    mapNew.put(queueIdNew, offsetNew);
-                }
 
-                String topicgroupNew = new String(topicgroup);
-                out.put(topicgroupNew, mapNew);
+    /**
+     * 根据统计周期内消费进度前进的消息数计算TPS，不再复制整个消费进度表
+     */
+    public void recordPullTPS() {
+        final long interval = this.brokerController.getBrokerConfig().getFlushConsumerOffsetHistoryInterval();
+        for (TopicGroupOffset topicGroupOffset : this.offsetTable.values()) {
+            long tps = topicGroupOffset.pullCount.getAndSet(0) * 1000 / interval;
+            if (tps > 0 || topicGroupOffset.pullTPS > 0) {
+                log.info(topicGroupOffset.key + " pull tps, " + tps);
             }
+            topicGroupOffset.pullTPS = tps;
         }
-
-        return out;
     }
 
 
-    public long computePullTPS(final String topicgroup) {
-        ConcurrentHashMap<Integer, Long> mapLast = this.offsetTableLast.get(topicgroup);
-        ConcurrentHashMap<Integer, Long> mapLastLast = this.offsetTableLastLast.get(topicgroup);
-        long totalMsgs = 0;
-        if (mapLast != null && mapLastLast != null) {
-            for (Integer queueIdLast : mapLast.keySet()) {
-                Long offsetLast = mapLast.get(queueIdLast);
-                Long offsetLastLast = mapLastLast.get(queueIdLast);
-                if (offsetLast != null && offsetLastLast != null) {
-                    long diff = offsetLast - offsetLastLast;
-                    totalMsgs += diff;
-                }
+    private TopicGroupOffset findTopicGroupOffset(final String group, final String topic,
+            final boolean createIfAbsent) {
+        final int topicId;
+        final int groupId;
+        if (createIfAbsent) {
+            topicId = this.brokerController.getTopicConfigManager().getTopicId(topic);
+            groupId = this.brokerController.getSubscriptionGroupManager().getGroupId(group);
+        }
+        // 只查询时不分配id，没有分配过说明一定没有进度
+        else {
+            topicId = this.brokerController.getTopicConfigManager().findTopicId(topic);
+            groupId = this.brokerController.getSubscriptionGroupManager().findGroupId(group);
+            if (topicId < 0 || groupId < 0) {
+                return null;
             }
         }
 
-        if (0 == totalMsgs)
-            return 0;
-        double pullTps =
-                totalMsgs*1000 / this.brokerController.getBrokerConfig().getFlushConsumerOffsetHistoryInterval();
+        final long key = ConcurrentLongHashMap.buildKey(topicId, groupId);
+        TopicGroupOffset topicGroupOffset = this.offsetTable.get(key);
+        if (null == topicGroupOffset && createIfAbsent) {
+            // topic@group
+            topicGroupOffset = new TopicGroupOffset(topic + TOPIC_GROUP_SEPARATOR + group);
+            TopicGroupOffset prev = this.offsetTable.putIfAbsent(key, topicGroupOffset);
+            if (prev != null) {
+                topicGroupOffset = prev;
+            }
+        }
 
-        return Double.valueOf(pullTps).longValue();
+        return topicGroupOffset;
     }
 
 
-    public void recordPullTPS() {
-        ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> snapshotNow =
-                cloneOffsetTable(this.offsetTable);
-        this.offsetTableLastLast = this.offsetTableLast;
-        this.offsetTableLast = snapshotNow;
+    public void commitOffset(final String group, final String topic, final int queueId, final long offset) {
+        if (queueId < 0) {
+            log.warn("commit offset, but queueId[{}] is illegal, {}@{}", new Object[] { queueId, topic, group });
+            return;
+        }
 
-        if (this.offsetTableLast != null && this.offsetTableLastLast != null) {
-            for (String topicgroupLast : this.offsetTableLast.keySet()) {
-                long tps = this.computePullTPS(topicgroupLast);
-                log.info(topicgroupLast + " pull tps, " + tps);
+        TopicGroupOffset topicGroupOffset = this.findTopicGroupOffset(group, topic, false);
+        if (null == topicGroupOffset) {
+            // 只为存在的Topic与订阅组分配id，客户端传来的任意名字不会让id表无限增长
+            if (null == this.brokerController.getTopicConfigManager().selectTopicConfig(topic)
+                    || !this.brokerController.getSubscriptionGroupManager().getSubscriptionGroupTable()
+                        .containsKey(group)) {
+                log.warn("commit offset, but topic or group not exist, {}@{}", topic, group);
+                return;
             }
+
+            topicGroupOffset = this.findTopicGroupOffset(group, topic, true);
+        }
+
+        final long prevOffset = topicGroupOffset.putOffset(queueId, offset);
+        // 先写进度再记录版本，同步时看到版本就一定能看到进度
+        topicGroupOffset.syncVersion = this.syncVersion.get();
+        this.markDirty(topicGroupOffset);
+
+        if (prevOffset >= 0 && offset > prevOffset) {
+            topicGroupOffset.pullCount.addAndGet(offset - prevOffset);
         }
     }
 
 
-    public void commitOffset(final String group, final String topic, final int queueId, final long offset) {
-        // topic@group
-        String key = topic + TOPIC_GROUP_SEPARATOR + group;
-        this.commitOffset(key, queueId, offset);
+    private void markDirty(final TopicGroupOffset topicGroupOffset) {
+        if (!topicGroupOffset.dirty.get() && topicGroupOffset.dirty.compareAndSet(false, true)) {
+            this.dirtyOffsetQueue.offer(topicGroupOffset);
+        }
     }
 
 
     public long queryOffset(final String group, final String topic, final int queueId) {
-        // topic@group
-        String key = topic + TOPIC_GROUP_SEPARATOR + group;
-        ConcurrentHashMap<Integer, Long> map = this.offsetTable.get(key);
-        if (null != map) {
-            Long offset = map.get(queueId);
-            if (offset != null)
-                return offset;
+        TopicGroupOffset topicGroupOffset = this.findTopicGroupOffset(group, topic, false);
+        if (null != topicGroupOffset) {
+            return topicGroupOffset.getOffset(queueId);
         }
 
         return -1;
     }
 
 
-    private void commitOffset(final String key, final int queueId, final long offset) {
-        ConcurrentHashMap<Integer, Long> map = this.offsetTable.get(key);
-        if (null == map) {
-            map = new ConcurrentHashMap<Integer, Long>(32);
-            map.put(queueId, offset);
-            this.offsetTable.put(key, map);
+    /**
+     * 把topic@group为Key的进度表装载到内存，加载快照与回放日志时调用
+     *
+     * @param markDirty
+     *            是否需要在下次刷盘时写入日志
+     */
+    private void putOffsetTable(final Map<String, ConcurrentHashMap<Integer, Long>> table,
+            final boolean markDirty) {
+        for (Entry<String, ConcurrentHashMap<Integer, Long>> entry : table.entrySet()) {
+            String key = entry.getKey();
+            int index = key.indexOf(TOPIC_GROUP_SEPARATOR);
+            if (index < 0) {
+                log.warn("consumer offset key illegal, {}", key);
+                continue;
+            }
+
+            String topic = key.substring(0, index);
+            String group = key.substring(index + TOPIC_GROUP_SEPARATOR.length());
+            TopicGroupOffset topicGroupOffset = this.findTopicGroupOffset(group, topic, true);
+            for (Entry<Integer, Long> queueOffset : entry.getValue().entrySet()) {
+                if (queueOffset.getKey() >= 0) {
+                    topicGroupOffset.putOffset(queueOffset.getKey(), queueOffset.getValue());
+                }
+            }
+
+            if (markDirty) {
+                this.markDirty(topicGroupOffset);
+            }
         }
-        else {
-            map.put(queueId, offset);
+    }
+
+
+    /**
+     * Master端，返回Slave上次同步之后提交过的消费进度，纪元不一致或者检查点小于0时返回全部进度<br>
+     * 先递增版本号再遍历，遍历时并发提交的进度记录的版本不小于返回的检查点，下次同步会再次返回，重复无害
+     *
+     * @return 新的检查点，Slave下次同步时带上
+     */
+    public long buildSyncOffsetTable(final long epoch, final long checkpoint,
+            final Map<String, ConcurrentHashMap<Integer, Long>> table) {
+        final long newCheckpoint = this.syncVersion.getAndIncrement();
+        final boolean all = epoch != this.syncEpoch || checkpoint < 0;
+        for (TopicGroupOffset topicGroupOffset : this.offsetTable.values()) {
+            if (all || topicGroupOffset.syncVersion >= checkpoint) {
+                table.put(topicGroupOffset.key, topicGroupOffset.toQueueOffsetMap());
+            }
+        }
+
+        return newCheckpoint;
+    }
+
+
+    /**
+     * Slave端，应用从Master同步的消费进度，下次刷盘时追加到日志
+     */
+    public void updateOffsetTableFromMaster(final Map<String, ConcurrentHashMap<Integer, Long>> table) {
+        this.putOffsetTable(table, true);
+    }
+
+
+    /**
+     * 加载全量快照后，回放追加日志
+     */
+    @Override
+    public boolean load() {
+        boolean result = super.load();
+        if (result) {
+            this.journal = new ConsumerOffsetJournal(this.configFilePath() + JOURNAL_FILE_SUFFIX);
+            try {
+                ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> table =
+                        new ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>>(512);
+                this.snapshotSize = new File(this.configFilePath()).length();
+                long records = this.journal.load(this.journalEpoch, table);
+                this.putOffsetTable(table, false);
+                log.info("load consumer offset journal OK, {} records", records);
+            }
+            catch (IOException e) {
+                log.error("load consumer offset journal exception", e);
+                return false;
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * 只把上次刷盘后有变化的消费进度追加到日志，日志超过阈值时写全量快照并清空日志
+     */
+    @Override
+    public synchronized void persist() {
+        // 没有加载日志，例如工具中直接使用，仍然写全量快照
+        if (null == this.journal) {
+            super.persist();
+            return;
+        }
+
+        try {
+            if (this.isNeedCompact(this.journal.getFileSize())) {
+                this.compact();
+                return;
+            }
+
+            if (this.dirtyOffsetQueue.isEmpty()) {
+                return;
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(this.dirtyOffsetQueue.size() * 64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            TopicGroupOffset topicGroupOffset;
+            while ((topicGroupOffset = this.dirtyOffsetQueue.poll()) != null) {
+                // 先清除标记再读取，之后的提交会重新标记
+                topicGroupOffset.dirty.set(false);
+                ConsumerOffsetJournal.encodeRecord(out, topicGroupOffset.key,
+                    topicGroupOffset.toQueueOffsetMap());
+            }
+
+            this.journal.append(bytes.toByteArray());
+        }
+        catch (IOException e) {
+            log.error("persist consumer offset exception", e);
+        }
+    }
+
+
+    /**
+     * 日志达到上限，或者超过快照大小的若干倍时需要压缩
+     */
+    private boolean isNeedCompact(final long journalSize) {
+        if (journalSize >= this.brokerController.getBrokerConfig().getConsumerOffsetJournalMaxSize()) {
+            return true;
+        }
+
+        return journalSize >= Math.max(CompactMinSize, this.snapshotSize * CompactSnapshotMultiple);
+    }
+
+
+    /**
+     * 写全量快照，成功后清空日志，快照与日志用Epoch区分，写快照后宕机不会回放旧日志
+     */
+    private void compact() throws IOException {
+        // 先清除标记，快照包含之前的全部提交
+        TopicGroupOffset topicGroupOffset;
+        while ((topicGroupOffset = this.dirtyOffsetQueue.poll()) != null) {
+            topicGroupOffset.dirty.set(false);
+        }
+
+        this.journalEpoch++;
+        try {
+            String content = this.encode(false);
+            MixAll.string2File(content, this.configFilePath());
+            this.snapshotSize = content.length();
+        }
+        catch (IOException e) {
+            this.journalEpoch--;
+            throw e;
+        }
+
+        this.journal.reset(this.journalEpoch);
+        log.info("compact consumer offset journal OK, epoch {}", this.journalEpoch);
+    }
+
+
+    public void shutdown() {
+        this.persist();
+        if (this.journal != null) {
+            this.journal.shutdown();
         }
     }
 
@@ -157,17 +362,23 @@ public class ConsumerOffsetManager extends ConfigManager {
 
 
     public String encode(final boolean prettyFormat) {
-        return RemotingSerializable.toJson(this, prettyFormat);
+        ConsumerOffsetSerializeWrapper wrapper = new ConsumerOffsetSerializeWrapper();
+        wrapper.setOffsetTable(this.getOffsetTable());
+        wrapper.setJournalEpoch(this.journalEpoch);
+        return RemotingSerializable.toJson(wrapper, prettyFormat);
     }
 
 
     @Override
     public void decode(String jsonString) {
         if (jsonString != null) {
-            ConsumerOffsetManager obj =
-                    RemotingSerializable.fromJson(jsonString, ConsumerOffsetManager.class);
+            ConsumerOffsetSerializeWrapper obj =
+                    RemotingSerializable.fromJson(jsonString, ConsumerOffsetSerializeWrapper.class);
             if (obj != null) {
-                this.offsetTable = obj.offsetTable;
+                if (obj.getOffsetTable() != null) {
+                    this.putOffsetTable(obj.getOffsetTable(), false);
+                }
+                this.journalEpoch = obj.getJournalEpoch();
             }
         }
     }
@@ -179,12 +390,110 @@ public class ConsumerOffsetManager extends ConfigManager {
     }
 
 
+    /**
+     * 返回topic@group为Key的消费进度快照
+     */
     public ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> getOffsetTable() {
-        return offsetTable;
+        ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> table =
+                new ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>>(this.offsetTable.size());
+        for (TopicGroupOffset topicGroupOffset : this.offsetTable.values()) {
+            table.put(topicGroupOffset.key, topicGroupOffset.toQueueOffsetMap());
+        }
+
+        return table;
+    }
+
+
+    public long getJournalEpoch() {
+        return journalEpoch;
+    }
+
+
+    public long getSyncEpoch() {
+        return syncEpoch;
     }
 
+    /**
+     * 一个topic@group的全部队列消费进度，下标为queueId，没有提交过的队列为-1
+     */
+    static class TopicGroupOffset {
+        private final String key;
+        private volatile AtomicLongArray queueOffsetTable = newQueueOffsetTable(16);
+        private final AtomicBoolean dirty = new AtomicBoolean(false);
+        // 消费进度前进的消息数，统计周期结束时清零
+        private final AtomicLong pullCount = new AtomicLong(0);
+        private volatile long pullTPS = 0;
+        // 最后一次提交进度时的Slave同步版本号
+        private volatile long syncVersion = 0;
+
+
+        TopicGroupOffset(final String key) {
+            this.key = key;
+        }
+
+
+        private static AtomicLongArray newQueueOffsetTable(final int length) {
+            AtomicLongArray table = new AtomicLongArray(length);
+            for (int i = 0; i < length; i++) {
+                table.set(i, -1);
+            }
+            return table;
+        }
+
+
+        long getOffset(final int queueId) {
+            AtomicLongArray table = this.queueOffsetTable;
+            if (queueId >= 0 && queueId < table.length()) {
+                return table.get(queueId);
+            }
+
+            return -1;
+        }
+
+
+        /**
+         * 写进度加锁，避免与扩容并发时写到旧表，同一个topic@group的提交很少并发
+         *
+         * @return 之前的进度，没有则返回-1
+         */
+        synchronized long putOffset(final int queueId, final long offset) {
+            AtomicLongArray table = this.queueOffsetTable;
+            if (queueId >= table.length()) {
+                table = this.expand(queueId);
+            }
+
+            return table.getAndSet(queueId, offset);
+        }
+
+
+        private AtomicLongArray expand(final int queueId) {
+            AtomicLongArray table = this.queueOffsetTable;
+            int length = table.length();
+            while (length <= queueId) {
+                length <<= 1;
+            }
+
+            AtomicLongArray newTable = newQueueOffsetTable(length);
+            for (int i = 0; i < table.length(); i++) {
+                newTable.set(i, table.get(i));
+            }
+
+            this.queueOffsetTable = newTable;
+            return newTable;
+        }
+
 
-    public void setOffsetTable(ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> offsetTable) {
-        this.offsetTable = offsetTable;
+        ConcurrentHashMap<Integer, Long> toQueueOffsetMap() {
+            AtomicLongArray table = this.queueOffsetTable;
+            ConcurrentHashMap<Integer, Long> map = new ConcurrentHashMap<Integer, Long>(32);
+            for (int i = 0; i < table.length(); i++) {
+                long offset = table.get(i);
+                if (offset >= 0) {
+                    map.put(i, offset);
+                }
+            }
+
+            return map;
+        }
     }
 }
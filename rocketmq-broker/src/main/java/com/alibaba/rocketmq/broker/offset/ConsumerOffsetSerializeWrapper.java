@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.offset;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * 消费进度全量快照的文件格式，与内存中以int id为Key的表分开，文件格式保持不变
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-9
+ */
+public class ConsumerOffsetSerializeWrapper extends RemotingSerializable {
+    private ConcurrentHashMap<String/* topic@group */, ConcurrentHashMap<Integer, Long>> offsetTable =
+            new ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>>(512);
+    // 全量快照对应的追加日志Epoch，日志Epoch不一致时不回放
+    private long journalEpoch = 0;
+
+
+    public ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> getOffsetTable() {
+        return offsetTable;
+    }
+
+
+    public void setOffsetTable(ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> offsetTable) {
+        this.offsetTable = offsetTable;
+    }
+
+
+    public long getJournalEpoch() {
+        return journalEpoch;
+    }
+
+
+    public void setJournalEpoch(long journalEpoch) {
+        this.journalEpoch = journalEpoch;
+    }
+}
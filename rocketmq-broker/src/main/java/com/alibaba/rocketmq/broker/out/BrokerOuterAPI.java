@@ -17,15 +17,22 @@ package com.alibaba.rocketmq.broker.out;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.alibaba.rocketmq.broker.topic.TopicConfigManager;
+import com.alibaba.rocketmq.broker.topic.TopicConfigManager.EncodedTopicConfigTable;
 import com.alibaba.rocketmq.client.exception.MQBrokerException;
+import com.alibaba.rocketmq.common.DataVersion;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.namesrv.RegisterBrokerResult;
 import com.alibaba.rocketmq.common.namesrv.TopAddressing;
 import com.alibaba.rocketmq.common.protocol.MQProtos.MQRequestCode;
+import com.alibaba.rocketmq.common.protocol.body.MetadataDeltaRequestBody;
+import com.alibaba.rocketmq.common.protocol.body.MetadataDeltaResponseBody;
+import com.alibaba.rocketmq.common.protocol.body.TopicConfigDeltaWrapper;
 import com.alibaba.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
 import com.alibaba.rocketmq.common.protocol.header.namesrv.RegisterBrokerRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.namesrv.RegisterBrokerResponseHeader;
@@ -52,6 +59,9 @@ public class BrokerOuterAPI {
     private final RemotingClient remotingClient;
     private final TopAddressing topAddressing = new TopAddressing();
     private String nameSrvAddr = null;
+    // 每个Name Server上已经注册成功的Topic配置数据版本，作为增量注册的基准版本
+    private final ConcurrentHashMap<String/* namesrvAddr */, DataVersion> registeredDataVersionTable =
+            new ConcurrentHashMap<String, DataVersion>();
 
 
     public BrokerOuterAPI(final NettyClientConfig nettyClientConfig) {
@@ -108,7 +118,7 @@ public class BrokerOuterAPI {
             final String brokerName,// 3
             final long brokerId,// 4
             final String haServerAddr,// 5
-            final TopicConfigSerializeWrapper topicConfigWrapper// 6
+            final byte[] topicConfigBody// 6
     ) throws RemotingCommandException, MQBrokerException, RemotingConnectException,
             RemotingSendRequestException, RemotingTimeoutException, InterruptedException {
         RegisterBrokerRequestHeader requestHeader = new RegisterBrokerRequestHeader();
@@ -119,7 +129,7 @@ public class BrokerOuterAPI {
         requestHeader.setHaServerAddr(haServerAddr);
         RemotingCommand request =
                 RemotingCommand.createRequestCommand(MQRequestCode.REGISTER_BROKER_VALUE, requestHeader);
-        request.setBody(topicConfigWrapper.encode());
+        request.setBody(topicConfigBody);
 
         RemotingCommand response = this.remotingClient.invokeSync(namesrvAddr, request, 3000);
         assert response != null;
@@ -141,27 +151,111 @@ public class BrokerOuterAPI {
     }
 
 
+    private RegisterBrokerResult registerBrokerDelta(//
+            final String namesrvAddr,//
+            final String clusterName,// 1
+            final String brokerAddr,// 2
+            final String brokerName,// 3
+            final long brokerId,// 4
+            final String haServerAddr,// 5
+            final TopicConfigDeltaWrapper topicConfigDelta// 6
+    ) throws RemotingCommandException, MQBrokerException, RemotingConnectException,
+            RemotingSendRequestException, RemotingTimeoutException, InterruptedException {
+        RegisterBrokerRequestHeader requestHeader = new RegisterBrokerRequestHeader();
+        requestHeader.setBrokerAddr(brokerAddr);
+        requestHeader.setBrokerId(brokerId);
+        requestHeader.setBrokerName(brokerName);
+        requestHeader.setClusterName(clusterName);
+        requestHeader.setHaServerAddr(haServerAddr);
+        RemotingCommand request =
+                RemotingCommand.createRequestCommand(MQRequestCode.REGISTER_BROKER_DELTA_VALUE, requestHeader);
+        request.setBody(topicConfigDelta.encode());
+
+        RemotingCommand response = this.remotingClient.invokeSync(namesrvAddr, request, 3000);
+        assert response != null;
+        switch (response.getCode()) {
+        case ResponseCode.SUCCESS_VALUE: {
+            RegisterBrokerResponseHeader responseHeader =
+                    (RegisterBrokerResponseHeader) response
+                        .decodeCommandCustomHeader(RegisterBrokerResponseHeader.class);
+            RegisterBrokerResult result = new RegisterBrokerResult();
+            result.setMasterAddr(responseHeader.getMasterAddr());
+            result.setHaServerAddr(responseHeader.getHaServerAddr());
+            return result;
+        }
+        default:
+            break;
+        }
+
+        throw new MQBrokerException(response.getCode(), response.getRemark());
+    }
+
+
+    /**
+     * 向每个Name Server注册，已经注册过的Name Server只发送增量Topic配置，没有变化时即为心跳<br>
+     * Name Server返回版本不一致（例如Name Server重启）或者不支持增量注册时，再全量注册
+     */
     public RegisterBrokerResult registerBrokerAll(//
             final String clusterName,// 1
             final String brokerAddr,// 2
             final String brokerName,// 3
             final long brokerId,// 4
             final String haServerAddr,// 5
-            final TopicConfigSerializeWrapper topicConfigWrapper// 6
+            final TopicConfigManager topicConfigManager// 6
     ) {
         RegisterBrokerResult registerBrokerResult = null;
+        EncodedTopicConfigTable encodedTopicConfigTable = null;
 
         List<String> nameServerAddressList = this.remotingClient.getNameServerAddressList();
         if (nameServerAddressList != null) {
             for (String namesrvAddr : nameServerAddressList) {
+                // 增量注册
+                DataVersion registeredDataVersion = this.registeredDataVersionTable.get(namesrvAddr);
+                if (registeredDataVersion != null) {
+                    TopicConfigDeltaWrapper topicConfigDelta =
+                            topicConfigManager.buildTopicConfigDeltaWrapper(registeredDataVersion);
+                    if (topicConfigDelta != null) {
+                        try {
+                            RegisterBrokerResult result =
+                                    this.registerBrokerDelta(namesrvAddr, clusterName, brokerAddr, brokerName,
+                                        brokerId, haServerAddr, topicConfigDelta);
+                            if (result != null) {
+                                registerBrokerResult = result;
+                            }
+
+                            this.registeredDataVersionTable.put(namesrvAddr, topicConfigDelta.getDataVersion());
+                            log.debug("register broker delta to name server {} OK, {} updated, {} deleted",
+                                namesrvAddr, topicConfigDelta.getUpdatedTopicConfigTable().size(),
+                                topicConfigDelta.getDeletedTopicSet().size());
+                            continue;
+                        }
+                        catch (MQBrokerException e) {
+                            log.info("register broker delta to name server {} failed, {}, register all",
+                                namesrvAddr, e.getMessage());
+                        }
+                        catch (Exception e) {
+                            log.warn("registerBrokerDelta Exception, " + namesrvAddr, e);
+                            continue;
+                        }
+                    }
+                }
+
+                // 全量注册
                 try {
+                    if (null == encodedTopicConfigTable) {
+                        encodedTopicConfigTable = topicConfigManager.buildEncodedTopicConfigTable();
+                    }
+
+                    this.registeredDataVersionTable.remove(namesrvAddr);
                     RegisterBrokerResult result =
                             this.registerBroker(namesrvAddr, clusterName, brokerAddr, brokerName, brokerId,
-                                haServerAddr, topicConfigWrapper);
+                                haServerAddr, encodedTopicConfigTable.getBody());
                     if (result != null) {
                         registerBrokerResult = result;
                     }
 
+                    this.registeredDataVersionTable.put(namesrvAddr,
+                        encodedTopicConfigTable.getDataVersion());
                     log.info("register broker to name server {} OK", namesrvAddr);
                 }
                 catch (Exception e) {
@@ -214,6 +308,7 @@ public class BrokerOuterAPI {
         if (nameServerAddressList != null) {
             for (String namesrvAddr : nameServerAddressList) {
                 try {
+                    this.registeredDataVersionTable.remove(namesrvAddr);
                     this.unregisterBroker(namesrvAddr, clusterName, brokerAddr, brokerName, brokerId);
                     log.info("unregisterBroker OK, NamesrvAddr: {}", namesrvAddr);
                 }
@@ -242,4 +337,25 @@ public class BrokerOuterAPI {
 
         throw new MQBrokerException(response.getCode(), response.getRemark());
     }
+
+
+    public MetadataDeltaResponseBody getMetadataDelta(final String addr,
+            final MetadataDeltaRequestBody requestBody) throws RemotingConnectException,
+            RemotingSendRequestException, RemotingTimeoutException, InterruptedException, MQBrokerException {
+        RemotingCommand request =
+                RemotingCommand.createRequestCommand(MQRequestCode.GET_METADATA_DELTA_VALUE, null);
+        request.setBody(requestBody.encode());
+
+        RemotingCommand response = this.remotingClient.invokeSync(addr, request, 3000);
+        assert response != null;
+        switch (response.getCode()) {
+        case ResponseCode.SUCCESS_VALUE: {
+            return MetadataDeltaResponseBody.decode(response.getBody(), MetadataDeltaResponseBody.class);
+        }
+        default:
+            break;
+        }
+
+        throw new MQBrokerException(response.getCode(), response.getRemark());
+    }
 }
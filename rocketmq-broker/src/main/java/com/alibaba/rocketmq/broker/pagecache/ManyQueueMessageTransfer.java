@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.pagecache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.alibaba.rocketmq.store.GetMessageResult;
+
+import io.netty.channel.FileRegion;
+import io.netty.util.AbstractReferenceCounted;
+
+
+/**
+ * 批量拉消息应答，依次发送应答头以及每个队列的结果头和消息
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-2
+ */
+public class ManyQueueMessageTransfer extends AbstractReferenceCounted implements FileRegion {
+    private final List<ByteBuffer> byteBufferList = new ArrayList<ByteBuffer>();
+    private final List<GetMessageResult> getMessageResultList;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+    private final long count;
+    private long transfered; // the bytes which was transfered already
+
+
+    /**
+     * @param queueHeaderList
+     *            每个队列的结果头
+     * @param getMessageResultList
+     *            每个队列的消息，与queueHeaderList一一对应，没有消息的队列为null
+     */
+    public ManyQueueMessageTransfer(ByteBuffer byteBufferHeader, List<ByteBuffer> queueHeaderList,
+            List<GetMessageResult> getMessageResultList) {
+        this.getMessageResultList = getMessageResultList;
+        this.byteBufferList.add(byteBufferHeader);
+        for (int i = 0; i < queueHeaderList.size(); i++) {
+            this.byteBufferList.add(queueHeaderList.get(i));
+            GetMessageResult getMessageResult = getMessageResultList.get(i);
+            if (getMessageResult != null) {
+                this.byteBufferList.addAll(getMessageResult.getMessageBufferList());
+            }
+        }
+
+        long total = 0;
+        for (ByteBuffer bb : this.byteBufferList) {
+            total += bb.limit();
+        }
+        this.count = total;
+    }
+
+
+    @Override
+    public long position() {
+        long pos = 0;
+        for (ByteBuffer bb : this.byteBufferList) {
+            pos += bb.position();
+        }
+        return pos;
+    }
+
+
+    @Override
+    public long count() {
+        return this.count;
+    }
+
+
+    @Override
+    public long transferTo(WritableByteChannel target, long position) throws IOException {
+        for (ByteBuffer bb : this.byteBufferList) {
+            if (bb.hasRemaining()) {
+                transfered += target.write(bb);
+                return transfered;
+            }
+        }
+
+        return 0;
+    }
+
+
+    public void close() {
+        this.deallocate();
+    }
+
+
+    @Override
+    protected void deallocate() {
+        // 写完成回调与引用计数归零都会调用，保证只释放一次
+        if (this.released.compareAndSet(false, true)) {
+            for (GetMessageResult getMessageResult : this.getMessageResultList) {
+                if (getMessageResult != null) {
+                    getMessageResult.release();
+                }
+            }
+        }
+    }
+
+
+    @Override
+    public long transfered() {
+        return transfered;
+    }
+}
@@ -23,14 +23,22 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.broker.offset.ConsumerOffsetManager;
+import com.alibaba.rocketmq.broker.subscription.SubscriptionGroupManager;
+import com.alibaba.rocketmq.common.MQVersion;
 import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.TopicConfig;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.message.MessageQueue;
 import com.alibaba.rocketmq.common.protocol.MQProtos.MQRequestCode;
 import com.alibaba.rocketmq.common.protocol.MQProtos.MQResponseCode;
+import com.alibaba.rocketmq.common.protocol.body.KVTable;
+import com.alibaba.rocketmq.common.protocol.body.LockBatchMultiGroupRequestBody;
+import com.alibaba.rocketmq.common.protocol.body.LockBatchMultiGroupResponseBody;
 import com.alibaba.rocketmq.common.protocol.body.LockBatchRequestBody;
 import com.alibaba.rocketmq.common.protocol.body.LockBatchResponseBody;
+import com.alibaba.rocketmq.common.protocol.body.MetadataDeltaRequestBody;
+import com.alibaba.rocketmq.common.protocol.body.MetadataDeltaResponseBody;
 import com.alibaba.rocketmq.common.protocol.body.UnlockBatchRequestBody;
 import com.alibaba.rocketmq.common.protocol.header.*;
 import com.alibaba.rocketmq.common.subscription.SubscriptionGroupConfig;
@@ -100,11 +108,13 @@ public class AdminBrokerProcessor implements NettyRequestProcessor {
 
             // 获取Broker运行时信息
         case GET_BROKER_RUNTIME_INFO:
-            break;
+            return this.getBrokerRuntimeInfo(ctx, request);
 
         // 锁队列与解锁队列
         case LOCK_BATCH_MQ:
             return this.lockBatchMQ(ctx, request);
+        case LOCK_BATCH_MQ_MULTI_GROUP:
+            return this.lockBatchMQMultiGroup(ctx, request);
         case UNLOCK_BATCH_MQ:
             return this.unlockBatchMQ(ctx, request);
             // 订阅组配置
@@ -112,6 +122,9 @@ public class AdminBrokerProcessor implements NettyRequestProcessor {
             return this.updateAndCreateSubscriptionGroup(ctx, request);
         case GET_ALL_SUBSCRIPTIONGROUP_CONFIG:
             return this.getAllSubscriptionGroup(ctx, request);
+            // Slave增量同步元数据
+        case GET_METADATA_DELTA:
+            return this.getMetadataDelta(ctx, request);
         default:
             break;
         }
@@ -190,6 +203,57 @@ public class AdminBrokerProcessor implements NettyRequestProcessor {
     }
 
 
+    private RemotingCommand lockBatchMQMultiGroup(ChannelHandlerContext ctx, RemotingCommand request)
+            throws RemotingCommandException {
+        final RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        LockBatchMultiGroupRequestBody requestBody =
+                LockBatchMultiGroupRequestBody.decode(request.getBody(), LockBatchMultiGroupRequestBody.class);
+
+        LockBatchMultiGroupResponseBody responseBody = new LockBatchMultiGroupResponseBody();
+        responseBody.setLockOKMQTable(this.brokerController.getRebalanceLockManager().tryLockBatchMultiGroup(//
+            requestBody.getGroupMQTable(),//
+            requestBody.getClientId()));
+        responseBody.setLeaseMillis(this.brokerController.getRebalanceLockManager().getLeaseMillis());
+
+        response.setBody(responseBody.encode());
+        response.setCode(ResponseCode.SUCCESS_VALUE);
+        response.setRemark(null);
+        return response;
+    }
+
+
+    /**
+     * 返回Slave当前版本之后的Topic配置变更、订阅组以及上次同步之后提交过的消费进度
+     */
+    private RemotingCommand getMetadataDelta(ChannelHandlerContext ctx, RemotingCommand request)
+            throws RemotingCommandException {
+        final RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        MetadataDeltaRequestBody requestBody =
+                MetadataDeltaRequestBody.decode(request.getBody(), MetadataDeltaRequestBody.class);
+
+        MetadataDeltaResponseBody responseBody = new MetadataDeltaResponseBody();
+        responseBody.setTopicConfigDelta(this.brokerController.getTopicConfigManager()
+            .buildTopicConfigDeltaWrapper(requestBody.getTopicDataVersion()));
+
+        SubscriptionGroupManager subscriptionGroupManager = this.brokerController.getSubscriptionGroupManager();
+        if (!subscriptionGroupManager.getDataVersion().equals(requestBody.getSubscriptionGroupDataVersion())) {
+            responseBody.setSubscriptionGroupWrapper(subscriptionGroupManager.buildSubscriptionGroupWrapper());
+        }
+
+        ConsumerOffsetManager consumerOffsetManager = this.brokerController.getConsumerOffsetManager();
+        responseBody.setOffsetSyncEpoch(consumerOffsetManager.getSyncEpoch());
+        responseBody.setOffsetCheckpoint(consumerOffsetManager.buildSyncOffsetTable(//
+            requestBody.getOffsetSyncEpoch(),//
+            requestBody.getOffsetCheckpoint(),//
+            responseBody.getOffsetTable()));
+
+        response.setBody(responseBody.encode());
+        response.setCode(ResponseCode.SUCCESS_VALUE);
+        response.setRemark(null);
+        return response;
+    }
+
+
     private RemotingCommand unlockBatchMQ(ChannelHandlerContext ctx, RemotingCommand request)
             throws RemotingCommandException {
         final RemotingCommand response = RemotingCommand.createResponseCommand(null);
@@ -346,6 +410,11 @@ public class AdminBrokerProcessor implements NettyRequestProcessor {
     private RemotingCommand getBrokerRuntimeInfo(ChannelHandlerContext ctx, RemotingCommand request) {
         final RemotingCommand response = RemotingCommand.createResponseCommand(null);
 
+        KVTable kvTable = new KVTable();
+        kvTable.setTable(this.brokerController.getMessageStore().getRuntimeInfo());
+        kvTable.getTable().put("brokerVersion", String.valueOf(MQVersion.CurrentVersion));
+        response.setBody(kvTable.encode());
+
         response.setCode(ResponseCode.SUCCESS_VALUE);
         response.setRemark(null);
         return response;
@@ -15,7 +15,9 @@
  */
 package com.alibaba.rocketmq.broker.processor;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,6 +27,7 @@ import com.alibaba.rocketmq.broker.client.ClientChannelInfo;
 import com.alibaba.rocketmq.broker.client.ConsumerGroupInfo;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.protocol.MQProtos.MQRequestCode;
+import com.alibaba.rocketmq.common.protocol.MQProtos.MQResponseCode;
 import com.alibaba.rocketmq.common.protocol.header.*;
 import com.alibaba.rocketmq.common.protocol.heartbeat.ConsumerData;
 import com.alibaba.rocketmq.common.protocol.heartbeat.HeartbeatData;
@@ -61,6 +64,8 @@ public class ClientManageProcessor implements NettyRequestProcessor {
         switch (code) {
         case HEART_BEAT:
             return this.heartBeat(ctx, request);
+        case HEART_BEAT_LITE:
+            return this.heartBeatLite(ctx, request);
         case UNREGISTER_CLIENT:
             return this.unregisterClient(ctx, request);
         case GET_CONSUMER_LIST_BY_GROUP:
@@ -124,6 +129,9 @@ public class ClientManageProcessor implements NettyRequestProcessor {
             request.getVersion()//
                 );
 
+        this.brokerController.getClientHeartbeatManager().doChannelCloseEvent(
+            RemotingHelper.parseChannelRemoteAddr(ctx.channel()), ctx.channel());
+
         // 注销Producer
         final String producerGroup = requestHeader.getProducerGroup();
         if (producerGroup != null) {
@@ -147,12 +155,22 @@ public class ClientManageProcessor implements NettyRequestProcessor {
 
         HeartbeatData heartbeatData = HeartbeatData.decode(request.getBody(), HeartbeatData.class);
 
-        ClientChannelInfo clientChannelInfo = new ClientChannelInfo(//
-            ctx.channel(),//
-            heartbeatData.getClientID(),//
-            request.getLanguage(),//
-            request.getVersion()//
-                );
+        Set<String> consumerGroups = new HashSet<String>();
+        for (ConsumerData data : heartbeatData.getConsumerDataSet()) {
+            consumerGroups.add(data.getGroupName());
+        }
+
+        // 同一个连接复用同一个对象，简化心跳只需要刷新它的时间戳
+        ClientChannelInfo clientChannelInfo =
+                this.brokerController.getClientHeartbeatManager().registerHeartbeat(//
+                    new ClientChannelInfo(//
+                        ctx.channel(),//
+                        heartbeatData.getClientID(),//
+                        request.getLanguage(),//
+                        request.getVersion()//
+                    ),//
+                    heartbeatData.getFingerprint(),//
+                    consumerGroups);
 
         // 注册Consumer
         for (ConsumerData data : heartbeatData.getConsumerDataSet()) {
@@ -182,4 +200,29 @@ public class ClientManageProcessor implements NettyRequestProcessor {
         response.setRemark(null);
         return response;
     }
+
+
+    /**
+     * 简化心跳，只携带上次全量心跳的指纹
+     */
+    public RemotingCommand heartBeatLite(ChannelHandlerContext ctx, RemotingCommand request)
+            throws RemotingCommandException {
+        final RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        final HeartbeatLiteRequestHeader requestHeader =
+                (HeartbeatLiteRequestHeader) request.decodeCommandCustomHeader(HeartbeatLiteRequestHeader.class);
+
+        boolean refreshed = this.brokerController.getClientHeartbeatManager().refreshHeartbeat(//
+            ctx.channel(),//
+            requestHeader.getClientID(),//
+            requestHeader.getFingerprint());
+        if (!refreshed) {
+            response.setCode(MQResponseCode.HEARTBEAT_FINGERPRINT_NOT_MATCH_VALUE);
+            response.setRemark("heartbeat fingerprint not match, send full heartbeat please");
+            return response;
+        }
+
+        response.setCode(ResponseCode.SUCCESS_VALUE);
+        response.setRemark(null);
+        return response;
+    }
 }
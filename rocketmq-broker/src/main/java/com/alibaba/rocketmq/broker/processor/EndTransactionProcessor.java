@@ -15,6 +15,10 @@
  */
 package com.alibaba.rocketmq.broker.processor;
 
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,6 +39,8 @@ import com.alibaba.rocketmq.remoting.protocol.RemotingProtos.ResponseCode;
 import com.alibaba.rocketmq.store.MessageExtBrokerInner;
 import com.alibaba.rocketmq.store.MessageStore;
 import com.alibaba.rocketmq.store.PutMessageResult;
+import com.alibaba.rocketmq.store.RawMessageInner;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
 import io.netty.channel.ChannelHandlerContext;
 
 
@@ -55,30 +61,57 @@ public class EndTransactionProcessor implements NettyRequestProcessor {
     }
 
 
-    private MessageExtBrokerInner endMessageTransaction(MessageExt msgExt) {
+    /**
+     * 不解码消息，直接拷贝Prepared消息的存储格式，改写事务状态<br>
+     * 回滚消息不会被消费，只写入消息头与属性，不拷贝消息体
+     */
+    private RawMessageInner endMessageTransaction(final ByteBuffer byteBuffer,
+            final Map<String, String> properties, final EndTransactionRequestHeader requestHeader) {
+        final int begin = byteBuffer.position();
+        final int sysFlag =
+                MessageSysFlag.resetTransactionValue(
+                    byteBuffer.getInt(begin + MessageDecoder.MessageSysFlagPostion),
+                    requestHeader.getCommitOrRollback());
+        properties.remove(Message.PROPERTY_DELAY_TIME_LEVEL);
+
+        return RawMessageInner.build(byteBuffer,//
+            RawMessageInner.readTopic(byteBuffer),//
+            byteBuffer.getInt(begin + MessageDecoder.MessageQueueIdPostion),//
+            sysFlag,//
+            requestHeader.getTranStateTableOffset(),//
+            requestHeader.getCommitLogOffset(),//
+            properties,//
+            MessageSysFlag.TransactionCommitType == requestHeader.getCommitOrRollback());
+    }
+
+    /**
+     * 指定了投递时间的消息提交时需要挂到时间轮上，解码后走putMessage，与普通发送的定时消息一致
+     */
+    private MessageExtBrokerInner endMessageTransaction(final MessageExt msgExt,
+            final EndTransactionRequestHeader requestHeader) {
         MessageExtBrokerInner msgInner = new MessageExtBrokerInner();
         msgInner.setBody(msgExt.getBody());
         msgInner.setFlag(msgExt.getFlag());
         msgInner.setProperties(msgExt.getProperties());
+        msgInner.clearProperty(Message.PROPERTY_DELAY_TIME_LEVEL);
 
-        TopicFilterType topicFilterType =
-                (msgInner.getSysFlag() & MessageSysFlag.MultiTagsFlag) == MessageSysFlag.MultiTagsFlag ? TopicFilterType.MULTI_TAG
-                        : TopicFilterType.SINGLE_TAG;
+        TopicFilterType topicFilterType = MessageExt.parseTopicFilterType(msgExt.getSysFlag());
         long tagsCodeValue = MessageExtBrokerInner.tagsString2tagsCode(topicFilterType, msgInner.getTags());
         msgInner.setTagsCode(tagsCodeValue);
-        msgInner.setPropertiesString(MessageDecoder.messageProperties2String(msgExt.getProperties()));
+        msgInner.setPropertiesString(MessageDecoder.messageProperties2String(msgInner.getProperties()));
 
-        msgInner.setSysFlag(msgExt.getSysFlag());
+        msgInner.setSysFlag(MessageSysFlag.resetTransactionValue(msgExt.getSysFlag(),
+            requestHeader.getCommitOrRollback()));
         msgInner.setBornTimestamp(msgExt.getBornTimestamp());
         msgInner.setBornHost(msgExt.getBornHost());
         msgInner.setStoreHost(msgExt.getStoreHost());
         msgInner.setReconsumeTimes(msgExt.getReconsumeTimes());
-
         msgInner.setWaitStoreMsgOK(false);
-        msgInner.clearProperty(Message.PROPERTY_DELAY_TIME_LEVEL);
 
         msgInner.setTopic(msgExt.getTopic());
         msgInner.setQueueId(msgExt.getQueueId());
+        msgInner.setQueueOffset(requestHeader.getTranStateTableOffset());
+        msgInner.setPreparedTransactionOffset(requestHeader.getCommitLogOffset());
 
         return msgInner;
     }
@@ -163,45 +196,68 @@ public class EndTransactionProcessor implements NettyRequestProcessor {
             }
         }
 
-        final MessageExt msgExt =
-                this.brokerController.getMessageStore().lookMessageByOffset(
-                    requestHeader.getCommitLogOffset());
-        if (msgExt != null) {
-            // 校验Producer Group
-            final String pgroupRead = msgExt.getProperty(Message.PROPERTY_PRODUCER_GROUP);
-            if (!pgroupRead.equals(requestHeader.getProducerGroup())) {
-                response.setCode(ResponseCode.SYSTEM_ERROR_VALUE);
-                response.setRemark("the producer group wrong");
-                return response;
-            }
+        final MessageStore messageStore = this.brokerController.getMessageStore();
+        final SelectMapedBufferResult selectMapedBufferResult =
+                messageStore.selectOneMessageByOffset(requestHeader.getCommitLogOffset());
+        if (selectMapedBufferResult != null) {
+            RawMessageInner msgInner = null;
+            MessageExtBrokerInner timerMsgInner = null;
+            try {
+                final ByteBuffer byteBuffer = selectMapedBufferResult.getByteBuffer();
+                final int begin = byteBuffer.position();
+                final Map<String, String> properties = RawMessageInner.readProperties(byteBuffer);
+                if (null == properties) {
+                    response.setCode(MQResponseCode.MESSAGE_ILLEGAL_VALUE);
+                    response.setRemark("the prepared message is illegal");
+                    return response;
+                }
 
-            // 校验Transaction State Table Offset
-            if (msgExt.getQueueOffset() != requestHeader.getTranStateTableOffset()) {
-                response.setCode(ResponseCode.SYSTEM_ERROR_VALUE);
-                response.setRemark("the transaction state table offset wrong");
-                return response;
-            }
+                // 校验Producer Group
+                final String pgroupRead = properties.get(Message.PROPERTY_PRODUCER_GROUP);
+                if (!requestHeader.getProducerGroup().equals(pgroupRead)) {
+                    response.setCode(ResponseCode.SYSTEM_ERROR_VALUE);
+                    response.setRemark("the producer group wrong");
+                    return response;
+                }
 
-            // 校验Commit Log Offset
-            if (msgExt.getCommitLogOffset() != requestHeader.getCommitLogOffset()) {
-                response.setCode(ResponseCode.SYSTEM_ERROR_VALUE);
-                response.setRemark("the commit log offset wrong");
-                return response;
-            }
+                // 校验Transaction State Table Offset
+                if (byteBuffer.getLong(begin + MessageDecoder.MessageQueueOffsetPostion) != requestHeader
+                    .getTranStateTableOffset()) {
+                    response.setCode(ResponseCode.SYSTEM_ERROR_VALUE);
+                    response.setRemark("the transaction state table offset wrong");
+                    return response;
+                }
 
-            MessageExtBrokerInner msgInner = this.endMessageTransaction(msgExt);
-            msgInner.setSysFlag(MessageSysFlag.resetTransactionValue(msgInner.getSysFlag(),
-                requestHeader.getCommitOrRollback()));
+                // 校验Commit Log Offset
+                if (byteBuffer.getLong(begin + MessageDecoder.MessagePhysicOffsetPostion) != requestHeader
+                    .getCommitLogOffset()) {
+                    response.setCode(ResponseCode.SYSTEM_ERROR_VALUE);
+                    response.setRemark("the commit log offset wrong");
+                    return response;
+                }
 
-            msgInner.setQueueOffset(requestHeader.getTranStateTableOffset());
-            msgInner.setPreparedTransactionOffset(requestHeader.getCommitLogOffset());
-            msgInner.setStoreTimestamp(msgExt.getStoreTimestamp());
-            if (MessageSysFlag.TransactionRollbackType == requestHeader.getCommitOrRollback()) {
-                msgInner.setBody(null);
+                // 定时消息提交时不能直接拷贝，否则会绕过时间轮立即投递
+                if (MessageSysFlag.TransactionCommitType == requestHeader.getCommitOrRollback()
+                        && properties.containsKey(Message.PROPERTY_START_DELIVER_TIME)) {
+                    final MessageExt msgExt = MessageDecoder.decode(byteBuffer.duplicate());
+                    if (null == msgExt) {
+                        response.setCode(MQResponseCode.MESSAGE_ILLEGAL_VALUE);
+                        response.setRemark("the prepared message is illegal");
+                        return response;
+                    }
+                    timerMsgInner = this.endMessageTransaction(msgExt, requestHeader);
+                }
+                else {
+                    msgInner = this.endMessageTransaction(byteBuffer, properties, requestHeader);
+                }
+            }
+            finally {
+                selectMapedBufferResult.release();
             }
 
-            final MessageStore messageStore = this.brokerController.getMessageStore();
-            final PutMessageResult putMessageResult = messageStore.putMessage(msgInner);
+            final PutMessageResult putMessageResult =
+                    null != timerMsgInner ? messageStore.putMessage(timerMsgInner) : messageStore
+                        .putRawMessages(Collections.singletonList(msgInner));
             if (putMessageResult != null) {
                 switch (putMessageResult.getPutMessageStatus()) {
                 // Success
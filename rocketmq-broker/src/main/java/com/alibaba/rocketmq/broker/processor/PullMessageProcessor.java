@@ -15,20 +15,26 @@
  */
 package com.alibaba.rocketmq.broker.processor;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alibaba.rocketmq.broker.BrokerController;
 import com.alibaba.rocketmq.broker.client.ConsumerGroupInfo;
-import com.alibaba.rocketmq.broker.digestlog.PullmsgLiveMoniter;
 import com.alibaba.rocketmq.broker.longpolling.PullRequest;
 import com.alibaba.rocketmq.broker.pagecache.ManyMessageTransfer;
+import com.alibaba.rocketmq.broker.pagecache.ManyQueueMessageTransfer;
 import com.alibaba.rocketmq.common.TopicConfig;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.constant.PermName;
 import com.alibaba.rocketmq.common.filter.FilterAPI;
 import com.alibaba.rocketmq.common.help.FAQUrl;
+import com.alibaba.rocketmq.common.protocol.MQProtos.MQRequestCode;
 import com.alibaba.rocketmq.common.protocol.MQProtos.MQResponseCode;
+import com.alibaba.rocketmq.common.protocol.body.PullMessageBatchRequestBody;
 import com.alibaba.rocketmq.common.protocol.header.PullMessageRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.PullMessageResponseHeader;
 import com.alibaba.rocketmq.common.protocol.heartbeat.MessageModel;
@@ -113,9 +119,11 @@ public class PullMessageProcessor implements NettyRequestProcessor {
 
     private RemotingCommand processRequest(final Channel channel, RemotingCommand request,
             boolean brokerAllowSuspend) throws RemotingCommandException {
+        if (MQRequestCode.PULL_MESSAGE_BATCH_VALUE == request.getCode()) {
+            return this.processBatchRequest(channel, request);
+        }
+
         RemotingCommand response = RemotingCommand.createResponseCommand(PullMessageResponseHeader.class);
-        final PullMessageResponseHeader responseHeader =
-                (PullMessageResponseHeader) response.getCustomHeader();
         final PullMessageRequestHeader requestHeader =
                 (PullMessageRequestHeader) request.decodeCommandCustomHeader(PullMessageRequestHeader.class);
 
@@ -134,6 +142,177 @@ public class PullMessageProcessor implements NettyRequestProcessor {
             return response;
         }
 
+        final GetMessageResult getMessageResult =
+                this.pullMessageFromStore(channel, request, requestHeader, response);
+        if (null == getMessageResult) {
+            return response;
+        }
+
+        final boolean hasSuspendFlag = PullSysFlag.hasSuspendFlag(requestHeader.getSysFlag());
+        final boolean hasCommitOffsetFlag = PullSysFlag.hasCommitOffsetFlag(requestHeader.getSysFlag());
+        final long suspendTimeoutMillisLong = hasSuspendFlag ? requestHeader.getSuspendTimeoutMillis() : 0;
+
+        switch (response.getCode()) {
+        case ResponseCode.SUCCESS_VALUE:
+            try {
+                FileRegion fileRegion =
+                        new ManyMessageTransfer(response.encodeHeader(getMessageResult.getBufferTotalSize()),
+                            getMessageResult);
+                channel.writeAndFlush(fileRegion).addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        getMessageResult.release();
+                        if (!future.isSuccess()) {
+                            log.error("transfer many message by pagecache failed, " + channel.remoteAddress(),
+                                future.cause());
+                        }
+                    }
+                });
+            }
+            catch (Throwable e) {
+                log.error("", e);
+                getMessageResult.release();
+            }
+
+            response = null;
+            break;
+        case MQResponseCode.PULL_NOT_FOUND_VALUE:
+            // 长轮询
+            if (brokerAllowSuspend && hasSuspendFlag) {
+                PullRequest pullRequest =
+                        new PullRequest(request, channel, suspendTimeoutMillisLong, this.brokerController
+                            .getMessageStore().now(), requestHeader.getQueueOffset());
+                this.brokerController.getPullRequestHoldService().suspendPullRequest(requestHeader.getTopic(),
+                    requestHeader.getQueueId(), pullRequest);
+                response = null;
+                break;
+            }
+
+            // 向Consumer返回应答
+        case MQResponseCode.PULL_RETRY_IMMEDIATELY_VALUE:
+        case MQResponseCode.PULL_OFFSET_MOVED_VALUE:
+            break;
+        default:
+            assert false;
+        }
+
+        // 存储Consumer消费进度
+        if (brokerAllowSuspend) { // 说明是首次调用，相对于长轮询通知
+            if (hasCommitOffsetFlag) {
+                this.brokerController.getConsumerOffsetManager().commitOffset(
+                    requestHeader.getConsumerGroup(), requestHeader.getTopic(), requestHeader.getQueueId(),
+                    requestHeader.getCommitOffset());
+            }
+        }
+
+        return response;
+    }
+
+
+    /**
+     * 一次请求拉取多个队列的消息，不做长轮询，没有消息的队列直接返回PULL_NOT_FOUND，由Consumer单独发起长轮询
+     */
+    private RemotingCommand processBatchRequest(final Channel channel, final RemotingCommand request)
+            throws RemotingCommandException {
+        RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        response.setOpaque(request.getOpaque());
+
+        // 检查Broker权限
+        if (!PermName.isReadable(this.brokerController.getBrokerConfig().getBrokerPermission())) {
+            response.setCode(MQResponseCode.NO_PERMISSION_VALUE);
+            response.setRemark("the broker[" + this.brokerController.getBrokerConfig().getBrokerIP1()
+                    + "] pulling message is forbidden");
+            return response;
+        }
+
+        if (null == request.getBody()) {
+            response.setCode(ResponseCode.SYSTEM_ERROR_VALUE);
+            response.setRemark("the pull batch request body is null");
+            return response;
+        }
+
+        final PullMessageBatchRequestBody requestBody =
+                PullMessageBatchRequestBody.decode(request.getBody(), PullMessageBatchRequestBody.class);
+
+        final List<ByteBuffer> queueHeaderList = new ArrayList<ByteBuffer>();
+        final List<GetMessageResult> getMessageResultList = new ArrayList<GetMessageResult>();
+        int bodyLength = 0;
+        for (PullMessageRequestHeader requestHeader : requestBody.getPullRequestList()) {
+            RemotingCommand queueResponse =
+                    RemotingCommand.createResponseCommand(PullMessageResponseHeader.class);
+            GetMessageResult getMessageResult =
+                    this.pullMessageFromStore(channel, request, requestHeader, queueResponse);
+
+            // 没有找到消息的队列，提前释放映射内存
+            if (getMessageResult != null && queueResponse.getCode() != ResponseCode.SUCCESS_VALUE) {
+                getMessageResult.release();
+                getMessageResult = null;
+            }
+
+            final PullMessageResponseHeader queueResponseHeader =
+                    (PullMessageResponseHeader) queueResponse.getCustomHeader();
+            final int bodySize = getMessageResult != null ? getMessageResult.getBufferTotalSize() : 0;
+            ByteBuffer queueHeader = ByteBuffer.allocate(PullMessageBatchRequestBody.QueueResultHeaderSize);
+            queueHeader.putInt(queueResponse.getCode());
+            queueHeader.putLong(nullToZero(queueResponseHeader.getNextBeginOffset()));
+            queueHeader.putLong(nullToZero(queueResponseHeader.getMinOffset()));
+            queueHeader.putLong(nullToZero(queueResponseHeader.getMaxOffset()));
+            queueHeader.putLong(nullToZero(queueResponseHeader.getSuggestWhichBrokerId()));
+            queueHeader.putInt(bodySize);
+            queueHeader.flip();
+
+            queueHeaderList.add(queueHeader);
+            getMessageResultList.add(getMessageResult);
+            bodyLength += PullMessageBatchRequestBody.QueueResultHeaderSize + bodySize;
+
+            // 存储Consumer消费进度
+            if (getMessageResult != null && PullSysFlag.hasCommitOffsetFlag(requestHeader.getSysFlag())) {
+                this.brokerController.getConsumerOffsetManager().commitOffset(
+                    requestHeader.getConsumerGroup(), requestHeader.getTopic(), requestHeader.getQueueId(),
+                    requestHeader.getCommitOffset());
+            }
+        }
+
+        response.setCode(ResponseCode.SUCCESS_VALUE);
+        final ManyQueueMessageTransfer fileRegion =
+                new ManyQueueMessageTransfer(response.encodeHeader(bodyLength), queueHeaderList,
+                    getMessageResultList);
+        try {
+            channel.writeAndFlush(fileRegion).addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    fileRegion.close();
+                    if (!future.isSuccess()) {
+                        log.error("transfer many queue message by pagecache failed, " + channel.remoteAddress(),
+                            future.cause());
+                    }
+                }
+            });
+        }
+        catch (Throwable e) {
+            log.error("", e);
+            fileRegion.close();
+        }
+
+        return null;
+    }
+
+
+    private static long nullToZero(final Long value) {
+        return value != null ? value : 0;
+    }
+
+
+    /**
+     * 检查拉消息请求并从存储层读取单个队列的消息，应答码与应答头设置到response中
+     * 
+     * @return 请求不合法或者存储层异常时返回null
+     */
+    private GetMessageResult pullMessageFromStore(final Channel channel, final RemotingCommand request,
+            final PullMessageRequestHeader requestHeader, final RemotingCommand response) {
+        final PullMessageResponseHeader responseHeader =
+                (PullMessageResponseHeader) response.getCustomHeader();
+
         // 确保订阅组存在
         SubscriptionGroupConfig subscriptionGroupConfig =
                 this.brokerController.getSubscriptionGroupManager().findSubscriptionGroupConfig(
@@ -142,22 +321,18 @@ public class PullMessageProcessor implements NettyRequestProcessor {
             response.setCode(MQResponseCode.SUBSCRIPTION_GROUP_NOT_EXIST_VALUE);
             response.setRemark("subscription group not exist, " + requestHeader.getConsumerGroup() + " "
                     + FAQUrl.suggestTodo(FAQUrl.SUBSCRIPTION_GROUP_NOT_EXIST));
-            return response;
+            return null;
         }
 
         // 这个订阅组是否可以消费消息
         if (!subscriptionGroupConfig.isConsumeEnable()) {
             response.setCode(MQResponseCode.NO_PERMISSION_VALUE);
             response.setRemark("subscription group no permission, " + requestHeader.getConsumerGroup());
-            return response;
+            return null;
         }
 
-        final boolean hasSuspendFlag = PullSysFlag.hasSuspendFlag(requestHeader.getSysFlag());
-        final boolean hasCommitOffsetFlag = PullSysFlag.hasCommitOffsetFlag(requestHeader.getSysFlag());
         final boolean hasSubscriptionFlag = PullSysFlag.hasSubscriptionFlag(requestHeader.getSysFlag());
 
-        final long suspendTimeoutMillisLong = hasSuspendFlag ? requestHeader.getSuspendTimeoutMillis() : 0;
-
         // 检查topic是否存在
         TopicConfig topicConfig =
                 this.brokerController.getTopicConfigManager().selectTopicConfig(requestHeader.getTopic());
@@ -167,14 +342,14 @@ public class PullMessageProcessor implements NettyRequestProcessor {
             response.setCode(MQResponseCode.TOPIC_NOT_EXIST_VALUE);
             response.setRemark("topic[" + requestHeader.getTopic() + "] not exist, apply first please!"
                     + FAQUrl.suggestTodo(FAQUrl.APPLY_TOPIC_URL));
-            return response;
+            return null;
         }
 
         // 检查topic权限
         if (!PermName.isReadable(topicConfig.getPerm())) {
             response.setCode(MQResponseCode.NO_PERMISSION_VALUE);
             response.setRemark("the topic[" + requestHeader.getTopic() + "] pulling message is forbidden");
-            return response;
+            return null;
         }
 
         // 检查队列有效性
@@ -186,7 +361,7 @@ public class PullMessageProcessor implements NettyRequestProcessor {
             log.warn(errorInfo);
             response.setCode(ResponseCode.SYSTEM_ERROR_VALUE);
             response.setRemark(errorInfo);
-            return response;
+            return null;
         }
 
         // 订阅关系处理
@@ -203,7 +378,7 @@ public class PullMessageProcessor implements NettyRequestProcessor {
                     requestHeader.getConsumerGroup());
                 response.setCode(MQResponseCode.SUBSCRIPTION_PARSE_FAILED_VALUE);
                 response.setRemark("parse the consumer's subscription failed");
-                return response;
+                return null;
             }
         }
         else {
@@ -214,7 +389,7 @@ public class PullMessageProcessor implements NettyRequestProcessor {
                 log.warn("the consumer's group info not exist, group: {}", requestHeader.getConsumerGroup());
                 response.setCode(MQResponseCode.SUBSCRIPTION_NOT_EXIST_VALUE);
                 response.setRemark("the consumer's group info not exist");
-                return response;
+                return null;
             }
 
             switch (consumerGroupInfo.getConsumeFromWhere()) {
@@ -227,7 +402,7 @@ public class PullMessageProcessor implements NettyRequestProcessor {
                     response.setCode(MQResponseCode.NO_PERMISSION_VALUE);
                     response.setRemark("the consumer group[" + requestHeader.getConsumerGroup()
                             + "] can not consume from min");
-                    return response;
+                    return null;
                 }
                 break;
             default:
@@ -239,7 +414,7 @@ public class PullMessageProcessor implements NettyRequestProcessor {
                 response.setCode(MQResponseCode.NO_PERMISSION_VALUE);
                 response.setRemark("the consumer group[" + requestHeader.getConsumerGroup()
                         + "] can not consume by broadcast way");
-                return response;
+                return null;
             }
 
             subscriptionData = consumerGroupInfo.findSubscriptionData(requestHeader.getTopic());
@@ -247,7 +422,7 @@ public class PullMessageProcessor implements NettyRequestProcessor {
                 log.warn("the consumer's subscription not exist, group: {}", requestHeader.getConsumerGroup());
                 response.setCode(MQResponseCode.SUBSCRIPTION_NOT_EXIST_VALUE);
                 response.setRemark("the consumer's subscription not exist");
-                return response;
+                return null;
             }
 
             // 判断Broker的订阅关系版本是否最新
@@ -256,19 +431,20 @@ public class PullMessageProcessor implements NettyRequestProcessor {
                     requestHeader.getConsumerGroup(), subscriptionData.getSubString());
                 response.setCode(MQResponseCode.SUBSCRIPTION_NOT_LATEST_VALUE);
                 response.setRemark("the consumer's subscription not latest");
-                return response;
+                return null;
             }
         }
 
+        final long beginNanos = System.nanoTime();
         final GetMessageResult getMessageResult =
                 this.brokerController.getMessageStore().getMessage(requestHeader.getTopic(),
                     requestHeader.getQueueId(), requestHeader.getQueueOffset(),
                     requestHeader.getMaxMsgNums(), subscriptionData);
-        
+
         if (getMessageResult != null) {
-            if(getMessageResult.getBufferTotalSize()>0){
-                PullmsgLiveMoniter.printProcessRequestLive(channel, request, getMessageResult);
-            }
+            this.brokerController.getDigestLogManager().recordPullMessage(channel, request, requestHeader,
+                requestHeader.getTopic(), requestHeader.getConsumerGroup(), getMessageResult,
+                (System.nanoTime() - beginNanos) / 1000);
             response.setRemark(getMessageResult.getStatus().name());
             responseHeader.setNextBeginOffset(getMessageResult.getNextBeginOffset());
             responseHeader.setMinOffset(getMessageResult.getMinOffset());
@@ -335,66 +511,12 @@ public class PullMessageProcessor implements NettyRequestProcessor {
                 assert false;
                 break;
             }
-
-            switch (response.getCode()) {
-            case ResponseCode.SUCCESS_VALUE:
-                try {
-                    FileRegion fileRegion =
-                            new ManyMessageTransfer(response.encodeHeader(getMessageResult
-                                .getBufferTotalSize()), getMessageResult);
-                    channel.writeAndFlush(fileRegion).addListener(new ChannelFutureListener() {
-                        @Override
-                        public void operationComplete(ChannelFuture future) throws Exception {
-                            getMessageResult.release();
-                            if (!future.isSuccess()) {
-                                log.error(
-                                    "transfer many message by pagecache failed, " + channel.remoteAddress(),
-                                    future.cause());
-                            }
-                        }
-                    });
-                }
-                catch (Throwable e) {
-                    log.error("", e);
-                    getMessageResult.release();
-                }
-
-                response = null;
-                break;
-            case MQResponseCode.PULL_NOT_FOUND_VALUE:
-                // 长轮询
-                if (brokerAllowSuspend && hasSuspendFlag) {
-                    PullRequest pullRequest =
-                            new PullRequest(request, channel, suspendTimeoutMillisLong, this.brokerController
-                                .getMessageStore().now(), requestHeader.getQueueOffset());
-                    this.brokerController.getPullRequestHoldService().suspendPullRequest(
-                        requestHeader.getTopic(), requestHeader.getQueueId(), pullRequest);
-                    response = null;
-                    break;
-                }
-
-                // 向Consumer返回应答
-            case MQResponseCode.PULL_RETRY_IMMEDIATELY_VALUE:
-            case MQResponseCode.PULL_OFFSET_MOVED_VALUE:
-                break;
-            default:
-                assert false;
-            }
         }
         else {
             response.setCode(ResponseCode.SYSTEM_ERROR_VALUE);
             response.setRemark("store getMessage return null");
         }
 
-        // 存储Consumer消费进度
-        if (brokerAllowSuspend) { // 说明是首次调用，相对于长轮询通知
-            if (hasCommitOffsetFlag) {
-                this.brokerController.getConsumerOffsetManager().commitOffset(
-                    requestHeader.getConsumerGroup(), requestHeader.getTopic(), requestHeader.getQueueId(),
-                    requestHeader.getCommitOffset());
-            }
-        }
-
-        return response;
+        return getMessageResult;
     }
 }
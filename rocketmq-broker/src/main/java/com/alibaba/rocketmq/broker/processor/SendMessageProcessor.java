@@ -23,8 +23,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alibaba.rocketmq.broker.BrokerController;
-import com.alibaba.rocketmq.broker.digestlog.SendbackmsgLiveMoniter;
-import com.alibaba.rocketmq.broker.digestlog.SendmsgLiveMoniter;
 import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.TopicConfig;
 import com.alibaba.rocketmq.common.TopicFilterType;
@@ -36,6 +34,8 @@ import com.alibaba.rocketmq.common.message.MessageDecoder;
 import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.protocol.MQProtos.MQRequestCode;
 import com.alibaba.rocketmq.common.protocol.MQProtos.MQResponseCode;
+import com.alibaba.rocketmq.common.protocol.body.ConsumerSendMsgBackBatchRequestBody;
+import com.alibaba.rocketmq.common.protocol.body.ConsumerSendMsgBackBatchResponseBody;
 import com.alibaba.rocketmq.common.protocol.header.ConsumerSendMsgBackRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.SendMessageRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.SendMessageResponseHeader;
@@ -86,6 +86,8 @@ public class SendMessageProcessor implements NettyRequestProcessor {
             return this.sendMessage(ctx, request);
         case CONSUMER_SEND_MSG_BACK:
             return this.consumerSendMsgBack(ctx, request);
+        case CONSUMER_SEND_MSG_BACK_BATCH:
+            return this.consumerSendMsgBackBatch(ctx, request);
         default:
             break;
         }
@@ -111,8 +113,71 @@ public class SendMessageProcessor implements NettyRequestProcessor {
             return response;
         }
 
-        String newTopic = MixAll.getRetryTopic(requestHeader.getGroup());
-        int queueIdInt = Math.abs(this.random.nextInt()) % subscriptionGroupConfig.getRetryQueueNums();
+        if (!this.checkRetryTopic(requestHeader.getGroup(), subscriptionGroupConfig, response)) {
+            return response;
+        }
+
+        this.sendMsgBackInner(ctx, request, requestHeader.getGroup(), subscriptionGroupConfig,
+            requestHeader.getOffset(), requestHeader.getDelayLevel(), response);
+        return response;
+    }
+
+
+    /**
+     * 批量发回消费失败的消息，订阅组与重试Topic只检查一次，每条消息按照CommitLog Offset查找后重新写入
+     */
+    private RemotingCommand consumerSendMsgBackBatch(final ChannelHandlerContext ctx,
+            final RemotingCommand request) throws RemotingCommandException {
+        final RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        if (null == request.getBody()) {
+            response.setCode(ResponseCode.SYSTEM_ERROR_VALUE);
+            response.setRemark("the send back batch request body is null");
+            return response;
+        }
+
+        final ConsumerSendMsgBackBatchRequestBody requestBody =
+                ConsumerSendMsgBackBatchRequestBody.decode(request.getBody(),
+                    ConsumerSendMsgBackBatchRequestBody.class);
+
+        // 确保订阅组存在
+        SubscriptionGroupConfig subscriptionGroupConfig =
+                this.brokerController.getSubscriptionGroupManager().findSubscriptionGroupConfig(
+                    requestBody.getGroup());
+        if (null == subscriptionGroupConfig) {
+            response.setCode(MQResponseCode.SUBSCRIPTION_GROUP_NOT_EXIST_VALUE);
+            response.setRemark("subscription group not exist, " + requestBody.getGroup() + " "
+                    + FAQUrl.suggestTodo(FAQUrl.SUBSCRIPTION_GROUP_NOT_EXIST));
+            return response;
+        }
+
+        if (!this.checkRetryTopic(requestBody.getGroup(), subscriptionGroupConfig, response)) {
+            return response;
+        }
+
+        final ConsumerSendMsgBackBatchResponseBody responseBody = new ConsumerSendMsgBackBatchResponseBody();
+        final RemotingCommand result = RemotingCommand.createResponseCommand(null);
+        for (Long offset : requestBody.getOffsetList()) {
+            this.sendMsgBackInner(ctx, request, requestBody.getGroup(), subscriptionGroupConfig, offset,
+                requestBody.getDelayLevel(), result);
+            if (result.getCode() != ResponseCode.SUCCESS_VALUE) {
+                log.warn("send back message failed, group: {} offset: {} {}", requestBody.getGroup(), offset,
+                    result.getRemark());
+                responseBody.getFailedOffsetList().add(offset);
+            }
+        }
+
+        response.setCode(ResponseCode.SUCCESS_VALUE);
+        response.setBody(responseBody.encode());
+        return response;
+    }
+
+
+    /**
+     * 检查重试Topic，不存在则自动创建
+     */
+    private boolean checkRetryTopic(final String group, final SubscriptionGroupConfig subscriptionGroupConfig,
+            final RemotingCommand response) {
+        String newTopic = MixAll.getRetryTopic(group);
 
         // 检查topic是否存在
         TopicConfig topicConfig =
@@ -123,24 +188,36 @@ public class SendMessageProcessor implements NettyRequestProcessor {
         if (null == topicConfig) {
             response.setCode(ResponseCode.SYSTEM_ERROR_VALUE);
             response.setRemark("topic[" + newTopic + "] not exist");
-            return response;
+            return false;
         }
 
         // 检查topic权限
         if (!PermName.isWriteable(topicConfig.getPerm())) {
             response.setCode(MQResponseCode.NO_PERMISSION_VALUE);
             response.setRemark("the topic[" + newTopic + "] sending message is forbidden");
-            return response;
+            return false;
         }
 
+        return true;
+    }
+
+
+    /**
+     * 按照CommitLog Offset查找消息，写入重试队列或者死信队列，结果设置到response中
+     */
+    private void sendMsgBackInner(final ChannelHandlerContext ctx, final RemotingCommand request,
+            final String group, final SubscriptionGroupConfig subscriptionGroupConfig, final long offset,
+            final int delayLevelRequest, final RemotingCommand response) {
+        String newTopic = MixAll.getRetryTopic(group);
+        int queueIdInt = Math.abs(this.random.nextInt()) % subscriptionGroupConfig.getRetryQueueNums();
+
         // 查询消息，这里如果堆积消息过多，会访问磁盘
         // 另外如果频繁调用，是否会引起gc问题，需要关注 TODO
-        MessageExt msgExt =
-                this.brokerController.getMessageStore().lookMessageByOffset(requestHeader.getOffset());
+        MessageExt msgExt = this.brokerController.getMessageStore().lookMessageByOffset(offset);
         if (null == msgExt) {
             response.setCode(ResponseCode.SYSTEM_ERROR_VALUE);
-            response.setRemark("look message by offset failed, " + requestHeader.getOffset());
-            return response;
+            response.setRemark("look message by offset failed, " + offset);
+            return;
         }
 
         // 构造消息
@@ -151,15 +228,15 @@ public class SendMessageProcessor implements NettyRequestProcessor {
         msgExt.setWaitStoreMsgOK(false);
 
         // 客户端自动决定定时级别
-        int delayLevel = requestHeader.getDelayLevel();
+        int delayLevel = delayLevelRequest;
 
         // 死信消息处理
         if (msgExt.getReconsumeTimes() >= subscriptionGroupConfig.getRetryMaxTimes()//
                 || delayLevel < 0) {
-            newTopic = MixAll.getDLQTopic(requestHeader.getGroup());
+            newTopic = MixAll.getDLQTopic(group);
             queueIdInt = Math.abs(this.random.nextInt()) % DLQ_NUMS_PER_GROUP;
 
-            topicConfig =
+            TopicConfig topicConfig =
                     this.brokerController.getTopicConfigManager().createTopicInSendMessageBackMethod(
                         newTopic, //
                         DLQ_NUMS_PER_GROUP,//
@@ -167,7 +244,7 @@ public class SendMessageProcessor implements NettyRequestProcessor {
             if (null == topicConfig) {
                 response.setCode(ResponseCode.SYSTEM_ERROR_VALUE);
                 response.setRemark("topic[" + newTopic + "] not exist");
-                return response;
+                return;
             }
         }
         // 继续重试
@@ -194,26 +271,28 @@ public class SendMessageProcessor implements NettyRequestProcessor {
         msgInner.setStoreHost(this.getStoreHost());
         msgInner.setReconsumeTimes(msgExt.getReconsumeTimes() + 1);
 
+        final long beginNanos = System.nanoTime();
         PutMessageResult putMessageResult = this.brokerController.getMessageStore().putMessage(msgInner);
-        SendbackmsgLiveMoniter.printProcessSendmsgRequestLive(ctx.channel(), request, putMessageResult,delayLevel,msgExt.getReconsumeTimes());
+        this.brokerController.getDigestLogManager().recordSendBackMessage(ctx.channel(), request, newTopic,
+            group, msgInner.getBody() != null ? msgInner.getBody().length : 0, putMessageResult, delayLevel,
+            msgExt.getReconsumeTimes(), (System.nanoTime() - beginNanos) / 1000);
         if (putMessageResult != null) {
             switch (putMessageResult.getPutMessageStatus()) {
             case PUT_OK:
                 response.setCode(ResponseCode.SUCCESS_VALUE);
                 response.setRemark(null);
-                return response;
+                return;
             default:
                 break;
             }
 
             response.setCode(ResponseCode.SYSTEM_ERROR_VALUE);
             response.setRemark(putMessageResult.getPutMessageStatus().name());
-            return response;
+            return;
         }
 
         response.setCode(ResponseCode.SYSTEM_ERROR_VALUE);
         response.setRemark("putMessageResult is null");
-        return response;
     }
 
 
@@ -329,6 +408,20 @@ public class SendMessageProcessor implements NettyRequestProcessor {
 
         msgInner.setReconsumeTimes(0);
 
+        // 检查定时投递时间，格式不合法直接拒绝
+        String startDeliverTime = msgInner.getProperty(Message.PROPERTY_START_DELIVER_TIME);
+        if (startDeliverTime != null) {
+            try {
+                Long.parseLong(startDeliverTime);
+            }
+            catch (NumberFormatException e) {
+                response.setCode(MQResponseCode.MESSAGE_ILLEGAL_VALUE);
+                response.setRemark("the message property " + Message.PROPERTY_START_DELIVER_TIME + "["
+                        + startDeliverTime + "] is illegal");
+                return response;
+            }
+        }
+
         // 检查事务消息
         if (this.brokerController.getBrokerConfig().isRejectTransactionMessage()) {
             String traFlag = msgInner.getProperty(Message.PROPERTY_TRANSACTION_PREPARED);
@@ -340,8 +433,11 @@ public class SendMessageProcessor implements NettyRequestProcessor {
             }
         }
 
+        final long beginNanos = System.nanoTime();
         PutMessageResult putMessageResult = this.brokerController.getMessageStore().putMessage(msgInner);
-        SendmsgLiveMoniter.printProcessSendmsgRequestLive(ctx.channel(), request, putMessageResult);
+        this.brokerController.getDigestLogManager().recordSendMessage(ctx.channel(), request,
+            requestHeader.getTopic(), requestHeader.getProducerGroup(), body != null ? body.length : 0,
+            putMessageResult, (System.nanoTime() - beginNanos) / 1000);
         if (putMessageResult != null) {
             boolean sendOK = false;
 
@@ -19,12 +19,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.client.exception.MQBrokerException;
 import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.protocol.body.MetadataDeltaRequestBody;
+import com.alibaba.rocketmq.common.protocol.body.MetadataDeltaResponseBody;
 import com.alibaba.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
 
 
 /**
- * Slave从Master同步信息（非消息）
+ * Slave从Master同步信息（非消息）<br>
+ * Master支持增量同步时，按版本只拉取变化的Topic配置、订阅组与消费进度，否则定时全量同步
  * 
  * @author shijia.wxr<vintage.wang@gmail.com>
  * @since 2013-7-8
@@ -33,6 +37,11 @@ public class SlaveSynchronize {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
     private final BrokerController brokerController;
     private volatile String masterAddr = null;
+    // Master不支持增量同步时置为false，切换Master后重新尝试
+    private volatile boolean metadataDeltaSupported = true;
+    // 上次增量同步Master返回的消费进度纪元与检查点
+    private long offsetSyncEpoch = -1;
+    private long offsetCheckpoint = -1;
 
 
     public SlaveSynchronize(BrokerController brokerController) {
@@ -45,12 +54,22 @@ public class SlaveSynchronize {
     }
 
 
-    public void setMasterAddr(String masterAddr) {
+    public synchronized void setMasterAddr(String masterAddr) {
+        if (masterAddr != null && !masterAddr.equals(this.masterAddr)) {
+            this.metadataDeltaSupported = true;
+            this.offsetSyncEpoch = -1;
+            this.offsetCheckpoint = -1;
+        }
         this.masterAddr = masterAddr;
     }
 
 
     public void syncAll() {
+        // 增量同步失败时本轮仍然全量同步
+        if (this.metadataDeltaSupported && this.syncMetadataDelta()) {
+            return;
+        }
+
         this.syncTopicConfig();
         this.syncConsumerOffset();
         this.syncDelayOffset();
@@ -58,6 +77,62 @@ public class SlaveSynchronize {
     }
 
 
+    /**
+     * 增量同步Topic配置、订阅组与消费进度，Topic变更记录不完整时退化为全量同步Topic配置
+     *
+     * @return 是否增量同步成功
+     */
+    public synchronized boolean syncMetadataDelta() {
+        String masterAddrBak = this.masterAddr;
+        if (masterAddrBak != null && this.metadataDeltaSupported) {
+            try {
+                MetadataDeltaRequestBody requestBody = new MetadataDeltaRequestBody();
+                requestBody.getTopicDataVersion().assignNewOne(
+                    this.brokerController.getTopicConfigManager().getDataVersion());
+                requestBody.getSubscriptionGroupDataVersion().assignNewOne(
+                    this.brokerController.getSubscriptionGroupManager().getDataVersion());
+                requestBody.setOffsetSyncEpoch(this.offsetSyncEpoch);
+                requestBody.setOffsetCheckpoint(this.offsetCheckpoint);
+
+                MetadataDeltaResponseBody responseBody =
+                        this.brokerController.getBrokerOuterAPI().getMetadataDelta(masterAddrBak, requestBody);
+
+                if (null == responseBody.getTopicConfigDelta()
+                        || !this.brokerController.getTopicConfigManager().updateTopicConfigTableFromMasterDelta(
+                            responseBody.getTopicConfigDelta())) {
+                    this.syncTopicConfig();
+                }
+
+                if (responseBody.getSubscriptionGroupWrapper() != null) {
+                    this.brokerController.getSubscriptionGroupManager().updateSubscriptionGroupTableFromMaster(
+                        responseBody.getSubscriptionGroupWrapper());
+                    log.info("update slave subscription group from master, {}", masterAddrBak);
+                }
+
+                if (!responseBody.getOffsetTable().isEmpty()) {
+                    this.brokerController.getConsumerOffsetManager().updateOffsetTableFromMaster(
+                        responseBody.getOffsetTable());
+                }
+                this.offsetSyncEpoch = responseBody.getOffsetSyncEpoch();
+                this.offsetCheckpoint = responseBody.getOffsetCheckpoint();
+                return true;
+            }
+            catch (MQBrokerException e) {
+                // 老版本Master不认识这个请求码，返回SYSTEM_ERROR而不是REQUEST_CODE_NOT_SUPPORTED
+                // 任何Master错误都认为不支持，切换Master前只做全量同步
+                this.metadataDeltaSupported = false;
+                log.warn("master {} not support metadata delta, sync all periodically, {}", masterAddrBak,
+                    e.getMessage());
+            }
+            catch (Exception e) {
+                log.error("syncMetadataDelta Exception, " + masterAddrBak, e);
+            }
+        }
+
+        return false;
+    }
+
+
     private void syncTopicConfig() {
         String masterAddrBak = this.masterAddr;
         if (masterAddrBak != null) {
@@ -67,11 +142,8 @@ public class SlaveSynchronize {
                 if (!this.brokerController.getTopicConfigManager().getDataVersion()
                     .equals(topicWrapper.getDataVersion())) {
 
-                    this.brokerController.getTopicConfigManager().getDataVersion()
-                        .assignNewOne(topicWrapper.getDataVersion());
-                    this.brokerController.getTopicConfigManager().getTopicConfigTable()
-                        .putAll(topicWrapper.getTopicConfigTable());
-                    this.brokerController.getTopicConfigManager().persist();
+                    this.brokerController.getTopicConfigManager().updateTopicConfigTableFromMaster(
+                        topicWrapper);
 
                     log.info("update slave topic config from master, {}", masterAddrBak);
                 }
@@ -23,7 +23,9 @@ import org.slf4j.LoggerFactory;
 import com.alibaba.rocketmq.broker.BrokerController;
 import com.alibaba.rocketmq.common.ConfigManager;
 import com.alibaba.rocketmq.common.DataVersion;
+import com.alibaba.rocketmq.common.NameIdTable;
 import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.protocol.body.SubscriptionGroupWrapper;
 import com.alibaba.rocketmq.common.subscription.SubscriptionGroupConfig;
 import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
 
@@ -42,6 +44,8 @@ public class SubscriptionGroupManager extends ConfigManager {
     private final ConcurrentHashMap<String, SubscriptionGroupConfig> subscriptionGroupTable =
             new ConcurrentHashMap<String, SubscriptionGroupConfig>(1024);
     private final DataVersion dataVersion = new DataVersion();
+    // 订阅组名字对应的进程内int id，用于消费进度、队列锁等以long为Key的表
+    private transient final NameIdTable groupIdTable = new NameIdTable(1024);
 
 
     public SubscriptionGroupManager() {
@@ -53,6 +57,29 @@ public class SubscriptionGroupManager extends ConfigManager {
     }
 
 
+    /**
+     * 返回订阅组的进程内id，没有则分配，id不回收，只在写入数据时调用
+     */
+    public int getGroupId(final String group) {
+        return this.groupIdTable.getId(group);
+    }
+
+
+    /**
+     * 查找订阅组的进程内id，不分配，查询类请求使用
+     *
+     * @return 没有分配过返回-1
+     */
+    public int findGroupId(final String group) {
+        return this.groupIdTable.findId(group);
+    }
+
+
+    public String getGroupName(final int groupId) {
+        return this.groupIdTable.getName(groupId);
+    }
+
+
     public void updateSubscriptionGroupConfig(final SubscriptionGroupConfig config) {
         SubscriptionGroupConfig old = this.subscriptionGroupTable.put(config.getGroupName(), config);
         if (old != null) {
@@ -85,6 +112,24 @@ public class SubscriptionGroupManager extends ConfigManager {
     }
 
 
+    /**
+     * Slave从Master同步订阅组，数据版本与Master保持一致
+     */
+    public void updateSubscriptionGroupTableFromMaster(final SubscriptionGroupWrapper subscriptionGroupWrapper) {
+        this.subscriptionGroupTable.putAll(subscriptionGroupWrapper.getSubscriptionGroupTable());
+        this.dataVersion.assignNewOne(subscriptionGroupWrapper.getDataVersion());
+        this.persist();
+    }
+
+
+    public SubscriptionGroupWrapper buildSubscriptionGroupWrapper() {
+        SubscriptionGroupWrapper subscriptionGroupWrapper = new SubscriptionGroupWrapper();
+        subscriptionGroupWrapper.getDataVersion().assignNewOne(this.dataVersion);
+        subscriptionGroupWrapper.setSubscriptionGroupTable(this.subscriptionGroupTable);
+        return subscriptionGroupWrapper;
+    }
+
+
     @Override
     public String encode() {
         return this.encode(false);
@@ -0,0 +1,236 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.topic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.DataVersion;
+import com.alibaba.rocketmq.common.TopicConfig;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.MapedFile;
+
+
+/**
+ * Topic配置追加日志，创建、修改、删除Topic时只追加一条记录，文件过大时由TopicConfigManager压缩为全量快照<br>
+ * 文件格式：快照数据版本 Timestamp(8) + Counter(8) + N * Record<br>
+ * Record：TotalSize(4) + Magic(4) + Timestamp(8) + Counter(8) + Type(1) + BodyLength(2) + Body<br>
+ * Body：修改为TopicConfig.encode()，删除为Topic名字
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-9
+ */
+public class TopicConfigJournal {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
+    private static final int RecordMagicCode = 0xAABBCCEE;
+    private static final int HeaderSize = 8 + 8;
+    private static final int RecordFixedSize = 4 + 4 + 8 + 8 + 1 + 2;
+    private static final String CharsetName = "UTF-8";
+
+    public static final byte TypeUpdate = 0;
+    public static final byte TypeDelete = 1;
+
+    private final String fileName;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel fileChannel;
+
+
+    public TopicConfigJournal(final String fileName) {
+        this.fileName = fileName;
+    }
+
+
+    /**
+     * 打开日志文件并回放到topicConfigTable，日志头与快照版本不一致时，说明快照已经包含全部数据，丢弃日志
+     *
+     * @param dataVersion
+     *            快照的数据版本，回放后更新为最后一条记录的版本
+     * @return 回放的记录数
+     */
+    public long load(final DataVersion dataVersion,
+            final ConcurrentHashMap<String, TopicConfig> topicConfigTable) throws IOException {
+        File file = new File(this.fileName);
+        File fileParent = file.getParentFile();
+        if (fileParent != null) {
+            fileParent.mkdirs();
+        }
+
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.fileChannel = this.randomAccessFile.getChannel();
+
+        final long fileSize = this.fileChannel.size();
+        if (fileSize < HeaderSize) {
+            this.reset(dataVersion);
+            return 0;
+        }
+
+        long records = 0;
+        int validPosition = HeaderSize;
+        MappedByteBuffer mappedByteBuffer = this.fileChannel.map(MapMode.READ_ONLY, 0, fileSize);
+        try {
+            final long timestamp = mappedByteBuffer.getLong();
+            final long counter = mappedByteBuffer.getLong();
+            if (timestamp != dataVersion.getTimestatmp() || counter != dataVersion.getCounter().get()) {
+                log.info("topic config journal version {} not match snapshot version {}, discard it", counter,
+                    dataVersion.getCounter().get());
+                validPosition = -1;
+            }
+            else {
+                while (this.readRecord(mappedByteBuffer, dataVersion, topicConfigTable)) {
+                    validPosition = mappedByteBuffer.position();
+                    records++;
+                }
+            }
+        }
+        finally {
+            // 映射不释放时，部分系统上无法截断文件
+            MapedFile.clean(mappedByteBuffer);
+        }
+
+        if (validPosition < 0) {
+            this.reset(dataVersion);
+            return 0;
+        }
+
+        // 截掉写了一半或者损坏的记录
+        if (validPosition < fileSize) {
+            log.warn("topic config journal has a broken tail, truncate from {} to {}", fileSize,
+                validPosition);
+            this.fileChannel.truncate(validPosition);
+            this.fileChannel.force(false);
+        }
+
+        this.fileChannel.position(validPosition);
+        return records;
+    }
+
+
+    /**
+     * 读取并回放一条记录，长度、魔数不能自洽或者内容无法解析时认为日志在此处结束
+     *
+     * @return 回放了完整记录返回true
+     */
+    private boolean readRecord(final ByteBuffer byteBuffer, final DataVersion dataVersion,
+            final ConcurrentHashMap<String, TopicConfig> topicConfigTable) throws IOException {
+        if (byteBuffer.remaining() < RecordFixedSize) {
+            return false;
+        }
+
+        final int totalSize = byteBuffer.getInt();
+        if (totalSize < RecordFixedSize || totalSize - 4 > byteBuffer.remaining()) {
+            return false;
+        }
+
+        if (byteBuffer.getInt() != RecordMagicCode) {
+            return false;
+        }
+
+        final long recordTimestamp = byteBuffer.getLong();
+        final long recordCounter = byteBuffer.getLong();
+        final byte type = byteBuffer.get();
+        final int bodyLength = byteBuffer.getShort() & 0xFFFF;
+        if (RecordFixedSize + bodyLength != totalSize) {
+            return false;
+        }
+
+        byte[] body = new byte[bodyLength];
+        byteBuffer.get(body);
+        String content = new String(body, CharsetName);
+
+        if (TypeDelete == type) {
+            topicConfigTable.remove(content);
+        }
+        else {
+            TopicConfig topicConfig = new TopicConfig();
+            if (!topicConfig.decode(content)) {
+                log.warn("topic config journal record illegal, {}", content);
+                return false;
+            }
+            topicConfigTable.put(topicConfig.getTopicName(), topicConfig);
+        }
+
+        dataVersion.setTimestatmp(recordTimestamp);
+        dataVersion.getCounter().set(recordCounter);
+        return true;
+    }
+
+
+    /**
+     * 追加一条记录，version为本次变更后的数据版本，追加后调用force刷盘
+     */
+    public void append(final byte type, final String content, final DataVersion version) throws IOException {
+        byte[] body = content.getBytes(CharsetName);
+        ByteBuffer byteBuffer = ByteBuffer.allocate(RecordFixedSize + body.length);
+        byteBuffer.putInt(RecordFixedSize + body.length);
+        byteBuffer.putInt(RecordMagicCode);
+        byteBuffer.putLong(version.getTimestatmp());
+        byteBuffer.putLong(version.getCounter().get());
+        byteBuffer.put(type);
+        byteBuffer.putShort((short) body.length);
+        byteBuffer.put(body);
+        byteBuffer.flip();
+        while (byteBuffer.hasRemaining()) {
+            this.fileChannel.write(byteBuffer);
+        }
+    }
+
+
+    public void force() throws IOException {
+        this.fileChannel.force(false);
+    }
+
+
+    /**
+     * 全量快照写成功后调用，清空日志并写入快照的数据版本
+     */
+    public void reset(final DataVersion version) throws IOException {
+        this.fileChannel.truncate(0);
+        this.fileChannel.position(0);
+        ByteBuffer byteBuffer = ByteBuffer.allocate(HeaderSize);
+        byteBuffer.putLong(version.getTimestatmp());
+        byteBuffer.putLong(version.getCounter().get());
+        byteBuffer.flip();
+        while (byteBuffer.hasRemaining()) {
+            this.fileChannel.write(byteBuffer);
+        }
+        this.fileChannel.force(false);
+    }
+
+
+    public long getFileSize() throws IOException {
+        return this.fileChannel.size();
+    }
+
+
+    public void shutdown() {
+        try {
+            this.fileChannel.close();
+            this.randomAccessFile.close();
+        }
+        catch (IOException e) {
+            log.error("close topic config journal exception", e);
+        }
+    }
+}
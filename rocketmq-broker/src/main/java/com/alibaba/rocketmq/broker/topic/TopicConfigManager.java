@@ -15,7 +15,11 @@
  */
 package com.alibaba.rocketmq.broker.topic;
 
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -27,11 +31,15 @@ import com.alibaba.rocketmq.broker.BrokerController;
 import com.alibaba.rocketmq.common.ConfigManager;
 import com.alibaba.rocketmq.common.DataVersion;
 import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.common.NameIdTable;
 import com.alibaba.rocketmq.common.TopicConfig;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.constant.PermName;
+import com.alibaba.rocketmq.common.protocol.body.TopicConfigDeltaWrapper;
 import com.alibaba.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
 import com.alibaba.rocketmq.store.schedule.ScheduleMessageService;
+import com.alibaba.rocketmq.store.schedule.TimerMessageService;
 
 
 /**
@@ -44,21 +52,47 @@ import com.alibaba.rocketmq.store.schedule.ScheduleMessageService;
 public class TopicConfigManager extends ConfigManager {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
     private static final long LockTimeoutMillis = 3000;
-    private transient final Lock lockTopicConfigTable = new ReentrantLock();
+    private static final int CreateLockStripes = 32;
+    private static final String JOURNAL_FILE_SUFFIX = ".journal";
+    // 按Topic分段的创建锁，不同Topic的自动创建互不阻塞
+    private transient final Lock[] topicCreateLocks = new Lock[CreateLockStripes];
     private transient BrokerController brokerController;
 
     // Topic配置
     private final ConcurrentHashMap<String, TopicConfig> topicConfigTable =
             new ConcurrentHashMap<String, TopicConfig>(1024);
     private final DataVersion dataVersion = new DataVersion();
+    // 每个Topic最后一次变更时的数据版本号，用于向Name Server增量注册
+    private transient final HashMap<String/* topic */, Long/* counter */> topicChangeTable =
+            new HashMap<String, Long>(1024);
+    // 变更记录起始的数据版本号，基准版本更早时只能全量注册
+    private transient long topicChangeBaseCounter = -1;
+    // 最后一次记录变更时的数据版本，与当前版本不一致说明版本被直接修改过，变更记录不再完整
+    private transient final DataVersion topicChangeVersion = new DataVersion();
+    // Topic名字对应的进程内int id，用于消费进度、队列锁等以long为Key的表
+    private transient final NameIdTable topicIdTable = new NameIdTable(1024);
+    // Topic配置追加日志，变更时只追加一条记录，不再重写整个文件
+    private transient TopicConfigJournal journal;
+    // 等待写入日志的变更，在topicChangeTable锁内按版本顺序入队，在锁外写出
+    private transient final ConcurrentLinkedQueue<JournalRecord> journalRecordQueue =
+            new ConcurrentLinkedQueue<JournalRecord>();
+    // 串行写日志，保证日志中的版本递增
+    private transient final Object journalLock = new Object();
+    // 每个Topic的序列化结果，Topic配置对象不变时复用
+    private transient final ConcurrentHashMap<String/* topic */, EncodedTopicConfig> encodedTopicConfigTable =
+            new ConcurrentHashMap<String, EncodedTopicConfig>(1024);
+    // 最近一次全量序列化结果，数据版本不变时复用
+    private transient volatile EncodedTopicConfigTable encodedTopicConfigTableCache;
 
 
     public TopicConfigManager() {
+        this.initCreateLocks();
     }
 
 
     public TopicConfigManager(BrokerController brokerController) {
         this.brokerController = brokerController;
+        this.initCreateLocks();
 
         // MixAll.DEFAULT_TOPIC
         TopicConfig topicConfig = new TopicConfig(MixAll.DEFAULT_TOPIC);
@@ -93,12 +127,48 @@ public class TopicConfigManager extends ConfigManager {
     }
 
 
+    private void initCreateLocks() {
+        for (int i = 0; i < this.topicCreateLocks.length; i++) {
+            this.topicCreateLocks[i] = new ReentrantLock();
+        }
+    }
+
+
+    private Lock topicCreateLock(final String topic) {
+        return this.topicCreateLocks[(topic.hashCode() & 0x7fffffff) % this.topicCreateLocks.length];
+    }
+
+
+    /**
+     * 返回Topic的进程内id，没有则分配，id不回收，只在写入数据时调用
+     */
+    public int getTopicId(final String topic) {
+        return this.topicIdTable.getId(topic);
+    }
+
+
+    /**
+     * 查找Topic的进程内id，不分配，查询类请求使用
+     *
+     * @return 没有分配过返回-1
+     */
+    public int findTopicId(final String topic) {
+        return this.topicIdTable.findId(topic);
+    }
+
+
+    public String getTopicName(final int topicId) {
+        return this.topicIdTable.getName(topicId);
+    }
+
+
     public boolean isSystemTopic(final String topic) {
         boolean res = //
                 topic.equals(MixAll.DEFAULT_TOPIC)//
                         || topic.equals(MixAll.SELF_TEST_TOPIC)//
                         || topic.equals(this.brokerController.getBrokerConfig().getBrokerClusterName())//
                         || topic.equals(ScheduleMessageService.SCHEDULE_TOPIC)//
+                        || topic.equals(TimerMessageService.TIMER_TOPIC)//
                         || topic.equals(MixAll.SELF_TEST_TOPIC);
 
         return res;
@@ -127,8 +197,9 @@ public class TopicConfigManager extends ConfigManager {
         TopicConfig topicConfig = null;
         boolean createNew = false;
 
+        final Lock lock = this.topicCreateLock(topic);
         try {
-            if (this.lockTopicConfigTable.tryLock(LockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            if (lock.tryLock(LockTimeoutMillis, TimeUnit.MILLISECONDS)) {
                 try {
                     topicConfig = this.topicConfigTable.get(topic);
                     if (topicConfig != null)
@@ -171,15 +242,13 @@ public class TopicConfigManager extends ConfigManager {
 
                         this.topicConfigTable.put(topic, topicConfig);
 
-                        this.dataVersion.nextVersion();
+                        this.nextDataVersion(topic);
 
                         createNew = true;
-
-                        this.persist();
                     }
                 }
                 finally {
-                    this.lockTopicConfigTable.unlock();
+                    lock.unlock();
                 }
             }
         }
@@ -206,8 +275,9 @@ public class TopicConfigManager extends ConfigManager {
 
         boolean createNew = false;
 
+        final Lock lock = this.topicCreateLock(topic);
         try {
-            if (this.lockTopicConfigTable.tryLock(LockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            if (lock.tryLock(LockTimeoutMillis, TimeUnit.MILLISECONDS)) {
                 try {
                     topicConfig = this.topicConfigTable.get(topic);
                     if (topicConfig != null)
@@ -221,11 +291,10 @@ public class TopicConfigManager extends ConfigManager {
                     log.info("create new topic {}", topicConfig);
                     this.topicConfigTable.put(topic, topicConfig);
                     createNew = true;
-                    this.dataVersion.nextVersion();
-                    this.persist();
+                    this.nextDataVersion(topic);
                 }
                 finally {
-                    this.lockTopicConfigTable.unlock();
+                    lock.unlock();
                 }
             }
         }
@@ -250,11 +319,9 @@ public class TopicConfigManager extends ConfigManager {
             log.info("create new topic, " + topicConfig);
         }
 
-        this.dataVersion.nextVersion();
+        this.nextDataVersion(topicConfig.getTopicName());
 
         this.brokerController.registerBrokerAll();
-
-        this.persist();
     }
 
 
@@ -262,7 +329,8 @@ public class TopicConfigManager extends ConfigManager {
         TopicConfig old = this.topicConfigTable.remove(topic);
         if (old != null) {
             log.info("delete topic config OK, topic: " + old);
-            this.persist();
+            this.encodedTopicConfigTable.remove(topic);
+            this.nextDataVersion(topic);
         }
         else {
             log.warn("delete topic config failed, topic: " + topic + " not exist");
@@ -270,14 +338,130 @@ public class TopicConfigManager extends ConfigManager {
     }
 
 
+    /**
+     * 数据版本号递增，同时记录变更的Topic，并追加到日志，没有加载日志时写全量快照
+     */
+    private void nextDataVersion(final String topic) {
+        synchronized (this.topicChangeTable) {
+            this.checkTopicChangeTable();
+            this.dataVersion.nextVersion();
+            this.topicChangeTable.put(topic, this.dataVersion.getCounter().get());
+            this.topicChangeVersion.assignNewOne(this.dataVersion);
+
+            if (null == this.journal) {
+                this.persist();
+                return;
+            }
+
+            this.journalRecordQueue.offer(new JournalRecord(topic, this.topicConfigTable.get(topic),
+                this.dataVersion));
+        }
+
+        this.flushJournal();
+    }
+
+
+    /**
+     * 在topicChangeTable锁外写日志，构造增量注册、序列化等读操作不会被磁盘IO阻塞<br>
+     * 写日志失败时写全量快照
+     */
+    private void flushJournal() {
+        try {
+            synchronized (this.journalLock) {
+                if (this.journalRecordQueue.isEmpty()) {
+                    return;
+                }
+
+                JournalRecord record;
+                while ((record = this.journalRecordQueue.poll()) != null) {
+                    if (record.topicConfig != null) {
+                        this.journal.append(TopicConfigJournal.TypeUpdate, record.topicConfig.encode(),
+                            record.dataVersion);
+                    }
+                    else {
+                        this.journal.append(TopicConfigJournal.TypeDelete, record.topic, record.dataVersion);
+                    }
+                }
+                this.journal.force();
+            }
+            return;
+        }
+        catch (IOException e) {
+            log.error("append topic config journal exception, persist all", e);
+        }
+
+        this.persist();
+    }
+
+
+    /**
+     * 必须在topicChangeTable锁内调用，数据版本被直接修改过（例如Slave从Master同步），则从当前版本重新记录
+     */
+    private void checkTopicChangeTable() {
+        if (this.topicChangeBaseCounter < 0 || !this.topicChangeVersion.equals(this.dataVersion)) {
+            this.topicChangeTable.clear();
+            this.topicChangeBaseCounter = this.dataVersion.getCounter().get();
+            this.topicChangeVersion.assignNewOne(this.dataVersion);
+        }
+    }
+
+
+    /**
+     * 数据版本号先于Topic配置取出，Topic配置只会比版本号更新，多出来的变更下次增量注册时重复发送即可
+     */
     public TopicConfigSerializeWrapper buildTopicConfigSerializeWrapper() {
         TopicConfigSerializeWrapper topicConfigSerializeWrapper = new TopicConfigSerializeWrapper();
+        DataVersion dataVersionCopy = new DataVersion();
+        synchronized (this.topicChangeTable) {
+            dataVersionCopy.assignNewOne(this.dataVersion);
+        }
         topicConfigSerializeWrapper.setTopicConfigTable(this.topicConfigTable);
-        topicConfigSerializeWrapper.setDataVersion(this.dataVersion);
+        topicConfigSerializeWrapper.setDataVersion(dataVersionCopy);
         return topicConfigSerializeWrapper;
     }
 
 
+    /**
+     * 构造从基准版本到当前版本之间的增量Topic配置
+     * 
+     * @return 基准版本之后的变更记录不完整时返回null，需要全量注册
+     */
+    public TopicConfigDeltaWrapper buildTopicConfigDeltaWrapper(final DataVersion baseDataVersion) {
+        synchronized (this.topicChangeTable) {
+            this.checkTopicChangeTable();
+
+            final long baseCounter = baseDataVersion.getCounter().get();
+            final long currentCounter = this.dataVersion.getCounter().get();
+            if (baseCounter < this.topicChangeBaseCounter || baseCounter > currentCounter) {
+                return null;
+            }
+
+            if (baseCounter == currentCounter && !baseDataVersion.equals(this.dataVersion)) {
+                return null;
+            }
+
+            TopicConfigDeltaWrapper topicConfigDelta = new TopicConfigDeltaWrapper();
+            topicConfigDelta.getBaseDataVersion().assignNewOne(baseDataVersion);
+            topicConfigDelta.getDataVersion().assignNewOne(this.dataVersion);
+            if (baseCounter < currentCounter) {
+                for (Entry<String, Long> entry : this.topicChangeTable.entrySet()) {
+                    if (entry.getValue() > baseCounter) {
+                        TopicConfig topicConfig = this.topicConfigTable.get(entry.getKey());
+                        if (topicConfig != null) {
+                            topicConfigDelta.getUpdatedTopicConfigTable().put(entry.getKey(), topicConfig);
+                        }
+                        else {
+                            topicConfigDelta.getDeletedTopicSet().add(entry.getKey());
+                        }
+                    }
+                }
+            }
+
+            return topicConfigDelta;
+        }
+    }
+
+
     @Override
     public String encode() {
         return encode(false);
@@ -285,6 +469,10 @@ public class TopicConfigManager extends ConfigManager {
 
 
     public String encode(final boolean prettyFormat) {
+        if (!prettyFormat) {
+            return this.buildEncodedTopicConfigTable().getContent();
+        }
+
         TopicConfigSerializeWrapper topicConfigSerializeWrapper = new TopicConfigSerializeWrapper();
         topicConfigSerializeWrapper.setTopicConfigTable(this.topicConfigTable);
         topicConfigSerializeWrapper.setDataVersion(this.dataVersion);
@@ -292,6 +480,47 @@ public class TopicConfigManager extends ConfigManager {
     }
 
 
+    /**
+     * 返回TopicConfigSerializeWrapper格式的序列化结果，数据版本不变时直接复用，<br>
+     * 否则用每个Topic缓存的序列化结果拼接，只有变化的Topic需要重新序列化
+     */
+    public EncodedTopicConfigTable buildEncodedTopicConfigTable() {
+        DataVersion dataVersionCopy = new DataVersion();
+        synchronized (this.topicChangeTable) {
+            dataVersionCopy.assignNewOne(this.dataVersion);
+        }
+
+        EncodedTopicConfigTable cache = this.encodedTopicConfigTableCache;
+        if (cache != null && cache.getDataVersion().equals(dataVersionCopy)) {
+            return cache;
+        }
+
+        StringBuilder sb = new StringBuilder(this.topicConfigTable.size() * 160 + 64);
+        sb.append("{\"dataVersion\":");
+        sb.append(dataVersionCopy.toJson());
+        sb.append(",\"topicConfigTable\":{");
+        boolean first = true;
+        for (Entry<String, TopicConfig> entry : this.topicConfigTable.entrySet()) {
+            EncodedTopicConfig encoded = this.encodedTopicConfigTable.get(entry.getKey());
+            if (null == encoded || encoded.topicConfig != entry.getValue()) {
+                encoded = new EncodedTopicConfig(entry.getKey(), entry.getValue());
+                this.encodedTopicConfigTable.put(entry.getKey(), encoded);
+            }
+
+            if (!first) {
+                sb.append(',');
+            }
+            sb.append(encoded.content);
+            first = false;
+        }
+        sb.append("}}");
+
+        cache = new EncodedTopicConfigTable(dataVersionCopy, sb.toString());
+        this.encodedTopicConfigTableCache = cache;
+        return cache;
+    }
+
+
     @Override
     public void decode(String jsonString) {
         if (jsonString != null) {
@@ -305,6 +534,141 @@ public class TopicConfigManager extends ConfigManager {
     }
 
 
+    /**
+     * 加载全量快照后，回放追加日志，没有可回放的日志时写一次快照，保证快照与日志头的版本一致
+     */
+    @Override
+    public boolean load() {
+        boolean result = super.load();
+        if (result) {
+            this.journal = new TopicConfigJournal(this.configFilePath() + JOURNAL_FILE_SUFFIX);
+            try {
+                long records;
+                synchronized (this.topicChangeTable) {
+                    records = this.journal.load(this.dataVersion, this.topicConfigTable);
+                }
+                log.info("load topic config journal OK, {} records", records);
+                if (0 == records) {
+                    this.persist();
+                }
+            }
+            catch (IOException e) {
+                log.error("load topic config journal exception", e);
+                return false;
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * 写全量快照，成功后清空日志，日志头记录快照的数据版本，写快照后宕机不会回放旧日志
+     */
+    @Override
+    public void persist() {
+        synchronized (this.topicChangeTable) {
+            if (null == this.journal) {
+                super.persist();
+                return;
+            }
+
+            // 快照包含锁内已经入队的全部变更，这些变更不再写入日志
+            synchronized (this.journalLock) {
+                try {
+                    MixAll.string2File(this.encode(false), this.configFilePath());
+                    this.journal.reset(this.dataVersion);
+                    this.journalRecordQueue.clear();
+                }
+                catch (IOException e) {
+                    log.error("persist topic config exception", e);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * 定时检查，日志超过阈值时压缩为全量快照
+     */
+    public void compactJournal() {
+        if (this.journal != null) {
+            try {
+                if (this.journal.getFileSize() >= this.brokerController.getBrokerConfig()
+                    .getTopicConfigJournalMaxSize()) {
+                    this.persist();
+                    log.info("compact topic config journal OK, {}", this.dataVersion);
+                }
+            }
+            catch (IOException e) {
+                log.error("compact topic config journal exception", e);
+            }
+        }
+    }
+
+
+    /**
+     * Slave从Master同步Topic配置，写全量快照
+     */
+    public void updateTopicConfigTableFromMaster(final TopicConfigSerializeWrapper topicConfigWrapper) {
+        synchronized (this.topicChangeTable) {
+            this.topicConfigTable.putAll(topicConfigWrapper.getTopicConfigTable());
+            this.dataVersion.assignNewOne(topicConfigWrapper.getDataVersion());
+            this.persist();
+        }
+    }
+
+
+    /**
+     * Slave从Master增量同步Topic配置，变更追加到日志
+     *
+     * @return 增量的基准版本与本地版本不一致时返回false，需要全量同步
+     */
+    public boolean updateTopicConfigTableFromMasterDelta(final TopicConfigDeltaWrapper topicConfigDelta) {
+        synchronized (this.topicChangeTable) {
+            if (!this.dataVersion.equals(topicConfigDelta.getBaseDataVersion())) {
+                return false;
+            }
+
+            if (this.dataVersion.equals(topicConfigDelta.getDataVersion())) {
+                return true;
+            }
+
+            for (TopicConfig topicConfig : topicConfigDelta.getUpdatedTopicConfigTable().values()) {
+                this.topicConfigTable.put(topicConfig.getTopicName(), topicConfig);
+            }
+            for (String topic : topicConfigDelta.getDeletedTopicSet()) {
+                this.topicConfigTable.remove(topic);
+                this.encodedTopicConfigTable.remove(topic);
+            }
+            this.dataVersion.assignNewOne(topicConfigDelta.getDataVersion());
+
+            if (null == this.journal) {
+                this.persist();
+                return true;
+            }
+
+            for (TopicConfig topicConfig : topicConfigDelta.getUpdatedTopicConfigTable().values()) {
+                this.journalRecordQueue.offer(new JournalRecord(topicConfig.getTopicName(), topicConfig,
+                    this.dataVersion));
+            }
+            for (String topic : topicConfigDelta.getDeletedTopicSet()) {
+                this.journalRecordQueue.offer(new JournalRecord(topic, null, this.dataVersion));
+            }
+        }
+
+        this.flushJournal();
+        return true;
+    }
+
+
+    public void shutdown() {
+        if (this.journal != null) {
+            this.journal.shutdown();
+        }
+    }
+
+
     @Override
     public String configFilePath() {
         return this.brokerController.getBrokerConfig().getTopicConfigPath();
@@ -319,4 +683,67 @@ public class TopicConfigManager extends ConfigManager {
     public ConcurrentHashMap<String, TopicConfig> getTopicConfigTable() {
         return topicConfigTable;
     }
+
+    /**
+     * 一条等待写入日志的变更，topicConfig为null表示删除
+     */
+    static class JournalRecord {
+        private final String topic;
+        private final TopicConfig topicConfig;
+        private final DataVersion dataVersion = new DataVersion();
+
+
+        JournalRecord(final String topic, final TopicConfig topicConfig, final DataVersion dataVersion) {
+            this.topic = topic;
+            this.topicConfig = topicConfig;
+            this.dataVersion.assignNewOne(dataVersion);
+        }
+    }
+
+    static class EncodedTopicConfig {
+        private final TopicConfig topicConfig;
+        // "topic":{...}
+        private final String content;
+
+
+        EncodedTopicConfig(final String topic, final TopicConfig topicConfig) {
+            this.topicConfig = topicConfig;
+            this.content =
+                    RemotingSerializable.toJson(topic, false) + ":"
+                            + RemotingSerializable.toJson(topicConfig, false);
+        }
+    }
+
+    /**
+     * 全量Topic配置的序列化结果
+     */
+    public static class EncodedTopicConfigTable {
+        private final DataVersion dataVersion;
+        private final String content;
+        private volatile byte[] body;
+
+
+        EncodedTopicConfigTable(final DataVersion dataVersion, final String content) {
+            this.dataVersion = dataVersion;
+            this.content = content;
+        }
+
+
+        public DataVersion getDataVersion() {
+            return dataVersion;
+        }
+
+
+        public String getContent() {
+            return content;
+        }
+
+
+        public byte[] getBody() {
+            if (null == this.body) {
+                this.body = this.content.getBytes();
+            }
+            return this.body;
+        }
+    }
 }
@@ -0,0 +1,194 @@
+package com.alibaba.rocketmq.broker.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.client.consumer.DefaultMQPushConsumer;
+import com.alibaba.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
+import com.alibaba.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import com.alibaba.rocketmq.client.consumer.listener.MessageListenerConcurrently;
+import com.alibaba.rocketmq.client.impl.CommunicationMode;
+import com.alibaba.rocketmq.client.impl.MQClientAPIImpl;
+import com.alibaba.rocketmq.client.producer.SendResult;
+import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.message.MessageId;
+import com.alibaba.rocketmq.common.protocol.body.ConsumerSendMsgBackBatchRequestBody;
+import com.alibaba.rocketmq.common.protocol.header.SendMessageRequestHeader;
+import com.alibaba.rocketmq.remoting.common.RemotingHelper;
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * 批量发回消费失败的消息：Broker按Offset逐条重新写入，客户端对失败的消息逐条发回
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class SendMessageBackBatchTest {
+    private static final String Topic = "SendMessageBackBatchTestTopic";
+    private static final String Group = "SendMessageBackBatchTestGroup";
+    // 不存在的CommitLog Offset
+    private static final long IllegalOffset = Long.MAX_VALUE / 2;
+    private static final int ListenPort = 10921;
+
+
+    private static void deleteFile(final File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteFile(f);
+            }
+        }
+        file.delete();
+    }
+
+
+    private static BrokerController createBrokerController(final File rootDir) {
+        final String root = rootDir.getAbsolutePath() + File.separator;
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setTopicConfigPath(root + "config" + File.separator + "topics.json");
+        brokerConfig.setConsumerOffsetPath(root + "config" + File.separator + "consumerOffset.json");
+        brokerConfig.setBrokerConfigPath(root + "config" + File.separator + "broker.properties");
+        brokerConfig.setSubscriptionGroupPath(root + "config" + File.separator + "subscriptionGroup.json");
+
+        NettyServerConfig nettyServerConfig = new NettyServerConfig();
+        nettyServerConfig.setListenPort(ListenPort);
+
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setHaListenPort(ListenPort + 1);
+        messageStoreConfig.setStorePathCommitLog(root + "commitlog");
+        messageStoreConfig.setStorePathConsumeQueue(root + "consumequeue");
+        messageStoreConfig.setStorePathIndex(root + "index");
+        messageStoreConfig.setStoreCheckpoint(root + "checkpoint");
+        messageStoreConfig.setAbortFile(root + "abort");
+        messageStoreConfig.setDelayOffsetStorePath(root + "config" + File.separator + "delayOffset.json");
+        messageStoreConfig.setTranStateTableStorePath(root + "transaction" + File.separator + "statetable");
+        messageStoreConfig.setTranRedoLogStorePath(root + "transaction" + File.separator + "redolog");
+        messageStoreConfig.setTimerStorePath(root + "timer");
+        messageStoreConfig.setTimerCheckpointStorePath(root + "config" + File.separator
+                + "timerCheckpoint.json");
+
+        return new BrokerController(brokerConfig, nettyServerConfig, new NettyClientConfig(),
+            messageStoreConfig);
+    }
+
+
+    private static MessageExt sendMessage(MQClientAPIImpl client, int i) throws Exception {
+        Message msg = new Message(Topic, "TagA", ("send back batch " + i).getBytes());
+        SendMessageRequestHeader requestHeader = new SendMessageRequestHeader();
+        requestHeader.setProducerGroup("SendMessageBackBatchTestProducer");
+        requestHeader.setTopic(msg.getTopic());
+        requestHeader.setDefaultTopic(MixAll.DEFAULT_TOPIC);
+        requestHeader.setDefaultTopicQueueNums(4);
+        requestHeader.setQueueId(0);
+        requestHeader.setSysFlag(0);
+        requestHeader.setBornTimestamp(System.currentTimeMillis());
+        requestHeader.setFlag(msg.getFlag());
+        requestHeader.setProperties(MessageDecoder.messageProperties2String(msg.getProperties()));
+
+        SendResult result =
+                client.sendMessage("127.0.0.1:" + ListenPort, "brokerName", msg, requestHeader, 1000 * 5,
+                    CommunicationMode.SYNC, null);
+        MessageId messageId = MessageDecoder.decodeMessageId(result.getMsgId());
+
+        MessageExt msgExt = new MessageExt();
+        msgExt.setTopic(Topic);
+        msgExt.setBody(msg.getBody());
+        msgExt.setStoreHost(messageId.getAddress());
+        msgExt.setCommitLogOffset(messageId.getOffset());
+        return msgExt;
+    }
+
+
+    private static MessageExt copyWithOffset(MessageExt msg, long commitLogOffset) {
+        MessageExt msgExt = new MessageExt();
+        msgExt.setTopic(msg.getTopic());
+        msgExt.setBody(msg.getBody());
+        msgExt.setStoreHost(msg.getStoreHost());
+        msgExt.setCommitLogOffset(commitLogOffset);
+        return msgExt;
+    }
+
+
+    @Test
+    public void test_sendMessageBackBatch() throws Exception {
+        File rootDir = new File(System.getProperty("java.io.tmpdir"), "sendbacktest_" + System.nanoTime());
+        BrokerController brokerController = createBrokerController(rootDir);
+        assertTrue(brokerController.initialize());
+        brokerController.start();
+
+        MQClientAPIImpl client = new MQClientAPIImpl(new NettyClientConfig(), null);
+        client.start();
+
+        DefaultMQPushConsumer consumer = new DefaultMQPushConsumer(Group);
+        consumer.setNamesrvAddr("127.0.0.1:9876");
+        consumer.registerMessageListener(new MessageListenerConcurrently() {
+            @Override
+            public ConsumeConcurrentlyStatus consumeMessage(List<MessageExt> msgs,
+                    ConsumeConcurrentlyContext context) {
+                return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+            }
+        });
+
+        try {
+            List<MessageExt> msgs = new ArrayList<MessageExt>();
+            for (int i = 0; i < 4; i++) {
+                msgs.add(sendMessage(client, i));
+            }
+            final String brokerAddr = RemotingHelper.parseSocketAddressAddr(msgs.get(0).getStoreHost());
+
+            // Broker只返回查找或者写入失败的Offset
+            ConsumerSendMsgBackBatchRequestBody requestBody = new ConsumerSendMsgBackBatchRequestBody();
+            requestBody.setGroup(Group);
+            requestBody.setDelayLevel(0);
+            requestBody.getOffsetList().add(msgs.get(0).getCommitLogOffset());
+            requestBody.getOffsetList().add(IllegalOffset);
+            requestBody.getOffsetList().add(msgs.get(1).getCommitLogOffset());
+            List<Long> failedOffsetList = client.consumerSendMessageBackBatch(brokerAddr, requestBody, 3000);
+            assertEquals(1, failedOffsetList.size());
+            assertEquals(IllegalOffset, failedOffsetList.get(0).longValue());
+
+            consumer.start();
+
+            // Broker处理失败的消息逐条发回，仍然失败并且没有路由可以发送时，返回给调用方
+            List<MessageExt> sendBackList = new ArrayList<MessageExt>();
+            sendBackList.add(msgs.get(2));
+            sendBackList.add(copyWithOffset(msgs.get(2), IllegalOffset));
+            sendBackList.add(msgs.get(3));
+            List<MessageExt> msgBackFailed =
+                    consumer.getDefaultMQPushConsumerImpl().sendMessageBack(sendBackList, 0);
+            assertEquals(1, msgBackFailed.size());
+            assertEquals(IllegalOffset, msgBackFailed.get(0).getCommitLogOffset());
+
+            // 批量请求本身失败（例如Broker不可达）时，全部消息逐条发回
+            sendBackList.clear();
+            for (int i = 0; i < 2; i++) {
+                MessageExt msg = copyWithOffset(msgs.get(i), msgs.get(i).getCommitLogOffset());
+                msg.setStoreHost(new InetSocketAddress("127.0.0.1", 1));
+                sendBackList.add(msg);
+            }
+            msgBackFailed = consumer.getDefaultMQPushConsumerImpl().sendMessageBack(sendBackList, 0);
+            assertEquals(2, msgBackFailed.size());
+            assertTrue(msgBackFailed.containsAll(sendBackList));
+        }
+        finally {
+            consumer.shutdown();
+            client.shutdown();
+            brokerController.shutdown();
+            deleteFile(rootDir);
+        }
+    }
+}
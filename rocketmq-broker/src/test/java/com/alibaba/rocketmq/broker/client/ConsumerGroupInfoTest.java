@@ -0,0 +1,77 @@
+package com.alibaba.rocketmq.broker.client;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.consumer.ConsumeFromWhere;
+import com.alibaba.rocketmq.common.protocol.heartbeat.ConsumeType;
+import com.alibaba.rocketmq.common.protocol.heartbeat.MessageModel;
+import com.alibaba.rocketmq.remoting.protocol.LanguageCode;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+
+/**
+ * 按clientId查找连接，连接注销或者关闭后查不到
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class ConsumerGroupInfoTest {
+    private static Channel newChannel() {
+        return new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    }
+
+
+    private static ConsumerGroupInfo newConsumerGroupInfo() {
+        return new ConsumerGroupInfo("GroupA", ConsumeType.CONSUME_PASSIVELY, MessageModel.CLUSTERING,
+            ConsumeFromWhere.CONSUME_FROM_LAST_OFFSET);
+    }
+
+
+    private static boolean register(final ConsumerGroupInfo consumerGroupInfo,
+            final ClientChannelInfo clientChannelInfo) {
+        return consumerGroupInfo.updateChannel(clientChannelInfo, ConsumeType.CONSUME_PASSIVELY,
+            MessageModel.CLUSTERING, ConsumeFromWhere.CONSUME_FROM_LAST_OFFSET);
+    }
+
+
+    @Test
+    public void test_findChannel() throws Exception {
+        ConsumerGroupInfo consumerGroupInfo = newConsumerGroupInfo();
+        ClientChannelInfo clientA = new ClientChannelInfo(newChannel(), "ClientA", LanguageCode.JAVA, 0);
+        ClientChannelInfo clientB = new ClientChannelInfo(newChannel(), "ClientB", LanguageCode.JAVA, 0);
+        assertTrue(register(consumerGroupInfo, clientA));
+        assertTrue(register(consumerGroupInfo, clientB));
+        assertFalse(register(consumerGroupInfo, clientA));
+
+        assertSame(clientA, consumerGroupInfo.findChannel("ClientA"));
+        assertSame(clientB, consumerGroupInfo.findChannel("ClientB"));
+        assertNull(consumerGroupInfo.findChannel("ClientC"));
+
+        consumerGroupInfo.unregisterChannel(clientA);
+        assertNull(consumerGroupInfo.findChannel("ClientA"));
+
+        consumerGroupInfo.doChannelCloseEvent("127.0.0.1:1234", clientB.getChannel());
+        assertNull(consumerGroupInfo.findChannel("ClientB"));
+    }
+
+
+    @Test
+    public void test_findChannel_reconnect() throws Exception {
+        ConsumerGroupInfo consumerGroupInfo = newConsumerGroupInfo();
+        ClientChannelInfo oldInfo = new ClientChannelInfo(newChannel(), "ClientA", LanguageCode.JAVA, 0);
+        ClientChannelInfo newInfo = new ClientChannelInfo(newChannel(), "ClientA", LanguageCode.JAVA, 0);
+        assertTrue(register(consumerGroupInfo, oldInfo));
+
+        // 重连后以新连接为准，旧连接关闭不影响新连接
+        assertTrue(register(consumerGroupInfo, newInfo));
+        assertSame(newInfo, consumerGroupInfo.findChannel("ClientA"));
+        consumerGroupInfo.doChannelCloseEvent("127.0.0.1:1234", oldInfo.getChannel());
+        assertSame(newInfo, consumerGroupInfo.findChannel("ClientA"));
+    }
+}
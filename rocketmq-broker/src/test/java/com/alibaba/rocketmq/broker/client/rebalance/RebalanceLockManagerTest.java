@@ -0,0 +1,100 @@
+package com.alibaba.rocketmq.broker.client.rebalance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * 锁按租约时间过期，定时扫描只清理过期的锁，续约过的锁保留
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class RebalanceLockManagerTest {
+    private static final long LeaseMillis = 400;
+    private RebalanceLockManager rebalanceLockManager;
+
+
+    @Before
+    public void setUp() {
+        File rootDir =
+                new File(System.getProperty("java.io.tmpdir"), "rebalancelocktest_" + System.nanoTime());
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setTopicConfigPath(rootDir.getAbsolutePath() + File.separator + "topics.json");
+        BrokerController brokerController =
+                new BrokerController(brokerConfig, new NettyServerConfig(), new NettyClientConfig(),
+                    new MessageStoreConfig());
+        this.rebalanceLockManager = new RebalanceLockManager(brokerController, LeaseMillis);
+    }
+
+
+    @Test
+    public void test_lease() throws Exception {
+        MessageQueue mq = new MessageQueue("TopicA", "BrokerA", 0);
+        assertEquals(LeaseMillis, this.rebalanceLockManager.getLeaseMillis());
+        assertTrue(this.rebalanceLockManager.tryLock("GroupA", mq, "ClientA"));
+        assertFalse(this.rebalanceLockManager.tryLock("GroupA", mq, "ClientB"));
+
+        // 租约到期后其他Client可以抢占
+        Thread.sleep(LeaseMillis + 100);
+        assertTrue(this.rebalanceLockManager.tryLock("GroupA", mq, "ClientB"));
+        assertFalse(this.rebalanceLockManager.tryLock("GroupA", mq, "ClientA"));
+    }
+
+
+    @Test
+    public void test_scan_expired_locks() throws Exception {
+        MessageQueue mq0 = new MessageQueue("TopicA", "BrokerA", 0);
+        MessageQueue mq1 = new MessageQueue("TopicA", "BrokerA", 1);
+        Set<MessageQueue> mqs = new HashSet<MessageQueue>();
+        mqs.add(mq0);
+        mqs.add(mq1);
+        assertEquals(mqs, this.rebalanceLockManager.tryLockBatch("GroupA", mqs, "ClientA"));
+        assertTrue(this.rebalanceLockManager.tryLock("GroupB", mq0, "ClientA"));
+        assertEquals(0, this.rebalanceLockManager.scanExpiredLocks());
+
+        // 只续约GroupA的mq1
+        Thread.sleep(LeaseMillis / 2);
+        assertTrue(this.rebalanceLockManager.tryLock("GroupA", mq1, "ClientA"));
+        Thread.sleep(LeaseMillis / 2 + 100);
+
+        assertEquals(2, this.rebalanceLockManager.scanExpiredLocks());
+        assertEquals(0, this.rebalanceLockManager.scanExpiredLocks());
+
+        // 续约过的锁仍然属于原持有者
+        assertFalse(this.rebalanceLockManager.tryLock("GroupA", mq1, "ClientB"));
+        assertTrue(this.rebalanceLockManager.tryLock("GroupA", mq0, "ClientB"));
+        assertTrue(this.rebalanceLockManager.tryLock("GroupB", mq0, "ClientB"));
+    }
+
+
+    @Test
+    public void test_unlock() throws Exception {
+        MessageQueue mq = new MessageQueue("TopicA", "BrokerA", 0);
+        Set<MessageQueue> mqs = new HashSet<MessageQueue>();
+        mqs.add(mq);
+        assertTrue(this.rebalanceLockManager.tryLock("GroupA", mq, "ClientA"));
+
+        // 非持有者解锁无效
+        this.rebalanceLockManager.unlockBatch("GroupA", mqs, "ClientB");
+        assertFalse(this.rebalanceLockManager.tryLock("GroupA", mq, "ClientB"));
+
+        this.rebalanceLockManager.unlockBatch("GroupA", mqs, "ClientA");
+        assertEquals(0, this.rebalanceLockManager.scanExpiredLocks());
+        assertTrue(this.rebalanceLockManager.tryLock("GroupA", mq, "ClientB"));
+    }
+}
@@ -0,0 +1,182 @@
+package com.alibaba.rocketmq.broker.digestlog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * 摘要统计按周期合并各条带并清零，长时间没有数据或者连接关闭后回收，单个请求日志按采样率打印
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class DigestStatsTableTest {
+    private static Channel newChannel() {
+        return new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    }
+
+
+    private static DigestStatsTable newTable() {
+        return new DigestStatsTable("TestDigest", LoggerFactory.getLogger(DigestStatsTableTest.class));
+    }
+
+
+    @Test
+    public void test_rollup() throws Exception {
+        final DigestStatsItem item = new DigestStatsItem();
+        final int threads = 4;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            final long cost = 100 * (i + 1);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int k = 0; k < 1000; k++) {
+                        item.add(2, 10, cost);
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+
+        // 各线程写入不同的条带，合并后总数不丢失，最大耗时取所有条带的最大值
+        long[] values = item.rollup();
+        assertEquals(4000, values[DigestStatsItem.Times]);
+        assertEquals(8000, values[DigestStatsItem.Nums]);
+        assertEquals(40000, values[DigestStatsItem.Size]);
+        assertEquals(1000 * (100 + 200 + 300 + 400), values[DigestStatsItem.CostTotal]);
+        assertEquals(400, values[DigestStatsItem.CostMax]);
+        assertEquals(0, item.getIdleRounds());
+
+        // 取出后清零，下个周期只统计新的数据
+        values = item.rollup();
+        assertEquals(0, values[DigestStatsItem.Times]);
+        assertEquals(0, values[DigestStatsItem.CostMax]);
+        assertEquals(1, item.getIdleRounds());
+
+        item.add(1, 5, 50);
+        values = item.rollup();
+        assertEquals(1, values[DigestStatsItem.Times]);
+        assertEquals(50, values[DigestStatsItem.CostMax]);
+        assertEquals(0, item.getIdleRounds());
+    }
+
+
+    @Test
+    public void test_record_by_topic_group_and_client() throws Exception {
+        DigestStatsTable table = newTable();
+        Channel channelA = newChannel();
+        Channel channelB = newChannel();
+        table.record("TopicA", "GroupA", channelA, 1, 100, 10);
+        table.record("TopicA", "GroupB", channelA, 1, 200, 20);
+        table.record("TopicA", "GroupA", channelB, 1, 300, 30);
+        table.record("TopicB", null, channelB, 1, 400, 40);
+
+        long[] values = table.getTopicGroupTable().get("TopicA").get("GroupA").rollup();
+        assertEquals(2, values[DigestStatsItem.Times]);
+        assertEquals(400, values[DigestStatsItem.Size]);
+        assertEquals(30, values[DigestStatsItem.CostMax]);
+
+        // 没有Group的请求归到空字符串下
+        assertNotNull(table.getTopicGroupTable().get("TopicB").get(""));
+
+        values = table.getClientTable().get(channelB).rollup();
+        assertEquals(2, values[DigestStatsItem.Times]);
+        assertEquals(700, values[DigestStatsItem.Size]);
+        assertEquals(70, values[DigestStatsItem.CostTotal]);
+    }
+
+
+    @Test
+    public void test_idle_eviction() throws Exception {
+        DigestStatsTable table = newTable();
+        Channel channel = newChannel();
+        table.record("TopicA", "GroupA", channel, 1, 100, 10);
+        table.record("TopicA", "GroupB", channel, 1, 100, 10);
+
+        table.tolog();
+        for (int i = 0; i < 3; i++) {
+            table.record("TopicA", "GroupB", channel, 1, 100, 10);
+            table.tolog();
+        }
+
+        // 连续3个周期没有数据还保留，超过后回收
+        assertNotNull(table.getTopicGroupTable().get("TopicA").get("GroupA"));
+        table.record("TopicA", "GroupB", channel, 1, 100, 10);
+        table.tolog();
+        assertNull(table.getTopicGroupTable().get("TopicA").get("GroupA"));
+        assertNotNull(table.getTopicGroupTable().get("TopicA").get("GroupB"));
+        assertNotNull(table.getClientTable().get(channel));
+
+        // Topic下所有Group都回收后Topic也回收
+        for (int i = 0; i < 4; i++) {
+            table.tolog();
+        }
+        assertTrue(table.getTopicGroupTable().isEmpty());
+        assertTrue(table.getClientTable().isEmpty());
+    }
+
+
+    @Test
+    public void test_inactive_client_eviction() throws Exception {
+        DigestStatsTable table = newTable();
+        Channel channelA = newChannel();
+        Channel channelB = newChannel();
+        table.record("TopicA", "GroupA", channelA, 1, 100, 10);
+        table.record("TopicA", "GroupA", channelB, 1, 100, 10);
+
+        // 连接关闭后，打印完最后一个周期的数据就回收
+        channelA.close();
+        table.tolog();
+        assertFalse(table.getClientTable().containsKey(channelA));
+        assertTrue(table.getClientTable().containsKey(channelB));
+        assertNotNull(table.getTopicGroupTable().get("TopicA").get("GroupA"));
+    }
+
+
+    @Test
+    public void test_live_log_sample_rate() throws Exception {
+        BrokerConfig brokerConfig = new BrokerConfig();
+        DigestLogManager digestLogManager =
+                new BrokerController(brokerConfig, new NettyServerConfig(), new NettyClientConfig(),
+                    new MessageStoreConfig()).getDigestLogManager();
+
+        // 默认不打印单个请求日志
+        assertEquals(0, brokerConfig.getDigestLiveLogSampleRate());
+        for (int i = 0; i < 10; i++) {
+            assertFalse(digestLogManager.isLiveLogSampled());
+        }
+
+        // 每N个请求打印一个
+        brokerConfig.setDigestLiveLogSampleRate(4);
+        int sampled = 0;
+        for (int i = 0; i < 100; i++) {
+            if (digestLogManager.isLiveLogSampled()) {
+                sampled++;
+            }
+        }
+        assertEquals(25, sampled);
+
+        brokerConfig.setDigestLiveLogSampleRate(1);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(digestLogManager.isLiveLogSampled());
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.alibaba.rocketmq.broker.offset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * 消费进度追加日志的回放，写了一半或者损坏的尾部被截掉，Epoch不一致时丢弃
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class ConsumerOffsetJournalTest {
+    private static final long Epoch = 7;
+    private File file;
+
+
+    @Before
+    public void setUp() {
+        this.file =
+                new File(System.getProperty("java.io.tmpdir"), "offsetjournaltest_" + System.nanoTime()
+                        + ".journal");
+    }
+
+
+    @After
+    public void tearDown() {
+        this.file.delete();
+    }
+
+
+    private static byte[] encode(final String key, final long... offsets) throws Exception {
+        Map<Integer, Long> map = new HashMap<Integer, Long>();
+        for (int i = 0; i < offsets.length; i++) {
+            map.put(i, offsets[i]);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ConsumerOffsetJournal.encodeRecord(new DataOutputStream(bytes), key, map);
+        return bytes.toByteArray();
+    }
+
+
+    private ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> load(final ConsumerOffsetJournal journal,
+            final long epoch, final long expectedRecords) throws Exception {
+        ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> table =
+                new ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>>();
+        assertEquals(expectedRecords, journal.load(epoch, table));
+        return table;
+    }
+
+
+    /**
+     * 写入两条完整的记录，返回文件长度
+     */
+    private long writeJournal() throws Exception {
+        ConsumerOffsetJournal journal = new ConsumerOffsetJournal(this.file.getAbsolutePath());
+        this.load(journal, Epoch, 0);
+        journal.append(encode("TopicA@GroupA", 10, 20));
+        journal.append(encode("TopicA@GroupA", 11));
+        final long fileSize = journal.getFileSize();
+        journal.shutdown();
+        return fileSize;
+    }
+
+
+    private void appendRaw(final byte[] data) throws Exception {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(this.file, "rw");
+        try {
+            randomAccessFile.seek(randomAccessFile.length());
+            randomAccessFile.write(data);
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+
+    @Test
+    public void test_replay() throws Exception {
+        final long fileSize = this.writeJournal();
+
+        ConsumerOffsetJournal journal = new ConsumerOffsetJournal(this.file.getAbsolutePath());
+        ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> table = this.load(journal, Epoch, 2);
+        // 后面的记录覆盖前面的记录
+        assertEquals(11L, table.get("TopicA@GroupA").get(0).longValue());
+        assertEquals(20L, table.get("TopicA@GroupA").get(1).longValue());
+        assertEquals(fileSize, journal.getFileSize());
+
+        // 回放后继续追加
+        journal.append(encode("TopicB@GroupB", 5));
+        journal.shutdown();
+
+        journal = new ConsumerOffsetJournal(this.file.getAbsolutePath());
+        table = this.load(journal, Epoch, 3);
+        assertEquals(5L, table.get("TopicB@GroupB").get(0).longValue());
+        journal.shutdown();
+    }
+
+
+    @Test
+    public void test_torn_tail() throws Exception {
+        final long fileSize = this.writeJournal();
+        byte[] record = encode("TopicB@GroupB", 5, 6);
+        byte[] torn = new byte[record.length - 3];
+        System.arraycopy(record, 0, torn, 0, torn.length);
+        this.appendRaw(torn);
+
+        ConsumerOffsetJournal journal = new ConsumerOffsetJournal(this.file.getAbsolutePath());
+        ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> table = this.load(journal, Epoch, 2);
+        assertTrue(!table.containsKey("TopicB@GroupB"));
+        assertEquals(fileSize, journal.getFileSize());
+
+        // 截断后追加的记录可以被回放
+        journal.append(encode("TopicC@GroupC", 1));
+        journal.shutdown();
+
+        journal = new ConsumerOffsetJournal(this.file.getAbsolutePath());
+        table = this.load(journal, Epoch, 3);
+        assertEquals(1L, table.get("TopicC@GroupC").get(0).longValue());
+        journal.shutdown();
+    }
+
+
+    @Test
+    public void test_corrupt_length() throws Exception {
+        final long fileSize = this.writeJournal();
+
+        // Key长度为负数（按short读取）或者队列数与记录长度不符，都当作日志结束，不能抛出异常
+        byte[] record = encode("TopicB@GroupB", 5, 6);
+        record[8] = (byte) 0xFF;
+        record[9] = (byte) 0xF0;
+        this.appendRaw(record);
+
+        ConsumerOffsetJournal journal = new ConsumerOffsetJournal(this.file.getAbsolutePath());
+        this.load(journal, Epoch, 2);
+        assertEquals(fileSize, journal.getFileSize());
+        journal.shutdown();
+
+        record = encode("TopicB@GroupB", 5, 6);
+        final int queueNumsPosition = 4 + 4 + 2 + "TopicB@GroupB".length();
+        record[queueNumsPosition] = (byte) 0x7F;
+        this.appendRaw(record);
+
+        journal = new ConsumerOffsetJournal(this.file.getAbsolutePath());
+        ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> table = this.load(journal, Epoch, 2);
+        assertTrue(!table.containsKey("TopicB@GroupB"));
+        assertEquals(fileSize, journal.getFileSize());
+        journal.shutdown();
+    }
+
+
+    @Test
+    public void test_epoch_mismatch() throws Exception {
+        this.writeJournal();
+
+        // 快照已经包含日志的全部数据，日志被丢弃并写入新的Epoch
+        ConsumerOffsetJournal journal = new ConsumerOffsetJournal(this.file.getAbsolutePath());
+        ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> table = this.load(journal, Epoch + 1, 0);
+        assertTrue(table.isEmpty());
+        assertEquals(8, journal.getFileSize());
+        journal.shutdown();
+
+        journal = new ConsumerOffsetJournal(this.file.getAbsolutePath());
+        this.load(journal, Epoch + 1, 0);
+        assertEquals(8, journal.getFileSize());
+        journal.shutdown();
+    }
+}
@@ -3,12 +3,16 @@
  */
 package com.alibaba.rocketmq.broker.offset;
 
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
 import java.util.Random;
 
 import org.junit.Test;
 
 import com.alibaba.rocketmq.broker.BrokerController;
 import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.TopicConfig;
 import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
 import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
 import com.alibaba.rocketmq.store.config.MessageStoreConfig;
@@ -33,8 +37,12 @@ public class ConsumerOffsetManagerTest {
 
         Random random = new Random();
 
+        brokerController.getTopicConfigManager().updateTopicConfig(new TopicConfig("TOPIC_A"));
+        brokerController.getTopicConfigManager().updateTopicConfig(new TopicConfig("TOPIC_B"));
+        brokerController.getTopicConfigManager().updateTopicConfig(new TopicConfig("TOPIC_C"));
         for (int i = 0; i < 100; i++) {
             String group = "DIANPU_GROUP_" + i;
+            brokerController.getSubscriptionGroupManager().findSubscriptionGroupConfig(group);
             for (int id = 0; id < 16; id++) {
                 consumerOffsetManager.commitOffset(group, "TOPIC_A", id,
                     random.nextLong() % 1024 * 1024 * 1024);
@@ -49,4 +57,45 @@ public class ConsumerOffsetManagerTest {
 
         brokerController.shutdown();
     }
+
+
+    @Test
+    public void test_commitOffset_not_exist() throws Exception {
+        File rootDir = new File(System.getProperty("java.io.tmpdir"), "offsettest_" + System.nanoTime());
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setTopicConfigPath(rootDir.getAbsolutePath() + File.separator + "topics.json");
+        brokerConfig.setSubscriptionGroupPath(rootDir.getAbsolutePath() + File.separator
+                + "subscriptionGroup.json");
+        BrokerController brokerController =
+                new BrokerController(brokerConfig, new NettyServerConfig(), new NettyClientConfig(),
+                    new MessageStoreConfig());
+        ConsumerOffsetManager consumerOffsetManager = brokerController.getConsumerOffsetManager();
+
+        try {
+            brokerController.getTopicConfigManager().updateTopicConfig(new TopicConfig("TopicA"));
+            brokerController.getSubscriptionGroupManager().findSubscriptionGroupConfig("GroupA");
+
+            // 不存在的Topic或者订阅组不提交进度，也不分配id
+            consumerOffsetManager.commitOffset("GroupA", "TopicNotExist", 0, 100);
+            consumerOffsetManager.commitOffset("GroupNotExist", "TopicA", 0, 100);
+            assertEquals(-1, brokerController.getTopicConfigManager().findTopicId("TopicNotExist"));
+            assertEquals(-1, brokerController.getSubscriptionGroupManager().findGroupId("GroupNotExist"));
+            assertEquals(-1, consumerOffsetManager.queryOffset("GroupNotExist", "TopicA", 0));
+            assertEquals(0, consumerOffsetManager.getOffsetTable().size());
+
+            consumerOffsetManager.commitOffset("GroupA", "TopicA", 0, 100);
+            assertEquals(100, consumerOffsetManager.queryOffset("GroupA", "TopicA", 0));
+            consumerOffsetManager.commitOffset("GroupA", "TopicA", 0, 200);
+            assertEquals(200, consumerOffsetManager.queryOffset("GroupA", "TopicA", 0));
+        }
+        finally {
+            File[] files = rootDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            rootDir.delete();
+        }
+    }
 }
@@ -0,0 +1,191 @@
+package com.alibaba.rocketmq.broker.slave;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.broker.offset.ConsumerOffsetManager;
+import com.alibaba.rocketmq.broker.topic.TopicConfigManager;
+import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.DataVersion;
+import com.alibaba.rocketmq.common.TopicConfig;
+import com.alibaba.rocketmq.common.protocol.body.TopicConfigDeltaWrapper;
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * Slave增量同步：Master按检查点返回变化的消费进度，Slave应用增量Topic配置
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class MetadataDeltaSyncTest {
+    private File rootDir;
+    private BrokerController master;
+    private BrokerController slave;
+
+
+    private BrokerController createBrokerController(final String name) {
+        File dir = new File(this.rootDir, name);
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setTopicConfigPath(new File(dir, "topics.json").getAbsolutePath());
+        brokerConfig.setSubscriptionGroupPath(new File(dir, "subscriptionGroup.json").getAbsolutePath());
+        brokerConfig.setConsumerOffsetPath(new File(dir, "consumerOffset.json").getAbsolutePath());
+        return new BrokerController(brokerConfig, new NettyServerConfig(), new NettyClientConfig(),
+            new MessageStoreConfig());
+    }
+
+
+    @Before
+    public void setUp() {
+        this.rootDir =
+                new File(System.getProperty("java.io.tmpdir"), "metadatadeltatest_" + System.nanoTime());
+        this.master = this.createBrokerController("master");
+        this.slave = this.createBrokerController("slave");
+    }
+
+
+    @After
+    public void tearDown() {
+        this.master.getTopicConfigManager().shutdown();
+        this.slave.getTopicConfigManager().shutdown();
+        delete(this.rootDir);
+    }
+
+
+    private static void delete(final File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+
+
+    private void createTopicAndGroup(final String topic, final String group) {
+        this.master.getTopicConfigManager().updateTopicConfig(new TopicConfig(topic));
+        this.master.getSubscriptionGroupManager().findSubscriptionGroupConfig(group);
+    }
+
+
+    private static Map<String, ConcurrentHashMap<Integer, Long>> newTable() {
+        return new HashMap<String, ConcurrentHashMap<Integer, Long>>();
+    }
+
+
+    @Test
+    public void test_buildSyncOffsetTable() throws Exception {
+        ConsumerOffsetManager consumerOffsetManager = this.master.getConsumerOffsetManager();
+        final long epoch = consumerOffsetManager.getSyncEpoch();
+        this.createTopicAndGroup("TopicA", "GroupA");
+        this.createTopicAndGroup("TopicB", "GroupB");
+        consumerOffsetManager.commitOffset("GroupA", "TopicA", 0, 100);
+
+        // 第一次同步，纪元不一致，返回全部进度
+        Map<String, ConcurrentHashMap<Integer, Long>> table = newTable();
+        long checkpoint = consumerOffsetManager.buildSyncOffsetTable(-1, -1, table);
+        assertEquals(1, table.size());
+        assertEquals(100L, table.get("TopicA@GroupA").get(0).longValue());
+
+        // 同步时并发提交的进度可能重复返回一次，之后只返回新提交的进度
+        consumerOffsetManager.commitOffset("GroupB", "TopicB", 1, 200);
+        table = newTable();
+        checkpoint = consumerOffsetManager.buildSyncOffsetTable(epoch, checkpoint, table);
+        assertEquals(200L, table.get("TopicB@GroupB").get(1).longValue());
+
+        table = newTable();
+        checkpoint = consumerOffsetManager.buildSyncOffsetTable(epoch, checkpoint, table);
+        assertFalse(table.containsKey("TopicA@GroupA"));
+
+        table = newTable();
+        checkpoint = consumerOffsetManager.buildSyncOffsetTable(epoch, checkpoint, table);
+        assertTrue(table.isEmpty());
+
+        consumerOffsetManager.commitOffset("GroupA", "TopicA", 0, 150);
+        table = newTable();
+        checkpoint = consumerOffsetManager.buildSyncOffsetTable(epoch, checkpoint, table);
+        assertEquals(1, table.size());
+        assertEquals(150L, table.get("TopicA@GroupA").get(0).longValue());
+
+        // Master重启后纪元变化，Slave带来的旧纪元返回全部进度
+        table = newTable();
+        consumerOffsetManager.buildSyncOffsetTable(epoch - 1, checkpoint, table);
+        assertEquals(2, table.size());
+    }
+
+
+    @Test
+    public void test_updateOffsetTableFromMaster() throws Exception {
+        this.createTopicAndGroup("TopicA", "GroupA");
+        this.master.getConsumerOffsetManager().commitOffset("GroupA", "TopicA", 0, 100);
+        this.master.getConsumerOffsetManager().commitOffset("GroupA", "TopicA", 3, 300);
+
+        Map<String, ConcurrentHashMap<Integer, Long>> table = newTable();
+        this.master.getConsumerOffsetManager().buildSyncOffsetTable(-1, -1, table);
+        this.slave.getConsumerOffsetManager().updateOffsetTableFromMaster(table);
+        assertEquals(100, this.slave.getConsumerOffsetManager().queryOffset("GroupA", "TopicA", 0));
+        assertEquals(300, this.slave.getConsumerOffsetManager().queryOffset("GroupA", "TopicA", 3));
+        assertEquals(-1, this.slave.getConsumerOffsetManager().queryOffset("GroupA", "TopicA", 1));
+    }
+
+
+    @Test
+    public void test_updateTopicConfigTableFromMasterDelta() throws Exception {
+        TopicConfigManager masterTopicConfigManager = this.master.getTopicConfigManager();
+        TopicConfigManager slaveTopicConfigManager = this.slave.getTopicConfigManager();
+        assertTrue(slaveTopicConfigManager.load());
+
+        masterTopicConfigManager.updateTopicConfig(new TopicConfig("TopicA", 4, 4, 6));
+        masterTopicConfigManager.updateTopicConfig(new TopicConfig("TopicB", 4, 4, 6));
+        slaveTopicConfigManager.updateTopicConfigTableFromMaster(masterTopicConfigManager
+            .buildTopicConfigSerializeWrapper());
+        assertEquals(masterTopicConfigManager.getDataVersion(), slaveTopicConfigManager.getDataVersion());
+
+        masterTopicConfigManager.updateTopicConfig(new TopicConfig("TopicA", 8, 8, 6));
+        masterTopicConfigManager.updateTopicConfig(new TopicConfig("TopicC", 4, 4, 6));
+        masterTopicConfigManager.deleteTopicConfig("TopicB");
+        DataVersion slaveDataVersion = slaveTopicConfigManager.getDataVersion();
+        TopicConfigDeltaWrapper delta =
+                masterTopicConfigManager.buildTopicConfigDeltaWrapper(slaveDataVersion);
+        assertNotNull(delta);
+        assertTrue(slaveTopicConfigManager.updateTopicConfigTableFromMasterDelta(delta));
+
+        assertEquals(masterTopicConfigManager.getDataVersion(), slaveTopicConfigManager.getDataVersion());
+        assertEquals(8, slaveTopicConfigManager.selectTopicConfig("TopicA").getWriteQueueNums());
+        assertNotNull(slaveTopicConfigManager.selectTopicConfig("TopicC"));
+        assertNull(slaveTopicConfigManager.selectTopicConfig("TopicB"));
+
+        // 重复应用同一个增量，基准版本已经不一致，要求全量同步
+        assertFalse(slaveTopicConfigManager.updateTopicConfigTableFromMasterDelta(delta));
+
+        // 版本相同的增量只是心跳
+        delta = masterTopicConfigManager.buildTopicConfigDeltaWrapper(slaveDataVersion);
+        assertTrue(slaveTopicConfigManager.updateTopicConfigTableFromMasterDelta(delta));
+
+        // 增量写入日志，重启后可以恢复
+        DataVersion dataVersion = new DataVersion();
+        dataVersion.assignNewOne(slaveTopicConfigManager.getDataVersion());
+        slaveTopicConfigManager.shutdown();
+        BrokerController restarted = this.createBrokerController("slave");
+        assertTrue(restarted.getTopicConfigManager().load());
+        assertEquals(dataVersion, restarted.getTopicConfigManager().getDataVersion());
+        assertEquals(8, restarted.getTopicConfigManager().selectTopicConfig("TopicA").getWriteQueueNums());
+        assertNull(restarted.getTopicConfigManager().selectTopicConfig("TopicB"));
+        restarted.getTopicConfigManager().shutdown();
+    }
+}
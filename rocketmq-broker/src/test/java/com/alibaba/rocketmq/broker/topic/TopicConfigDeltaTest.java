@@ -0,0 +1,140 @@
+package com.alibaba.rocketmq.broker.topic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.DataVersion;
+import com.alibaba.rocketmq.common.TopicConfig;
+import com.alibaba.rocketmq.common.constant.PermName;
+import com.alibaba.rocketmq.common.protocol.body.TopicConfigDeltaWrapper;
+import com.alibaba.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * 增量注册：按基准版本构造增量Topic配置，基准版本无法衔接时要求全量注册
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class TopicConfigDeltaTest {
+    private File rootDir;
+    private TopicConfigManager topicConfigManager;
+
+
+    private static DataVersion copyOf(final DataVersion dataVersion) {
+        DataVersion copy = new DataVersion();
+        copy.assignNewOne(dataVersion);
+        return copy;
+    }
+
+
+    @Before
+    public void setUp() {
+        this.rootDir = new File(System.getProperty("java.io.tmpdir"), "topicdeltatest_" + System.nanoTime());
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setTopicConfigPath(this.rootDir.getAbsolutePath() + File.separator + "topics.json");
+        BrokerController brokerController =
+                new BrokerController(brokerConfig, new NettyServerConfig(), new NettyClientConfig(),
+                    new MessageStoreConfig());
+        this.topicConfigManager = brokerController.getTopicConfigManager();
+    }
+
+
+    @After
+    public void tearDown() {
+        File[] files = this.rootDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        this.rootDir.delete();
+    }
+
+
+    @Test
+    public void test_delta_after_base() throws Exception {
+        this.topicConfigManager.createTopicInSendMessageBackMethod("TopicA", 4, PermName.PERM_READ);
+        DataVersion base = copyOf(this.topicConfigManager.getDataVersion());
+
+        this.topicConfigManager.createTopicInSendMessageBackMethod("TopicB", 4, PermName.PERM_READ);
+        this.topicConfigManager.createTopicInSendMessageBackMethod("TopicC", 4, PermName.PERM_READ);
+        this.topicConfigManager.deleteTopicConfig("TopicA");
+        this.topicConfigManager.deleteTopicConfig("TopicC");
+
+        TopicConfigDeltaWrapper delta = this.topicConfigManager.buildTopicConfigDeltaWrapper(base);
+        assertNotNull(delta);
+        assertEquals(base, delta.getBaseDataVersion());
+        assertEquals(this.topicConfigManager.getDataVersion(), delta.getDataVersion());
+
+        // 基准版本之前的变更不会重复发送，后来删除的Topic只出现在删除列表里
+        assertEquals(1, delta.getUpdatedTopicConfigTable().size());
+        assertTrue(delta.getUpdatedTopicConfigTable().containsKey("TopicB"));
+        assertEquals(2, delta.getDeletedTopicSet().size());
+        assertTrue(delta.getDeletedTopicSet().contains("TopicA"));
+        assertTrue(delta.getDeletedTopicSet().contains("TopicC"));
+    }
+
+
+    @Test
+    public void test_delta_same_version_is_heartbeat() throws Exception {
+        this.topicConfigManager.createTopicInSendMessageBackMethod("TopicA", 4, PermName.PERM_READ);
+        DataVersion base = copyOf(this.topicConfigManager.getDataVersion());
+
+        TopicConfigDeltaWrapper delta = this.topicConfigManager.buildTopicConfigDeltaWrapper(base);
+        assertNotNull(delta);
+        assertTrue(delta.getUpdatedTopicConfigTable().isEmpty());
+        assertTrue(delta.getDeletedTopicSet().isEmpty());
+    }
+
+
+    @Test
+    public void test_delta_base_not_match() throws Exception {
+        this.topicConfigManager.createTopicInSendMessageBackMethod("TopicA", 4, PermName.PERM_READ);
+        final DataVersion current = copyOf(this.topicConfigManager.getDataVersion());
+
+        // 基准版本比当前版本新，例如Broker重启后版本回退
+        DataVersion newer = copyOf(current);
+        newer.getCounter().incrementAndGet();
+        assertNull(this.topicConfigManager.buildTopicConfigDeltaWrapper(newer));
+
+        // 计数相同但时间戳不同，不是同一份数据
+        DataVersion sameCounter = copyOf(current);
+        sameCounter.setTimestatmp(current.getTimestatmp() - 1);
+        assertNull(this.topicConfigManager.buildTopicConfigDeltaWrapper(sameCounter));
+    }
+
+
+    @Test
+    public void test_delta_base_before_change_record() throws Exception {
+        this.topicConfigManager.createTopicInSendMessageBackMethod("TopicA", 4, PermName.PERM_READ);
+        DataVersion base = copyOf(this.topicConfigManager.getDataVersion());
+
+        // 版本被直接修改（Slave全量同步）后，变更记录从新版本开始，更早的基准版本只能全量注册
+        TopicConfigSerializeWrapper wrapper = new TopicConfigSerializeWrapper();
+        wrapper.getTopicConfigTable().put("TopicM", new TopicConfig("TopicM"));
+        wrapper.getDataVersion().getCounter().set(base.getCounter().get() + 10);
+        this.topicConfigManager.updateTopicConfigTableFromMaster(wrapper);
+
+        assertNull(this.topicConfigManager.buildTopicConfigDeltaWrapper(base));
+
+        DataVersion synced = copyOf(this.topicConfigManager.getDataVersion());
+        this.topicConfigManager.createTopicInSendMessageBackMethod("TopicB", 4, PermName.PERM_READ);
+        TopicConfigDeltaWrapper delta = this.topicConfigManager.buildTopicConfigDeltaWrapper(synced);
+        assertNotNull(delta);
+        assertEquals(1, delta.getUpdatedTopicConfigTable().size());
+        assertTrue(delta.getUpdatedTopicConfigTable().containsKey("TopicB"));
+    }
+}
@@ -0,0 +1,195 @@
+package com.alibaba.rocketmq.broker.topic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.DataVersion;
+import com.alibaba.rocketmq.common.TopicConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * Topic配置追加日志的回放，写了一半的尾部被截掉，日志头与快照版本不一致时丢弃
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class TopicConfigJournalTest {
+    private File rootDir;
+    private File file;
+
+
+    @Before
+    public void setUp() {
+        this.rootDir = new File(System.getProperty("java.io.tmpdir"), "topicjournaltest_" + System.nanoTime());
+        this.file = new File(this.rootDir, "topics.json.journal");
+    }
+
+
+    @After
+    public void tearDown() {
+        File[] files = this.rootDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        this.rootDir.delete();
+    }
+
+
+    private static DataVersion newVersion(final long timestamp, final long counter) {
+        DataVersion dataVersion = new DataVersion();
+        dataVersion.setTimestatmp(timestamp);
+        dataVersion.getCounter().set(counter);
+        return dataVersion;
+    }
+
+
+    /**
+     * 快照版本为(1000, 1)，写入两条修改、一条删除，返回文件长度
+     */
+    private long writeJournal() throws Exception {
+        TopicConfigJournal journal = new TopicConfigJournal(this.file.getAbsolutePath());
+        assertEquals(0, journal.load(newVersion(1000, 1), new ConcurrentHashMap<String, TopicConfig>()));
+        journal.append(TopicConfigJournal.TypeUpdate, new TopicConfig("TopicA", 4, 4, 6).encode(),
+            newVersion(1001, 2));
+        journal.append(TopicConfigJournal.TypeUpdate, new TopicConfig("TopicB", 8, 8, 6).encode(),
+            newVersion(1002, 3));
+        journal.append(TopicConfigJournal.TypeDelete, "TopicOld", newVersion(1003, 4));
+        journal.force();
+        final long fileSize = journal.getFileSize();
+        journal.shutdown();
+        return fileSize;
+    }
+
+
+    private static ConcurrentHashMap<String, TopicConfig> snapshotTable() {
+        ConcurrentHashMap<String, TopicConfig> table = new ConcurrentHashMap<String, TopicConfig>();
+        table.put("TopicOld", new TopicConfig("TopicOld"));
+        return table;
+    }
+
+
+    @Test
+    public void test_replay() throws Exception {
+        final long fileSize = this.writeJournal();
+
+        TopicConfigJournal journal = new TopicConfigJournal(this.file.getAbsolutePath());
+        DataVersion dataVersion = newVersion(1000, 1);
+        ConcurrentHashMap<String, TopicConfig> table = snapshotTable();
+        assertEquals(3, journal.load(dataVersion, table));
+        journal.shutdown();
+
+        // 回放后数据版本为最后一条记录的版本
+        assertEquals(newVersion(1003, 4), dataVersion);
+        assertEquals(2, table.size());
+        assertEquals(4, table.get("TopicA").getWriteQueueNums());
+        assertEquals(8, table.get("TopicB").getReadQueueNums());
+        assertNull(table.get("TopicOld"));
+        assertEquals(fileSize, this.file.length());
+    }
+
+
+    @Test
+    public void test_torn_tail() throws Exception {
+        final long fileSize = this.writeJournal();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(this.file, "rw");
+        try {
+            // 最后一条记录只写了一半
+            randomAccessFile.setLength(fileSize - 5);
+        }
+        finally {
+            randomAccessFile.close();
+        }
+
+        TopicConfigJournal journal = new TopicConfigJournal(this.file.getAbsolutePath());
+        DataVersion dataVersion = newVersion(1000, 1);
+        ConcurrentHashMap<String, TopicConfig> table = snapshotTable();
+        assertEquals(2, journal.load(dataVersion, table));
+        assertEquals(newVersion(1002, 3), dataVersion);
+        assertNotNull(table.get("TopicOld"));
+
+        // 截断后追加的记录可以被回放
+        final long truncatedSize = journal.getFileSize();
+        assertTrue(truncatedSize < fileSize - 5);
+        journal.append(TopicConfigJournal.TypeDelete, "TopicOld", newVersion(1004, 4));
+        journal.shutdown();
+
+        journal = new TopicConfigJournal(this.file.getAbsolutePath());
+        dataVersion = newVersion(1000, 1);
+        table = snapshotTable();
+        assertEquals(3, journal.load(dataVersion, table));
+        assertEquals(newVersion(1004, 4), dataVersion);
+        assertNull(table.get("TopicOld"));
+        journal.shutdown();
+    }
+
+
+    @Test
+    public void test_version_mismatch() throws Exception {
+        this.writeJournal();
+
+        // 快照已经包含日志的全部数据，日志被丢弃，日志头改为快照版本
+        TopicConfigJournal journal = new TopicConfigJournal(this.file.getAbsolutePath());
+        DataVersion dataVersion = newVersion(2000, 9);
+        ConcurrentHashMap<String, TopicConfig> table = snapshotTable();
+        assertEquals(0, journal.load(dataVersion, table));
+        assertEquals(newVersion(2000, 9), dataVersion);
+        assertEquals(1, table.size());
+        assertEquals(16, journal.getFileSize());
+        journal.shutdown();
+    }
+
+
+    @Test
+    public void test_manager_restart() throws Exception {
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setTopicConfigPath(new File(this.rootDir, "topics.json").getAbsolutePath());
+        TopicConfigManager topicConfigManager = this.createTopicConfigManager(brokerConfig);
+        assertTrue(topicConfigManager.load());
+        topicConfigManager.updateTopicConfig(new TopicConfig("TopicA", 4, 4, 6));
+        topicConfigManager.updateTopicConfig(new TopicConfig("TopicB", 4, 4, 6));
+        topicConfigManager.deleteTopicConfig("TopicA");
+        DataVersion dataVersion = new DataVersion();
+        dataVersion.assignNewOne(topicConfigManager.getDataVersion());
+        topicConfigManager.shutdown();
+
+        // 快照没有重写，重启后从日志恢复Topic配置与数据版本
+        topicConfigManager = this.createTopicConfigManager(brokerConfig);
+        assertTrue(topicConfigManager.load());
+        assertNull(topicConfigManager.selectTopicConfig("TopicA"));
+        assertNotNull(topicConfigManager.selectTopicConfig("TopicB"));
+        assertEquals(dataVersion, topicConfigManager.getDataVersion());
+
+        // 写全量快照后日志清空，重启结果不变
+        topicConfigManager.persist();
+        topicConfigManager.shutdown();
+        topicConfigManager = this.createTopicConfigManager(brokerConfig);
+        assertTrue(topicConfigManager.load());
+        assertNotNull(topicConfigManager.selectTopicConfig("TopicB"));
+        assertEquals(dataVersion, topicConfigManager.getDataVersion());
+        topicConfigManager.shutdown();
+    }
+
+
+    private TopicConfigManager createTopicConfigManager(final BrokerConfig brokerConfig) {
+        BrokerController brokerController =
+                new BrokerController(brokerConfig, new NettyServerConfig(), new NettyClientConfig(),
+                    new MessageStoreConfig());
+        return brokerController.getTopicConfigManager();
+    }
+}
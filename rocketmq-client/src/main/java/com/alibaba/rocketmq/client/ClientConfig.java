@@ -34,6 +34,10 @@ public class ClientConfig {
     private int pollNameServerInteval = 1000 * 30;
     private int heartbeatBrokerInterval = 1000 * 30;
     private int persistConsumerOffsetInterval = 1000 * 5;
+    // 拉消息线程数，按照Broker分片
+    private int pullThreadNums = Math.min(Runtime.getRuntime().availableProcessors(), 4);
+    // 是否向Name Server长轮询订阅Topic路由变化
+    private boolean topicRouteWatchEnable = true;
 
 
     public String buildMQClientId() {
@@ -55,6 +59,8 @@ public class ClientConfig {
         this.pollNameServerInteval = cc.pollNameServerInteval;
         this.heartbeatBrokerInterval = cc.heartbeatBrokerInterval;
         this.persistConsumerOffsetInterval = cc.persistConsumerOffsetInterval;
+        this.pullThreadNums = cc.pullThreadNums;
+        this.topicRouteWatchEnable = cc.topicRouteWatchEnable;
     }
 
 
@@ -67,6 +73,8 @@ public class ClientConfig {
         cc.pollNameServerInteval = pollNameServerInteval;
         cc.heartbeatBrokerInterval = heartbeatBrokerInterval;
         cc.persistConsumerOffsetInterval = persistConsumerOffsetInterval;
+        cc.pullThreadNums = pullThreadNums;
+        cc.topicRouteWatchEnable = topicRouteWatchEnable;
         return cc;
     }
 
@@ -141,12 +149,33 @@ public class ClientConfig {
     }
 
 
+    public int getPullThreadNums() {
+        return pullThreadNums;
+    }
+
+
+    public void setPullThreadNums(int pullThreadNums) {
+        this.pullThreadNums = pullThreadNums;
+    }
+
+
+    public boolean isTopicRouteWatchEnable() {
+        return topicRouteWatchEnable;
+    }
+
+
+    public void setTopicRouteWatchEnable(boolean topicRouteWatchEnable) {
+        this.topicRouteWatchEnable = topicRouteWatchEnable;
+    }
+
+
     @Override
     public String toString() {
         return "ClientConfig [namesrvAddr=" + namesrvAddr + ", clientIP=" + clientIP + ", instanceName="
                 + instanceName + ", clientCallbackExecutorThreads=" + clientCallbackExecutorThreads
                 + ", pollNameServerInteval=" + pollNameServerInteval + ", heartbeatBrokerInterval="
                 + heartbeatBrokerInterval + ", persistConsumerOffsetInterval="
-                + persistConsumerOffsetInterval + "]";
+                + persistConsumerOffsetInterval + ", pullThreadNums=" + pullThreadNums
+                + ", topicRouteWatchEnable=" + topicRouteWatchEnable + "]";
     }
 }
@@ -89,6 +89,22 @@ public class DefaultMQPushConsumer extends ClientConfig implements MQPushConsume
      * 本地队列消息数超过此阀值，开始流控
      */
     private int pullThresholdForQueue = 1000;
+    /**
+     * 本地队列缓存消息体总大小超过此阀值（单位MB），开始流控
+     */
+    private int pullThresholdSizeForQueue = 100;
+    /**
+     * 同一个客户端实例内所有队列缓存消息体总大小超过此阀值（单位MB），开始流控
+     */
+    private int pullThresholdSizeForClient = 512;
+    /**
+     * 是否根据消费速度自适应调整本地队列缓存消息数
+     */
+    private boolean adaptivePullEnable = false;
+    /**
+     * 自适应流控时，本地队列最多缓存多长时间（单位毫秒）能够消费完的消息
+     */
+    private long adaptivePullBufferTime = 5000;
     /**
      * 拉消息间隔，如果为了降低拉取速度，可以设置大于0的值
      */
@@ -101,6 +117,10 @@ public class DefaultMQPushConsumer extends ClientConfig implements MQPushConsume
      * 拉消息，一次拉多少条
      */
     private int pullBatchSize = 32;
+    /**
+     * 同一个Broker上连续拉到消息的队列，一次请求最多合并拉取多少个队列，设置为1表示不合并
+     */
+    private int pullBatchQueueNums = 16;
 
 
     public DefaultMQPushConsumer() {
@@ -262,6 +282,16 @@ public class DefaultMQPushConsumer extends ClientConfig implements MQPushConsume
     }
 
 
+    public int getPullBatchQueueNums() {
+        return pullBatchQueueNums;
+    }
+
+
+    public void setPullBatchQueueNums(int pullBatchQueueNums) {
+        this.pullBatchQueueNums = pullBatchQueueNums;
+    }
+
+
     public long getPullInterval() {
         return pullInterval;
     }
@@ -282,6 +312,46 @@ public class DefaultMQPushConsumer extends ClientConfig implements MQPushConsume
     }
 
 
+    public int getPullThresholdSizeForQueue() {
+        return pullThresholdSizeForQueue;
+    }
+
+
+    public void setPullThresholdSizeForQueue(int pullThresholdSizeForQueue) {
+        this.pullThresholdSizeForQueue = pullThresholdSizeForQueue;
+    }
+
+
+    public int getPullThresholdSizeForClient() {
+        return pullThresholdSizeForClient;
+    }
+
+
+    public void setPullThresholdSizeForClient(int pullThresholdSizeForClient) {
+        this.pullThresholdSizeForClient = pullThresholdSizeForClient;
+    }
+
+
+    public boolean isAdaptivePullEnable() {
+        return adaptivePullEnable;
+    }
+
+
+    public void setAdaptivePullEnable(boolean adaptivePullEnable) {
+        this.adaptivePullEnable = adaptivePullEnable;
+    }
+
+
+    public long getAdaptivePullBufferTime() {
+        return adaptivePullBufferTime;
+    }
+
+
+    public void setAdaptivePullBufferTime(long adaptivePullBufferTime) {
+        this.adaptivePullBufferTime = adaptivePullBufferTime;
+    }
+
+
     public Map<String, String> getSubscription() {
         return subscription;
     }
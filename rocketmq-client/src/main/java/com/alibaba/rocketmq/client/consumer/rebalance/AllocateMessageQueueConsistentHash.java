@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.client.consumer.rebalance;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.alibaba.rocketmq.client.consumer.AllocateMessageQueueStrategy;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+
+
+/**
+ * 一致性Hash分配队列算法，每个Consumer在Hash环上有多个虚拟节点<br>
+ * Consumer加入或者退出时，只有大约1/N的队列需要迁移，其他队列的缓存消息不受影响<br>
+ * 可以按照Consumer的处理能力设置权重，权重越大虚拟节点越多，同一个订阅组的所有Consumer必须使用相同的配置
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-7
+ */
+public class AllocateMessageQueueConsistentHash implements AllocateMessageQueueStrategy {
+    private final int virtualNodeCnt;
+    // Consumer权重，未配置的Consumer权重为1
+    private Map<String/* clientId */, Integer> weightTable = new HashMap<String, Integer>();
+    // 缓存最近一次构建的Hash环，Consumer集合不变时直接复用
+    private volatile HashRing lastHashRing;
+
+
+    public AllocateMessageQueueConsistentHash() {
+        this(100);
+    }
+
+
+    public AllocateMessageQueueConsistentHash(int virtualNodeCnt) {
+        if (virtualNodeCnt < 1) {
+            throw new IllegalArgumentException("virtualNodeCnt is less than 1");
+        }
+
+        this.virtualNodeCnt = virtualNodeCnt;
+    }
+
+
+    @Override
+    public List<MessageQueue> allocate(String currentCID, List<MessageQueue> mqAll, List<String> cidAll) {
+        if (currentCID == null || currentCID.length() < 1) {
+            throw new IllegalArgumentException("currentCID is empty");
+        }
+        if (mqAll == null || mqAll.size() < 1) {
+            throw new IllegalArgumentException("mqAll is null or  mqAll'size  less one");
+        }
+        if (cidAll == null || cidAll.size() < 1) {
+            throw new IllegalArgumentException("cidAll is null or  cidAll'size less one");
+        }
+
+        List<MessageQueue> result = new ArrayList<MessageQueue>();
+        if (!cidAll.contains(currentCID)) { // 不存在此ConsumerId ,直接返回
+            return result;
+        }
+
+        HashRing hashRing = this.lastHashRing;
+        if (null == hashRing || !hashRing.cidAll.equals(cidAll)) {
+            hashRing = new HashRing(new ArrayList<String>(cidAll));
+            this.lastHashRing = hashRing;
+        }
+
+        for (MessageQueue mq : mqAll) {
+            if (currentCID.equals(hashRing.route(mq))) {
+                result.add(mq);
+            }
+        }
+
+        return result;
+    }
+
+
+    private int weightOf(final String cid) {
+        Integer weight = this.weightTable.get(cid);
+        if (weight != null && weight > 0) {
+            return weight;
+        }
+
+        return 1;
+    }
+
+
+    /**
+     * 取MD5的前8个字节作为Hash值，保证不同的Consumer计算结果一致
+     */
+    private static long hash(final String key) {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("MD5 not supported", e);
+        }
+
+        byte[] digest = md5.digest(key.getBytes());
+        long h = 0;
+        for (int i = 0; i < 8; i++) {
+            h = (h << 8) | (digest[i] & 0xFF);
+        }
+        return h;
+    }
+
+
+    private static String queueKey(final MessageQueue mq) {
+        return mq.getTopic() + "@" + mq.getBrokerName() + "@" + mq.getQueueId();
+    }
+
+
+    /**
+     * 由Consumer集合构建的Hash环，构建后不再修改
+     */
+    class HashRing {
+        private final List<String> cidAll;
+        private final TreeMap<Long, String> ring = new TreeMap<Long, String>();
+
+
+        public HashRing(final List<String> cidAll) {
+            this.cidAll = cidAll;
+            for (String cid : cidAll) {
+                int nodes = virtualNodeCnt * weightOf(cid);
+                for (int i = 0; i < nodes; i++) {
+                    this.ring.put(hash(cid + "#" + i), cid);
+                }
+            }
+        }
+
+
+        public String route(final MessageQueue mq) {
+            SortedMap<Long, String> tailMap = this.ring.tailMap(hash(queueKey(mq)));
+            if (!tailMap.isEmpty()) {
+                return tailMap.get(tailMap.firstKey());
+            }
+
+            return this.ring.get(this.ring.firstKey());
+        }
+    }
+
+
+    public int getVirtualNodeCnt() {
+        return virtualNodeCnt;
+    }
+
+
+    public Map<String, Integer> getWeightTable() {
+        return weightTable;
+    }
+
+
+    /**
+     * 设置Consumer权重，建议应用使用Spring来初始化
+     */
+    public void setWeightTable(Map<String, Integer> weightTable) {
+        this.weightTable = weightTable;
+        this.lastHashRing = null;
+    }
+}
@@ -19,6 +19,8 @@ import java.nio.ByteBuffer;
 
 import org.slf4j.Logger;
 
+import com.alibaba.rocketmq.client.impl.consumer.DefaultMQPushConsumerImpl;
+import com.alibaba.rocketmq.client.impl.consumer.MQConsumerInner;
 import com.alibaba.rocketmq.client.impl.factory.MQClientFactory;
 import com.alibaba.rocketmq.client.impl.producer.MQProducerInner;
 import com.alibaba.rocketmq.client.log.ClientLogger;
@@ -26,6 +28,7 @@ import com.alibaba.rocketmq.common.message.Message;
 import com.alibaba.rocketmq.common.message.MessageDecoder;
 import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.protocol.MQProtos.MQRequestCode;
+import com.alibaba.rocketmq.common.protocol.body.UnlockBatchRequestBody;
 import com.alibaba.rocketmq.common.protocol.header.CheckTransactionStateRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.NotifyConsumerIdsChangedRequestHeader;
 import com.alibaba.rocketmq.remoting.common.RemotingHelper;
@@ -60,6 +63,8 @@ public class ClientRemotingProcessor implements NettyRequestProcessor {
             return this.checkTransactionState(ctx, request);
         case NOTIFY_CONSUMER_IDS_CHANGED:
             return this.notifyConsumerIdsChanged(ctx, request);
+        case NOTIFY_MQ_LOCK_EXPIRED:
+            return this.notifyMQLockExpired(ctx, request);
         default:
             break;
         }
@@ -109,10 +114,35 @@ public class ClientRemotingProcessor implements NettyRequestProcessor {
         final NotifyConsumerIdsChangedRequestHeader requestHeader =
                 (NotifyConsumerIdsChangedRequestHeader) request
                     .decodeCommandCustomHeader(NotifyConsumerIdsChangedRequestHeader.class);
-        log.info("receive broker's notification[{}], the consumer group: {} changed, rebalance immediately",//
+        final String addr = RemotingHelper.parseChannelRemoteAddr(ctx.channel());
+        boolean accepted = this.mqClientFactory.notifyConsumerIdsChanged(//
+            addr,//
+            requestHeader.getConsumerGroup(),//
+            requestHeader.getMembershipVersion());
+        log.info("receive broker's notification[{}], the consumer group: {} changed, version: {} {}",//
+            addr,//
+            requestHeader.getConsumerGroup(),//
+            requestHeader.getMembershipVersion(),//
+            accepted ? "rebalance soon" : "duplicated, ignore");
+        return null;
+    }
+
+
+    /**
+     * Oneway调用，无返回值
+     */
+    public RemotingCommand notifyMQLockExpired(ChannelHandlerContext ctx, RemotingCommand request)
+            throws RemotingCommandException {
+        final UnlockBatchRequestBody requestBody =
+                UnlockBatchRequestBody.decode(request.getBody(), UnlockBatchRequestBody.class);
+        log.warn("receive broker's notification[{}], the consumer group: {} lock expired, {}",//
             RemotingHelper.parseChannelRemoteAddr(ctx.channel()),//
-            requestHeader.getConsumerGroup());
-        this.mqClientFactory.rebalanceImmediately();
+            requestBody.getConsumerGroup(),//
+            requestBody.getMqSet());
+        MQConsumerInner consumer = this.mqClientFactory.selectConsumer(requestBody.getConsumerGroup());
+        if (consumer instanceof DefaultMQPushConsumerImpl) {
+            ((DefaultMQPushConsumerImpl) consumer).getRebalanceImpl().lockExpired(requestBody.getMqSet());
+        }
         return null;
     }
 }
@@ -42,8 +42,16 @@ import com.alibaba.rocketmq.common.message.MessageQueue;
 import com.alibaba.rocketmq.common.namesrv.TopAddressing;
 import com.alibaba.rocketmq.common.protocol.MQProtos.MQRequestCode;
 import com.alibaba.rocketmq.common.protocol.MQProtos.MQResponseCode;
+import com.alibaba.rocketmq.common.protocol.body.ConsumerSendMsgBackBatchRequestBody;
+import com.alibaba.rocketmq.common.protocol.body.ConsumerSendMsgBackBatchResponseBody;
+import com.alibaba.rocketmq.common.protocol.body.KVTable;
+import com.alibaba.rocketmq.common.protocol.body.LockBatchMultiGroupRequestBody;
+import com.alibaba.rocketmq.common.protocol.body.LockBatchMultiGroupResponseBody;
 import com.alibaba.rocketmq.common.protocol.body.LockBatchRequestBody;
 import com.alibaba.rocketmq.common.protocol.body.LockBatchResponseBody;
+import com.alibaba.rocketmq.common.protocol.body.PullMessageBatchRequestBody;
+import com.alibaba.rocketmq.common.protocol.body.TopicRouteBatchRequestBody;
+import com.alibaba.rocketmq.common.protocol.body.TopicRouteBatchResponseBody;
 import com.alibaba.rocketmq.common.protocol.body.UnlockBatchRequestBody;
 import com.alibaba.rocketmq.common.protocol.header.*;
 import com.alibaba.rocketmq.common.protocol.header.namesrv.GetRouteInfoRequestHeader;
@@ -96,6 +104,9 @@ public class MQClientAPIImpl {
 
         this.remotingClient.registerProcessor(MQRequestCode.NOTIFY_CONSUMER_IDS_CHANGED_VALUE,
             this.clientRemotingProcessor, null);
+
+        this.remotingClient.registerProcessor(MQRequestCode.NOTIFY_MQ_LOCK_EXPIRED_VALUE,
+            this.clientRemotingProcessor, null);
     }
 
 
@@ -123,6 +134,11 @@ public class MQClientAPIImpl {
     }
 
 
+    public List<String> getNameServerAddressList() {
+        return this.remotingClient.getNameServerAddressList();
+    }
+
+
     public void updateNameServerAddressList(final String addrs) {
         List<String> lst = new ArrayList<String>();
         String[] addrArray = addrs.split(";");
@@ -421,26 +437,115 @@ public class MQClientAPIImpl {
     }
 
 
-    private PullResult processPullResponse(final RemotingCommand response) throws MQBrokerException,
-            RemotingCommandException {
-        PullStatus pullStatus = PullStatus.NO_NEW_MSG;
-        switch (response.getCode()) {
+    /**
+     * 一次请求拉取同一个Broker上多个队列的消息，只支持异步方式，每个队列的结果回调各自的PullCallback
+     */
+    public void pullMessageBatch(//
+            final String addr,//
+            final PullMessageBatchRequestBody requestBody,//
+            final long timeoutMillis,//
+            final List<PullCallback> pullCallbackList//
+    ) throws RemotingException, InterruptedException {
+        RemotingCommand request = RemotingCommand.createRequestCommand(MQRequestCode.PULL_MESSAGE_BATCH_VALUE, null);
+        request.setBody(requestBody.encode());
+
+        this.remotingClient.invokeAsync(addr, request, timeoutMillis, new InvokeCallback() {
+            @Override
+            public void operationComplete(ResponseFuture responseFuture) {
+                RemotingCommand response = responseFuture.getResponseCommand();
+                if (response != null) {
+                    if (response.getCode() != ResponseCode.SUCCESS_VALUE) {
+                        MQBrokerException e = new MQBrokerException(response.getCode(), response.getRemark());
+                        for (PullCallback pullCallback : pullCallbackList) {
+                            pullCallback.onException(e);
+                        }
+                        return;
+                    }
+
+                    processPullBatchResponse(response, pullCallbackList);
+                }
+                else {
+                    MQClientException e = null;
+                    if (!responseFuture.isSendRequestOK()) {
+                        e = new MQClientException("send request failed", responseFuture.getCause());
+                    }
+                    else if (responseFuture.isTimeout()) {
+                        e = new MQClientException("wait response timeout " + responseFuture.getTimeoutMillis()
+                                + "ms", responseFuture.getCause());
+                    }
+                    else {
+                        e = new MQClientException("unknow reseaon", responseFuture.getCause());
+                    }
+
+                    for (PullCallback pullCallback : pullCallbackList) {
+                        pullCallback.onException(e);
+                    }
+                }
+            }
+        });
+    }
+
+
+    /**
+     * 按照PullMessageBatchRequestBody中描述的格式，依次解析每个队列的拉取结果
+     */
+    static void processPullBatchResponse(final RemotingCommand response,
+            final List<PullCallback> pullCallbackList) {
+        final ByteBuffer byteBuffer =
+                ByteBuffer.wrap(response.getBody() != null ? response.getBody() : new byte[0]);
+        for (PullCallback pullCallback : pullCallbackList) {
+            PullResult pullResult = null;
+            try {
+                if (byteBuffer.remaining() < PullMessageBatchRequestBody.QueueResultHeaderSize) {
+                    throw new MQClientException("the pull batch response is truncated", null);
+                }
+
+                int code = byteBuffer.getInt();
+                long nextBeginOffset = byteBuffer.getLong();
+                long minOffset = byteBuffer.getLong();
+                long maxOffset = byteBuffer.getLong();
+                long suggestWhichBrokerId = byteBuffer.getLong();
+                byte[] body = new byte[byteBuffer.getInt()];
+                byteBuffer.get(body);
+
+                pullResult =
+                        new PullResultExt(toPullStatus(code, response.getRemark()), nextBeginOffset,
+                            minOffset, maxOffset, null, suggestWhichBrokerId, body);
+            }
+            catch (Exception e) {
+                pullCallback.onException(e);
+                continue;
+            }
+
+            try {
+                pullCallback.onSuccess(pullResult);
+            }
+            catch (Throwable e) {
+                log.warn("execute the pull batch callback exception", e);
+            }
+        }
+    }
+
+
+    static PullStatus toPullStatus(final int code, final String remark) throws MQBrokerException {
+        switch (code) {
         case ResponseCode.SUCCESS_VALUE:
-            pullStatus = PullStatus.FOUND;
-            break;
+            return PullStatus.FOUND;
         case MQResponseCode.PULL_NOT_FOUND_VALUE:
-            pullStatus = PullStatus.NO_NEW_MSG;
-            break;
+            return PullStatus.NO_NEW_MSG;
         case MQResponseCode.PULL_RETRY_IMMEDIATELY_VALUE:
-            pullStatus = PullStatus.NO_MATCHED_MSG;
-            break;
+            return PullStatus.NO_MATCHED_MSG;
         case MQResponseCode.PULL_OFFSET_MOVED_VALUE:
-            pullStatus = PullStatus.OFFSET_ILLEGAL;
-            break;
-
+            return PullStatus.OFFSET_ILLEGAL;
         default:
-            throw new MQBrokerException(response.getCode(), response.getRemark());
+            throw new MQBrokerException(code, remark);
         }
+    }
+
+
+    private PullResult processPullResponse(final RemotingCommand response) throws MQBrokerException,
+            RemotingCommandException {
+        PullStatus pullStatus = toPullStatus(response.getCode(), response.getRemark());
 
         PullMessageResponseHeader responseHeader =
                 (PullMessageResponseHeader) response
@@ -729,6 +834,39 @@ public class MQClientAPIImpl {
     }
 
 
+    /**
+     * 发送简化心跳，只携带上次全量心跳的指纹
+     *
+     * @return Broker是否认可这个指纹，返回false时需要发送全量心跳
+     */
+    public boolean sendHearbeatLite(//
+            final String addr,//
+            final String clientID,//
+            final long fingerprint,//
+            final long timeoutMillis//
+    ) throws RemotingException, MQBrokerException, InterruptedException {
+        final HeartbeatLiteRequestHeader requestHeader = new HeartbeatLiteRequestHeader();
+        requestHeader.setClientID(clientID);
+        requestHeader.setFingerprint(fingerprint);
+        RemotingCommand request =
+                RemotingCommand.createRequestCommand(MQRequestCode.HEART_BEAT_LITE_VALUE, requestHeader);
+        RemotingCommand response = this.remotingClient.invokeSync(addr, request, timeoutMillis);
+        assert response != null;
+        switch (response.getCode()) {
+        case ResponseCode.SUCCESS_VALUE: {
+            return true;
+        }
+        case MQResponseCode.HEARTBEAT_FINGERPRINT_NOT_MATCH_VALUE: {
+            return false;
+        }
+        default:
+            break;
+        }
+
+        throw new MQBrokerException(response.getCode(), response.getRemark());
+    }
+
+
     /**
      * 发送心跳
      */
@@ -832,6 +970,37 @@ public class MQClientAPIImpl {
     }
 
 
+    /**
+     * 批量发回消费失败的消息，只发送消息的CommitLog Offset
+     * 
+     * @return Broker处理失败的消息Offset
+     */
+    public List<Long> consumerSendMessageBackBatch(//
+            final String addr,//
+            final ConsumerSendMsgBackBatchRequestBody requestBody,//
+            final long timeoutMillis//
+    ) throws RemotingException, MQBrokerException, InterruptedException {
+        RemotingCommand request =
+                RemotingCommand.createRequestCommand(MQRequestCode.CONSUMER_SEND_MSG_BACK_BATCH_VALUE, null);
+        request.setBody(requestBody.encode());
+
+        RemotingCommand response = this.remotingClient.invokeSync(addr, request, timeoutMillis);
+        assert response != null;
+        switch (response.getCode()) {
+        case ResponseCode.SUCCESS_VALUE: {
+            ConsumerSendMsgBackBatchResponseBody responseBody =
+                    ConsumerSendMsgBackBatchResponseBody.decode(response.getBody(),
+                        ConsumerSendMsgBackBatchResponseBody.class);
+            return responseBody.getFailedOffsetList();
+        }
+        default:
+            break;
+        }
+
+        throw new MQBrokerException(response.getCode(), response.getRemark());
+    }
+
+
     public Set<MessageQueue> lockBatchMQ(//
             final String addr,//
             final LockBatchRequestBody requestBody,//
@@ -854,6 +1023,50 @@ public class MQClientAPIImpl {
     }
 
 
+    /**
+     * 获取Broker运行时统计信息，包括各阶段耗时百分位
+     */
+    public KVTable getBrokerRuntimeInfo(final String addr, final long timeoutMillis) throws RemotingException,
+            MQBrokerException, InterruptedException {
+        RemotingCommand request =
+                RemotingCommand.createRequestCommand(MQRequestCode.GET_BROKER_RUNTIME_INFO_VALUE, null);
+        RemotingCommand response = this.remotingClient.invokeSync(addr, request, timeoutMillis);
+        switch (response.getCode()) {
+        case ResponseCode.SUCCESS_VALUE: {
+            return KVTable.decode(response.getBody(), KVTable.class);
+        }
+        default:
+            break;
+        }
+
+        throw new MQBrokerException(response.getCode(), response.getRemark());
+    }
+
+
+    /**
+     * 一次续约多个Consumer组的队列锁
+     */
+    public LockBatchMultiGroupResponseBody lockBatchMQMultiGroup(//
+            final String addr,//
+            final LockBatchMultiGroupRequestBody requestBody,//
+            final long timeoutMillis) throws RemotingException, MQBrokerException, InterruptedException {
+        RemotingCommand request =
+                RemotingCommand.createRequestCommand(MQRequestCode.LOCK_BATCH_MQ_MULTI_GROUP_VALUE, null);
+        request.setBody(requestBody.encode());
+        RemotingCommand response = this.remotingClient.invokeSync(addr, request, timeoutMillis);
+        switch (response.getCode()) {
+        case ResponseCode.SUCCESS_VALUE: {
+            return LockBatchMultiGroupResponseBody.decode(response.getBody(),
+                LockBatchMultiGroupResponseBody.class);
+        }
+        default:
+            break;
+        }
+
+        throw new MQBrokerException(response.getCode(), response.getRemark());
+    }
+
+
     public void unlockBatchMQ(//
             final String addr,//
             final UnlockBatchRequestBody requestBody,//
@@ -915,6 +1128,63 @@ public class MQClientAPIImpl {
     }
 
 
+    /**
+     * Name Server: 批量获取Topic路由，只返回版本号有变化的Topic
+     */
+    public TopicRouteBatchResponseBody getTopicRouteInfoBatchFromNameServer(
+            final HashMap<String, Long> topicVersionTable, final long timeoutMillis) throws RemotingException,
+            MQClientException, InterruptedException {
+        TopicRouteBatchRequestBody requestBody = new TopicRouteBatchRequestBody();
+        requestBody.setTopicVersionTable(topicVersionTable);
+
+        RemotingCommand request =
+                RemotingCommand.createRequestCommand(MQRequestCode.GET_ROUTEINTO_BY_TOPIC_BATCH_VALUE, null);
+        request.setBody(requestBody.encode());
+
+        RemotingCommand response = this.remotingClient.invokeSync(null, request, timeoutMillis);
+        return this.processTopicRouteBatchResponse(response);
+    }
+
+
+    /**
+     * Name Server: 长轮询订阅Topic路由变化，任意Topic路由变化或者挂起超时后返回
+     */
+    public TopicRouteBatchResponseBody watchTopicRouteChange(final HashMap<String, Long> topicVersionTable,
+            final long suspendTimeoutMillis, final long timeoutMillis) throws RemotingException,
+            MQClientException, InterruptedException {
+        TopicRouteBatchRequestBody requestBody = new TopicRouteBatchRequestBody();
+        requestBody.setTopicVersionTable(topicVersionTable);
+        requestBody.setSuspendTimeoutMillis(suspendTimeoutMillis);
+
+        RemotingCommand request =
+                RemotingCommand.createRequestCommand(MQRequestCode.WATCH_TOPIC_ROUTE_CHANGE_VALUE, null);
+        request.setBody(requestBody.encode());
+
+        RemotingCommand response = this.remotingClient.invokeSync(null, request, timeoutMillis);
+        return this.processTopicRouteBatchResponse(response);
+    }
+
+
+    private TopicRouteBatchResponseBody processTopicRouteBatchResponse(final RemotingCommand response)
+            throws MQClientException {
+        assert response != null;
+        switch (response.getCode()) {
+        case ResponseCode.SUCCESS_VALUE: {
+            byte[] body = response.getBody();
+            if (body != null) {
+                return TopicRouteBatchResponseBody.decode(body, TopicRouteBatchResponseBody.class);
+            }
+
+            return new TopicRouteBatchResponseBody();
+        }
+        default:
+            break;
+        }
+
+        throw new MQClientException(response.getCode(), response.getRemark());
+    }
+
+
     /**
      * Name Server: 仅仅为测试服务，可以绕过Name Server
      */
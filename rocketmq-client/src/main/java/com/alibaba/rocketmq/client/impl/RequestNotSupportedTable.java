@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.client.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.rocketmq.remoting.protocol.RemotingProtos.ResponseCode;
+
+
+/**
+ * 记录不支持某个新请求码的服务器地址，过期后重新探测，服务器原地升级后自动恢复
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-12
+ */
+public class RequestNotSupportedTable {
+    // 默认5分钟后重新探测
+    public static final long DefaultExpireMillis = 1000 * 60 * 5;
+
+    private final ConcurrentHashMap<String/* addr */, Long/* expire timestamp */> addrTable =
+            new ConcurrentHashMap<String, Long>();
+    private final long expireMillis;
+
+
+    public RequestNotSupportedTable() {
+        this(DefaultExpireMillis);
+    }
+
+
+    public RequestNotSupportedTable(final long expireMillis) {
+        this.expireMillis = expireMillis;
+    }
+
+
+    /**
+     * 老版本服务器的默认处理器不认识请求码时抛出空指针，应答SYSTEM_ERROR并且没有remark<br>
+     * 其他错误（例如SYSTEM_BUSY、带remark的SYSTEM_ERROR）都是临时错误，不能认为不支持
+     */
+    public static boolean isNotSupportedResponse(final int code, final String remark) {
+        if (ResponseCode.REQUEST_CODE_NOT_SUPPORTED_VALUE == code) {
+            return true;
+        }
+
+        return ResponseCode.SYSTEM_ERROR_VALUE == code && (null == remark || remark.length() == 0);
+    }
+
+
+    public boolean isNotSupported(final String addr) {
+        final Long expireTimestamp = this.addrTable.get(addr);
+        if (null == expireTimestamp) {
+            return false;
+        }
+
+        if (System.currentTimeMillis() < expireTimestamp) {
+            return true;
+        }
+
+        this.addrTable.remove(addr, expireTimestamp);
+        return false;
+    }
+
+
+    /**
+     * @return 之前没有记录或者已经过期时返回true
+     */
+    public boolean markNotSupported(final String addr) {
+        final boolean marked = !this.isNotSupported(addr);
+        this.addrTable.put(addr, System.currentTimeMillis() + this.expireMillis);
+        return marked;
+    }
+
+
+    public void remove(final String addr) {
+        this.addrTable.remove(addr);
+    }
+}
@@ -241,14 +241,28 @@ public class ConsumeMessageConcurrentlyService implements ConsumeMessageService
             }
             break;
         case CLUSTERING:
-            // 处理消费失败的消息，直接发回到Broker
-            List<MessageExt> msgBackFailed = new ArrayList<MessageExt>(consumeRequest.getMsgs().size());
-            for (int i = ackIndex + 1; i < consumeRequest.getMsgs().size(); i++) {
-                MessageExt msg = consumeRequest.getMsgs().get(i);
-                boolean result = this.sendMessageBack(msg, context);
-                if (!result) {
+            // 处理消费失败的消息，直接发回到Broker，每个Broker批量发回一次
+            List<MessageExt> msgBackFailed = null;
+            if (ackIndex + 1 < consumeRequest.getMsgs().size() - 1) {
+                List<MessageExt> msgBack =
+                        consumeRequest.getMsgs().subList(ackIndex + 1, consumeRequest.getMsgs().size());
+                // 如果用户没有设置，服务器会根据重试次数自动叠加延时时间
+                msgBackFailed =
+                        this.defaultMQPushConsumerImpl.sendMessageBack(new ArrayList<MessageExt>(msgBack),
+                            context.getDelayLevelWhenNextConsume());
+                for (MessageExt msg : msgBackFailed) {
                     msg.setReconsumeTimes(msg.getReconsumeTimes() + 1);
-                    msgBackFailed.add(msg);
+                }
+            }
+            else {
+                msgBackFailed = new ArrayList<MessageExt>(1);
+                for (int i = ackIndex + 1; i < consumeRequest.getMsgs().size(); i++) {
+                    MessageExt msg = consumeRequest.getMsgs().get(i);
+                    boolean result = this.sendMessageBack(msg, context);
+                    if (!result) {
+                        msg.setReconsumeTimes(msg.getReconsumeTimes() + 1);
+                        msgBackFailed.add(msg);
+                    }
                 }
             }
 
@@ -270,6 +284,9 @@ public class ConsumeMessageConcurrentlyService implements ConsumeMessageService
             this.defaultMQPushConsumerImpl.getOffsetStore().updateOffset(consumeRequest.getMessageQueue(),
                 offset, true);
         }
+
+        // 消费完成释放了缓存空间，尝试恢复被流控的拉消息请求
+        this.defaultMQPushConsumerImpl.flowControlRelease(consumeRequest.getProcessQueue());
     }
 
 
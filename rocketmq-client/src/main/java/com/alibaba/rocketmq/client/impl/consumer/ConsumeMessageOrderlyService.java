@@ -94,13 +94,7 @@ public class ConsumeMessageOrderlyService implements ConsumeMessageService {
 
 
     public void start() {
-        // 启动定时lock队列服务
-        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                ConsumeMessageOrderlyService.this.lockMQPeriodically();
-            }
-        }, 1000 * 1, ProcessQueue.RebalanceLockInterval, TimeUnit.MILLISECONDS);
+        // 定时lock队列由MQClientFactory统一发起，同一个Broker上所有顺序消费的组合并为一次请求
     }
 
 
@@ -117,10 +111,8 @@ public class ConsumeMessageOrderlyService implements ConsumeMessageService {
     }
 
 
-    public synchronized void lockMQPeriodically() {
-        if (!this.stoped) {
-            this.defaultMQPushConsumerImpl.getRebalanceImpl().lockAll();
-        }
+    public boolean isStoped() {
+        return stoped;
     }
 
 
@@ -346,6 +338,9 @@ public class ConsumeMessageOrderlyService implements ConsumeMessageService {
         if (commitOffset >= 0) {
             this.defaultMQPushConsumerImpl.getOffsetStore().updateOffset(consumeRequest.getMessageQueue(),
                 commitOffset, false);
+
+            // 提交后释放了缓存空间，尝试恢复被流控的拉消息请求
+            this.defaultMQPushConsumerImpl.flowControlRelease(consumeRequest.getProcessQueue());
         }
 
         return continueConsume;
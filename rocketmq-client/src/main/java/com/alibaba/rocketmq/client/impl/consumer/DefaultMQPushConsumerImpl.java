@@ -15,8 +15,12 @@
  */
 package com.alibaba.rocketmq.client.impl.consumer;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -35,7 +39,9 @@ import com.alibaba.rocketmq.client.consumer.store.RemoteBrokerOffsetStore;
 import com.alibaba.rocketmq.client.exception.MQBrokerException;
 import com.alibaba.rocketmq.client.exception.MQClientException;
 import com.alibaba.rocketmq.client.impl.CommunicationMode;
+import com.alibaba.rocketmq.client.impl.FindBrokerResult;
 import com.alibaba.rocketmq.client.impl.MQClientManager;
+import com.alibaba.rocketmq.client.impl.RequestNotSupportedTable;
 import com.alibaba.rocketmq.client.impl.factory.MQClientFactory;
 import com.alibaba.rocketmq.client.log.ClientLogger;
 import com.alibaba.rocketmq.client.stat.ConsumerStatManager;
@@ -47,10 +53,12 @@ import com.alibaba.rocketmq.common.help.FAQUrl;
 import com.alibaba.rocketmq.common.message.Message;
 import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.common.protocol.body.ConsumerSendMsgBackBatchRequestBody;
 import com.alibaba.rocketmq.common.protocol.heartbeat.ConsumeType;
 import com.alibaba.rocketmq.common.protocol.heartbeat.MessageModel;
 import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
 import com.alibaba.rocketmq.common.sysflag.PullSysFlag;
+import com.alibaba.rocketmq.remoting.common.RemotingHelper;
 import com.alibaba.rocketmq.remoting.exception.RemotingException;
 
 
@@ -63,6 +71,7 @@ import com.alibaba.rocketmq.remoting.exception.RemotingException;
 public class DefaultMQPushConsumerImpl implements MQConsumerInner {
     // 拉消息异常时，延迟一段时间再拉
     private static final long PullTimeDelayMillsWhenException = 3000;
+    // 流控时挂起的PullRequest通常由消费完成触发恢复，此为兜底时间
     private static final long PullTimeDelayMillsWhenFlowControl = 100;
     private static final long PullTimeDelayMillsWhenSuspend = 1000;
     // 长轮询模式，Consumer连接在Broker挂起最长时间
@@ -235,10 +244,76 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
 
 
     public void pullMessage(final PullRequest pullRequest) {
+        final SubscriptionData subscriptionData = this.checkBeforePull(pullRequest);
+        if (subscriptionData != null) {
+            this.pullMessageOneQueue(pullRequest, subscriptionData);
+        }
+    }
+
+
+    /**
+     * 批量执行PullRequest，同一个Broker上上次拉到了消息的队列合并成一次请求，其他队列单独发起长轮询
+     */
+    public void pullMessage(final List<PullRequest> pullRequestList) {
+        final int pullBatchQueueNums = this.defaultMQPushConsumer.getPullBatchQueueNums();
+        final Map<String/* brokerAddr */, PullBatch> pullBatchTable = new LinkedHashMap<String, PullBatch>();
+        for (PullRequest pullRequest : pullRequestList) {
+            final SubscriptionData subscriptionData = this.checkBeforePull(pullRequest);
+            if (null == subscriptionData) {
+                continue;
+            }
+
+            FindBrokerResult findBrokerResult = null;
+            if (pullBatchQueueNums > 1 && pullRequest.isLastPullFound()) {
+                findBrokerResult = this.pullAPIWrapper.findBrokerAddressToPull(pullRequest.getMessageQueue());
+                // 老版本Broker不支持批量拉取，单独拉取
+                if (findBrokerResult != null
+                        && this.mQClientFactory.getPullBatchNotSupportedTable().isNotSupported(
+                            findBrokerResult.getBrokerAddr())) {
+                    findBrokerResult = null;
+                }
+            }
+
+            if (null == findBrokerResult) {
+                this.pullMessageOneQueue(pullRequest, subscriptionData);
+                continue;
+            }
+
+            PullBatch pullBatch = pullBatchTable.get(findBrokerResult.getBrokerAddr());
+            if (null == pullBatch) {
+                pullBatch = new PullBatch(findBrokerResult);
+                pullBatchTable.put(findBrokerResult.getBrokerAddr(), pullBatch);
+            }
+            pullBatch.pullRequestList.add(pullRequest);
+            pullBatch.subscriptionDataList.add(subscriptionData);
+        }
+
+        for (PullBatch pullBatch : pullBatchTable.values()) {
+            final int size = pullBatch.pullRequestList.size();
+            if (1 == size) {
+                this.pullMessageOneQueue(pullBatch.pullRequestList.get(0), pullBatch.subscriptionDataList.get(0));
+                continue;
+            }
+
+            for (int i = 0; i < size; i += pullBatchQueueNums) {
+                int end = Math.min(i + pullBatchQueueNums, size);
+                this.pullMessageManyQueue(pullBatch.findBrokerResult, pullBatch.pullRequestList.subList(i, end),
+                    pullBatch.subscriptionDataList.subList(i, end));
+            }
+        }
+    }
+
+
+    /**
+     * 拉消息前的检查，包括流控
+     * 
+     * @return 可以拉消息则返回订阅关系，否则返回null，并且PullRequest已经被重新调度
+     */
+    private SubscriptionData checkBeforePull(final PullRequest pullRequest) {
         final ProcessQueue processQueue = pullRequest.getProcessQueue();
         if (processQueue.isDroped()) {
             log.info("the pull request[{}] is droped.", pullRequest.toString());
-            return;
+            return null;
         }
 
         // 检测Consumer是否启动
@@ -248,30 +323,19 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
         catch (MQClientException e) {
             log.warn("pullMessage exception, consumer state not ok", e);
             this.executePullRequestLater(pullRequest, PullTimeDelayMillsWhenException);
-            return;
+            return null;
         }
 
         // 检测Consumer是否被挂起
         if (this.isPause()) {
             this.executePullRequestLater(pullRequest, PullTimeDelayMillsWhenSuspend);
-            return;
+            return null;
         }
 
-        // 流量控制，队列中消息总数
-        long size = processQueue.getMsgCount().get();
-        if (size > this.defaultMQPushConsumer.getPullThresholdForQueue()) {
-            this.executePullRequestLater(pullRequest, PullTimeDelayMillsWhenFlowControl);
-            log.warn("the consumer message buffer is full, so do flow control, {} {}", size, pullRequest);
-            return;
-        }
-
-        // 流量控制，队列中消息最大跨度
-        if (!this.consumeOrderly) {
-            if (processQueue.getMaxSpan() > this.defaultMQPushConsumer.getConsumeConcurrentlyMaxSpan()) {
-                this.executePullRequestLater(pullRequest, PullTimeDelayMillsWhenFlowControl);
-                log.warn("the queue's messages, span too long, so do flow control, {} {}", size, pullRequest);
-                return;
-            }
+        // 流量控制，队列中消息总数、消息大小、客户端消息大小、最大跨度
+        if (this.isFlowControl(processQueue, true)) {
+            this.executePullRequestWhenFlowControlRelease(pullRequest);
+            return null;
         }
 
         // 查询订阅关系
@@ -281,12 +345,114 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
             // 由于并发关系，即使找不到订阅关系，也要重试下，防止丢失PullRequest
             this.executePullRequestLater(pullRequest, PullTimeDelayMillsWhenException);
             log.warn("find the consumer's subscription failed, {}", pullRequest);
-            return;
+            return null;
         }
 
+        return subscriptionData;
+    }
+
+
+    private void pullMessageOneQueue(final PullRequest pullRequest, final SubscriptionData subscriptionData) {
+        final PullCallback pullCallback =
+                this.createPullCallback(pullRequest, subscriptionData, System.currentTimeMillis());
+
+        int sysFlag = PullSysFlag.buildSysFlag(//
+            false, // commitOffset
+            true, // suspend
+            false// subscription
+            );
+        try {
+            this.pullAPIWrapper.pullKernelImpl(//
+                pullRequest.getMessageQueue(), // 1
+                null, // 2
+                subscriptionData.getSubVersion(), // 3
+                pullRequest.getNextOffset(), // 4
+                this.defaultMQPushConsumer.getPullBatchSize(), // 5
+                sysFlag, // 6
+                0,// 7
+                BrokerSuspendMaxTimeMillis, // 8
+                ConsumerTimeoutMillisWhenSuspend, // 9
+                CommunicationMode.ASYNC, // 10
+                pullCallback// 11
+                );
+        }
+        catch (Exception e) {
+            log.error("pullKernelImpl exception", e);
+            this.executePullRequestLater(pullRequest, PullTimeDelayMillsWhenException);
+        }
+    }
+
+
+    /**
+     * 一次请求拉取同一个Broker上的多个队列，Broker不挂起请求
+     */
+    private void pullMessageManyQueue(final FindBrokerResult findBrokerResult,
+            final List<PullRequest> pullRequestList, final List<SubscriptionData> subscriptionDataList) {
         final long beginTimestamp = System.currentTimeMillis();
+        final List<PullCallback> pullCallbackList = new ArrayList<PullCallback>(pullRequestList.size());
+        for (int i = 0; i < pullRequestList.size(); i++) {
+            pullCallbackList.add(this.createPullBatchCallback(findBrokerResult.getBrokerAddr(),
+                pullRequestList.get(i), subscriptionDataList.get(i), beginTimestamp));
+        }
+
+        try {
+            this.pullAPIWrapper.pullBatchKernelImpl(//
+                findBrokerResult, // 1
+                new ArrayList<PullRequest>(pullRequestList), // 2
+                new ArrayList<SubscriptionData>(subscriptionDataList), // 3
+                this.defaultMQPushConsumer.getPullBatchSize(), // 4
+                ConsumerTimeoutMillisWhenSuspend, // 5
+                pullCallbackList// 6
+                );
+        }
+        catch (Exception e) {
+            log.error("pullBatchKernelImpl exception", e);
+            for (PullRequest pullRequest : pullRequestList) {
+                pullRequest.setLastPullFound(false);
+                this.executePullRequestLater(pullRequest, PullTimeDelayMillsWhenException);
+            }
+        }
+    }
+
+
+    /**
+     * 老版本Broker不认识批量拉取的请求码，记录下来，本次请求中的队列立刻改为单独拉取
+     */
+    private PullCallback createPullBatchCallback(final String brokerAddr, final PullRequest pullRequest,
+            final SubscriptionData subscriptionData, final long beginTimestamp) {
+        final PullCallback pullCallback = this.createPullCallback(pullRequest, subscriptionData, beginTimestamp);
+        return new PullCallback() {
+            @Override
+            public void onSuccess(PullResult pullResult) {
+                pullCallback.onSuccess(pullResult);
+            }
+
+
+            @Override
+            public void onException(Throwable e) {
+                if (e instanceof MQBrokerException
+                        && RequestNotSupportedTable.isNotSupportedResponse(
+                            ((MQBrokerException) e).getResponseCode(), ((MQBrokerException) e).getErrorMessage())) {
+                    if (DefaultMQPushConsumerImpl.this.mQClientFactory.getPullBatchNotSupportedTable()
+                        .markNotSupported(brokerAddr)) {
+                        log.warn("the broker[{}] does not support pull batch, fall back to pull one by one, {}",
+                            brokerAddr, e.getMessage());
+                    }
 
-        PullCallback pullCallback = new PullCallback() {
+                    DefaultMQPushConsumerImpl.this.pullMessageOneQueue(pullRequest, subscriptionData);
+                    return;
+                }
+
+                pullCallback.onException(e);
+            }
+        };
+    }
+
+
+    private PullCallback createPullCallback(final PullRequest pullRequest,
+            final SubscriptionData subscriptionData, final long beginTimestamp) {
+        final ProcessQueue processQueue = pullRequest.getProcessQueue();
+        return new PullCallback() {
             @Override
             public void onSuccess(PullResult pullResult) {
                 if (pullResult != null) {
@@ -297,6 +463,7 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
                     switch (pullResult.getPullStatus()) {
                     case FOUND:
                         pullRequest.setNextOffset(pullResult.getNextBeginOffset());
+                        pullRequest.setLastPullFound(true);
 
                         long pullRT = System.currentTimeMillis() - beginTimestamp;
                         DefaultMQPushConsumerImpl.this.getConsumerStatManager().getConsumertat()
@@ -324,15 +491,18 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
                         break;
                     case NO_NEW_MSG:
                         pullRequest.setNextOffset(pullResult.getNextBeginOffset());
+                        pullRequest.setLastPullFound(false);
 
                         DefaultMQPushConsumerImpl.this.executePullRequestImmediately(pullRequest);
                         break;
                     case NO_MATCHED_MSG:
                         pullRequest.setNextOffset(pullResult.getNextBeginOffset());
+                        pullRequest.setLastPullFound(false);
 
                         DefaultMQPushConsumerImpl.this.executePullRequestImmediately(pullRequest);
                         break;
                     case OFFSET_ILLEGAL:
+                        pullRequest.setLastPullFound(false);
                         log.warn("the pull request offset illegal, {} {}",//
                             pullRequest.toString(), pullResult.toString());
                         if (pullRequest.getNextOffset() < pullResult.getMinOffset()) {
@@ -357,6 +527,7 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
 
             @Override
             public void onException(Throwable e) {
+                pullRequest.setLastPullFound(false);
                 if (!pullRequest.getMessageQueue().getTopic().startsWith(MixAll.RETRY_GROUP_TOPIC_PREFIX)) {
                     log.warn("execute the pull request exception", e);
                 }
@@ -365,30 +536,159 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
                     PullTimeDelayMillsWhenException);
             }
         };
+    }
 
-        int sysFlag = PullSysFlag.buildSysFlag(//
-            false, // commitOffset
-            true, // suspend
-            false// subscription
-            );
-        try {
-            this.pullAPIWrapper.pullKernelImpl(//
-                pullRequest.getMessageQueue(), // 1
-                null, // 2
-                subscriptionData.getSubVersion(), // 3
-                pullRequest.getNextOffset(), // 4
-                this.defaultMQPushConsumer.getPullBatchSize(), // 5
-                sysFlag, // 6
-                0,// 7
-                BrokerSuspendMaxTimeMillis, // 8
-                ConsumerTimeoutMillisWhenSuspend, // 9
-                CommunicationMode.ASYNC, // 10
-                pullCallback// 11
-                );
+
+    /**
+     * Consumer为了拉消息合并请求的辅助结构
+     */
+    private static class PullBatch {
+        private final FindBrokerResult findBrokerResult;
+        private final List<PullRequest> pullRequestList = new ArrayList<PullRequest>();
+        private final List<SubscriptionData> subscriptionDataList = new ArrayList<SubscriptionData>();
+
+
+        public PullBatch(final FindBrokerResult findBrokerResult) {
+            this.findBrokerResult = findBrokerResult;
         }
-        catch (Exception e) {
-            log.error("pullKernelImpl exception", e);
-            this.executePullRequestLater(pullRequest, PullTimeDelayMillsWhenException);
+    }
+
+
+    /**
+     * 当前队列是否需要流控
+     */
+    private boolean isFlowControl(final ProcessQueue processQueue, final boolean logWhenFlowControl) {
+        // 流量控制，队列中消息总数
+        long count = processQueue.getMsgCount().get();
+        if (count > computePullThresholdForQueue(this.defaultMQPushConsumer, processQueue)) {
+            if (logWhenFlowControl) {
+                log.warn("the consumer message buffer is full, so do flow control, {} {}", count,
+                    processQueue.getConsumeTps());
+            }
+            return true;
+        }
+
+        // 流量控制，队列中消息总大小
+        long size = processQueue.getMsgSize().get();
+        if (size > this.defaultMQPushConsumer.getPullThresholdSizeForQueue() * 1024L * 1024L) {
+            if (logWhenFlowControl) {
+                log.warn("the consumer message size is too large, so do flow control, {} bytes", size);
+            }
+            return true;
+        }
+
+        // 流量控制，客户端实例中消息总大小
+        if (this.isClientFlowControl()) {
+            if (logWhenFlowControl) {
+                log.warn("the client message size is too large, so do flow control, {} bytes",
+                    this.mQClientFactory.getCachedMsgSizeTotal().get());
+            }
+            return true;
+        }
+
+        // 流量控制，队列中消息最大跨度
+        if (!this.consumeOrderly) {
+            long span = processQueue.getMaxSpan();
+            if (span > this.defaultMQPushConsumer.getConsumeConcurrentlyMaxSpan()) {
+                if (logWhenFlowControl) {
+                    log.warn("the queue's messages, span too long, so do flow control, {} {}", count, span);
+                }
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * 客户端实例中所有队列缓存的消息总大小是否超过阀值
+     */
+    private boolean isClientFlowControl() {
+        return this.mQClientFactory.getCachedMsgSizeTotal().get() > this.defaultMQPushConsumer
+            .getPullThresholdSizeForClient() * 1024L * 1024L;
+    }
+
+
+    /**
+     * 自适应模式下，队列最多缓存adaptivePullBufferTime时间内能消费完的消息，但不会少于一次拉取的量<br>
+     * 还没有消费速度时，以固定阀值反推初始TPS，从固定阀值开始逐步收敛
+     */
+    static long computePullThresholdForQueue(final DefaultMQPushConsumer defaultMQPushConsumer,
+            final ProcessQueue processQueue) {
+        long threshold = defaultMQPushConsumer.getPullThresholdForQueue();
+        if (defaultMQPushConsumer.isAdaptivePullEnable()) {
+            final long bufferTime = defaultMQPushConsumer.getAdaptivePullBufferTime();
+            processQueue.seedConsumeTps(threshold * 1000.0 / bufferTime);
+            long adaptive = (long) (processQueue.getConsumeTps() * bufferTime / 1000);
+            adaptive = Math.max(adaptive, defaultMQPushConsumer.getPullBatchSize());
+            threshold = Math.min(threshold, adaptive);
+        }
+
+        return threshold;
+    }
+
+
+    /**
+     * 流控时挂起PullRequest，消费释放空间后立刻恢复，同时设置定时兜底<br>
+     * 因客户端总量流控的队列登记到客户端等待队列，任意队列释放空间都会唤醒
+     */
+    private void executePullRequestWhenFlowControlRelease(final PullRequest pullRequest) {
+        final ProcessQueue processQueue = pullRequest.getProcessQueue();
+        processQueue.suspendPullRequest(pullRequest);
+        if (this.isClientFlowControl() && processQueue.markClientFlowControlWaiting()) {
+            this.mQClientFactory.getFlowControlWaitingQueue().offer(processQueue);
+        }
+        this.mQClientFactory.getPullMessageService().executeTaskLater(new Runnable() {
+            @Override
+            public void run() {
+                PullRequest suspended = processQueue.takeSuspendedPullRequest();
+                if (suspended != null) {
+                    DefaultMQPushConsumerImpl.this.executePullRequestImmediately(suspended);
+                }
+            }
+        }, pullRequest.getMessageQueue().getBrokerName(), PullTimeDelayMillsWhenFlowControl);
+    }
+
+
+    /**
+     * 消费完成，队列释放了空间，如果不再需要流控，立刻恢复被挂起的PullRequest
+     */
+    public void flowControlRelease(final ProcessQueue processQueue) {
+        if (!processQueue.isDroped() && !this.isFlowControl(processQueue, false)) {
+            PullRequest suspended = processQueue.takeSuspendedPullRequest();
+            if (suspended != null) {
+                this.executePullRequestImmediately(suspended);
+            }
+        }
+
+        // 客户端总量降到阀值以下，恢复所有因客户端总量流控的队列，仍需流控的会重新挂起
+        if (!this.isClientFlowControl()) {
+            final Queue<ProcessQueue> waitingQueue = this.mQClientFactory.getFlowControlWaitingQueue();
+            for (int i = waitingQueue.size(); i > 0; i--) {
+                ProcessQueue waiting = waitingQueue.poll();
+                if (null == waiting) {
+                    break;
+                }
+
+                waiting.clearClientFlowControlWaiting();
+                PullRequest suspended = waiting.takeSuspendedPullRequest();
+                if (suspended != null) {
+                    this.executePullRequestImmediately(suspended);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * 定时采样各队列的消费速度
+     */
+    public void sampleConsumeTpsPeriodically() {
+        if (this.defaultMQPushConsumer.isAdaptivePullEnable()) {
+            for (ProcessQueue processQueue : this.rebalanceImpl.getProcessQueueTable().values()) {
+                processQueue.sampleConsumeTps();
+            }
         }
     }
 
@@ -453,6 +753,70 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
     }
 
 
+    /**
+     * 批量发回消费失败的消息，按照存储消息的Broker分组，每个Broker一次请求，只发送消息的CommitLog Offset<br>
+     * 批量请求失败或者Broker处理失败的消息，再逐条发回
+     * 
+     * @return 最终发回失败的消息
+     */
+    public List<MessageExt> sendMessageBack(final List<MessageExt> msgs, final int delayLevel) {
+        final Map<String/* brokerAddr */, List<MessageExt>> brokerTable =
+                new LinkedHashMap<String, List<MessageExt>>();
+        for (MessageExt msg : msgs) {
+            String addr = RemotingHelper.parseSocketAddressAddr(msg.getStoreHost());
+            List<MessageExt> msgList = brokerTable.get(addr);
+            if (null == msgList) {
+                msgList = new ArrayList<MessageExt>();
+                brokerTable.put(addr, msgList);
+            }
+            msgList.add(msg);
+        }
+
+        final List<MessageExt> msgBackFailed = new ArrayList<MessageExt>();
+        for (Map.Entry<String, List<MessageExt>> entry : brokerTable.entrySet()) {
+            List<MessageExt> msgOneByOne = entry.getValue();
+            if (msgOneByOne.size() > 1) {
+                ConsumerSendMsgBackBatchRequestBody requestBody = new ConsumerSendMsgBackBatchRequestBody();
+                requestBody.setGroup(this.defaultMQPushConsumer.getConsumerGroup());
+                requestBody.setDelayLevel(delayLevel);
+                for (MessageExt msg : msgOneByOne) {
+                    requestBody.getOffsetList().add(msg.getCommitLogOffset());
+                }
+
+                try {
+                    Set<Long> failedOffsetSet =
+                            new HashSet<Long>(this.mQClientFactory.getMQClientAPIImpl()
+                                .consumerSendMessageBackBatch(entry.getKey(), requestBody, 3000));
+                    List<MessageExt> msgBrokerFailed = new ArrayList<MessageExt>(failedOffsetSet.size());
+                    for (MessageExt msg : msgOneByOne) {
+                        if (failedOffsetSet.contains(msg.getCommitLogOffset())) {
+                            msgBrokerFailed.add(msg);
+                        }
+                    }
+                    msgOneByOne = msgBrokerFailed;
+                }
+                catch (Exception e) {
+                    log.warn("sendMessageBack batch exception, " + this.defaultMQPushConsumer.getConsumerGroup()
+                            + " " + entry.getKey(), e);
+                }
+            }
+
+            for (MessageExt msg : msgOneByOne) {
+                try {
+                    this.sendMessageBack(msg, delayLevel);
+                }
+                catch (Exception e) {
+                    log.error("sendMessageBack exception, group: " + this.defaultMQPushConsumer.getConsumerGroup()
+                            + " msg: " + msg.toString(), e);
+                    msgBackFailed.add(msg);
+                }
+            }
+        }
+
+        return msgBackFailed;
+    }
+
+
     public void sendMessageBack(MessageExt msg, int delayLevel) throws RemotingException, MQBrokerException,
             InterruptedException, MQClientException {
         try {
@@ -685,6 +1049,30 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
                 null);
         }
 
+        // pullThresholdSizeForQueue
+        if (this.defaultMQPushConsumer.getPullThresholdSizeForQueue() < 1
+                || this.defaultMQPushConsumer.getPullThresholdSizeForQueue() > 1024) {
+            throw new MQClientException("pullThresholdSizeForQueue Out of range [1, 1024]" //
+                    + FAQUrl.suggestTodo(FAQUrl.CLIENT_PARAMETER_CHECK_URL), //
+                null);
+        }
+
+        // pullThresholdSizeForClient
+        if (this.defaultMQPushConsumer.getPullThresholdSizeForClient() < 1
+                || this.defaultMQPushConsumer.getPullThresholdSizeForClient() > 65535) {
+            throw new MQClientException("pullThresholdSizeForClient Out of range [1, 65535]" //
+                    + FAQUrl.suggestTodo(FAQUrl.CLIENT_PARAMETER_CHECK_URL), //
+                null);
+        }
+
+        // adaptivePullBufferTime
+        if (this.defaultMQPushConsumer.getAdaptivePullBufferTime() < 100
+                || this.defaultMQPushConsumer.getAdaptivePullBufferTime() > 600000) {
+            throw new MQClientException("adaptivePullBufferTime Out of range [100, 600000]" //
+                    + FAQUrl.suggestTodo(FAQUrl.CLIENT_PARAMETER_CHECK_URL), //
+                null);
+        }
+
         // pullInterval
         if (this.defaultMQPushConsumer.getPullInterval() < 0
                 || this.defaultMQPushConsumer.getPullInterval() > 65535) {
@@ -708,6 +1096,14 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
                     + FAQUrl.suggestTodo(FAQUrl.CLIENT_PARAMETER_CHECK_URL), //
                 null);
         }
+
+        // pullBatchQueueNums
+        if (this.defaultMQPushConsumer.getPullBatchQueueNums() < 1
+                || this.defaultMQPushConsumer.getPullBatchQueueNums() > 256) {
+            throw new MQClientException("pullBatchQueueNums Out of range [1, 256]" //
+                    + FAQUrl.suggestTodo(FAQUrl.CLIENT_PARAMETER_CHECK_URL), //
+                null);
+        }
     }
 
 
@@ -811,6 +1207,11 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
     }
 
 
+    public ConsumeMessageService getConsumeMessageService() {
+        return consumeMessageService;
+    }
+
+
     public boolean isConsumeOrderly() {
         return consumeOrderly;
     }
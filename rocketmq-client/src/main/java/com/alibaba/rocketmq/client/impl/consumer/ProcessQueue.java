@@ -19,7 +19,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -27,6 +29,7 @@ import org.slf4j.Logger;
 
 import com.alibaba.rocketmq.client.log.ClientLogger;
 import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.message.MessageExtLazy;
 
 
 /**
@@ -48,6 +51,24 @@ public class ProcessQueue {
     private final TreeMap<Long, MessageExt> msgTreeMap = new TreeMap<Long, MessageExt>();
     private volatile long queueOffsetMax = 0L;
     private final AtomicLong msgCount = new AtomicLong();
+    // 队列中缓存的消息体总大小，单位字节
+    private final AtomicLong msgSize = new AtomicLong();
+    // 整个客户端实例缓存的消息体总大小，多个队列共享，可以为null
+    private final AtomicLong clientMsgSize;
+    // 因流控挂起的拉消息请求，消费释放空间后立刻恢复
+    private final AtomicReference<PullRequest> flowControlPullRequest = new AtomicReference<PullRequest>();
+    // 是否已经登记在客户端流控等待队列中，避免重复登记
+    private final AtomicBoolean clientFlowControlWaiting = new AtomicBoolean(false);
+
+    /**
+     * 消费速度统计，用于自适应流控
+     */
+    // 累计消费成功的消息数
+    private final AtomicLong msgConsumedTotal = new AtomicLong();
+    private long lastConsumedTotalSnapshot = 0;
+    private long lastConsumedTimestamp = System.currentTimeMillis();
+    // 平滑后的消费TPS，小于0表示还没有初始值
+    private volatile double consumeTps = -1;
 
     // 当前Q是否被rebalance丢弃
     private volatile boolean droped = false;
@@ -59,14 +80,48 @@ public class ProcessQueue {
     private volatile boolean locked = false;
     // 最后一次锁定成功时间戳
     private volatile long lastLockTimestamp = System.currentTimeMillis();
+    // Broker上锁的租期，本地锁的存活时间不超过租期，避免Broker已经把锁给了其他Client而本地还在消费
+    private volatile long lockLeaseMillis = RebalanceLockMaxLiveTime;
     // 是否正在被消费
     private volatile boolean consuming = false;
     // 事务方式消费，未提交的消息
     private final TreeMap<Long, MessageExt> msgTreeMapTemp = new TreeMap<Long, MessageExt>();
 
 
+    public ProcessQueue() {
+        this(null);
+    }
+
+
+    public ProcessQueue(final AtomicLong clientMsgSize) {
+        this.clientMsgSize = clientMsgSize;
+    }
+
+
+    private static long bodySize(final MessageExt msg) {
+        // 延迟解析的消息，不能因为统计大小而触发解码
+        if (msg instanceof MessageExtLazy) {
+            return ((MessageExtLazy) msg).getBodyLength();
+        }
+
+        return msg.getBody() != null ? msg.getBody().length : 0;
+    }
+
+
+    /**
+     * 必须在写锁内调用，队列被丢弃后不再影响客户端总量
+     */
+    private void updateMsgSize(final long delta) {
+        this.msgSize.addAndGet(delta);
+        if (this.clientMsgSize != null && !this.droped) {
+            this.clientMsgSize.addAndGet(delta);
+        }
+    }
+
+
     public boolean isLockExpired() {
-        boolean result = (System.currentTimeMillis() - this.lastLockTimestamp) > RebalanceLockMaxLiveTime;
+        final long liveTime = Math.min(RebalanceLockMaxLiveTime, this.lockLeaseMillis);
+        boolean result = (System.currentTimeMillis() - this.lastLockTimestamp) > liveTime;
         return result;
     }
 
@@ -79,11 +134,14 @@ public class ProcessQueue {
         try {
             this.lockTreeMap.writeLock().lockInterruptibly();
             try {
+                long size = 0;
                 for (MessageExt msg : msgs) {
                     msgTreeMap.put(msg.getQueueOffset(), msg);
                     this.queueOffsetMax = msg.getQueueOffset();
+                    size += bodySize(msg);
                 }
                 msgCount.addAndGet(msgs.size());
+                this.updateMsgSize(size);
 
                 if (!msgTreeMap.isEmpty() && !this.consuming) {
                     dispathToConsume = true;
@@ -139,10 +197,15 @@ public class ProcessQueue {
             try {
                 if (!msgTreeMap.isEmpty()) {
                     result = this.queueOffsetMax + 1;
+                    long size = 0;
                     for (MessageExt msg : msgs) {
-                        msgTreeMap.remove(msg.getQueueOffset());
+                        if (msgTreeMap.remove(msg.getQueueOffset()) != null) {
+                            size += bodySize(msg);
+                        }
                     }
                     msgCount.addAndGet(msgs.size() * (-1));
+                    msgConsumedTotal.addAndGet(msgs.size());
+                    this.updateMsgSize(-size);
 
                     if (!msgTreeMap.isEmpty()) {
                         result = msgTreeMap.firstKey();
@@ -177,7 +240,93 @@ public class ProcessQueue {
 
 
     public void setDroped(boolean droped) {
-        this.droped = droped;
+        try {
+            this.lockTreeMap.writeLock().lockInterruptibly();
+            try {
+                // 队列被丢弃，归还其占用的客户端流控额度
+                if (droped && !this.droped && this.clientMsgSize != null) {
+                    this.clientMsgSize.addAndGet(this.msgSize.get() * (-1));
+                }
+                this.droped = droped;
+            }
+            finally {
+                this.lockTreeMap.writeLock().unlock();
+            }
+        }
+        catch (InterruptedException e) {
+            log.error("setDroped exception", e);
+            this.droped = droped;
+        }
+    }
+
+
+    public AtomicLong getMsgSize() {
+        return msgSize;
+    }
+
+
+    /**
+     * 流控时挂起拉消息请求
+     */
+    public void suspendPullRequest(final PullRequest pullRequest) {
+        this.flowControlPullRequest.set(pullRequest);
+    }
+
+
+    /**
+     * 登记到客户端流控等待队列
+     *
+     * @return 之前没有登记返回true
+     */
+    public boolean markClientFlowControlWaiting() {
+        return this.clientFlowControlWaiting.compareAndSet(false, true);
+    }
+
+
+    public void clearClientFlowControlWaiting() {
+        this.clientFlowControlWaiting.set(false);
+    }
+
+
+    /**
+     * 取出被挂起的拉消息请求，保证同一个请求只被恢复一次
+     */
+    public PullRequest takeSuspendedPullRequest() {
+        return this.flowControlPullRequest.getAndSet(null);
+    }
+
+
+    /**
+     * 定时采样消费速度，做指数平滑
+     */
+    public void sampleConsumeTps() {
+        final long now = System.currentTimeMillis();
+        final long interval = now - this.lastConsumedTimestamp;
+        if (interval > 0) {
+            final long total = this.msgConsumedTotal.get();
+            final double tps = (total - this.lastConsumedTotalSnapshot) * 1000.0 / interval;
+            // 没有初始值之前只记录采样点，避免刚开始消费时TPS从0起步
+            if (this.consumeTps >= 0) {
+                this.consumeTps = this.consumeTps * 0.5 + tps * 0.5;
+            }
+            this.lastConsumedTotalSnapshot = total;
+            this.lastConsumedTimestamp = now;
+        }
+    }
+
+
+    public double getConsumeTps() {
+        return consumeTps;
+    }
+
+
+    /**
+     * 设置消费TPS的初始值，已经有值时不覆盖
+     */
+    public void seedConsumeTps(final double tps) {
+        if (this.consumeTps < 0) {
+            this.consumeTps = tps;
+        }
     }
 
 
@@ -218,7 +367,13 @@ public class ProcessQueue {
             this.lockTreeMap.writeLock().lockInterruptibly();
             try {
                 Long offset = this.msgTreeMapTemp.lastKey();
+                long size = 0;
+                for (MessageExt msg : this.msgTreeMapTemp.values()) {
+                    size += bodySize(msg);
+                }
                 msgCount.addAndGet(this.msgTreeMapTemp.size() * (-1));
+                msgConsumedTotal.addAndGet(this.msgTreeMapTemp.size());
+                this.updateMsgSize(-size);
                 this.msgTreeMapTemp.clear();
                 if (offset != null) {
                     return offset + 1;
@@ -305,4 +460,14 @@ public class ProcessQueue {
     public void setLastLockTimestamp(long lastLockTimestamp) {
         this.lastLockTimestamp = lastLockTimestamp;
     }
+
+
+    public long getLockLeaseMillis() {
+        return lockLeaseMillis;
+    }
+
+
+    public void setLockLeaseMillis(long lockLeaseMillis) {
+        this.lockLeaseMillis = lockLeaseMillis;
+    }
 }
@@ -34,6 +34,7 @@ import com.alibaba.rocketmq.common.message.Message;
 import com.alibaba.rocketmq.common.message.MessageDecoder;
 import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.common.protocol.body.PullMessageBatchRequestBody;
 import com.alibaba.rocketmq.common.protocol.header.PullMessageRequestHeader;
 import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
 import com.alibaba.rocketmq.common.sysflag.PullSysFlag;
@@ -81,7 +82,8 @@ public class PullAPIWrapper {
         this.updatePullFromWhichNode(mq, pullResultExt.getSuggestWhichBrokerId());
         if (PullStatus.FOUND == pullResult.getPullStatus()) {
             ByteBuffer byteBuffer = ByteBuffer.wrap(pullResultExt.getMessageBinary());
-            List<MessageExt> msgList = MessageDecoder.decodes(byteBuffer);
+            // 消息体、属性延迟解析，Tag过滤不会触发完整解码
+            List<MessageExt> msgList = MessageDecoder.decodesLazily(byteBuffer);
 
             // 消息再次过滤
             List<MessageExt> msgListFilterAgain = msgList;
@@ -139,17 +141,7 @@ public class PullAPIWrapper {
             final CommunicationMode communicationMode,// 10
             final PullCallback pullCallback// 11
     ) throws MQClientException, RemotingException, MQBrokerException, InterruptedException {
-        FindBrokerResult findBrokerResult =
-                this.mQClientFactory.findBrokerAddressInSubscribe(mq.getBrokerName(),
-                    this.recalculatePullFromWhichNode(mq), false);
-        if (null == findBrokerResult) {
-            // TODO 此处可能对Name Server压力过大，需要调优
-            this.mQClientFactory.updateTopicRouteInfoFromNameServer(mq.getTopic());
-            findBrokerResult =
-                    this.mQClientFactory.findBrokerAddressInSubscribe(mq.getBrokerName(),
-                        this.recalculatePullFromWhichNode(mq), false);
-        }
-
+        FindBrokerResult findBrokerResult = this.findBrokerAddressToPull(mq);
         if (findBrokerResult != null) {
             int sysFlagInner = sysFlag;
 
@@ -182,4 +174,62 @@ public class PullAPIWrapper {
 
         throw new MQClientException("The broker[" + mq.getBrokerName() + "] not exist", null);
     }
+
+
+    /**
+     * 查找队列应该从哪台服务器拉消息，找不到则从Name Server更新路由后再查找一次
+     */
+    public FindBrokerResult findBrokerAddressToPull(final MessageQueue mq) {
+        FindBrokerResult findBrokerResult =
+                this.mQClientFactory.findBrokerAddressInSubscribe(mq.getBrokerName(),
+                    this.recalculatePullFromWhichNode(mq), false);
+        if (null == findBrokerResult) {
+            // TODO 此处可能对Name Server压力过大，需要调优
+            this.mQClientFactory.updateTopicRouteInfoFromNameServer(mq.getTopic());
+            findBrokerResult =
+                    this.mQClientFactory.findBrokerAddressInSubscribe(mq.getBrokerName(),
+                        this.recalculatePullFromWhichNode(mq), false);
+        }
+
+        return findBrokerResult;
+    }
+
+
+    /**
+     * 一次请求拉取同一台服务器上多个队列的消息，Broker不会挂起这种请求，只支持异步方式
+     */
+    public void pullBatchKernelImpl(//
+            final FindBrokerResult findBrokerResult,// 1
+            final List<PullRequest> pullRequestList,// 2
+            final List<SubscriptionData> subscriptionDataList,// 3
+            final int maxNums,// 4
+            final long timeoutMillis,// 5
+            final List<PullCallback> pullCallbackList// 6
+    ) throws RemotingException, InterruptedException {
+        List<PullMessageRequestHeader> requestHeaderList =
+                new ArrayList<PullMessageRequestHeader>(pullRequestList.size());
+        for (int i = 0; i < pullRequestList.size(); i++) {
+            PullRequest pullRequest = pullRequestList.get(i);
+            PullMessageRequestHeader requestHeader = new PullMessageRequestHeader();
+            requestHeader.setConsumerGroup(this.consumerGroup);
+            requestHeader.setTopic(pullRequest.getMessageQueue().getTopic());
+            requestHeader.setQueueId(pullRequest.getMessageQueue().getQueueId());
+            requestHeader.setQueueOffset(pullRequest.getNextOffset());
+            requestHeader.setMaxMsgNums(maxNums);
+            requestHeader.setSysFlag(0);
+            requestHeader.setCommitOffset(0L);
+            requestHeader.setSuspendTimeoutMillis(0L);
+            requestHeader.setSubVersion(subscriptionDataList.get(i).getSubVersion());
+            requestHeaderList.add(requestHeader);
+        }
+
+        PullMessageBatchRequestBody requestBody = new PullMessageBatchRequestBody();
+        requestBody.setPullRequestList(requestHeaderList);
+
+        this.mQClientFactory.getMQClientAPIImpl().pullMessageBatch(//
+            findBrokerResult.getBrokerAddr(),//
+            requestBody,//
+            timeoutMillis,//
+            pullCallbackList);
+    }
 }
@@ -15,7 +15,14 @@
  */
 package com.alibaba.rocketmq.client.impl.consumer;
 
-import java.util.concurrent.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 
@@ -25,26 +32,42 @@ import com.alibaba.rocketmq.common.ServiceThread;
 
 
 /**
- * 长轮询拉消息服务，单线程异步拉取
+ * 长轮询拉消息服务，多个线程异步拉取<br>
+ * 按照Broker名字将PullRequest分片到各个线程，每个线程有自己的延时队列，线程之间不共享队列
  * 
  * @author shijia.wxr<vintage.wang@gmail.com>
  * @since 2013-7-24
  */
-public class PullMessageService extends ServiceThread {
+public class PullMessageService {
     private final Logger log = ClientLogger.getLog();
-    private final LinkedBlockingQueue<PullRequest> pullRequestQueue = new LinkedBlockingQueue<PullRequest>();
+    // 每个线程一次最多取出的到期任务数
+    private static final int MaxDrainSize = 64;
     private final MQClientFactory mQClientFactory;
-    private final ScheduledExecutorService scheduledExecutorService = Executors
-        .newSingleThreadScheduledExecutor(new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-                return new Thread(r, "PullMessageServiceScheduledThread");
-            }
-        });;
+    private final PullDispatcher[] pullDispatchers;
+    // 保证相同到期时间的任务按照提交顺序执行
+    private final AtomicLong taskSequence = new AtomicLong(0);
 
 
-    public PullMessageService(MQClientFactory mQClientFactory) {
+    public PullMessageService(MQClientFactory mQClientFactory, int pullThreadNums) {
         this.mQClientFactory = mQClientFactory;
+        this.pullDispatchers = new PullDispatcher[Math.max(pullThreadNums, 1)];
+        for (int i = 0; i < this.pullDispatchers.length; i++) {
+            this.pullDispatchers[i] = new PullDispatcher(i);
+        }
+    }
+
+
+    public void start() {
+        for (PullDispatcher pullDispatcher : this.pullDispatchers) {
+            pullDispatcher.start();
+        }
+    }
+
+
+    public void shutdown(final boolean interrupt) {
+        for (PullDispatcher pullDispatcher : this.pullDispatchers) {
+            pullDispatcher.shutdown(interrupt);
+        }
     }
 
 
@@ -52,13 +75,8 @@ public class PullMessageService extends ServiceThread {
      * 只定时一次
      */
     public void executePullRequestLater(final PullRequest pullRequest, final long timeDelay) {
-        this.scheduledExecutorService.schedule(new Runnable() {
-
-            @Override
-            public void run() {
-                PullMessageService.this.executePullRequestImmediately(pullRequest);
-            }
-        }, timeDelay, TimeUnit.MILLISECONDS);
+        this.selectPullDispatcher(pullRequest.getMessageQueue().getBrokerName()).putTask(
+            new PullTask(pullRequest, null, timeDelay, this.taskSequence.getAndIncrement()));
     }
 
 
@@ -66,56 +84,157 @@ public class PullMessageService extends ServiceThread {
      * 立刻执行PullRequest
      */
     public void executePullRequestImmediately(final PullRequest pullRequest) {
-        try {
-            this.pullRequestQueue.put(pullRequest);
-        }
-        catch (InterruptedException e) {
-            log.error("executePullRequestImmediately pullRequestQueue.put", e);
-        }
+        this.executePullRequestLater(pullRequest, 0);
     }
 
 
-    private void pullMessage(final PullRequest pullRequest) {
-        final MQConsumerInner consumer = this.mQClientFactory.selectConsumer(pullRequest.getConsumerGroup());
+    /**
+     * 在拉消息线程中延时执行一个任务，只定时一次，任务应尽量轻量
+     */
+    public void executeTaskLater(final Runnable task, final String brokerName, final long timeDelay) {
+        this.selectPullDispatcher(brokerName).putTask(
+            new PullTask(null, task, timeDelay, this.taskSequence.getAndIncrement()));
+    }
+
+
+    private PullDispatcher selectPullDispatcher(final String brokerName) {
+        int hash = brokerName != null ? brokerName.hashCode() : 0;
+        return this.pullDispatchers[Math.abs(hash % this.pullDispatchers.length)];
+    }
+
+
+    private void pullMessage(final String consumerGroup, final List<PullRequest> pullRequestList) {
+        final MQConsumerInner consumer = this.mQClientFactory.selectConsumer(consumerGroup);
         if (consumer != null) {
             DefaultMQPushConsumerImpl impl = (DefaultMQPushConsumerImpl) consumer;
-            impl.pullMessage(pullRequest);
+            impl.pullMessage(pullRequestList);
         }
         else {
-            log.warn("No matched consumer for the PullRequest {}, drop it", pullRequest);
+            log.warn("No matched consumer for the PullRequest {}, drop it", pullRequestList);
         }
     }
 
 
-    @Override
-    public void run() {
-        log.info(this.getServiceName() + " service started");
+    /**
+     * 延时队列中的任务，PullRequest或者普通任务二选一
+     */
+    static class PullTask implements Delayed {
+        private final PullRequest pullRequest;
+        private final Runnable runnable;
+        private final long dueTime;
+        private final long sequence;
+
+
+        PullTask(final PullRequest pullRequest, final Runnable runnable, final long timeDelay,
+                final long sequence) {
+            this.pullRequest = pullRequest;
+            this.runnable = runnable;
+            this.dueTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(timeDelay, 0));
+            this.sequence = sequence;
+        }
 
-        while (!this.isStoped()) {
-            try {
-                PullRequest pullRequest = this.pullRequestQueue.take();
-                if (pullRequest != null) {
-                    this.pullMessage(pullRequest);
-                }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(this.dueTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+
+        @Override
+        public int compareTo(Delayed o) {
+            PullTask other = (PullTask) o;
+            long diff = this.dueTime - other.dueTime;
+            if (diff == 0) {
+                diff = this.sequence - other.sequence;
             }
-            catch (InterruptedException e) {
+
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+    }
+
+
+    /**
+     * 拉消息线程，每次取出所有到期的PullRequest，按照Consumer Group合并后交给Consumer拉取
+     */
+    class PullDispatcher extends ServiceThread {
+        private final DelayQueue<PullTask> taskQueue = new DelayQueue<PullTask>();
+
+
+        public PullDispatcher(final int index) {
+            this.thread.setName(this.getServiceName() + "-" + index);
+        }
+
+
+        public void putTask(final PullTask pullTask) {
+            this.taskQueue.put(pullTask);
+        }
+
+
+        private void dispatch(final List<PullTask> pullTaskList) {
+            Map<String, List<PullRequest>> groupTable = new LinkedHashMap<String, List<PullRequest>>();
+            for (PullTask pullTask : pullTaskList) {
+                if (pullTask.runnable != null) {
+                    try {
+                        pullTask.runnable.run();
+                    }
+                    catch (Throwable e) {
+                        log.error("Pull Message Service execute task exception", e);
+                    }
+                    continue;
+                }
+
+                String consumerGroup = pullTask.pullRequest.getConsumerGroup();
+                List<PullRequest> pullRequestList = groupTable.get(consumerGroup);
+                if (null == pullRequestList) {
+                    pullRequestList = new ArrayList<PullRequest>();
+                    groupTable.put(consumerGroup, pullRequestList);
+                }
+                pullRequestList.add(pullTask.pullRequest);
             }
-            catch (Exception e) {
-                log.error("Pull Message Service Run Method exception", e);
+
+            for (Map.Entry<String, List<PullRequest>> entry : groupTable.entrySet()) {
+                try {
+                    PullMessageService.this.pullMessage(entry.getKey(), entry.getValue());
+                }
+                catch (Throwable e) {
+                    log.error("Pull Message Service pull message exception", e);
+                }
             }
         }
 
-        log.info(this.getServiceName() + " service end");
-    }
 
+        @Override
+        public void run() {
+            log.info(this.thread.getName() + " service started");
 
-    @Override
-    public String getServiceName() {
-        return PullMessageService.class.getSimpleName();
-    }
+            final List<PullTask> pullTaskList = new ArrayList<PullTask>(MaxDrainSize);
+            while (!this.isStoped()) {
+                try {
+                    pullTaskList.add(this.taskQueue.take());
+                    PullTask pullTask = null;
+                    while (pullTaskList.size() < MaxDrainSize && (pullTask = this.taskQueue.poll()) != null) {
+                        pullTaskList.add(pullTask);
+                    }
 
+                    this.dispatch(pullTaskList);
+                }
+                catch (InterruptedException e) {
+                }
+                catch (Exception e) {
+                    log.error("Pull Message Service Run Method exception", e);
+                }
+                finally {
+                    pullTaskList.clear();
+                }
+            }
 
-    public ScheduledExecutorService getScheduledExecutorService() {
-        return scheduledExecutorService;
+            log.info(this.thread.getName() + " service end");
+        }
+
+
+        @Override
+        public String getServiceName() {
+            return PullMessageService.class.getSimpleName();
+        }
     }
 }
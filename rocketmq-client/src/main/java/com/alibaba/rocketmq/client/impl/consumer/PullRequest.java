@@ -30,6 +30,8 @@ public class PullRequest {
     private ProcessQueue processQueue;
     // hashCode与equals方法不包含此字段
     private long nextOffset;
+    // 上次拉取是否拉到了消息，拉到消息的队列可以合并成批量拉取，hashCode与equals方法不包含此字段
+    private volatile boolean lastPullFound = false;
 
 
     public String getConsumerGroup() {
@@ -112,4 +114,14 @@ public class PullRequest {
     public void setProcessQueue(ProcessQueue processQueue) {
         this.processQueue = processQueue;
     }
+
+
+    public boolean isLastPullFound() {
+        return lastPullFound;
+    }
+
+
+    public void setLastPullFound(boolean lastPullFound) {
+        this.lastPullFound = lastPullFound;
+    }
 }
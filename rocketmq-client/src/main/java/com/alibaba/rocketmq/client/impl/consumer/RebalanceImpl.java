@@ -177,7 +177,7 @@ public abstract class RebalanceImpl {
     }
 
 
-    private HashMap<String/* brokerName */, Set<MessageQueue>> buildProcessQueueTableByBrokerName() {
+    public HashMap<String/* brokerName */, Set<MessageQueue>> buildProcessQueueTableByBrokerName() {
         HashMap<String, Set<MessageQueue>> result = new HashMap<String, Set<MessageQueue>>();
         for (MessageQueue mq : this.processQueueTable.keySet()) {
             Set<MessageQueue> mqs = result.get(mq.getBrokerName());
@@ -199,57 +199,96 @@ public abstract class RebalanceImpl {
         Iterator<Entry<String, Set<MessageQueue>>> it = brokerMqs.entrySet().iterator();
         while (it.hasNext()) {
             Entry<String, Set<MessageQueue>> entry = it.next();
-            final String brokerName = entry.getKey();
-            final Set<MessageQueue> mqs = entry.getValue();
+            this.lockBatch(entry.getKey(), entry.getValue());
+        }
+    }
 
-            if (mqs.isEmpty())
-                continue;
 
-            FindBrokerResult findBrokerResult =
-                    this.mQClientFactory.findBrokerAddressInSubscribe(brokerName, MixAll.MASTER_ID, true);
-            if (findBrokerResult != null) {
-                LockBatchRequestBody requestBody = new LockBatchRequestBody();
-                requestBody.setConsumerGroup(this.consumerGroup);
-                requestBody.setClientId(this.mQClientFactory.getClientId());
-                requestBody.setMqSet(mqs);
+    /**
+     * 锁定一个Broker上的队列
+     */
+    public void lockBatch(final String brokerName, final Set<MessageQueue> mqs) {
+        if (mqs.isEmpty())
+            return;
 
-                try {
-                    Set<MessageQueue> lockOKMQSet =
-                            this.mQClientFactory.getMQClientAPIImpl().lockBatchMQ(
-                                findBrokerResult.getBrokerAddr(), requestBody, 1000);
+        FindBrokerResult findBrokerResult =
+                this.mQClientFactory.findBrokerAddressInSubscribe(brokerName, MixAll.MASTER_ID, true);
+        if (findBrokerResult != null) {
+            LockBatchRequestBody requestBody = new LockBatchRequestBody();
+            requestBody.setConsumerGroup(this.consumerGroup);
+            requestBody.setClientId(this.mQClientFactory.getClientId());
+            requestBody.setMqSet(mqs);
 
-                    // 锁定成功的队列
-                    for (MessageQueue mq : lockOKMQSet) {
-                        ProcessQueue processQueue = this.processQueueTable.get(mq);
-                        if (processQueue != null) {
-                            if (!processQueue.isLocked()) {
-                                log.info("the message queue locked OK, Group: {} {}", this.consumerGroup, mq);
-                            }
+            try {
+                Set<MessageQueue> lockOKMQSet =
+                        this.mQClientFactory.getMQClientAPIImpl().lockBatchMQ(
+                            findBrokerResult.getBrokerAddr(), requestBody, 1000);
+                this.updateLockResult(mqs, lockOKMQSet);
+            }
+            catch (Exception e) {
+                log.error("lockBatchMQ exception, " + mqs, e);
+            }
+        }
+    }
 
-                            processQueue.setLocked(true);
-                            processQueue.setLastLockTimestamp(System.currentTimeMillis());
-                        }
-                    }
-                    // 锁定失败的队列
-                    for (MessageQueue mq : mqs) {
-                        if (!lockOKMQSet.contains(mq)) {
-                            ProcessQueue processQueue = this.processQueueTable.get(mq);
-                            if (processQueue != null) {
-                                processQueue.setLocked(false);
-                                log.warn("the message queue locked Failed, Group: {} {}", this.consumerGroup,
-                                    mq);
-                            }
-                        }
-                    }
+
+    public void updateLockResult(final Set<MessageQueue> mqs, final Set<MessageQueue> lockOKMQSet) {
+        this.updateLockResult(mqs, lockOKMQSet, 0);
+    }
+
+
+    /**
+     * 根据Broker返回的结果更新本地锁状态
+     *
+     * @param leaseMillis
+     *            Broker上锁的租期，小于等于0表示Broker没有返回
+     */
+    public void updateLockResult(final Set<MessageQueue> mqs, final Set<MessageQueue> lockOKMQSet,
+            final long leaseMillis) {
+        // 锁定成功的队列
+        for (MessageQueue mq : lockOKMQSet) {
+            ProcessQueue processQueue = this.processQueueTable.get(mq);
+            if (processQueue != null) {
+                if (!processQueue.isLocked()) {
+                    log.info("the message queue locked OK, Group: {} {}", this.consumerGroup, mq);
                 }
-                catch (Exception e) {
-                    log.error("lockBatchMQ exception, " + mqs, e);
+
+                if (leaseMillis > 0) {
+                    processQueue.setLockLeaseMillis(leaseMillis);
+                }
+                processQueue.setLocked(true);
+                processQueue.setLastLockTimestamp(System.currentTimeMillis());
+            }
+        }
+        // 锁定失败的队列
+        for (MessageQueue mq : mqs) {
+            if (!lockOKMQSet.contains(mq)) {
+                ProcessQueue processQueue = this.processQueueTable.get(mq);
+                if (processQueue != null) {
+                    processQueue.setLocked(false);
+                    log.warn("the message queue locked Failed, Group: {} {}", this.consumerGroup, mq);
                 }
             }
         }
     }
 
 
+    /**
+     * Broker通知锁已经过期或者被其他Client抢占，立即停止消费这些队列
+     */
+    public void lockExpired(final Set<MessageQueue> mqs) {
+        for (MessageQueue mq : mqs) {
+            ProcessQueue processQueue = this.processQueueTable.get(mq);
+            if (processQueue != null && processQueue.isLocked()) {
+                processQueue.setLocked(false);
+                processQueue.setLastLockTimestamp(0);
+                log.warn("the message queue lock expired, notified by broker, Group: {} {}",
+                    this.consumerGroup, mq);
+            }
+        }
+    }
+
+
     public void doRebalance() {
         Map<String, SubscriptionData> subTable = this.getSubscriptionInner();
         if (subTable != null) {
@@ -371,7 +410,7 @@ public abstract class RebalanceImpl {
                 PullRequest pullRequest = new PullRequest();
                 pullRequest.setConsumerGroup(consumerGroup);
                 pullRequest.setMessageQueue(mq);
-                pullRequest.setProcessQueue(new ProcessQueue());
+                pullRequest.setProcessQueue(new ProcessQueue(this.mQClientFactory.getCachedMsgSizeTotal()));
 
                 // 这个需要根据策略来设置
                 long nextOffset = this.computePullFromWhere(mq);
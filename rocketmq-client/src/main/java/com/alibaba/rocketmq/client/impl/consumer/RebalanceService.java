@@ -15,6 +15,8 @@
  */
 package com.alibaba.rocketmq.client.impl.consumer;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.slf4j.Logger;
 
 import com.alibaba.rocketmq.client.impl.factory.MQClientFactory;
@@ -31,6 +33,11 @@ import com.alibaba.rocketmq.common.ServiceThread;
 public class RebalanceService extends ServiceThread {
     private final Logger log = ClientLogger.getLog();
     private final MQClientFactory mqClientFactory;
+    // 每个Broker上每个组最近一次通知的成员版本，相同版本的通知只处理一次
+    private final ConcurrentHashMap<String/* group@broker */, Long/* version */> membershipVersionTable =
+            new ConcurrentHashMap<String, Long>();
+    // 最近一次收到成员变化通知的时间
+    private volatile long lastNotifyTimestamp = 0;
 
 
     public RebalanceService(MQClientFactory mqClientFactory) {
@@ -39,6 +46,53 @@ public class RebalanceService extends ServiceThread {
 
     private static long WaitInterval = 1000 * 10;
 
+    // 收到通知后等待这么久没有新通知再Rebalance，合并多个Broker的通知
+    private final static long NotifyCoalesceInterval = Long.parseLong(System.getProperty(
+        "rocketmq.client.rebalance.notifyCoalesceInterval", "500"));
+
+
+    /**
+     * Broker通知组成员变化
+     *
+     * @return 重复的通知返回false
+     */
+    public boolean notifyConsumerIdsChanged(final String brokerAddr, final String group, final Long version) {
+        // 老版本Broker不带版本号
+        if (version != null) {
+            Long prev = this.membershipVersionTable.put(group + "@" + brokerAddr, version);
+            if (version.equals(prev)) {
+                return false;
+            }
+        }
+
+        this.lastNotifyTimestamp = System.currentTimeMillis();
+        this.wakeup();
+        return true;
+    }
+
+
+    /**
+     * 通知还在陆续到来时继续等待，最多等待一个WaitInterval
+     */
+    private void waitForNotifyQuiet() {
+        final long begin = System.currentTimeMillis();
+        long quiet = this.lastNotifyTimestamp + NotifyCoalesceInterval - System.currentTimeMillis();
+        while (quiet > 0 && !this.isStoped() && System.currentTimeMillis() - begin < WaitInterval) {
+            try {
+                Thread.sleep(quiet);
+            }
+            catch (InterruptedException e) {
+                break;
+            }
+            quiet = this.lastNotifyTimestamp + NotifyCoalesceInterval - System.currentTimeMillis();
+        }
+
+        // 等待期间的通知都会在本次Rebalance中处理
+        synchronized (this) {
+            this.hasNotified = false;
+        }
+    }
+
 
     @Override
     public void run() {
@@ -46,6 +100,7 @@ public class RebalanceService extends ServiceThread {
 
         while (!this.isStoped()) {
             this.waitForRunning(WaitInterval);
+            this.waitForNotifyQuiet();
             this.mqClientFactory.doRebalance();
         }
 
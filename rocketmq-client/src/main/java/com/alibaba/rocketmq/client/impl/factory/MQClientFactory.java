@@ -20,6 +20,7 @@ import java.net.SocketException;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -30,9 +31,13 @@ import com.alibaba.rocketmq.client.admin.MQAdminExtInner;
 import com.alibaba.rocketmq.client.exception.MQBrokerException;
 import com.alibaba.rocketmq.client.exception.MQClientException;
 import com.alibaba.rocketmq.client.impl.*;
+import com.alibaba.rocketmq.client.impl.consumer.ConsumeMessageOrderlyService;
+import com.alibaba.rocketmq.client.impl.consumer.ConsumeMessageService;
 import com.alibaba.rocketmq.client.impl.consumer.DefaultMQPushConsumerImpl;
 import com.alibaba.rocketmq.client.impl.consumer.MQConsumerInner;
+import com.alibaba.rocketmq.client.impl.consumer.ProcessQueue;
 import com.alibaba.rocketmq.client.impl.consumer.PullMessageService;
+import com.alibaba.rocketmq.client.impl.consumer.RebalanceImpl;
 import com.alibaba.rocketmq.client.impl.consumer.RebalanceService;
 import com.alibaba.rocketmq.client.impl.producer.DefaultMQProducerImpl;
 import com.alibaba.rocketmq.client.impl.producer.MQProducerInner;
@@ -41,9 +46,13 @@ import com.alibaba.rocketmq.client.log.ClientLogger;
 import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
 import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.ServiceState;
+import com.alibaba.rocketmq.common.UtilALl;
 import com.alibaba.rocketmq.common.constant.PermName;
 import com.alibaba.rocketmq.common.help.FAQUrl;
 import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.common.protocol.body.LockBatchMultiGroupRequestBody;
+import com.alibaba.rocketmq.common.protocol.body.LockBatchMultiGroupResponseBody;
+import com.alibaba.rocketmq.common.protocol.body.TopicRouteBatchResponseBody;
 import com.alibaba.rocketmq.common.protocol.heartbeat.ConsumerData;
 import com.alibaba.rocketmq.common.protocol.heartbeat.HeartbeatData;
 import com.alibaba.rocketmq.common.protocol.heartbeat.ProducerData;
@@ -52,6 +61,7 @@ import com.alibaba.rocketmq.common.protocol.route.BrokerData;
 import com.alibaba.rocketmq.common.protocol.route.QueueData;
 import com.alibaba.rocketmq.common.protocol.route.TopicRouteData;
 import com.alibaba.rocketmq.remoting.exception.RemotingException;
+import com.alibaba.rocketmq.remoting.exception.RemotingTimeoutException;
 import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
 
 
@@ -85,10 +95,24 @@ public class MQClientFactory {
     // 存储从Name Server拿到的Topic路由信息
     private final ConcurrentHashMap<String/* Topic */, TopicRouteData> topicRouteTable =
             new ConcurrentHashMap<String, TopicRouteData>();
+    // 从Name Server拿到的Topic路由版本号，批量查询与长轮询时只返回版本号有变化的Topic
+    private final ConcurrentHashMap<String/* Topic */, Long/* version */> topicRouteVersionTable =
+            new ConcurrentHashMap<String, Long>();
     // 调用Name Server获取Topic路由信息时，加锁
     private final Lock lockNamesrv = new ReentrantLock();
     // 心跳与注销动作加锁
     private final Lock lockHeartbeat = new ReentrantLock();
+    // 每个Broker最近一次全量心跳成功的指纹，指纹不变时只发送简化心跳
+    private final ConcurrentHashMap<String/* addr */, Long/* fingerprint */> heartbeatFingerprintTable =
+            new ConcurrentHashMap<String, Long>();
+    // 不支持简化心跳的Broker，过期后重新探测
+    private final RequestNotSupportedTable heartbeatLiteNotSupportedTable = new RequestNotSupportedTable();
+    // 不支持多个组批量锁队列的Broker，过期后重新探测
+    private final RequestNotSupportedTable lockMultiGroupNotSupportedTable = new RequestNotSupportedTable();
+    // 不支持一次拉取多个队列的Broker，过期后重新探测
+    private final RequestNotSupportedTable pullBatchNotSupportedTable = new RequestNotSupportedTable();
+    // 不支持批量获取与长轮询路由的Name Server列表，过期后重新探测
+    private final RequestNotSupportedTable routeBatchNotSupportedTable = new RequestNotSupportedTable();
     // 存储Broker Name 与Broker Address的对应关系
     private final ConcurrentHashMap<String/* Broker Name */, HashMap<Long/* brokerId */, String/* address */>> brokerAddrTable =
             new ConcurrentHashMap<String, HashMap<Long, String>>();
@@ -106,8 +130,15 @@ public class MQClientFactory {
     private final PullMessageService pullMessageService;
     // Rebalance服务
     private final RebalanceService rebalanceService;
+    // 长轮询订阅Topic路由变化
+    private final TopicRouteWatchService topicRouteWatchService;
     // 内置Producer对象
     private final DefaultMQProducer defaultMQProducer;
+    // 所有Push Consumer本地缓存的消息体总大小，用于客户端级别流控
+    private final AtomicLong cachedMsgSizeTotal = new AtomicLong(0);
+    // 因客户端级别流控挂起拉消息的队列，任意队列释放空间后唤醒
+    private final ConcurrentLinkedQueue<ProcessQueue> flowControlWaitingQueue =
+            new ConcurrentLinkedQueue<ProcessQueue>();
     private ServiceState serviceState = ServiceState.CREATE_JUST;
     // 监听一个UDP端口，用来防止同一个Factory启动多份（有可能分布在多个JVM中）
     private DatagramSocket datagramSocket;
@@ -131,10 +162,12 @@ public class MQClientFactory {
 
         this.mQAdminImpl = new MQAdminImpl(this);
 
-        this.pullMessageService = new PullMessageService(this);
+        this.pullMessageService = new PullMessageService(this, this.clientConfig.getPullThreadNums());
 
         this.rebalanceService = new RebalanceService(this);
 
+        this.topicRouteWatchService = new TopicRouteWatchService(this);
+
         this.defaultMQProducer = new DefaultMQProducer(MixAll.CLIENT_INNER_PRODUCER_GROUP);
         this.defaultMQProducer.resetClientConfig(clientConfig);
 
@@ -160,6 +193,9 @@ public class MQClientFactory {
                 this.startScheduledTask();
                 this.pullMessageService.start();
                 this.rebalanceService.start();
+                if (this.clientConfig.isTopicRouteWatchEnable()) {
+                    this.topicRouteWatchService.start();
+                }
 
                 this.defaultMQProducer.getDefaultMQProducerImpl().start(false);
                 log.info("the client factory [{}] start OK", this.clientId);
@@ -257,6 +293,20 @@ public class MQClientFactory {
             }
         }, 1000 * 10, this.clientConfig.getPersistConsumerOffsetInterval(), TimeUnit.MILLISECONDS);
 
+        // 定时续约顺序消费的队列锁
+        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    MQClientFactory.this.lockAllOrderlyMQ();
+                }
+                catch (Exception e) {
+                    log.error("ScheduledTask lockAllOrderlyMQ exception", e);
+                }
+            }
+        }, 1000 * 1, ProcessQueue.RebalanceLockInterval, TimeUnit.MILLISECONDS);
+
         // 统计信息打点
         this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
 
@@ -356,6 +406,7 @@ public class MQClientFactory {
                 if (impl instanceof DefaultMQPushConsumerImpl) {
                     DefaultMQPushConsumerImpl consumer = (DefaultMQPushConsumerImpl) impl;
                     consumer.getConsumerStatManager().recordSnapshotPeriodically();
+                    consumer.sampleConsumeTpsPeriodically();
                 }
             }
         }
@@ -429,12 +480,20 @@ public class MQClientFactory {
                                 continue;
                         }
 
+                        if (this.sendHeartbeatLite(addr, heartbeatData.getFingerprint())) {
+                            log.debug("send lite heart beat to broker[{} {} {}] success", brokerName, id,
+                                addr);
+                            continue;
+                        }
+
                         try {
                             this.mQClientAPIImpl.sendHearbeat(addr, heartbeatData, 3000);
+                            this.heartbeatFingerprintTable.put(addr, heartbeatData.getFingerprint());
                             log.info("send heart beat to broker[{} {} {}] success", brokerName, id, addr);
                             log.info(heartbeatData.toString());
                         }
                         catch (Exception e) {
+                            this.heartbeatFingerprintTable.remove(addr);
                             log.error("send heart beat to broker exception", e);
                         }
                     }
@@ -444,6 +503,154 @@ public class MQClientFactory {
     }
 
 
+    /**
+     * 心跳内容与上次全量心跳相同时，只发送指纹
+     *
+     * @return 返回false表示需要发送全量心跳
+     */
+    private boolean sendHeartbeatLite(final String addr, final long fingerprint) {
+        Long lastFingerprint = this.heartbeatFingerprintTable.get(addr);
+        if (null == lastFingerprint || lastFingerprint != fingerprint
+                || this.heartbeatLiteNotSupportedTable.isNotSupported(addr)) {
+            return false;
+        }
+
+        try {
+            return this.mQClientAPIImpl.sendHearbeatLite(addr, this.clientId, fingerprint, 3000);
+        }
+        catch (MQBrokerException e) {
+            // 只有老版本Broker的应答才认为不支持，一段时间内只发送全量心跳，其他错误本次发送全量心跳即可
+            if (RequestNotSupportedTable.isNotSupportedResponse(e.getResponseCode(), e.getErrorMessage())
+                    && this.heartbeatLiteNotSupportedTable.markNotSupported(addr)) {
+                log.warn("the broker[{}] does not support lite heart beat, fall back to full heart beat",
+                    addr);
+            }
+            else {
+                log.warn("send lite heart beat to broker[{}] failed, {}", addr, e.getMessage());
+            }
+        }
+        catch (Exception e) {
+            log.warn("send lite heart beat to broker exception", e);
+        }
+
+        return false;
+    }
+
+
+    /**
+     * 心跳指纹，对Consumer、订阅关系、Producer分别排序后计算，与Set的遍历顺序无关
+     */
+    public static long computeHeartbeatFingerprint(final HeartbeatData heartbeatData) {
+        List<String> consumerList = new ArrayList<String>();
+        for (ConsumerData consumerData : heartbeatData.getConsumerDataSet()) {
+            List<String> subList = new ArrayList<String>();
+            for (SubscriptionData sub : consumerData.getSubscriptionDataSet()) {
+                subList.add(sub.getTopic() + "|" + sub.getSubString() + "|" + sub.getSubVersion());
+            }
+            Collections.sort(subList);
+
+            consumerList.add(consumerData.getGroupName() + "|" + consumerData.getConsumeType() + "|"
+                    + consumerData.getMessageModel() + "|" + consumerData.getConsumeFromWhere() + "|"
+                    + subList);
+        }
+        Collections.sort(consumerList);
+
+        List<String> producerList = new ArrayList<String>();
+        for (ProducerData producerData : heartbeatData.getProducerDataSet()) {
+            producerList.add(producerData.getGroupName());
+        }
+        Collections.sort(producerList);
+
+        byte[] content = (heartbeatData.getClientID() + consumerList + producerList).getBytes();
+        long fingerprint = ((long) content.length << 32) | (UtilALl.crc32(content) & 0xFFFFFFFFL);
+        // 0表示不支持简化心跳
+        return fingerprint != 0 ? fingerprint : 1;
+    }
+
+
+    /**
+     * 续约所有顺序消费队列的锁，每个Broker只发送一次请求，携带所有组的队列
+     */
+    public void lockAllOrderlyMQ() {
+        HashMap<String/* brokerName */, HashMap<String/* group */, Set<MessageQueue>>> brokerGroupMQTable =
+                new HashMap<String, HashMap<String, Set<MessageQueue>>>();
+        HashMap<String/* group */, RebalanceImpl> rebalanceTable = new HashMap<String, RebalanceImpl>();
+        for (Entry<String, MQConsumerInner> entry : this.consumerTable.entrySet()) {
+            if (!(entry.getValue() instanceof DefaultMQPushConsumerImpl)) {
+                continue;
+            }
+
+            DefaultMQPushConsumerImpl impl = (DefaultMQPushConsumerImpl) entry.getValue();
+            ConsumeMessageService consumeMessageService = impl.getConsumeMessageService();
+            if (!impl.isConsumeOrderly() || !(consumeMessageService instanceof ConsumeMessageOrderlyService)
+                    || ((ConsumeMessageOrderlyService) consumeMessageService).isStoped()) {
+                continue;
+            }
+
+            rebalanceTable.put(entry.getKey(), impl.getRebalanceImpl());
+            for (Entry<String, Set<MessageQueue>> brokerEntry : impl.getRebalanceImpl()
+                .buildProcessQueueTableByBrokerName().entrySet()) {
+                HashMap<String, Set<MessageQueue>> groupMQTable = brokerGroupMQTable.get(brokerEntry.getKey());
+                if (null == groupMQTable) {
+                    groupMQTable = new HashMap<String, Set<MessageQueue>>();
+                    brokerGroupMQTable.put(brokerEntry.getKey(), groupMQTable);
+                }
+                groupMQTable.put(entry.getKey(), brokerEntry.getValue());
+            }
+        }
+
+        for (Entry<String, HashMap<String, Set<MessageQueue>>> entry : brokerGroupMQTable.entrySet()) {
+            final String brokerName = entry.getKey();
+            final HashMap<String, Set<MessageQueue>> groupMQTable = entry.getValue();
+            FindBrokerResult findBrokerResult =
+                    this.findBrokerAddressInSubscribe(brokerName, MixAll.MASTER_ID, true);
+            if (null == findBrokerResult) {
+                continue;
+            }
+
+            final String addr = findBrokerResult.getBrokerAddr();
+            if (!this.lockMultiGroupNotSupportedTable.isNotSupported(addr)) {
+                LockBatchMultiGroupRequestBody requestBody = new LockBatchMultiGroupRequestBody();
+                requestBody.setClientId(this.clientId);
+                requestBody.setGroupMQTable(groupMQTable);
+                try {
+                    LockBatchMultiGroupResponseBody responseBody =
+                            this.mQClientAPIImpl.lockBatchMQMultiGroup(addr, requestBody, 3000);
+                    for (Entry<String, Set<MessageQueue>> groupEntry : groupMQTable.entrySet()) {
+                        Set<MessageQueue> lockOKMQSet =
+                                responseBody.getLockOKMQTable().get(groupEntry.getKey());
+                        rebalanceTable.get(groupEntry.getKey()).updateLockResult(groupEntry.getValue(),
+                            lockOKMQSet != null ? lockOKMQSet : new HashSet<MessageQueue>(),
+                            responseBody.getLeaseMillis());
+                    }
+                    continue;
+                }
+                catch (MQBrokerException e) {
+                    // 老版本Broker一段时间内改为每个组分别锁定，其他错误只在本轮每个组分别锁定
+                    if (RequestNotSupportedTable.isNotSupportedResponse(e.getResponseCode(),
+                        e.getErrorMessage())
+                            && this.lockMultiGroupNotSupportedTable.markNotSupported(addr)) {
+                        log.warn("the broker {} does not support lockBatchMQMultiGroup, lock by group", addr);
+                    }
+                    else {
+                        log.warn("lockBatchMQMultiGroup failed, lock by group, " + brokerName + " "
+                                + e.getMessage());
+                    }
+                }
+                catch (Exception e) {
+                    // 本轮仍然尝试每个组分别锁定，避免锁过期
+                    log.error("lockBatchMQMultiGroup exception, " + brokerName, e);
+                }
+            }
+
+            // 老版本Broker或者批量续约失败，每个组分别锁定
+            for (Entry<String, Set<MessageQueue>> groupEntry : groupMQTable.entrySet()) {
+                rebalanceTable.get(groupEntry.getKey()).lockBatch(brokerName, groupEntry.getValue());
+            }
+        }
+    }
+
+
     private HeartbeatData prepareHeartbeatData() {
         HeartbeatData heartbeatData = new HeartbeatData();
 
@@ -476,11 +683,15 @@ public class MQClientFactory {
             }
         }
 
+        heartbeatData.setFingerprint(computeHeartbeatFingerprint(heartbeatData));
         return heartbeatData;
     }
 
 
-    private void updateTopicRouteInfoFromNameServer() {
+    /**
+     * 所有订阅与发布的Topic
+     */
+    private Set<String> collectTopicList() {
         Set<String> topicList = new HashSet<String>();
 
         // Consumer对象
@@ -513,12 +724,123 @@ public class MQClientFactory {
             }
         }
 
-        for (String topic : topicList) {
+        return topicList;
+    }
+
+
+    /**
+     * 客户端已知的Topic路由版本号，本地没有路由或者路由需要更新的Topic填0，Name Server会返回这些Topic的路由<br>
+     * 版本号由Name Server生成，带有Name Server的标识，切换到其他Name Server后不会相等，客户端只比较是否相同
+     * 
+     * @param checkNeedUpdate
+     *            是否检查Producer、Consumer需要更新路由，长轮询不检查，避免路由一直不可用时反复立即返回
+     */
+    public HashMap<String, Long> buildTopicRouteVersionTable(final boolean checkNeedUpdate) {
+        HashMap<String, Long> topicVersionTable = new HashMap<String, Long>();
+        for (String topic : this.collectTopicList()) {
+            Long version = this.topicRouteVersionTable.get(topic);
+            if (null == version || !this.topicRouteTable.containsKey(topic)
+                    || (checkNeedUpdate && this.isNeedUpdateTopicRouteInfo(topic))) {
+                version = 0L;
+            }
+
+            topicVersionTable.put(topic, version);
+        }
+
+        return topicVersionTable;
+    }
+
+
+    /**
+     * 一次RPC批量获取路由有变化的Topic，Name Server不支持时退化为逐个Topic获取
+     */
+    private void updateTopicRouteInfoFromNameServer() {
+        HashMap<String, Long> topicVersionTable = this.buildTopicRouteVersionTable(true);
+        if (topicVersionTable.isEmpty()) {
+            return;
+        }
+
+        if (!this.isRouteBatchNotSupported()) {
+            try {
+                TopicRouteBatchResponseBody body =
+                        this.mQClientAPIImpl.getTopicRouteInfoBatchFromNameServer(topicVersionTable, 1000 * 3);
+                this.updateTopicRouteInfo(body);
+                return;
+            }
+            catch (Exception e) {
+                this.markRouteBatchNotSupported(e);
+                log.warn("getTopicRouteInfoBatchFromNameServer Exception, update topic route one by one", e);
+            }
+        }
+
+        for (String topic : topicVersionTable.keySet()) {
             this.updateTopicRouteInfoFromNameServer(topic);
         }
     }
 
 
+    /**
+     * 老版本Name Server不认识批量获取与长轮询路由的请求码，应答没有remark的SYSTEM_ERROR或者不应答
+     */
+    public boolean isRouteBatchNotSupported() {
+        return this.routeBatchNotSupportedTable.isNotSupported(String.valueOf(this.mQClientAPIImpl
+            .getNameServerAddressList()));
+    }
+
+
+    public void markRouteBatchNotSupported(final Throwable e) {
+        boolean notSupported = e instanceof RemotingTimeoutException;
+        if (e instanceof MQClientException) {
+            notSupported =
+                    RequestNotSupportedTable.isNotSupportedResponse(((MQClientException) e).getResponseCode(),
+                        ((MQClientException) e).getErrorMessage());
+        }
+
+        final String namesrvAddrList = String.valueOf(this.mQClientAPIImpl.getNameServerAddressList());
+        if (notSupported && this.routeBatchNotSupportedTable.markNotSupported(namesrvAddrList)) {
+            log.warn("the name server {} does not support topic route batch, {}", namesrvAddrList,
+                e.getMessage());
+        }
+    }
+
+
+    /**
+     * 用批量查询或者长轮询返回的路由更新本地路由信息
+     * 
+     * @return 有Topic因为获取锁超时没有更新时返回false，版本号没有记录，调用方需要稍后再试
+     */
+    public boolean updateTopicRouteInfo(final TopicRouteBatchResponseBody body) {
+        boolean allUpdated = true;
+        for (Entry<String, TopicRouteData> entry : body.getTopicRouteTable().entrySet()) {
+            final String topic = entry.getKey();
+            try {
+                if (this.lockNamesrv.tryLock(LockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    try {
+                        this.updateTopicRouteInfoLocal(topic, entry.getValue());
+                        Long version = body.getTopicVersionTable().get(topic);
+                        if (version != null) {
+                            this.topicRouteVersionTable.put(topic, version);
+                        }
+                    }
+                    finally {
+                        this.lockNamesrv.unlock();
+                    }
+                }
+                else {
+                    allUpdated = false;
+                    log.warn("updateTopicRouteInfo tryLock timeout {}ms", LockTimeoutMillis);
+                }
+            }
+            catch (InterruptedException e) {
+                allUpdated = false;
+                log.warn("updateTopicRouteInfo Exception", e);
+            }
+        }
+
+        return allUpdated;
+    }
+
+
     /**
      * 调用Name Server接口，根据Topic获取路由信息
      */
@@ -529,58 +851,7 @@ public class MQClientFactory {
                     TopicRouteData topicRouteData =
                             this.mQClientAPIImpl.getTopicRouteInfoFromNameServer(topic, 1000 * 3);
                     if (topicRouteData != null) {
-                        TopicRouteData old = this.topicRouteTable.get(topic);
-                        boolean changed = topicRouteDataIsChange(old, topicRouteData);
-                        if (!changed) {
-                            changed = this.isNeedUpdateTopicRouteInfo(topic);
-                        }
-                        else {
-                            log.info("the topic[{}] route info changed, odl[{}] ,new[{}]", topic, old,
-                                topicRouteData);
-                        }
-
-                        if (changed) {
-                            // 后面排序会影响下次的equal逻辑判断，所以先clone一份
-                            TopicRouteData cloneTopicRouteData = topicRouteData.cloneTopicRouteData();
-
-                            // 更新Broker地址信息
-                            for (BrokerData bd : topicRouteData.getBrokerDatas()) {
-                                this.brokerAddrTable.put(bd.getBrokerName(), bd.getBrokerAddrs());
-                            }
-
-                            // 更新发布队列信息
-                            {
-                                TopicPublishInfo publishInfo =
-                                        topicRouteData2TopicPublishInfo(topic, topicRouteData);
-                                Iterator<Entry<String, MQProducerInner>> it =
-                                        this.producerTable.entrySet().iterator();
-                                while (it.hasNext()) {
-                                    Entry<String, MQProducerInner> entry = it.next();
-                                    MQProducerInner impl = entry.getValue();
-                                    if (impl != null) {
-                                        impl.updateTopicPublishInfo(topic, publishInfo);
-                                    }
-                                }
-                            }
-
-                            // 更新订阅队列信息
-                            {
-                                Set<MessageQueue> subscribeInfo =
-                                        topicRouteData2TopicSubscribeInfo(topic, topicRouteData);
-                                Iterator<Entry<String, MQConsumerInner>> it =
-                                        this.consumerTable.entrySet().iterator();
-                                while (it.hasNext()) {
-                                    Entry<String, MQConsumerInner> entry = it.next();
-                                    MQConsumerInner impl = entry.getValue();
-                                    if (impl != null) {
-                                        impl.updateTopicSubscribeInfo(topic, subscribeInfo);
-                                    }
-                                }
-                            }
-                            log.info("topicRouteTable.put TopicRouteData[{}]", cloneTopicRouteData);
-                            this.topicRouteTable.put(topic, cloneTopicRouteData);
-                            return true;
-                        }
+                        return this.updateTopicRouteInfoLocal(topic, topicRouteData);
                     }
                     else {
                         log.warn(
@@ -678,6 +949,67 @@ public class MQClientFactory {
     }
 
 
+    /**
+     * 路由有变化，或者有Producer、Consumer需要更新时，更新本地路由信息，调用方需要持有lockNamesrv
+     */
+    private boolean updateTopicRouteInfoLocal(final String topic, final TopicRouteData topicRouteData) {
+        TopicRouteData old = this.topicRouteTable.get(topic);
+        boolean changed = topicRouteDataIsChange(old, topicRouteData);
+        if (!changed) {
+            changed = this.isNeedUpdateTopicRouteInfo(topic);
+        }
+        else {
+            log.info("the topic[{}] route info changed, odl[{}] ,new[{}]", topic, old,
+                topicRouteData);
+        }
+
+        if (changed) {
+            // 后面排序会影响下次的equal逻辑判断，所以先clone一份
+            TopicRouteData cloneTopicRouteData = topicRouteData.cloneTopicRouteData();
+
+            // 更新Broker地址信息
+            for (BrokerData bd : topicRouteData.getBrokerDatas()) {
+                this.brokerAddrTable.put(bd.getBrokerName(), bd.getBrokerAddrs());
+            }
+
+            // 更新发布队列信息
+            {
+                TopicPublishInfo publishInfo =
+                        topicRouteData2TopicPublishInfo(topic, topicRouteData);
+                Iterator<Entry<String, MQProducerInner>> it =
+                        this.producerTable.entrySet().iterator();
+                while (it.hasNext()) {
+                    Entry<String, MQProducerInner> entry = it.next();
+                    MQProducerInner impl = entry.getValue();
+                    if (impl != null) {
+                        impl.updateTopicPublishInfo(topic, publishInfo);
+                    }
+                }
+            }
+
+            // 更新订阅队列信息
+            {
+                Set<MessageQueue> subscribeInfo =
+                        topicRouteData2TopicSubscribeInfo(topic, topicRouteData);
+                Iterator<Entry<String, MQConsumerInner>> it =
+                        this.consumerTable.entrySet().iterator();
+                while (it.hasNext()) {
+                    Entry<String, MQConsumerInner> entry = it.next();
+                    MQConsumerInner impl = entry.getValue();
+                    if (impl != null) {
+                        impl.updateTopicSubscribeInfo(topic, subscribeInfo);
+                    }
+                }
+            }
+            log.info("topicRouteTable.put TopicRouteData[{}]", cloneTopicRouteData);
+            this.topicRouteTable.put(topic, cloneTopicRouteData);
+            return true;
+        }
+
+        return false;
+    }
+
+
     private boolean isNeedUpdateTopicRouteInfo(final String topic) {
         boolean result = false;
         // 查看发布队列是否需要更新
@@ -731,6 +1063,9 @@ public class MQClientFactory {
                 this.serviceState = ServiceState.SHUTDOWN_ALREADY;
                 this.pullMessageService.shutdown(true);
                 this.scheduledExecutorService.shutdown();
+                if (this.clientConfig.isTopicRouteWatchEnable()) {
+                    this.topicRouteWatchService.shutdown(true);
+                }
                 this.mQClientAPIImpl.shutdown();
                 this.rebalanceService.shutdown();
 
@@ -874,6 +1209,14 @@ public class MQClientFactory {
     }
 
 
+    /**
+     * Broker通知组成员变化，重复的通知不触发Rebalance
+     */
+    public boolean notifyConsumerIdsChanged(final String brokerAddr, final String group, final Long version) {
+        return this.rebalanceService.notifyConsumerIdsChanged(brokerAddr, group, version);
+    }
+
+
     public void doRebalance() {
         for (String group : this.consumerTable.keySet()) {
             MQConsumerInner impl = this.consumerTable.get(group);
@@ -899,6 +1242,21 @@ public class MQClientFactory {
     }
 
 
+    public AtomicLong getCachedMsgSizeTotal() {
+        return cachedMsgSizeTotal;
+    }
+
+
+    public ConcurrentLinkedQueue<ProcessQueue> getFlowControlWaitingQueue() {
+        return flowControlWaitingQueue;
+    }
+
+
+    public RequestNotSupportedTable getPullBatchNotSupportedTable() {
+        return pullBatchNotSupportedTable;
+    }
+
+
     /**
      * 管理类的接口查询Broker地址，Master优先
      * 
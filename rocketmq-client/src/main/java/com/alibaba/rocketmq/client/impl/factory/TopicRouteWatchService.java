@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.client.impl.factory;
+
+import java.util.HashMap;
+
+import org.slf4j.Logger;
+
+import com.alibaba.rocketmq.client.log.ClientLogger;
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.protocol.body.TopicRouteBatchResponseBody;
+
+
+/**
+ * 向Name Server长轮询订阅Topic路由变化，Broker上下线后客户端可以立刻感知，不必等待定时拉取
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-6
+ */
+public class TopicRouteWatchService extends ServiceThread {
+    private final Logger log = ClientLogger.getLog();
+    // Name Server挂起请求的时间
+    private static final long SuspendTimeoutMillis = 1000 * 20;
+    // 请求超时时间，要比挂起时间长
+    private static final long TimeoutMillis = SuspendTimeoutMillis + 1000 * 5;
+    // 没有Topic或者请求出错时，等待一段时间再订阅
+    private static final long WaitIntervalWhenIdle = 1000;
+    private static final long WaitIntervalWhenException = 1000 * 30;
+
+    private final MQClientFactory mqClientFactory;
+
+
+    public TopicRouteWatchService(MQClientFactory mqClientFactory) {
+        this.mqClientFactory = mqClientFactory;
+    }
+
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStoped()) {
+            try {
+                HashMap<String, Long> topicVersionTable =
+                        this.mqClientFactory.buildTopicRouteVersionTable(false);
+                if (topicVersionTable.isEmpty()) {
+                    this.waitForRunning(WaitIntervalWhenIdle);
+                    continue;
+                }
+
+                // 老版本Name Server不支持，由定时任务拉取路由，过期后重新探测
+                if (this.mqClientFactory.isRouteBatchNotSupported()) {
+                    this.waitForRunning(WaitIntervalWhenException);
+                    continue;
+                }
+
+                TopicRouteBatchResponseBody body =
+                        this.mqClientFactory.getMQClientAPIImpl().watchTopicRouteChange(topicVersionTable,
+                            SuspendTimeoutMillis, TimeoutMillis);
+                if (!body.getTopicRouteTable().isEmpty()) {
+                    log.info("topic route changed, {}", body.getTopicVersionTable());
+                    // 没有更新成功的Topic版本号不变，立刻再订阅会立刻返回，稍等再试
+                    if (!this.mqClientFactory.updateTopicRouteInfo(body)) {
+                        this.waitForRunning(WaitIntervalWhenIdle);
+                    }
+                }
+            }
+            catch (Exception e) {
+                if (!this.isStoped()) {
+                    this.mqClientFactory.markRouteBatchNotSupported(e);
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                    this.waitForRunning(WaitIntervalWhenException);
+                }
+            }
+        }
+
+        log.info(this.getServiceName() + " service end");
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return TopicRouteWatchService.class.getSimpleName();
+    }
+}
@@ -0,0 +1,151 @@
+package com.alibaba.rocketmq.client.consumer.loadbalance;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.client.consumer.AllocateMessageQueueStrategy;
+import com.alibaba.rocketmq.client.consumer.rebalance.AllocateMessageQueueAveragely;
+import com.alibaba.rocketmq.client.consumer.rebalance.AllocateMessageQueueConsistentHash;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+
+
+/**
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-7
+ */
+public class AllocateMessageQueueConsistentHashTest {
+    private static List<MessageQueue> createMessageQueueList(int size) {
+        List<MessageQueue> messageQueueList = new ArrayList<MessageQueue>(size);
+        for (int i = 0; i < size; i++) {
+            messageQueueList.add(new MessageQueue("topic_test", "broker-" + (i % 4), i / 4));
+        }
+        return messageQueueList;
+    }
+
+
+    private static List<String> createConsumerIdList(int size) {
+        List<String> consumerIdList = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            consumerIdList.add("10.0.0." + i + "@DEFAULT");
+        }
+        return consumerIdList;
+    }
+
+
+    /**
+     * 计算整个订阅组的分配结果
+     */
+    private static Map<MessageQueue, String> allocateAll(AllocateMessageQueueStrategy strategy,
+            List<MessageQueue> mqAll, List<String> cidAll) {
+        Map<MessageQueue, String> result = new HashMap<MessageQueue, String>();
+        for (String cid : cidAll) {
+            for (MessageQueue mq : strategy.allocate(cid, mqAll, cidAll)) {
+                Assert.assertNull("queue allocated twice, " + mq, result.put(mq, cid));
+            }
+        }
+        return result;
+    }
+
+
+    private static int moved(Map<MessageQueue, String> before, Map<MessageQueue, String> after) {
+        int moved = 0;
+        for (Map.Entry<MessageQueue, String> entry : before.entrySet()) {
+            if (!entry.getValue().equals(after.get(entry.getKey()))) {
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+
+    @Test
+    public void testAllocateAllQueues() {
+        List<MessageQueue> mqAll = createMessageQueueList(64);
+        for (int consumers = 1; consumers <= 20; consumers++) {
+            Map<MessageQueue, String> result =
+                    allocateAll(new AllocateMessageQueueConsistentHash(), mqAll, createConsumerIdList(consumers));
+            Assert.assertEquals(mqAll.size(), result.size());
+        }
+    }
+
+
+    @Test
+    public void testNotInConsumerList() {
+        List<MessageQueue> result =
+                new AllocateMessageQueueConsistentHash().allocate("not_exist", createMessageQueueList(8),
+                    createConsumerIdList(3));
+        Assert.assertTrue(result.isEmpty());
+    }
+
+
+    @Test
+    public void testConsumerJoin() {
+        AllocateMessageQueueStrategy strategy = new AllocateMessageQueueConsistentHash();
+        List<MessageQueue> mqAll = createMessageQueueList(1024);
+        List<String> cidAll = createConsumerIdList(10);
+
+        Map<MessageQueue, String> before = allocateAll(strategy, mqAll, cidAll);
+        cidAll.add("10.0.1.1@DEFAULT");
+        Map<MessageQueue, String> after = allocateAll(strategy, mqAll, cidAll);
+
+        // 理想情况迁移1/11，留出余量
+        int moved = moved(before, after);
+        Assert.assertTrue("moved " + moved, moved < mqAll.size() * 2 / 11);
+        for (Map.Entry<MessageQueue, String> entry : before.entrySet()) {
+            String owner = after.get(entry.getKey());
+            // 只会迁移到新加入的Consumer
+            Assert.assertTrue(owner.equals(entry.getValue()) || owner.equals("10.0.1.1@DEFAULT"));
+        }
+    }
+
+
+    @Test
+    public void testWeight() {
+        AllocateMessageQueueConsistentHash strategy = new AllocateMessageQueueConsistentHash();
+        List<MessageQueue> mqAll = createMessageQueueList(1024);
+        List<String> cidAll = createConsumerIdList(2);
+
+        Map<String, Integer> weightTable = new HashMap<String, Integer>();
+        weightTable.put(cidAll.get(0), 3);
+        strategy.setWeightTable(weightTable);
+
+        int heavy = strategy.allocate(cidAll.get(0), mqAll, cidAll).size();
+        int light = strategy.allocate(cidAll.get(1), mqAll, cidAll).size();
+        Assert.assertEquals(mqAll.size(), heavy + light);
+        Assert.assertTrue("heavy " + heavy + " light " + light, heavy > light * 2);
+    }
+
+
+    /**
+     * 模拟频繁扩容缩容，一致性Hash迁移的队列数应明显少于平均分配
+     */
+    @Test
+    public void testRebalanceCostWhenScaling() {
+        List<MessageQueue> mqAll = createMessageQueueList(256);
+        int[] sizes = new int[] { 4, 5, 6, 5, 8, 7, 12, 11, 16, 15, 8, 9, 4 };
+        long averagelyMoved = totalMoved(new AllocateMessageQueueAveragely(), mqAll, sizes);
+        long consistentHashMoved = totalMoved(new AllocateMessageQueueConsistentHash(), mqAll, sizes);
+        Assert.assertTrue("averagely " + averagelyMoved + " consistent hash " + consistentHashMoved,
+            consistentHashMoved < averagelyMoved);
+    }
+
+
+    private static long totalMoved(AllocateMessageQueueStrategy strategy, List<MessageQueue> mqAll,
+            int[] sizes) {
+        long totalMoved = 0;
+        Map<MessageQueue, String> last = null;
+        for (int size : sizes) {
+            Map<MessageQueue, String> current = allocateAll(strategy, mqAll, createConsumerIdList(size));
+            if (last != null) {
+                totalMoved += moved(last, current);
+            }
+            last = current;
+        }
+        return totalMoved;
+    }
+}
@@ -0,0 +1,179 @@
+package com.alibaba.rocketmq.client.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.client.consumer.PullCallback;
+import com.alibaba.rocketmq.client.consumer.PullResult;
+import com.alibaba.rocketmq.client.consumer.PullStatus;
+import com.alibaba.rocketmq.client.exception.MQBrokerException;
+import com.alibaba.rocketmq.client.exception.MQClientException;
+import com.alibaba.rocketmq.client.impl.consumer.PullResultExt;
+import com.alibaba.rocketmq.common.protocol.MQProtos.MQResponseCode;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import com.alibaba.rocketmq.remoting.protocol.RemotingProtos.ResponseCode;
+
+
+/**
+ * 批量拉取应答按队列拆分，以及老版本Broker的识别
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class PullBatchResponseTest {
+    private static class RecordPullCallback implements PullCallback {
+        private PullResult pullResult;
+        private Throwable exception;
+
+
+        @Override
+        public void onSuccess(PullResult pullResult) {
+            this.pullResult = pullResult;
+        }
+
+
+        @Override
+        public void onException(Throwable e) {
+            this.exception = e;
+        }
+    }
+
+
+    private static void putQueueResult(ByteBuffer byteBuffer, int code, long nextBeginOffset, byte[] body) {
+        byteBuffer.putInt(code);
+        byteBuffer.putLong(nextBeginOffset);
+        byteBuffer.putLong(0);
+        byteBuffer.putLong(nextBeginOffset + 100);
+        byteBuffer.putLong(1);
+        byteBuffer.putInt(body.length);
+        byteBuffer.put(body);
+    }
+
+
+    private static List<RecordPullCallback> process(byte[] body, int nums) {
+        RemotingCommand response = RemotingCommand.createResponseCommand(ResponseCode.SUCCESS_VALUE, null);
+        response.setBody(body);
+
+        List<RecordPullCallback> callbackList = new ArrayList<RecordPullCallback>();
+        List<PullCallback> pullCallbackList = new ArrayList<PullCallback>();
+        for (int i = 0; i < nums; i++) {
+            RecordPullCallback callback = new RecordPullCallback();
+            callbackList.add(callback);
+            pullCallbackList.add(callback);
+        }
+
+        MQClientAPIImpl.processPullBatchResponse(response, pullCallbackList);
+        return callbackList;
+    }
+
+
+    @Test
+    public void test_split_by_queue() throws Exception {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(1024);
+        putQueueResult(byteBuffer, ResponseCode.SUCCESS_VALUE, 10, new byte[] { 1, 2, 3 });
+        putQueueResult(byteBuffer, MQResponseCode.PULL_NOT_FOUND_VALUE, 20, new byte[0]);
+        putQueueResult(byteBuffer, MQResponseCode.PULL_OFFSET_MOVED_VALUE, 30, new byte[0]);
+        putQueueResult(byteBuffer, MQResponseCode.PULL_RETRY_IMMEDIATELY_VALUE, 40, new byte[0]);
+        putQueueResult(byteBuffer, ResponseCode.SUCCESS_VALUE, 50, new byte[] { 4 });
+        byte[] body = new byte[byteBuffer.position()];
+        byteBuffer.flip();
+        byteBuffer.get(body);
+
+        List<RecordPullCallback> callbackList = process(body, 5);
+        PullStatus[] statuses =
+                { PullStatus.FOUND, PullStatus.NO_NEW_MSG, PullStatus.OFFSET_ILLEGAL, PullStatus.NO_MATCHED_MSG,
+                 PullStatus.FOUND };
+        for (int i = 0; i < statuses.length; i++) {
+            RecordPullCallback callback = callbackList.get(i);
+            Assert.assertNull(callback.exception);
+            Assert.assertEquals(statuses[i], callback.pullResult.getPullStatus());
+            Assert.assertEquals((i + 1) * 10, callback.pullResult.getNextBeginOffset());
+            Assert.assertEquals((i + 1) * 10 + 100, callback.pullResult.getMaxOffset());
+            Assert.assertEquals(1, ((PullResultExt) callback.pullResult).getSuggestWhichBrokerId());
+        }
+
+        Assert.assertArrayEquals(new byte[] { 1, 2, 3 },
+            ((PullResultExt) callbackList.get(0).pullResult).getMessageBinary());
+        Assert.assertEquals(0, ((PullResultExt) callbackList.get(1).pullResult).getMessageBinary().length);
+        Assert.assertArrayEquals(new byte[] { 4 },
+            ((PullResultExt) callbackList.get(4).pullResult).getMessageBinary());
+    }
+
+
+    @Test
+    public void test_queue_error_and_truncated() throws Exception {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(1024);
+        putQueueResult(byteBuffer, MQResponseCode.NO_PERMISSION_VALUE, 10, new byte[0]);
+        putQueueResult(byteBuffer, ResponseCode.SUCCESS_VALUE, 20, new byte[] { 1, 2 });
+        // 第三个队列只有一半的头部
+        byteBuffer.putInt(ResponseCode.SUCCESS_VALUE);
+        byteBuffer.putLong(30);
+        byte[] body = new byte[byteBuffer.position()];
+        byteBuffer.flip();
+        byteBuffer.get(body);
+
+        List<RecordPullCallback> callbackList = process(body, 4);
+
+        // 单个队列出错不影响后面的队列
+        Assert.assertTrue(callbackList.get(0).exception instanceof MQBrokerException);
+        Assert.assertEquals(MQResponseCode.NO_PERMISSION_VALUE,
+            ((MQBrokerException) callbackList.get(0).exception).getResponseCode());
+        Assert.assertEquals(PullStatus.FOUND, callbackList.get(1).pullResult.getPullStatus());
+        Assert.assertEquals(20, callbackList.get(1).pullResult.getNextBeginOffset());
+
+        // 截断之后的队列全部回调异常
+        Assert.assertTrue(callbackList.get(2).exception instanceof MQClientException);
+        Assert.assertTrue(callbackList.get(3).exception instanceof MQClientException);
+        Assert.assertNull(callbackList.get(3).pullResult);
+    }
+
+
+    @Test
+    public void test_empty_body() throws Exception {
+        List<RecordPullCallback> callbackList = process(null, 2);
+        for (RecordPullCallback callback : callbackList) {
+            Assert.assertNull(callback.pullResult);
+            Assert.assertTrue(callback.exception instanceof MQClientException);
+        }
+    }
+
+
+    @Test
+    public void test_not_supported_response() throws Exception {
+        // 老版本Broker不认识请求码，应答SYSTEM_ERROR并且没有remark
+        Assert.assertTrue(RequestNotSupportedTable.isNotSupportedResponse(ResponseCode.SYSTEM_ERROR_VALUE, null));
+        Assert.assertTrue(RequestNotSupportedTable.isNotSupportedResponse(ResponseCode.SYSTEM_ERROR_VALUE, ""));
+        Assert.assertTrue(RequestNotSupportedTable.isNotSupportedResponse(
+            ResponseCode.REQUEST_CODE_NOT_SUPPORTED_VALUE, "request code 30 not supported"));
+
+        // 临时错误不能认为不支持
+        Assert.assertFalse(RequestNotSupportedTable.isNotSupportedResponse(ResponseCode.SYSTEM_ERROR_VALUE,
+            "the pull batch request body is null"));
+        Assert.assertFalse(RequestNotSupportedTable.isNotSupportedResponse(ResponseCode.SYSTEM_BUSY_VALUE, null));
+        Assert.assertFalse(RequestNotSupportedTable.isNotSupportedResponse(MQResponseCode.NO_PERMISSION_VALUE,
+            null));
+    }
+
+
+    @Test
+    public void test_not_supported_expire() throws Exception {
+        RequestNotSupportedTable table = new RequestNotSupportedTable(50);
+        Assert.assertFalse(table.isNotSupported("127.0.0.1:10911"));
+
+        Assert.assertTrue(table.markNotSupported("127.0.0.1:10911"));
+        Assert.assertFalse(table.markNotSupported("127.0.0.1:10911"));
+        Assert.assertTrue(table.isNotSupported("127.0.0.1:10911"));
+        Assert.assertFalse(table.isNotSupported("127.0.0.1:10912"));
+
+        // 过期之后重新探测
+        Thread.sleep(100);
+        Assert.assertFalse(table.isNotSupported("127.0.0.1:10911"));
+        Assert.assertTrue(table.markNotSupported("127.0.0.1:10911"));
+
+        table.remove("127.0.0.1:10911");
+        Assert.assertFalse(table.isNotSupported("127.0.0.1:10911"));
+    }
+}
@@ -0,0 +1,110 @@
+package com.alibaba.rocketmq.client.impl.consumer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.client.consumer.DefaultMQPushConsumer;
+import com.alibaba.rocketmq.common.message.MessageExt;
+
+
+/**
+ * 自适应流控阀值计算
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class PullThresholdForQueueTest {
+    private static DefaultMQPushConsumer createConsumer(boolean adaptive) {
+        DefaultMQPushConsumer consumer = new DefaultMQPushConsumer("PullThresholdTestGroup");
+        consumer.setPullThresholdForQueue(1000);
+        consumer.setPullBatchSize(32);
+        consumer.setAdaptivePullEnable(adaptive);
+        consumer.setAdaptivePullBufferTime(5000);
+        return consumer;
+    }
+
+
+    private static void consume(ProcessQueue processQueue, long beginOffset, int nums) {
+        List<MessageExt> msgs = new ArrayList<MessageExt>(nums);
+        for (int i = 0; i < nums; i++) {
+            MessageExt msg = new MessageExt();
+            msg.setQueueOffset(beginOffset + i);
+            msg.setBody(new byte[16]);
+            msgs.add(msg);
+        }
+        processQueue.putMessage(msgs);
+        processQueue.removeMessage(msgs);
+    }
+
+
+    private static void sampleLater(ProcessQueue processQueue) throws InterruptedException {
+        Thread.sleep(10);
+        processQueue.sampleConsumeTps();
+    }
+
+
+    @Test
+    public void test_static_threshold() throws Exception {
+        DefaultMQPushConsumer consumer = createConsumer(false);
+        ProcessQueue processQueue = new ProcessQueue();
+        Assert.assertEquals(1000, DefaultMQPushConsumerImpl.computePullThresholdForQueue(consumer, processQueue));
+
+        sampleLater(processQueue);
+        Assert.assertEquals(1000, DefaultMQPushConsumerImpl.computePullThresholdForQueue(consumer, processQueue));
+    }
+
+
+    @Test
+    public void test_adaptive_seeded_from_static_threshold() throws Exception {
+        DefaultMQPushConsumer consumer = createConsumer(true);
+        ProcessQueue processQueue = new ProcessQueue();
+
+        // 采样早于第一次计算也不会把初始值拉到0
+        sampleLater(processQueue);
+        Assert.assertEquals(1000, DefaultMQPushConsumerImpl.computePullThresholdForQueue(consumer, processQueue));
+        Assert.assertEquals(200.0, processQueue.getConsumeTps(), 0.001);
+
+        // 已经有值之后不会被重新设置
+        processQueue.seedConsumeTps(1);
+        Assert.assertEquals(200.0, processQueue.getConsumeTps(), 0.001);
+    }
+
+
+    @Test
+    public void test_adaptive_decay_to_floor() throws Exception {
+        DefaultMQPushConsumer consumer = createConsumer(true);
+        ProcessQueue processQueue = new ProcessQueue();
+        long last = DefaultMQPushConsumerImpl.computePullThresholdForQueue(consumer, processQueue);
+
+        // 一直没有消费，阀值逐步减小，但不会少于一次拉取的量
+        for (int i = 0; i < 20; i++) {
+            sampleLater(processQueue);
+            long threshold = DefaultMQPushConsumerImpl.computePullThresholdForQueue(consumer, processQueue);
+            Assert.assertTrue(threshold <= last);
+            Assert.assertTrue(threshold >= consumer.getPullBatchSize());
+            last = threshold;
+        }
+        Assert.assertEquals(consumer.getPullBatchSize(), last);
+    }
+
+
+    @Test
+    public void test_adaptive_follow_consume_tps() throws Exception {
+        DefaultMQPushConsumer consumer = createConsumer(true);
+        ProcessQueue processQueue = new ProcessQueue();
+        DefaultMQPushConsumerImpl.computePullThresholdForQueue(consumer, processQueue);
+        for (int i = 0; i < 20; i++) {
+            sampleLater(processQueue);
+        }
+        Assert.assertEquals(consumer.getPullBatchSize(),
+            DefaultMQPushConsumerImpl.computePullThresholdForQueue(consumer, processQueue));
+
+        // 消费变快，阀值上升，但不会超过固定阀值
+        consume(processQueue, 0, 10000);
+        sampleLater(processQueue);
+        Assert.assertTrue(processQueue.getConsumeTps() > 0);
+        Assert.assertEquals(1000, DefaultMQPushConsumerImpl.computePullThresholdForQueue(consumer, processQueue));
+    }
+}
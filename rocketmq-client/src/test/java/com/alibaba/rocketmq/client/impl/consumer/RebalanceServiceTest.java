@@ -0,0 +1,49 @@
+package com.alibaba.rocketmq.client.impl.consumer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * 组成员变化通知按Broker与组去重
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class RebalanceServiceTest {
+    @Test
+    public void test_duplicated_version() throws Exception {
+        RebalanceService rebalanceService = new RebalanceService(null);
+        Assert.assertTrue(rebalanceService.notifyConsumerIdsChanged("127.0.0.1:10911", "GroupA", 1L));
+
+        // 同一个Broker同一个组相同版本的通知只处理一次
+        Assert.assertFalse(rebalanceService.notifyConsumerIdsChanged("127.0.0.1:10911", "GroupA", 1L));
+        Assert.assertTrue(rebalanceService.notifyConsumerIdsChanged("127.0.0.1:10911", "GroupA", 2L));
+        Assert.assertFalse(rebalanceService.notifyConsumerIdsChanged("127.0.0.1:10911", "GroupA", 2L));
+
+        // Broker重启后版本号可能变小，不相等就处理
+        Assert.assertTrue(rebalanceService.notifyConsumerIdsChanged("127.0.0.1:10911", "GroupA", 1L));
+    }
+
+
+    @Test
+    public void test_version_per_broker_and_group() throws Exception {
+        RebalanceService rebalanceService = new RebalanceService(null);
+        Assert.assertTrue(rebalanceService.notifyConsumerIdsChanged("127.0.0.1:10911", "GroupA", 1L));
+
+        // 版本号只在一个Broker的一个组内有意义
+        Assert.assertTrue(rebalanceService.notifyConsumerIdsChanged("127.0.0.1:10912", "GroupA", 1L));
+        Assert.assertTrue(rebalanceService.notifyConsumerIdsChanged("127.0.0.1:10911", "GroupB", 1L));
+        Assert.assertFalse(rebalanceService.notifyConsumerIdsChanged("127.0.0.1:10912", "GroupA", 1L));
+        Assert.assertFalse(rebalanceService.notifyConsumerIdsChanged("127.0.0.1:10911", "GroupB", 1L));
+    }
+
+
+    @Test
+    public void test_without_version() throws Exception {
+        RebalanceService rebalanceService = new RebalanceService(null);
+
+        // 老版本Broker不带版本号，每次通知都处理
+        Assert.assertTrue(rebalanceService.notifyConsumerIdsChanged("127.0.0.1:10911", "GroupA", null));
+        Assert.assertTrue(rebalanceService.notifyConsumerIdsChanged("127.0.0.1:10911", "GroupA", null));
+    }
+}
@@ -0,0 +1,116 @@
+package com.alibaba.rocketmq.client.impl.factory;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.consumer.ConsumeFromWhere;
+import com.alibaba.rocketmq.common.protocol.heartbeat.ConsumeType;
+import com.alibaba.rocketmq.common.protocol.heartbeat.ConsumerData;
+import com.alibaba.rocketmq.common.protocol.heartbeat.HeartbeatData;
+import com.alibaba.rocketmq.common.protocol.heartbeat.MessageModel;
+import com.alibaba.rocketmq.common.protocol.heartbeat.ProducerData;
+import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
+
+
+/**
+ * 心跳指纹与Set的遍历顺序无关，心跳内容变化时指纹变化
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class HeartbeatFingerprintTest {
+    private static SubscriptionData subscription(String topic, String subString) {
+        SubscriptionData subscriptionData = new SubscriptionData(topic, subString);
+        subscriptionData.setSubVersion(1000);
+        return subscriptionData;
+    }
+
+
+    private static ConsumerData consumer(String group, boolean reverse) {
+        ConsumerData consumerData = new ConsumerData();
+        consumerData.setGroupName(group);
+        consumerData.setConsumeType(ConsumeType.CONSUME_PASSIVELY);
+        consumerData.setMessageModel(MessageModel.CLUSTERING);
+        consumerData.setConsumeFromWhere(ConsumeFromWhere.CONSUME_FROM_LAST_OFFSET);
+
+        Set<SubscriptionData> subscriptionDataSet = new LinkedHashSet<SubscriptionData>();
+        if (reverse) {
+            subscriptionDataSet.add(subscription("TopicB", "*"));
+            subscriptionDataSet.add(subscription("TopicA", "TagA || TagB"));
+        }
+        else {
+            subscriptionDataSet.add(subscription("TopicA", "TagA || TagB"));
+            subscriptionDataSet.add(subscription("TopicB", "*"));
+        }
+        consumerData.setSubscriptionDataSet(subscriptionDataSet);
+        return consumerData;
+    }
+
+
+    private static ProducerData producer(String group) {
+        ProducerData producerData = new ProducerData();
+        producerData.setGroupName(group);
+        return producerData;
+    }
+
+
+    private static HeartbeatData heartbeat(boolean reverse) {
+        HeartbeatData heartbeatData = new HeartbeatData();
+        heartbeatData.setClientID("127.0.0.1@1234");
+
+        Set<ConsumerData> consumerDataSet = new LinkedHashSet<ConsumerData>();
+        Set<ProducerData> producerDataSet = new LinkedHashSet<ProducerData>();
+        if (reverse) {
+            consumerDataSet.add(consumer("GroupB", true));
+            consumerDataSet.add(consumer("GroupA", true));
+            producerDataSet.add(producer("ProducerB"));
+            producerDataSet.add(producer("ProducerA"));
+        }
+        else {
+            consumerDataSet.add(consumer("GroupA", false));
+            consumerDataSet.add(consumer("GroupB", false));
+            producerDataSet.add(producer("ProducerA"));
+            producerDataSet.add(producer("ProducerB"));
+        }
+        heartbeatData.setConsumerDataSet(consumerDataSet);
+        heartbeatData.setProducerDataSet(producerDataSet);
+        return heartbeatData;
+    }
+
+
+    @Test
+    public void test_order_independent() throws Exception {
+        long fingerprint = MQClientFactory.computeHeartbeatFingerprint(heartbeat(false));
+        Assert.assertEquals(fingerprint, MQClientFactory.computeHeartbeatFingerprint(heartbeat(true)));
+        Assert.assertTrue(fingerprint != 0);
+    }
+
+
+    @Test
+    public void test_content_changed() throws Exception {
+        final long fingerprint = MQClientFactory.computeHeartbeatFingerprint(heartbeat(false));
+
+        // 订阅版本变化
+        HeartbeatData heartbeatData = heartbeat(false);
+        heartbeatData.getConsumerDataSet().iterator().next().getSubscriptionDataSet().iterator().next()
+            .setSubVersion(2000);
+        Assert.assertTrue(fingerprint != MQClientFactory.computeHeartbeatFingerprint(heartbeatData));
+
+        // 新增Producer
+        heartbeatData = heartbeat(false);
+        heartbeatData.getProducerDataSet().add(producer("ProducerC"));
+        Assert.assertTrue(fingerprint != MQClientFactory.computeHeartbeatFingerprint(heartbeatData));
+
+        // 消费模式变化
+        heartbeatData = heartbeat(false);
+        heartbeatData.getConsumerDataSet().iterator().next().setMessageModel(MessageModel.BROADCASTING);
+        Assert.assertTrue(fingerprint != MQClientFactory.computeHeartbeatFingerprint(heartbeatData));
+
+        // 不同的客户端
+        heartbeatData = heartbeat(false);
+        heartbeatData.setClientID("127.0.0.1@5678");
+        Assert.assertTrue(fingerprint != MQClientFactory.computeHeartbeatFingerprint(heartbeatData));
+    }
+}
@@ -73,6 +73,21 @@ public class BrokerConfig {
 
     private int flushConsumerOffsetHistoryInterval = 1000 * 60;
 
+    // 消费进度追加日志超过此大小时，写全量快照并清空日志
+    private long consumerOffsetJournalMaxSize = 1024 * 1024 * 64;
+
+    // Topic配置追加日志超过此大小时，写全量快照并清空日志
+    private long topicConfigJournalMaxSize = 1024 * 1024 * 16;
+
+    // Consumer组成员变化后合并通知的时间窗口，窗口内没有新变化才通知，0表示立即通知
+    private long consumerIdsChangeNotifyDelay = 1000;
+
+    // Consumer组持续变化时，距第一次变化最多延迟这么久一定会通知
+    private long consumerIdsChangeNotifyMaxDelay = 1000 * 5;
+
+    // Slave从Master增量同步Topic配置、订阅组与消费进度的间隔，单位毫秒
+    private long slaveSyncMetadataDeltaInterval = 1000 * 2;
+
     // 查询消息最大时间跨度，单位小时
     private long queryMessageMaxTimeSpan = 3;
 
@@ -80,6 +95,9 @@ public class BrokerConfig {
     @ImportantField
     private boolean rejectTransactionMessage = false;
 
+    // 收发消息请求默认只做内存聚合定时打印摘要，大于0时每N个请求打印一条完整的请求日志，0表示关闭
+    private int digestLiveLogSampleRate = 0;
+
 
     public static String localHostName() {
         try {
@@ -233,6 +251,56 @@ public class BrokerConfig {
     }
 
 
+    public long getConsumerOffsetJournalMaxSize() {
+        return consumerOffsetJournalMaxSize;
+    }
+
+
+    public void setConsumerOffsetJournalMaxSize(long consumerOffsetJournalMaxSize) {
+        this.consumerOffsetJournalMaxSize = consumerOffsetJournalMaxSize;
+    }
+
+
+    public long getTopicConfigJournalMaxSize() {
+        return topicConfigJournalMaxSize;
+    }
+
+
+    public void setTopicConfigJournalMaxSize(long topicConfigJournalMaxSize) {
+        this.topicConfigJournalMaxSize = topicConfigJournalMaxSize;
+    }
+
+
+    public long getConsumerIdsChangeNotifyDelay() {
+        return consumerIdsChangeNotifyDelay;
+    }
+
+
+    public void setConsumerIdsChangeNotifyDelay(long consumerIdsChangeNotifyDelay) {
+        this.consumerIdsChangeNotifyDelay = consumerIdsChangeNotifyDelay;
+    }
+
+
+    public long getConsumerIdsChangeNotifyMaxDelay() {
+        return consumerIdsChangeNotifyMaxDelay;
+    }
+
+
+    public void setConsumerIdsChangeNotifyMaxDelay(long consumerIdsChangeNotifyMaxDelay) {
+        this.consumerIdsChangeNotifyMaxDelay = consumerIdsChangeNotifyMaxDelay;
+    }
+
+
+    public long getSlaveSyncMetadataDeltaInterval() {
+        return slaveSyncMetadataDeltaInterval;
+    }
+
+
+    public void setSlaveSyncMetadataDeltaInterval(long slaveSyncMetadataDeltaInterval) {
+        this.slaveSyncMetadataDeltaInterval = slaveSyncMetadataDeltaInterval;
+    }
+
+
     public int getFlushConsumerOffsetHistoryInterval() {
         return flushConsumerOffsetHistoryInterval;
     }
@@ -321,4 +389,14 @@ public class BrokerConfig {
     public void setRejectTransactionMessage(boolean rejectTransactionMessage) {
         this.rejectTransactionMessage = rejectTransactionMessage;
     }
+
+
+    public int getDigestLiveLogSampleRate() {
+        return digestLiveLogSampleRate;
+    }
+
+
+    public void setDigestLiveLogSampleRate(int digestLiveLogSampleRate) {
+        this.digestLiveLogSampleRate = digestLiveLogSampleRate;
+    }
 }
@@ -0,0 +1,344 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * 以long为Key的并发Map，Key不装箱，读不加锁，写按段加锁<br>
+ * 结构与JDK6的ConcurrentHashMap相同，不允许null值
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-9
+ */
+public class ConcurrentLongHashMap<V> {
+    private static final int DefaultConcurrencyLevel = 16;
+    private static final float LoadFactor = 0.75f;
+
+    private final Segment<V>[] segments;
+    private final int segmentShift;
+    private final int segmentMask;
+
+
+    public ConcurrentLongHashMap() {
+        this(16, DefaultConcurrencyLevel);
+    }
+
+
+    public ConcurrentLongHashMap(final int initialCapacity) {
+        this(initialCapacity, DefaultConcurrencyLevel);
+    }
+
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public ConcurrentLongHashMap(final int initialCapacity, final int concurrencyLevel) {
+        int sshift = 0;
+        int ssize = 1;
+        while (ssize < concurrencyLevel) {
+            ++sshift;
+            ssize <<= 1;
+        }
+        this.segmentShift = 32 - sshift;
+        this.segmentMask = ssize - 1;
+        this.segments = (Segment<V>[]) new Segment[ssize];
+
+        int c = initialCapacity / ssize;
+        if (c * ssize < initialCapacity) {
+            ++c;
+        }
+        int cap = 1;
+        while (cap < c) {
+            cap <<= 1;
+        }
+
+        for (int i = 0; i < this.segments.length; ++i) {
+            this.segments[i] = new Segment<V>(cap);
+        }
+    }
+
+
+    /**
+     * 两个int拼成一个long Key，例如topicId与queueId
+     */
+    public static long buildKey(final int high, final int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+
+    private static int hash(final long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+
+    private Segment<V> segmentFor(final int hash) {
+        return this.segments[(hash >>> this.segmentShift) & this.segmentMask];
+    }
+
+
+    public V get(final long key) {
+        int hash = hash(key);
+        return this.segmentFor(hash).get(key, hash);
+    }
+
+
+    public boolean containsKey(final long key) {
+        return this.get(key) != null;
+    }
+
+
+    public V put(final long key, final V value) {
+        if (null == value)
+            throw new NullPointerException();
+        int hash = hash(key);
+        return this.segmentFor(hash).put(key, hash, value, false);
+    }
+
+
+    public V putIfAbsent(final long key, final V value) {
+        if (null == value)
+            throw new NullPointerException();
+        int hash = hash(key);
+        return this.segmentFor(hash).put(key, hash, value, true);
+    }
+
+
+    public V remove(final long key) {
+        int hash = hash(key);
+        return this.segmentFor(hash).remove(key, hash, null);
+    }
+
+
+    /**
+     * 只有当前值与value相同时才删除
+     */
+    public boolean remove(final long key, final V value) {
+        if (null == value)
+            return false;
+        int hash = hash(key);
+        return this.segmentFor(hash).remove(key, hash, value) != null;
+    }
+
+
+    public int size() {
+        long sum = 0;
+        for (Segment<V> segment : this.segments) {
+            sum += segment.count;
+        }
+
+        return sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) sum;
+    }
+
+
+    public boolean isEmpty() {
+        for (Segment<V> segment : this.segments) {
+            if (segment.count != 0)
+                return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * 返回当前所有值的快照，遍历过程中的修改可能看不到
+     */
+    public List<V> values() {
+        List<V> result = new ArrayList<V>(this.size());
+        for (Segment<V> segment : this.segments) {
+            segment.collectValues(result);
+        }
+
+        return result;
+    }
+
+
+    public void clear() {
+        for (Segment<V> segment : this.segments) {
+            segment.clear();
+        }
+    }
+
+    static final class Node<V> {
+        final long key;
+        final int hash;
+        volatile V value;
+        final Node<V> next;
+
+
+        Node(long key, int hash, V value, Node<V> next) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    static final class Segment<V> {
+        volatile int count;
+        volatile Node<V>[] table;
+        int threshold;
+
+
+        Segment(int initialCapacity) {
+            this.setTable(Segment.<V> newTable(initialCapacity));
+        }
+
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        static <V> Node<V>[] newTable(int capacity) {
+            return (Node<V>[]) new Node[capacity];
+        }
+
+
+        private void setTable(Node<V>[] newTable) {
+            this.threshold = (int) (newTable.length * LoadFactor);
+            this.table = newTable;
+        }
+
+
+        /**
+         * 节点通过数组发布时，构造函数中的赋值可能还不可见，此时加锁重读
+         */
+        private synchronized V readValueUnderLock(Node<V> e) {
+            return e.value;
+        }
+
+
+        V get(long key, int hash) {
+            if (this.count != 0) {
+                Node<V>[] tab = this.table;
+                Node<V> e = tab[hash & (tab.length - 1)];
+                while (e != null) {
+                    if (e.key == key) {
+                        V v = e.value;
+                        if (v != null)
+                            return v;
+                        return this.readValueUnderLock(e);
+                    }
+                    e = e.next;
+                }
+            }
+
+            return null;
+        }
+
+
+        synchronized V put(long key, int hash, V value, boolean onlyIfAbsent) {
+            int c = this.count;
+            if (c++ > this.threshold) {
+                this.rehash();
+            }
+
+            Node<V>[] tab = this.table;
+            int index = hash & (tab.length - 1);
+            Node<V> first = tab[index];
+            Node<V> e = first;
+            while (e != null && e.key != key) {
+                e = e.next;
+            }
+
+            V oldValue;
+            if (e != null) {
+                oldValue = e.value;
+                if (!onlyIfAbsent) {
+                    e.value = value;
+                }
+            }
+            else {
+                oldValue = null;
+                tab[index] = new Node<V>(key, hash, value, first);
+                this.count = c;
+            }
+
+            return oldValue;
+        }
+
+
+        private void rehash() {
+            Node<V>[] oldTable = this.table;
+            if (oldTable.length >= (1 << 30))
+                return;
+
+            Node<V>[] newTable = Segment.<V> newTable(oldTable.length << 1);
+            int sizeMask = newTable.length - 1;
+            for (Node<V> head : oldTable) {
+                // 节点的next不可变，复制节点，读线程仍然可以遍历旧表
+                for (Node<V> p = head; p != null; p = p.next) {
+                    int index = p.hash & sizeMask;
+                    newTable[index] = new Node<V>(p.key, p.hash, p.value, newTable[index]);
+                }
+            }
+
+            this.setTable(newTable);
+        }
+
+
+        synchronized V remove(long key, int hash, V value) {
+            int c = this.count - 1;
+            Node<V>[] tab = this.table;
+            int index = hash & (tab.length - 1);
+            Node<V> first = tab[index];
+            Node<V> e = first;
+            while (e != null && e.key != key) {
+                e = e.next;
+            }
+
+            V oldValue = null;
+            if (e != null) {
+                V v = e.value;
+                if (null == value || value.equals(v)) {
+                    oldValue = v;
+                    // 复制被删除节点之前的节点
+                    Node<V> newFirst = e.next;
+                    for (Node<V> p = first; p != e; p = p.next) {
+                        newFirst = new Node<V>(p.key, p.hash, p.value, newFirst);
+                    }
+                    tab[index] = newFirst;
+                    this.count = c;
+                }
+            }
+
+            return oldValue;
+        }
+
+
+        void collectValues(List<V> result) {
+            if (this.count != 0) {
+                Node<V>[] tab = this.table;
+                for (Node<V> head : tab) {
+                    for (Node<V> p = head; p != null; p = p.next) {
+                        V v = p.value;
+                        if (null == v) {
+                            v = this.readValueUnderLock(p);
+                        }
+                        result.add(v);
+                    }
+                }
+            }
+        }
+
+
+        synchronized void clear() {
+            if (this.count != 0) {
+                this.setTable(Segment.<V> newTable(this.table.length));
+                this.count = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * 为Topic、订阅组等名字分配从0开始的连续int id，只在进程内有效，不持久化<br>
+ * id分配后不回收，名字删除后再使用仍然是原来的id
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-9
+ */
+public class NameIdTable {
+    private final ConcurrentHashMap<String/* name */, Integer/* id */> nameIdTable;
+    private volatile String[] idNameTable;
+    private int nextId = 0;
+
+
+    public NameIdTable(final int initialCapacity) {
+        this.nameIdTable = new ConcurrentHashMap<String, Integer>(initialCapacity);
+        this.idNameTable = new String[Math.max(initialCapacity, 16)];
+    }
+
+
+    /**
+     * 返回名字对应的id，没有则分配一个，分配后不回收，只在创建数据时调用
+     */
+    public int getId(final String name) {
+        Integer id = this.nameIdTable.get(name);
+        if (id != null) {
+            return id;
+        }
+
+        return this.assignId(name);
+    }
+
+
+    /**
+     * 只查找名字对应的id，不分配
+     *
+     * @return 没有分配过返回-1
+     */
+    public int findId(final String name) {
+        Integer id = this.nameIdTable.get(name);
+        if (id != null) {
+            return id;
+        }
+
+        return -1;
+    }
+
+
+    private synchronized int assignId(final String name) {
+        Integer id = this.nameIdTable.get(name);
+        if (id != null) {
+            return id;
+        }
+
+        final int newId = this.nextId++;
+        String[] table = this.idNameTable;
+        if (newId >= table.length) {
+            String[] newTable = new String[table.length << 1];
+            System.arraycopy(table, 0, newTable, 0, table.length);
+            table = newTable;
+        }
+
+        // 先写反查表，拿到id的线程一定能查到名字
+        table[newId] = name;
+        this.idNameTable = table;
+        this.nameIdTable.put(name, newId);
+        return newId;
+    }
+
+
+    public String getName(final int id) {
+        String[] table = this.idNameTable;
+        if (id >= 0 && id < table.length) {
+            return table[id];
+        }
+
+        return null;
+    }
+
+
+    public int size() {
+        return this.nameIdTable.size();
+    }
+}
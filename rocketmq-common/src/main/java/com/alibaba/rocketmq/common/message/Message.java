@@ -62,6 +62,10 @@ public class Message implements Serializable {
      * 消息延时投递时间级别，0表示不延时，大于0表示特定延时级别（具体级别在服务器端定义）
      */
     public static final String PROPERTY_DELAY_TIME_LEVEL = "DELAY";
+    /**
+     * 消息开始投递的时间点，单位毫秒，可以是任意时间，优先于延时级别
+     */
+    public static final String PROPERTY_START_DELIVER_TIME = "START_DELIVER_TIME";
 
     /**
      * 内部使用
@@ -181,6 +185,32 @@ public class Message implements Serializable {
     }
 
 
+    /**
+     * 消息开始投递的时间点，没有设置或者格式不合法返回0
+     */
+    public long getStartDeliverTime() {
+        String t = this.getProperty(PROPERTY_START_DELIVER_TIME);
+        if (t != null) {
+            try {
+                return Long.parseLong(t);
+            }
+            catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        return 0;
+    }
+
+
+    /**
+     * 设置消息开始投递的时间点，单位毫秒
+     */
+    public void setStartDeliverTime(long timestamp) {
+        this.putProperty(PROPERTY_START_DELIVER_TIME, String.valueOf(timestamp));
+    }
+
+
     public boolean isWaitStoreMsgOK() {
         String result = this.getProperty(PROPERTY_WAIT_STORE_MSG_OK);
         if (null == result)
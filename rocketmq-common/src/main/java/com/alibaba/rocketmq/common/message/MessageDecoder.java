@@ -45,9 +45,15 @@ public class MessageDecoder {
      * 存储记录各个字段位置
      */
     public final static int MessageMagicCodePostion = 4;
+    public final static int MessageBodyCRCPostion = 8;
+    public final static int MessageQueueIdPostion = 12;
     public final static int MessageFlagPostion = 16;
+    public final static int MessageQueueOffsetPostion = 20;
     public final static int MessagePhysicOffsetPostion = 28;
+    public final static int MessageSysFlagPostion = 36;
     public final static int MessageStoreTimestampPostion = 56;
+    public final static int MessagePreparedTransactionOffsetPostion = 76;
+    public final static int MessageBodyLengthPostion = 84;
 
 
     public static String createMessageId(final ByteBuffer input, final ByteBuffer addr, final long offset) {
@@ -233,6 +239,123 @@ public class MessageDecoder {
         return msgExts;
     }
 
+    /**
+     * 客户端使用，消息体、属性、消息ID在首次访问时才解析，同一批消息的Topic共享一个字符串对象
+     * 
+     * @param byteBuffer
+     *            必须是包装字节数组的ByteBuffer
+     */
+    public static List<MessageExt> decodesLazily(final ByteBuffer byteBuffer) {
+        final byte[] data = byteBuffer.array();
+        final List<MessageExt> msgExts = new ArrayList<MessageExt>();
+        String lastTopic = null;
+        int lastTopicPosition = 0;
+        int lastTopicLength = -1;
+        try {
+            while (byteBuffer.hasRemaining()) {
+                // 1 TOTALSIZE
+                int storeSize = byteBuffer.getInt();
+                // 2 MAGICCODE
+                byteBuffer.getInt();
+                // 3 BODYCRC
+                int bodyCRC = byteBuffer.getInt();
+                // 4 QUEUEID
+                int queueId = byteBuffer.getInt();
+                // 5 FLAG
+                int flag = byteBuffer.getInt();
+                // 6 QUEUEOFFSET
+                long queueOffset = byteBuffer.getLong();
+                // 7 PHYSICALOFFSET
+                long physicOffset = byteBuffer.getLong();
+                // 8 SYSFLAG
+                int sysFlag = byteBuffer.getInt();
+                // 9 BORNTIMESTAMP
+                long bornTimeStamp = byteBuffer.getLong();
+                // 10 BORNHOST
+                byte[] bornHost = new byte[4];
+                byteBuffer.get(bornHost, 0, 4);
+                int bornPort = byteBuffer.getInt();
+                // 11 STORETIMESTAMP
+                long storeTimestamp = byteBuffer.getLong();
+                // 12 STOREHOST
+                byte[] storeHost = new byte[4];
+                byteBuffer.get(storeHost, 0, 4);
+                int storePort = byteBuffer.getInt();
+                // 13 RECONSUMETIMES
+                int reconsumeTimes = byteBuffer.getInt();
+                // 14 Prepared Transaction Offset
+                long preparedTransactionOffset = byteBuffer.getLong();
+
+                // 15 BODY
+                int bodyLen = byteBuffer.getInt();
+                int bodyPosition = byteBuffer.arrayOffset() + byteBuffer.position();
+                byteBuffer.position(byteBuffer.position() + Math.max(bodyLen, 0));
+
+                // 16 TOPIC
+                int topicLen = byteBuffer.get();
+                int topicPosition = byteBuffer.arrayOffset() + byteBuffer.position();
+                byteBuffer.position(byteBuffer.position() + topicLen);
+                if (!bytesEquals(data, lastTopicPosition, lastTopicLength, topicPosition, topicLen)) {
+                    lastTopic = new String(data, topicPosition, topicLen);
+                    lastTopicPosition = topicPosition;
+                    lastTopicLength = topicLen;
+                }
+
+                // 17 properties
+                short propertiesLength = byteBuffer.getShort();
+                int propertiesPosition = byteBuffer.arrayOffset() + byteBuffer.position();
+                byteBuffer.position(byteBuffer.position() + Math.max(propertiesLength, 0));
+
+                MessageExtLazy msgExt =
+                        new MessageExtLazy(data, bodyPosition, Math.max(bodyLen, 0), propertiesPosition,
+                            Math.max(propertiesLength, 0));
+                msgExt.setStoreSize(storeSize);
+                msgExt.setBodyCRC(bodyCRC);
+                msgExt.setQueueId(queueId);
+                msgExt.setFlag(flag);
+                msgExt.setQueueOffset(queueOffset);
+                msgExt.setCommitLogOffset(physicOffset);
+                msgExt.setSysFlag(sysFlag);
+                msgExt.setBornTimestamp(bornTimeStamp);
+                msgExt.setBornHost(new InetSocketAddress(InetAddress.getByAddress(bornHost), bornPort));
+                msgExt.setStoreTimestamp(storeTimestamp);
+                msgExt.setStoreHost(new InetSocketAddress(InetAddress.getByAddress(storeHost), storePort));
+                msgExt.setReconsumeTimes(reconsumeTimes);
+                msgExt.setPreparedTransactionOffset(preparedTransactionOffset);
+                msgExt.setTopic(lastTopic);
+
+                msgExts.add(msgExt);
+            }
+        }
+        catch (UnknownHostException e) {
+            byteBuffer.position(byteBuffer.limit());
+        }
+        catch (BufferUnderflowException e) {
+            byteBuffer.position(byteBuffer.limit());
+        }
+        catch (Exception e) {
+            byteBuffer.position(byteBuffer.limit());
+        }
+
+        return msgExts;
+    }
+
+
+    private static boolean bytesEquals(final byte[] data, final int pos1, final int len1, final int pos2,
+            final int len2) {
+        if (len1 != len2) {
+            return false;
+        }
+
+        for (int i = 0; i < len1; i++) {
+            if (data[pos1 + i] != data[pos2 + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      * 序列化消息属性
      */
@@ -0,0 +1,314 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.common.message;
+
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.alibaba.rocketmq.common.UtilALl;
+import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
+
+
+/**
+ * 客户端拉取到的消息，只复制自己的消息体与属性，消息体解压缩、属性解析、消息ID在首次访问时才进行<br>
+ * 只按照Tag、Key路由或者直接转发消息体的应用可以省去大部分解码开销<br>
+ * 解析过程在对象锁内完成，解析结果通过volatile标志发布，多个线程同时访问是安全的
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-6
+ */
+public class MessageExtLazy extends MessageExt {
+    private static final long serialVersionUID = -2340719567381846923L;
+
+    // 原始的消息体与属性，解析后释放引用
+    private transient byte[] rawBody;
+    private transient byte[] rawProperties;
+    private transient int bodyLength;
+
+    private volatile boolean bodyDecoded = false;
+    private volatile boolean propertiesDecoded = false;
+    // 属性解析之前追加的属性，解析时合并
+    private transient Map<String, String> appendProperties;
+
+
+    /**
+     * 从拉消息应答中复制本条消息的消息体与属性，不引用整个应答缓冲区
+     */
+    public MessageExtLazy(final byte[] data, final int bodyPosition, final int bodyLength,
+            final int propertiesPosition, final int propertiesLength) {
+        this.bodyLength = bodyLength;
+        if (bodyLength > 0) {
+            this.rawBody = new byte[bodyLength];
+            System.arraycopy(data, bodyPosition, this.rawBody, 0, bodyLength);
+        }
+
+        if (propertiesLength > 0) {
+            this.rawProperties = new byte[propertiesLength];
+            System.arraycopy(data, propertiesPosition, this.rawProperties, 0, propertiesLength);
+        }
+    }
+
+
+    @Override
+    public byte[] getBody() {
+        if (!this.bodyDecoded) {
+            this.decodeBody();
+        }
+
+        return super.getBody();
+    }
+
+
+    private synchronized void decodeBody() {
+        if (this.bodyDecoded) {
+            return;
+        }
+
+        byte[] body = this.rawBody;
+        // uncompress body
+        if (body != null
+                && (this.getSysFlag() & MessageSysFlag.CompressedFlag) == MessageSysFlag.CompressedFlag) {
+            try {
+                body = UtilALl.uncompress(body);
+            }
+            catch (IOException e) {
+                throw new RuntimeException("uncompress message body failed, " + this.getMsgId(), e);
+            }
+        }
+
+        this.setBody(body);
+    }
+
+
+    @Override
+    public synchronized void setBody(byte[] body) {
+        super.setBody(body);
+        this.rawBody = null;
+        this.bodyDecoded = true;
+    }
+
+
+    /**
+     * 消息体在网络上的长度，不触发解压缩，解析前后保持不变
+     */
+    public int getBodyLength() {
+        return this.bodyLength;
+    }
+
+
+    @Override
+    public String getMsgId() {
+        String msgId = super.getMsgId();
+        if (null == msgId) {
+            msgId =
+                    MessageDecoder.createMessageId(ByteBuffer.allocate(MessageDecoder.MSG_ID_LENGTH),
+                        this.getStoreHostBytes(), this.getCommitLogOffset());
+            this.setMsgId(msgId);
+        }
+
+        return msgId;
+    }
+
+
+    @Override
+    public Map<String, String> getProperties() {
+        if (!this.propertiesDecoded) {
+            this.decodeProperties();
+        }
+
+        return super.getProperties();
+    }
+
+
+    @Override
+    public synchronized void setProperties(Map<String, String> properties) {
+        super.setProperties(properties);
+        this.rawProperties = null;
+        this.appendProperties = null;
+        this.propertiesDecoded = true;
+    }
+
+
+    @Override
+    public String getProperty(final String name) {
+        if (!this.propertiesDecoded) {
+            synchronized (this) {
+                if (!this.propertiesDecoded) {
+                    if (this.appendProperties != null && this.appendProperties.containsKey(name)) {
+                        return this.appendProperties.get(name);
+                    }
+
+                    if (isAscii(name)) {
+                        return this.findRawProperty(name);
+                    }
+
+                    this.decodeProperties();
+                }
+            }
+        }
+
+        return super.getProperty(name);
+    }
+
+
+    @Override
+    public void putProperty(final String name, final String value) {
+        if (!this.propertiesDecoded) {
+            synchronized (this) {
+                if (!this.propertiesDecoded) {
+                    if (null == this.appendProperties) {
+                        this.appendProperties = new HashMap<String, String>(4);
+                    }
+                    this.appendProperties.put(name, value);
+                    return;
+                }
+            }
+        }
+
+        super.putProperty(name, value);
+    }
+
+
+    @Override
+    public void clearProperty(final String name) {
+        if (!this.propertiesDecoded) {
+            this.decodeProperties();
+        }
+
+        super.clearProperty(name);
+    }
+
+
+    private synchronized void decodeProperties() {
+        if (this.propertiesDecoded) {
+            return;
+        }
+
+        Map<String, String> map = null;
+        if (this.rawProperties != null) {
+            map = MessageDecoder.string2messageProperties(new String(this.rawProperties));
+        }
+
+        if (this.appendProperties != null) {
+            if (null == map) {
+                map = new HashMap<String, String>();
+            }
+            map.putAll(this.appendProperties);
+        }
+
+        this.setProperties(map);
+    }
+
+
+    /**
+     * 不解析全部属性，直接在原始数据中查找，与string2messageProperties的结果一致，调用方持有对象锁
+     */
+    private String findRawProperty(final String name) {
+        final byte[] data = this.rawProperties;
+        if (null == data) {
+            return null;
+        }
+
+        String value = null;
+        int entryStart = 0;
+        while (entryStart < data.length) {
+            int entryEnd = entryStart;
+            while (entryEnd < data.length && data[entryEnd] != MessageDecoder.PROPERTY_SEPARATOR) {
+                entryEnd++;
+            }
+
+            if (nameMatches(data, name, entryStart, entryEnd)) {
+                int valueStart = entryStart + name.length() + 1;
+                int valueEnd = entryEnd;
+                // 与String.split一致，忽略末尾的分隔符
+                while (valueEnd > valueStart && data[valueEnd - 1] == MessageDecoder.NAME_VALUE_SEPARATOR) {
+                    valueEnd--;
+                }
+
+                boolean valid = valueStart < valueEnd;
+                for (int i = valueStart; valid && i < valueEnd; i++) {
+                    if (data[i] == MessageDecoder.NAME_VALUE_SEPARATOR) {
+                        valid = false;
+                    }
+                }
+
+                // 同名属性以最后一个合法的为准
+                if (valid) {
+                    value = new String(data, valueStart, valueEnd - valueStart);
+                }
+            }
+
+            entryStart = entryEnd + 1;
+        }
+
+        return value;
+    }
+
+
+    private static boolean nameMatches(final byte[] data, final String name, final int entryStart,
+            final int entryEnd) {
+        final int nameLength = name.length();
+        if (entryStart + nameLength >= entryEnd
+                || data[entryStart + nameLength] != MessageDecoder.NAME_VALUE_SEPARATOR) {
+            return false;
+        }
+
+        for (int i = 0; i < nameLength; i++) {
+            if (data[entryStart + i] != (byte) name.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    private static boolean isAscii(final String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) > 0x7F) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * 序列化之前解析全部字段，原始数据不参与序列化
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        this.getBody();
+        this.getProperties();
+        this.getMsgId();
+        return this;
+    }
+
+
+    /**
+     * 与MessageDecoder.decode解析的消息输出一致
+     */
+    @Override
+    public String toString() {
+        this.getBody();
+        this.getProperties();
+        this.getMsgId();
+        return super.toString();
+    }
+}
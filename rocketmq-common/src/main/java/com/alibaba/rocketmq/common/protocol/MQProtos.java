@@ -72,6 +72,18 @@ public final class MQProtos {
         GET_ALL_CONSUMER_OFFSET(30, 43),
         // Broker 获取所有定时进度
         GET_ALL_DELAY_OFFSET(32, 45),
+        // Broker 一次请求拉取同一Broker上多个队列的消息
+        PULL_MESSAGE_BATCH(42, 46),
+        // Consumer 批量将消费失败的消息发回Broker
+        CONSUMER_SEND_MSG_BACK_BATCH(43, 47),
+        // Client只携带订阅指纹的心跳，指纹不一致时Broker要求发送全量心跳
+        HEART_BEAT_LITE(47, 48),
+        // Client批量锁定多个Consumer组的队列
+        LOCK_BATCH_MQ_MULTI_GROUP(48, 49),
+        // Broker主动通知Client队列锁已过期或被抢占
+        NOTIFY_MQ_LOCK_EXPIRED(49, 50),
+        // Slave从Master增量同步Topic配置、订阅组与消费进度
+        GET_METADATA_DELTA(50, 51),
         // Namesrv 向Namesrv追加KV配置
         PUT_KV_CONFIG(33, 100),
         // Namesrv 从Namesrv获取KV配置
@@ -86,6 +98,12 @@ public final class MQProtos {
         GET_ROUTEINTO_BY_TOPIC(38, 105),
         // Namesrv 获取注册到Name Server的所有Broker集群信息
         GET_BROKER_CLUSTER_INFO(39, 106),
+        // Namesrv 批量获取Topic路由信息，只返回版本号有变化的Topic
+        GET_ROUTEINTO_BY_TOPIC_BATCH(44, 107),
+        // Namesrv 长轮询订阅Topic路由变化，任意Topic路由变化或者超时才返回
+        WATCH_TOPIC_ROUTE_CHANGE(45, 108),
+        // Namesrv 增量注册Broker，只携带变化的Topic配置，没有变化时即为心跳
+        REGISTER_BROKER_DELTA(46, 109),
 
         // Broker 更新或者增加一个订阅组
         UPDATE_AND_CREATE_SUBSCRIPTIONGROUP(40, 200),
@@ -155,6 +173,18 @@ public final class MQProtos {
         public static final int GET_ALL_CONSUMER_OFFSET_VALUE = 43;
         // Broker 获取所有定时进度
         public static final int GET_ALL_DELAY_OFFSET_VALUE = 45;
+        // Broker 一次请求拉取同一Broker上多个队列的消息
+        public static final int PULL_MESSAGE_BATCH_VALUE = 46;
+        // Consumer 批量将消费失败的消息发回Broker
+        public static final int CONSUMER_SEND_MSG_BACK_BATCH_VALUE = 47;
+        // Client只携带订阅指纹的心跳，指纹不一致时Broker要求发送全量心跳
+        public static final int HEART_BEAT_LITE_VALUE = 48;
+        // Client批量锁定多个Consumer组的队列
+        public static final int LOCK_BATCH_MQ_MULTI_GROUP_VALUE = 49;
+        // Broker主动通知Client队列锁已过期或被抢占
+        public static final int NOTIFY_MQ_LOCK_EXPIRED_VALUE = 50;
+        // Slave从Master增量同步Topic配置、订阅组与消费进度
+        public static final int GET_METADATA_DELTA_VALUE = 51;
         // Namesrv 向Namesrv追加KV配置
         public static final int PUT_KV_CONFIG_VALUE = 100;
         // Namesrv 从Namesrv获取KV配置
@@ -169,6 +199,12 @@ public final class MQProtos {
         public static final int GET_ROUTEINTO_BY_TOPIC_VALUE = 105;
         // Namesrv 获取注册到Name Server的所有Broker集群信息
         public static final int GET_BROKER_CLUSTER_INFO_VALUE = 106;
+        // Namesrv 批量获取Topic路由信息，只返回版本号有变化的Topic
+        public static final int GET_ROUTEINTO_BY_TOPIC_BATCH_VALUE = 107;
+        // Namesrv 长轮询订阅Topic路由变化，任意Topic路由变化或者超时才返回
+        public static final int WATCH_TOPIC_ROUTE_CHANGE_VALUE = 108;
+        // Namesrv 增量注册Broker，只携带变化的Topic配置，没有变化时即为心跳
+        public static final int REGISTER_BROKER_DELTA_VALUE = 109;
 
         public static final int UPDATE_AND_CREATE_SUBSCRIPTIONGROUP_VALUE = 200;
         public static final int GET_ALL_SUBSCRIPTIONGROUP_CONFIG_VALUE = 201;
@@ -240,6 +276,18 @@ public final class MQProtos {
                 return GET_ALL_CONSUMER_OFFSET;
             case 45:
                 return GET_ALL_DELAY_OFFSET;
+            case 46:
+                return PULL_MESSAGE_BATCH;
+            case 47:
+                return CONSUMER_SEND_MSG_BACK_BATCH;
+            case 48:
+                return HEART_BEAT_LITE;
+            case 49:
+                return LOCK_BATCH_MQ_MULTI_GROUP;
+            case 50:
+                return NOTIFY_MQ_LOCK_EXPIRED;
+            case 51:
+                return GET_METADATA_DELTA;
             case 100:
                 return PUT_KV_CONFIG;
             case 101:
@@ -254,6 +302,12 @@ public final class MQProtos {
                 return GET_ROUTEINTO_BY_TOPIC;
             case 106:
                 return GET_BROKER_CLUSTER_INFO;
+            case 107:
+                return GET_ROUTEINTO_BY_TOPIC_BATCH;
+            case 108:
+                return WATCH_TOPIC_ROUTE_CHANGE;
+            case 109:
+                return REGISTER_BROKER_DELTA;
 
             case 200:
                 return UPDATE_AND_CREATE_SUBSCRIPTIONGROUP;
@@ -319,6 +373,10 @@ public final class MQProtos {
         SUBSCRIPTION_NOT_LATEST(15, 25),
         // Broker 订阅组不存在
         SUBSCRIPTION_GROUP_NOT_EXIST(16, 26),
+        // Name Server上的Broker数据版本与增量注册的基准版本不一致，需要全量注册
+        BROKER_DATA_VERSION_NOT_MATCH(21, 27),
+        // Broker上没有匹配的心跳指纹，Client需要发送全量心跳
+        HEARTBEAT_FINGERPRINT_NOT_MATCH(22, 28),
         // Producer 事务应该被提交
         TRANSACTION_SHOULD_COMMIT(17, 200),
         // Producer 事务应该被回滚
@@ -362,6 +420,10 @@ public final class MQProtos {
         public static final int SUBSCRIPTION_NOT_LATEST_VALUE = 25;
         // Broker 订阅组不存在
         public static final int SUBSCRIPTION_GROUP_NOT_EXIST_VALUE = 26;
+        // Name Server上的Broker数据版本与增量注册的基准版本不一致，需要全量注册
+        public static final int BROKER_DATA_VERSION_NOT_MATCH_VALUE = 27;
+        // Broker上没有匹配的心跳指纹，Client需要发送全量心跳
+        public static final int HEARTBEAT_FINGERPRINT_NOT_MATCH_VALUE = 28;
         // Producer 事务应该被提交
         public static final int TRANSACTION_SHOULD_COMMIT_VALUE = 200;
         // Producer 事务应该被回滚
@@ -408,6 +470,10 @@ public final class MQProtos {
                 return SUBSCRIPTION_NOT_LATEST;
             case 26:
                 return SUBSCRIPTION_GROUP_NOT_EXIST;
+            case 27:
+                return BROKER_DATA_VERSION_NOT_MATCH;
+            case 28:
+                return HEARTBEAT_FINGERPRINT_NOT_MATCH;
             case 200:
                 return TRANSACTION_SHOULD_COMMIT;
             case 201:
@@ -0,0 +1,50 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * 批量发回消费失败的消息，只携带消息在CommitLog中的Offset，不携带消息体
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-5
+ */
+public class ConsumerSendMsgBackBatchRequestBody extends RemotingSerializable {
+    private String group;
+    // 0表示由服务器根据重试次数决定定时级别，小于0表示直接进入死信队列
+    private int delayLevel;
+    private List<Long> offsetList = new ArrayList<Long>();
+
+
+    public String getGroup() {
+        return group;
+    }
+
+
+    public void setGroup(String group) {
+        this.group = group;
+    }
+
+
+    public int getDelayLevel() {
+        return delayLevel;
+    }
+
+
+    public void setDelayLevel(int delayLevel) {
+        this.delayLevel = delayLevel;
+    }
+
+
+    public List<Long> getOffsetList() {
+        return offsetList;
+    }
+
+
+    public void setOffsetList(List<Long> offsetList) {
+        this.offsetList = offsetList;
+    }
+}
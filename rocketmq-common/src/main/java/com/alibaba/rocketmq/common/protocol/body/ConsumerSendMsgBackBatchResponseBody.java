@@ -0,0 +1,26 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-5
+ */
+public class ConsumerSendMsgBackBatchResponseBody extends RemotingSerializable {
+    // 发回失败的消息Offset
+    private List<Long> failedOffsetList = new ArrayList<Long>();
+
+
+    public List<Long> getFailedOffsetList() {
+        return failedOffsetList;
+    }
+
+
+    public void setFailedOffsetList(List<Long> failedOffsetList) {
+        this.failedOffsetList = failedOffsetList;
+    }
+}
@@ -0,0 +1,26 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import java.util.HashMap;
+
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * 键值对形式的数据，例如Broker运行时统计信息
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-12
+ */
+public class KVTable extends RemotingSerializable {
+    private HashMap<String, String> table = new HashMap<String, String>();
+
+
+    public HashMap<String, String> getTable() {
+        return table;
+    }
+
+
+    public void setTable(HashMap<String, String> table) {
+        this.table = table;
+    }
+}
@@ -0,0 +1,40 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import java.util.HashMap;
+import java.util.Set;
+
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * 一次请求续约一个Client在某个Broker上所有Consumer组的队列锁
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-11
+ */
+public class LockBatchMultiGroupRequestBody extends RemotingSerializable {
+    private String clientId;
+    private HashMap<String/* group */, Set<MessageQueue>> groupMQTable =
+            new HashMap<String, Set<MessageQueue>>();
+
+
+    public String getClientId() {
+        return clientId;
+    }
+
+
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
+
+
+    public HashMap<String, Set<MessageQueue>> getGroupMQTable() {
+        return groupMQTable;
+    }
+
+
+    public void setGroupMQTable(HashMap<String, Set<MessageQueue>> groupMQTable) {
+        this.groupMQTable = groupMQTable;
+    }
+}
@@ -0,0 +1,40 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import java.util.HashMap;
+import java.util.Set;
+
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-11
+ */
+public class LockBatchMultiGroupResponseBody extends RemotingSerializable {
+    // 每个组Lock成功的队列集合
+    private HashMap<String/* group */, Set<MessageQueue>> lockOKMQTable =
+            new HashMap<String, Set<MessageQueue>>();
+    // Broker上锁的租期，单位毫秒
+    private long leaseMillis;
+
+
+    public HashMap<String, Set<MessageQueue>> getLockOKMQTable() {
+        return lockOKMQTable;
+    }
+
+
+    public void setLockOKMQTable(HashMap<String, Set<MessageQueue>> lockOKMQTable) {
+        this.lockOKMQTable = lockOKMQTable;
+    }
+
+
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+
+    public void setLeaseMillis(long leaseMillis) {
+        this.leaseMillis = leaseMillis;
+    }
+}
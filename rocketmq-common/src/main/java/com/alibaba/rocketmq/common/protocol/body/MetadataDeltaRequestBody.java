@@ -0,0 +1,60 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import com.alibaba.rocketmq.common.DataVersion;
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * Slave向Master增量同步元数据，携带Slave当前的各项版本
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-12
+ */
+public class MetadataDeltaRequestBody extends RemotingSerializable {
+    private DataVersion topicDataVersion = new DataVersion();
+    private DataVersion subscriptionGroupDataVersion = new DataVersion();
+    // 上次同步时Master的消费进度同步纪元，Master重启后变化，不一致时全量同步消费进度
+    private long offsetSyncEpoch = -1;
+    // 上次同步Master返回的检查点，小于0表示全量同步消费进度
+    private long offsetCheckpoint = -1;
+
+
+    public DataVersion getTopicDataVersion() {
+        return topicDataVersion;
+    }
+
+
+    public void setTopicDataVersion(DataVersion topicDataVersion) {
+        this.topicDataVersion = topicDataVersion;
+    }
+
+
+    public DataVersion getSubscriptionGroupDataVersion() {
+        return subscriptionGroupDataVersion;
+    }
+
+
+    public void setSubscriptionGroupDataVersion(DataVersion subscriptionGroupDataVersion) {
+        this.subscriptionGroupDataVersion = subscriptionGroupDataVersion;
+    }
+
+
+    public long getOffsetSyncEpoch() {
+        return offsetSyncEpoch;
+    }
+
+
+    public void setOffsetSyncEpoch(long offsetSyncEpoch) {
+        this.offsetSyncEpoch = offsetSyncEpoch;
+    }
+
+
+    public long getOffsetCheckpoint() {
+        return offsetCheckpoint;
+    }
+
+
+    public void setOffsetCheckpoint(long offsetCheckpoint) {
+        this.offsetCheckpoint = offsetCheckpoint;
+    }
+}
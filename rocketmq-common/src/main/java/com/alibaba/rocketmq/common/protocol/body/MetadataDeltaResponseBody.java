@@ -0,0 +1,76 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * Master返回给Slave的增量元数据
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-12
+ */
+public class MetadataDeltaResponseBody extends RemotingSerializable {
+    // Slave的Topic版本之后的变更，为null表示变更记录不完整，需要全量同步Topic配置
+    private TopicConfigDeltaWrapper topicConfigDelta;
+    // 订阅组版本不一致时携带全部订阅组，一致时为null
+    private SubscriptionGroupWrapper subscriptionGroupWrapper;
+    private long offsetSyncEpoch;
+    // Slave下次同步时带上，Master只返回检查点之后提交过的消费进度
+    private long offsetCheckpoint;
+    // topic@group为Key，检查点之后有提交的消费进度
+    private HashMap<String, ConcurrentHashMap<Integer, Long>> offsetTable =
+            new HashMap<String, ConcurrentHashMap<Integer, Long>>();
+
+
+    public TopicConfigDeltaWrapper getTopicConfigDelta() {
+        return topicConfigDelta;
+    }
+
+
+    public void setTopicConfigDelta(TopicConfigDeltaWrapper topicConfigDelta) {
+        this.topicConfigDelta = topicConfigDelta;
+    }
+
+
+    public SubscriptionGroupWrapper getSubscriptionGroupWrapper() {
+        return subscriptionGroupWrapper;
+    }
+
+
+    public void setSubscriptionGroupWrapper(SubscriptionGroupWrapper subscriptionGroupWrapper) {
+        this.subscriptionGroupWrapper = subscriptionGroupWrapper;
+    }
+
+
+    public long getOffsetSyncEpoch() {
+        return offsetSyncEpoch;
+    }
+
+
+    public void setOffsetSyncEpoch(long offsetSyncEpoch) {
+        this.offsetSyncEpoch = offsetSyncEpoch;
+    }
+
+
+    public long getOffsetCheckpoint() {
+        return offsetCheckpoint;
+    }
+
+
+    public void setOffsetCheckpoint(long offsetCheckpoint) {
+        this.offsetCheckpoint = offsetCheckpoint;
+    }
+
+
+    public HashMap<String, ConcurrentHashMap<Integer, Long>> getOffsetTable() {
+        return offsetTable;
+    }
+
+
+    public void setOffsetTable(HashMap<String, ConcurrentHashMap<Integer, Long>> offsetTable) {
+        this.offsetTable = offsetTable;
+    }
+}
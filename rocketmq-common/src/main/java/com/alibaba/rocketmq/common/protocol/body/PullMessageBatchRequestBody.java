@@ -0,0 +1,34 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.alibaba.rocketmq.common.protocol.header.PullMessageRequestHeader;
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * 一次请求从同一Broker的多个队列拉消息<br>
+ * 应答Body按请求顺序依次存放每个队列的结果，每个队列的格式如下：<br>
+ * code(int) nextBeginOffset(long) minOffset(long) maxOffset(long) suggestWhichBrokerId(long)
+ * bodySize(int) body(bytes)
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-2
+ */
+public class PullMessageBatchRequestBody extends RemotingSerializable {
+    // 每个队列结果的固定头部长度
+    public static final int QueueResultHeaderSize = 4 + 8 + 8 + 8 + 8 + 4;
+
+    private List<PullMessageRequestHeader> pullRequestList = new ArrayList<PullMessageRequestHeader>();
+
+
+    public List<PullMessageRequestHeader> getPullRequestList() {
+        return pullRequestList;
+    }
+
+
+    public void setPullRequestList(List<PullMessageRequestHeader> pullRequestList) {
+        this.pullRequestList = pullRequestList;
+    }
+}
@@ -0,0 +1,66 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.alibaba.rocketmq.common.DataVersion;
+import com.alibaba.rocketmq.common.TopicConfig;
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * Broker增量注册，携带从基准版本到当前版本之间变化的Topic配置
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-7
+ */
+public class TopicConfigDeltaWrapper extends RemotingSerializable {
+    // Name Server上已有的版本，不一致时需要全量注册
+    private DataVersion baseDataVersion = new DataVersion();
+    private DataVersion dataVersion = new DataVersion();
+    // 新增或者修改的Topic
+    private HashMap<String, TopicConfig> updatedTopicConfigTable = new HashMap<String, TopicConfig>();
+    // 删除的Topic
+    private Set<String> deletedTopicSet = new HashSet<String>();
+
+
+    public DataVersion getBaseDataVersion() {
+        return baseDataVersion;
+    }
+
+
+    public void setBaseDataVersion(DataVersion baseDataVersion) {
+        this.baseDataVersion = baseDataVersion;
+    }
+
+
+    public DataVersion getDataVersion() {
+        return dataVersion;
+    }
+
+
+    public void setDataVersion(DataVersion dataVersion) {
+        this.dataVersion = dataVersion;
+    }
+
+
+    public HashMap<String, TopicConfig> getUpdatedTopicConfigTable() {
+        return updatedTopicConfigTable;
+    }
+
+
+    public void setUpdatedTopicConfigTable(HashMap<String, TopicConfig> updatedTopicConfigTable) {
+        this.updatedTopicConfigTable = updatedTopicConfigTable;
+    }
+
+
+    public Set<String> getDeletedTopicSet() {
+        return deletedTopicSet;
+    }
+
+
+    public void setDeletedTopicSet(Set<String> deletedTopicSet) {
+        this.deletedTopicSet = deletedTopicSet;
+    }
+}
@@ -0,0 +1,40 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import java.util.HashMap;
+
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * 批量查询Topic路由，或者长轮询订阅Topic路由变化
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-6
+ */
+public class TopicRouteBatchRequestBody extends RemotingSerializable {
+    // 客户端已知的路由版本号，未知填0
+    private HashMap<String/* topic */, Long/* version */> topicVersionTable =
+            new HashMap<String, Long>();
+    // 长轮询挂起时间，0表示不挂起
+    private long suspendTimeoutMillis = 0;
+
+
+    public HashMap<String, Long> getTopicVersionTable() {
+        return topicVersionTable;
+    }
+
+
+    public void setTopicVersionTable(HashMap<String, Long> topicVersionTable) {
+        this.topicVersionTable = topicVersionTable;
+    }
+
+
+    public long getSuspendTimeoutMillis() {
+        return suspendTimeoutMillis;
+    }
+
+
+    public void setSuspendTimeoutMillis(long suspendTimeoutMillis) {
+        this.suspendTimeoutMillis = suspendTimeoutMillis;
+    }
+}
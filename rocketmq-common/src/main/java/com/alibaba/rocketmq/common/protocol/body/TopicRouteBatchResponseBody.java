@@ -0,0 +1,40 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import java.util.HashMap;
+
+import com.alibaba.rocketmq.common.protocol.route.TopicRouteData;
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * 只包含版本号有变化的Topic路由
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-6
+ */
+public class TopicRouteBatchResponseBody extends RemotingSerializable {
+    private HashMap<String/* topic */, TopicRouteData> topicRouteTable =
+            new HashMap<String, TopicRouteData>();
+    private HashMap<String/* topic */, Long/* version */> topicVersionTable =
+            new HashMap<String, Long>();
+
+
+    public HashMap<String, TopicRouteData> getTopicRouteTable() {
+        return topicRouteTable;
+    }
+
+
+    public void setTopicRouteTable(HashMap<String, TopicRouteData> topicRouteTable) {
+        this.topicRouteTable = topicRouteTable;
+    }
+
+
+    public HashMap<String, Long> getTopicVersionTable() {
+        return topicVersionTable;
+    }
+
+
+    public void setTopicVersionTable(HashMap<String, Long> topicVersionTable) {
+        this.topicVersionTable = topicVersionTable;
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ *
+ */
+package com.alibaba.rocketmq.common.protocol.header;
+
+import com.alibaba.rocketmq.remoting.CommandCustomHeader;
+import com.alibaba.rocketmq.remoting.annotation.CFNotNull;
+import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
+
+
+/**
+ * 只携带订阅指纹的心跳，指纹与上次全量心跳一致时Broker只刷新连接存活时间
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-10
+ */
+public class HeartbeatLiteRequestHeader implements CommandCustomHeader {
+    @CFNotNull
+    private String clientID;
+    @CFNotNull
+    private Long fingerprint;
+
+
+    public String getClientID() {
+        return clientID;
+    }
+
+
+    public void setClientID(String clientID) {
+        this.clientID = clientID;
+    }
+
+
+    public Long getFingerprint() {
+        return fingerprint;
+    }
+
+
+    public void setFingerprint(Long fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+
+    @Override
+    public void checkFields() throws RemotingCommandException {
+    }
+}
@@ -2,6 +2,7 @@ package com.alibaba.rocketmq.common.protocol.header;
 
 import com.alibaba.rocketmq.remoting.CommandCustomHeader;
 import com.alibaba.rocketmq.remoting.annotation.CFNotNull;
+import com.alibaba.rocketmq.remoting.annotation.CFNullable;
 import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
 
 
@@ -11,6 +12,9 @@ import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
 public class NotifyConsumerIdsChangedRequestHeader implements CommandCustomHeader {
     @CFNotNull
     private String consumerGroup;
+    // Broker上该组的成员版本，Client据此过滤重复通知，老版本Broker不填
+    @CFNullable
+    private Long membershipVersion;
 
 
     @Override
@@ -27,4 +31,14 @@ public class NotifyConsumerIdsChangedRequestHeader implements CommandCustomHeade
     public void setConsumerGroup(String consumerGroup) {
         this.consumerGroup = consumerGroup;
     }
+
+
+    public Long getMembershipVersion() {
+        return membershipVersion;
+    }
+
+
+    public void setMembershipVersion(Long membershipVersion) {
+        this.membershipVersion = membershipVersion;
+    }
 }
@@ -16,6 +16,8 @@ public class HeartbeatData extends RemotingSerializable {
     private String clientID;
     private Set<ProducerData> producerDataSet = new HashSet<ProducerData>();
     private Set<ConsumerData> consumerDataSet = new HashSet<ConsumerData>();
+    // 心跳内容的指纹，Broker记录后，内容不变时Client只发送指纹，0表示不支持
+    private long fingerprint = 0;
 
 
     public String getClientID() {
@@ -48,9 +50,19 @@ public class HeartbeatData extends RemotingSerializable {
     }
 
 
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+
+    public void setFingerprint(long fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+
     @Override
     public String toString() {
         return "HeartbeatData [clientID=" + clientID + ", producerDataSet=" + producerDataSet
-                + ", consumerDataSet=" + consumerDataSet + "]";
+                + ", consumerDataSet=" + consumerDataSet + ", fingerprint=" + fingerprint + "]";
     }
 }
@@ -0,0 +1,45 @@
+package com.alibaba.rocketmq.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class ConcurrentLongHashMapTest {
+    @Test
+    public void test_putGetRemove() {
+        ConcurrentLongHashMap<String> map = new ConcurrentLongHashMap<String>(4);
+        for (int i = 0; i < 10000; i++) {
+            assertNull(map.put(ConcurrentLongHashMap.buildKey(i, -i), "v" + i));
+        }
+        assertEquals(10000, map.size());
+        assertEquals(10000, map.values().size());
+
+        for (int i = 0; i < 10000; i++) {
+            assertEquals("v" + i, map.get(ConcurrentLongHashMap.buildKey(i, -i)));
+        }
+
+        assertEquals("v1", map.putIfAbsent(ConcurrentLongHashMap.buildKey(1, -1), "x"));
+        assertFalse(map.remove(ConcurrentLongHashMap.buildKey(1, -1), "x"));
+        assertTrue(map.remove(ConcurrentLongHashMap.buildKey(1, -1), "v1"));
+        assertNull(map.get(ConcurrentLongHashMap.buildKey(1, -1)));
+        assertEquals("v2", map.remove(ConcurrentLongHashMap.buildKey(2, -2)));
+        assertEquals(9998, map.size());
+
+        map.clear();
+        assertTrue(map.isEmpty());
+    }
+
+
+    @Test
+    public void test_buildKey() {
+        assertEquals(0x0000000100000002L, ConcurrentLongHashMap.buildKey(1, 2));
+        assertEquals(0x00000001FFFFFFFFL, ConcurrentLongHashMap.buildKey(1, -1));
+    }
+}
@@ -0,0 +1,37 @@
+package com.alibaba.rocketmq.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+
+/**
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class NameIdTableTest {
+    @Test
+    public void test_getId() {
+        NameIdTable table = new NameIdTable(0);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, table.getId("name" + i));
+        }
+        assertEquals(5, table.getId("name5"));
+        assertEquals("name99", table.getName(99));
+        assertNull(table.getName(100));
+        assertEquals(100, table.size());
+    }
+
+
+    @Test
+    public void test_findId() {
+        NameIdTable table = new NameIdTable(16);
+        assertEquals(-1, table.findId("name"));
+        assertEquals(0, table.size());
+
+        assertEquals(0, table.getId("name"));
+        assertEquals(0, table.findId("name"));
+        assertEquals(-1, table.findId("other"));
+        assertEquals(1, table.size());
+    }
+}
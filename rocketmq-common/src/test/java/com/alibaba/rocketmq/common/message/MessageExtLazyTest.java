@@ -0,0 +1,209 @@
+package com.alibaba.rocketmq.common.message;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.UtilALl;
+import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
+
+
+/**
+ * 延迟解析的消息与MessageDecoder.decode解析结果一致，并且可以被多个线程同时访问
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class MessageExtLazyTest {
+    private static final long BornTimestamp = 1376000000000L;
+
+
+    private static void encode(ByteBuffer byteBuffer, String topic, byte[] body, Map<String, String> properties,
+            boolean compress, long queueOffset) throws Exception {
+        byte[] bodyData = compress ? UtilALl.compress(body, 5) : body;
+        byte[] topicData = topic.getBytes();
+        byte[] propertiesData =
+                properties != null ? MessageDecoder.messageProperties2String(properties).getBytes() : new byte[0];
+        int storeSize = 4 + 4 + 4 + 4 + 4 + 8 + 8 + 4 + 8 + 8 + 8 + 8 + 4 + 8 //
+                + 4 + bodyData.length + 1 + topicData.length + 2 + propertiesData.length;
+
+        byteBuffer.putInt(storeSize);
+        byteBuffer.putInt(0xAABBCCDD);
+        byteBuffer.putInt(UtilALl.crc32(bodyData));
+        byteBuffer.putInt(3);
+        byteBuffer.putInt(7);
+        byteBuffer.putLong(queueOffset);
+        byteBuffer.putLong(queueOffset * 1000);
+        byteBuffer.putInt(compress ? MessageSysFlag.CompressedFlag : 0);
+        byteBuffer.putLong(BornTimestamp);
+        byteBuffer.put(new byte[] { 10, 0, 0, 1 });
+        byteBuffer.putInt(1234);
+        byteBuffer.putLong(BornTimestamp);
+        byteBuffer.put(new byte[] { 10, 0, 0, 2 });
+        byteBuffer.putInt(10911);
+        byteBuffer.putInt(2);
+        byteBuffer.putLong(0);
+        byteBuffer.putInt(bodyData.length);
+        byteBuffer.put(bodyData);
+        byteBuffer.put((byte) topicData.length);
+        byteBuffer.put(topicData);
+        byteBuffer.putShort((short) propertiesData.length);
+        byteBuffer.put(propertiesData);
+    }
+
+
+    private static ByteBuffer buildMessages() throws Exception {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(1024 * 64);
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(Message.PROPERTY_TAGS, "TagA");
+        properties.put(Message.PROPERTY_KEYS, "key1 key2");
+        properties.put("中文", "值");
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("compressible body ");
+        }
+
+        encode(byteBuffer, "TopicTest", "hello".getBytes(), properties, false, 0);
+        encode(byteBuffer, "TopicTest", sb.toString().getBytes(), properties, true, 1);
+        encode(byteBuffer, "TopicTest2", new byte[0], null, false, 2);
+        byteBuffer.flip();
+        return byteBuffer;
+    }
+
+
+    private static void assertMessageEquals(MessageExt expected, MessageExt actual) {
+        assertEquals(expected.getTopic(), actual.getTopic());
+        assertEquals(expected.getQueueOffset(), actual.getQueueOffset());
+        assertEquals(expected.getCommitLogOffset(), actual.getCommitLogOffset());
+        assertEquals(expected.getStoreHost(), actual.getStoreHost());
+        assertEquals(expected.getBornHost(), actual.getBornHost());
+        assertEquals(expected.getMsgId(), actual.getMsgId());
+        assertEquals(expected.getTags(), actual.getTags());
+        assertEquals(expected.getKeys(), actual.getKeys());
+        assertEquals(expected.getProperty("中文"), actual.getProperty("中文"));
+        assertEquals(expected.getProperty("NotExist"), actual.getProperty("NotExist"));
+        assertArrayEquals(expected.getBody(), actual.getBody());
+        assertEquals(expected.getProperties(), actual.getProperties());
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+
+    @Test
+    public void test_same_as_decode() throws Exception {
+        List<MessageExt> expectedList = MessageDecoder.decodes(buildMessages());
+        List<MessageExt> lazyList = MessageDecoder.decodesLazily(buildMessages());
+        assertEquals(3, expectedList.size());
+        assertEquals(3, lazyList.size());
+        for (int i = 0; i < expectedList.size(); i++) {
+            assertTrue(lazyList.get(i) instanceof MessageExtLazy);
+            assertMessageEquals(expectedList.get(i), lazyList.get(i));
+        }
+
+        assertEquals("hello".length(), ((MessageExtLazy) lazyList.get(0)).getBodyLength());
+        assertTrue(((MessageExtLazy) lazyList.get(1)).getBodyLength() < lazyList.get(1).getBody().length);
+    }
+
+
+    @Test
+    public void test_toString_before_decode() throws Exception {
+        List<MessageExt> expectedList = MessageDecoder.decodes(buildMessages());
+        List<MessageExt> lazyList = MessageDecoder.decodesLazily(buildMessages());
+        for (int i = 0; i < expectedList.size(); i++) {
+            // 未访问消息体之前输出的长度也是正确的
+            assertEquals(expectedList.get(i).toString(), lazyList.get(i).toString());
+        }
+    }
+
+
+    @Test
+    public void test_not_reference_pull_buffer() throws Exception {
+        ByteBuffer byteBuffer = buildMessages();
+        List<MessageExt> lazyList = MessageDecoder.decodesLazily(byteBuffer);
+        List<MessageExt> expectedList = MessageDecoder.decodes(buildMessages());
+
+        // 应答缓冲区被复用或者改写后，未解析的消息不受影响
+        byte[] data = byteBuffer.array();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = 0;
+        }
+
+        for (int i = 0; i < expectedList.size(); i++) {
+            assertMessageEquals(expectedList.get(i), lazyList.get(i));
+        }
+    }
+
+
+    @Test
+    public void test_put_property_before_decode() throws Exception {
+        MessageExt msg = MessageDecoder.decodesLazily(buildMessages()).get(0);
+        msg.putProperty(Message.PROPERTY_RETRY_TOPIC, "TopicRetry");
+        msg.putProperty(Message.PROPERTY_TAGS, "TagB");
+        assertEquals("TopicRetry", msg.getProperty(Message.PROPERTY_RETRY_TOPIC));
+        assertEquals("TagB", msg.getTags());
+
+        Map<String, String> properties = msg.getProperties();
+        assertEquals("TopicRetry", properties.get(Message.PROPERTY_RETRY_TOPIC));
+        assertEquals("TagB", properties.get(Message.PROPERTY_TAGS));
+        assertEquals("key1 key2", properties.get(Message.PROPERTY_KEYS));
+
+        msg.clearProperty(Message.PROPERTY_RETRY_TOPIC);
+        assertNull(msg.getProperty(Message.PROPERTY_RETRY_TOPIC));
+    }
+
+
+    @Test
+    public void test_concurrent_decode() throws Exception {
+        final MessageExt expected = MessageDecoder.decodes(buildMessages()).get(1);
+        for (int round = 0; round < 200; round++) {
+            final MessageExt msg = MessageDecoder.decodesLazily(buildMessages()).get(1);
+            final CountDownLatch startLatch = new CountDownLatch(1);
+            final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < 4; i++) {
+                final int index = i;
+                Thread thread = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            startLatch.await();
+                            if (index % 2 == 0) {
+                                assertArrayEquals(expected.getBody(), msg.getBody());
+                                assertEquals(expected.getKeys(), msg.getKeys());
+                            }
+                            else {
+                                assertEquals(expected.getTags(), msg.getTags());
+                                assertEquals(expected.getProperties(), msg.getProperties());
+                                assertArrayEquals(expected.getBody(), msg.getBody());
+                            }
+                        }
+                        catch (Throwable e) {
+                            error.set(e);
+                        }
+                    }
+                };
+                thread.start();
+                threads.add(thread);
+            }
+
+            startLatch.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            if (error.get() != null) {
+                throw new AssertionError(error.get());
+            }
+        }
+    }
+}
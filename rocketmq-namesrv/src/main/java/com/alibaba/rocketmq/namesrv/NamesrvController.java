@@ -27,6 +27,7 @@ import com.alibaba.rocketmq.common.namesrv.NamesrvConfig;
 import com.alibaba.rocketmq.namesrv.kvconfig.KVConfigManager;
 import com.alibaba.rocketmq.namesrv.processor.DefaultRequestProcessor;
 import com.alibaba.rocketmq.namesrv.routeinfo.BrokerHousekeepingService;
+import com.alibaba.rocketmq.namesrv.routeinfo.RouteChangeHoldService;
 import com.alibaba.rocketmq.namesrv.routeinfo.RouteInfoManager;
 import com.alibaba.rocketmq.remoting.RemotingServer;
 import com.alibaba.rocketmq.remoting.netty.NettyRemotingServer;
@@ -66,6 +67,9 @@ public class NamesrvController {
      */
     private final KVConfigManager kvConfigManager;
     private final RouteInfoManager routeInfoManager;
+    // 路由变化长轮询
+    private final RouteChangeHoldService routeChangeHoldService;
+    private DefaultRequestProcessor defaultRequestProcessor;
 
 
     public NamesrvController(NamesrvConfig namesrvConfig, NettyServerConfig nettyServerConfig) {
@@ -73,6 +77,7 @@ public class NamesrvController {
         this.nettyServerConfig = nettyServerConfig;
         this.kvConfigManager = new KVConfigManager(this);
         this.routeInfoManager = new RouteInfoManager();
+        this.routeChangeHoldService = new RouteChangeHoldService(this);
         this.brokerHousekeepingService = new BrokerHousekeepingService(this);
     }
 
@@ -131,17 +136,19 @@ public class NamesrvController {
 
 
     private void registerProcessor() {
-        this.remotingServer
-            .registerDefaultProcessor(new DefaultRequestProcessor(this), this.remotingExecutor);
+        this.defaultRequestProcessor = new DefaultRequestProcessor(this);
+        this.remotingServer.registerDefaultProcessor(this.defaultRequestProcessor, this.remotingExecutor);
     }
 
 
     public void start() throws Exception {
         this.remotingServer.start();
+        this.routeChangeHoldService.start();
     }
 
 
     public void shutdown() {
+        this.routeChangeHoldService.shutdown();
         this.remotingServer.shutdown();
         this.remotingExecutor.shutdown();
         this.scheduledExecutorService.shutdown();
@@ -166,4 +173,14 @@ public class NamesrvController {
     public RouteInfoManager getRouteInfoManager() {
         return routeInfoManager;
     }
+
+
+    public RouteChangeHoldService getRouteChangeHoldService() {
+        return routeChangeHoldService;
+    }
+
+
+    public DefaultRequestProcessor getDefaultRequestProcessor() {
+        return defaultRequestProcessor;
+    }
 }
@@ -15,6 +15,8 @@
  */
 package com.alibaba.rocketmq.namesrv.processor;
 
+import java.util.Map.Entry;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,7 +26,10 @@ import com.alibaba.rocketmq.common.namesrv.NamesrvUtil;
 import com.alibaba.rocketmq.common.namesrv.RegisterBrokerResult;
 import com.alibaba.rocketmq.common.protocol.MQProtos.MQRequestCode;
 import com.alibaba.rocketmq.common.protocol.MQProtos.MQResponseCode;
+import com.alibaba.rocketmq.common.protocol.body.TopicConfigDeltaWrapper;
 import com.alibaba.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
+import com.alibaba.rocketmq.common.protocol.body.TopicRouteBatchRequestBody;
+import com.alibaba.rocketmq.common.protocol.body.TopicRouteBatchResponseBody;
 import com.alibaba.rocketmq.common.protocol.header.namesrv.*;
 import com.alibaba.rocketmq.common.protocol.route.TopicRouteData;
 import com.alibaba.rocketmq.namesrv.NamesrvController;
@@ -44,6 +49,8 @@ import io.netty.channel.ChannelHandlerContext;
  */
 public class DefaultRequestProcessor implements NettyRequestProcessor {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.NamesrvLoggerName);
+    // 长轮询最长挂起时间
+    private static final long MaxSuspendTimeoutMillis = 1000 * 60;
 
     private final NamesrvController namesrvController;
 
@@ -73,12 +80,18 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
             return this.deleteKVConfig(ctx, request);
         case REGISTER_BROKER:
             return this.registerBroker(ctx, request);
+        case REGISTER_BROKER_DELTA:
+            return this.registerBrokerDelta(ctx, request);
         case UNREGISTER_BROKER:
             return this.unregisterBroker(ctx, request);
         case GET_ROUTEINTO_BY_TOPIC:
             return this.getRouteInfoByTopic(ctx, request);
         case GET_BROKER_CLUSTER_INFO:
             return this.getBrokerClusterInfo(ctx, request);
+        case GET_ROUTEINTO_BY_TOPIC_BATCH:
+            return this.getRouteInfoByTopicBatch(ctx, request);
+        case WATCH_TOPIC_ROUTE_CHANGE:
+            return this.watchTopicRouteChange(ctx, request);
         default:
             break;
         }
@@ -105,16 +118,14 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
                 (GetRouteInfoRequestHeader) request
                     .decodeCommandCustomHeader(GetRouteInfoRequestHeader.class);
 
-        TopicRouteData topicRouteData =
-                this.namesrvController.getRouteInfoManager().pickupTopicRouteData(requestHeader.getTopic());
+        String orderTopicConf =
+                this.namesrvController.getKvConfigManager().getKVConfig(
+                    NamesrvUtil.NAMESPACE_ORDER_TOPIC_CONFIG, requestHeader.getTopic());
+        byte[] content =
+                this.namesrvController.getRouteInfoManager().pickupTopicRouteDataEncoded(
+                    requestHeader.getTopic(), orderTopicConf);
 
-        if (topicRouteData != null) {
-            String orderTopicConf =
-                    this.namesrvController.getKvConfigManager().getKVConfig(
-                        NamesrvUtil.NAMESPACE_ORDER_TOPIC_CONFIG, requestHeader.getTopic());
-            topicRouteData.setOrderTopicConf(orderTopicConf);
-
-            byte[] content = topicRouteData.encode();
+        if (content != null) {
             response.setBody(content);
             response.setCode(ResponseCode.SUCCESS_VALUE);
             response.setRemark(null);
@@ -128,6 +139,79 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
     }
 
 
+    /**
+     * 只返回路由版本号有变化的Topic，没有变化返回空结果
+     */
+    public RemotingCommand getRouteInfoByTopicBatch(ChannelHandlerContext ctx, RemotingCommand request) {
+        TopicRouteBatchRequestBody requestBody =
+                TopicRouteBatchRequestBody.decode(request.getBody(), TopicRouteBatchRequestBody.class);
+
+        RemotingCommand response = this.pickupTopicRouteChanged(requestBody);
+        if (null == response) {
+            response = RemotingCommand.createResponseCommand(null);
+            response.setCode(ResponseCode.SUCCESS_VALUE);
+            response.setRemark(null);
+        }
+
+        return response;
+    }
+
+
+    /**
+     * 有路由变化立刻返回，否则挂起请求，直到路由变化或者超时
+     */
+    public RemotingCommand watchTopicRouteChange(ChannelHandlerContext ctx, RemotingCommand request) {
+        TopicRouteBatchRequestBody requestBody =
+                TopicRouteBatchRequestBody.decode(request.getBody(), TopicRouteBatchRequestBody.class);
+
+        // 先取版本号再检查，挂起期间的路由变化不会遗漏
+        final long routeVersion = this.namesrvController.getRouteInfoManager().getRouteSnapshotVersion();
+        RemotingCommand response = this.pickupTopicRouteChanged(requestBody);
+        if (response != null) {
+            return response;
+        }
+
+        if (requestBody.getSuspendTimeoutMillis() > 0) {
+            requestBody.setSuspendTimeoutMillis(Math.min(requestBody.getSuspendTimeoutMillis(),
+                MaxSuspendTimeoutMillis));
+            this.namesrvController.getRouteChangeHoldService().suspendRequest(ctx.channel(), request,
+                requestBody, routeVersion);
+            return null;
+        }
+
+        response = RemotingCommand.createResponseCommand(null);
+        response.setCode(ResponseCode.SUCCESS_VALUE);
+        response.setRemark(null);
+        return response;
+    }
+
+
+    /**
+     * @return 没有路由变化的Topic返回null
+     */
+    public RemotingCommand pickupTopicRouteChanged(final TopicRouteBatchRequestBody requestBody) {
+        TopicRouteBatchResponseBody responseBody =
+                this.namesrvController.getRouteInfoManager().pickupTopicRouteDataChanged(
+                    requestBody.getTopicVersionTable());
+        if (responseBody.getTopicRouteTable().isEmpty()) {
+            return null;
+        }
+
+        for (Entry<String, TopicRouteData> entry : responseBody.getTopicRouteTable().entrySet()) {
+            String orderTopicConf =
+                    this.namesrvController.getKvConfigManager().getKVConfig(
+                        NamesrvUtil.NAMESPACE_ORDER_TOPIC_CONFIG, entry.getKey());
+            entry.getValue().setOrderTopicConf(orderTopicConf);
+        }
+
+        final RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        response.setBody(responseBody.encode());
+        response.setCode(ResponseCode.SUCCESS_VALUE);
+        response.setRemark(null);
+        return response;
+    }
+
+
     public RemotingCommand putKVConfig(ChannelHandlerContext ctx, RemotingCommand request)
             throws RemotingCommandException {
         final RemotingCommand response = RemotingCommand.createResponseCommand(null);
@@ -140,6 +224,11 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
             requestHeader.getValue()//
             );
 
+        // 顺序消息配置属于路由数据
+        if (NamesrvUtil.NAMESPACE_ORDER_TOPIC_CONFIG.equals(requestHeader.getNamespace())) {
+            this.namesrvController.getRouteInfoManager().touchTopic(requestHeader.getKey());
+        }
+
         response.setCode(ResponseCode.SUCCESS_VALUE);
         response.setRemark(null);
         return response;
@@ -186,6 +275,10 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
             requestHeader.getKey()//
             );
 
+        if (NamesrvUtil.NAMESPACE_ORDER_TOPIC_CONFIG.equals(requestHeader.getNamespace())) {
+            this.namesrvController.getRouteInfoManager().touchTopic(requestHeader.getKey());
+        }
+
         response.setCode(ResponseCode.SUCCESS_VALUE);
         response.setRemark(null);
         return response;
@@ -224,6 +317,44 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
     }
 
 
+    public RemotingCommand registerBrokerDelta(ChannelHandlerContext ctx, RemotingCommand request)
+            throws RemotingCommandException {
+        final RemotingCommand response =
+                RemotingCommand.createResponseCommand(RegisterBrokerResponseHeader.class);
+        final RegisterBrokerResponseHeader responseHeader =
+                (RegisterBrokerResponseHeader) response.getCustomHeader();
+        final RegisterBrokerRequestHeader requestHeader =
+                (RegisterBrokerRequestHeader) request
+                    .decodeCommandCustomHeader(RegisterBrokerRequestHeader.class);
+
+        TopicConfigDeltaWrapper topicConfigDelta =
+                TopicConfigDeltaWrapper.decode(request.getBody(), TopicConfigDeltaWrapper.class);
+
+        RegisterBrokerResult result = this.namesrvController.getRouteInfoManager().registerBrokerDelta(//
+            requestHeader.getClusterName(), // 1
+            requestHeader.getBrokerAddr(), // 2
+            requestHeader.getBrokerName(), // 3
+            requestHeader.getBrokerId(), // 4
+            requestHeader.getHaServerAddr(),// 5
+            topicConfigDelta, // 6
+            ctx.channel()// 7
+            );
+
+        if (null == result) {
+            response.setCode(MQResponseCode.BROKER_DATA_VERSION_NOT_MATCH_VALUE);
+            response.setRemark("the broker data version not match, register all again");
+            return response;
+        }
+
+        responseHeader.setHaServerAddr(result.getHaServerAddr());
+        responseHeader.setMasterAddr(result.getMasterAddr());
+
+        response.setCode(ResponseCode.SUCCESS_VALUE);
+        response.setRemark(null);
+        return response;
+    }
+
+
     public RemotingCommand unregisterBroker(ChannelHandlerContext ctx, RemotingCommand request)
             throws RemotingCommandException {
         final RemotingCommand response = RemotingCommand.createResponseCommand(null);
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.namesrv.routeinfo;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.protocol.body.TopicRouteBatchRequestBody;
+import com.alibaba.rocketmq.namesrv.NamesrvController;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import com.alibaba.rocketmq.remoting.protocol.RemotingProtos.ResponseCode;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+
+
+/**
+ * 订阅路由变化的长轮询请求，如果没有路由变化，则在这里Hold住，等待路由变化或者超时
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-6
+ */
+public class RouteChangeHoldService extends ServiceThread {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.NamesrvLoggerName);
+    // 检查路由版本号的间隔
+    private static final long CheckInterval = 100;
+
+    private final NamesrvController namesrvController;
+    private final LinkedList<RouteChangeRequest> requestList = new LinkedList<RouteChangeRequest>();
+
+
+    public RouteChangeHoldService(final NamesrvController namesrvController) {
+        this.namesrvController = namesrvController;
+    }
+
+
+    /**
+     * @param routeVersion
+     *            挂起前检查路由时的路由快照版本号，快照版本号变化后才需要重新检查
+     */
+    public void suspendRequest(final Channel channel, final RemotingCommand request,
+            final TopicRouteBatchRequestBody requestBody, final long routeVersion) {
+        RouteChangeRequest rcr = new RouteChangeRequest();
+        rcr.channel = channel;
+        rcr.request = request;
+        rcr.requestBody = requestBody;
+        rcr.routeVersion = routeVersion;
+        rcr.deadline = System.currentTimeMillis() + requestBody.getSuspendTimeoutMillis();
+
+        synchronized (this.requestList) {
+            this.requestList.add(rcr);
+        }
+    }
+
+
+    /**
+     * 取出全部挂起的请求后在锁外检查，挂起新请求不会被路由比较阻塞，仍需等待的请求再放回
+     */
+    private void checkHoldRequest() {
+        final long routeVersion = this.namesrvController.getRouteInfoManager().getRouteSnapshotVersion();
+        final long now = System.currentTimeMillis();
+
+        LinkedList<RouteChangeRequest> checkList = null;
+        synchronized (this.requestList) {
+            if (this.requestList.isEmpty()) {
+                return;
+            }
+
+            checkList = new LinkedList<RouteChangeRequest>(this.requestList);
+            this.requestList.clear();
+        }
+
+        Iterator<RouteChangeRequest> it = checkList.iterator();
+        while (it.hasNext()) {
+            RouteChangeRequest rcr = it.next();
+            if (!rcr.channel.isActive()) {
+                it.remove();
+                continue;
+            }
+
+            RemotingCommand response = null;
+            if (rcr.routeVersion != routeVersion) {
+                rcr.routeVersion = routeVersion;
+                response =
+                        this.namesrvController.getDefaultRequestProcessor().pickupTopicRouteChanged(
+                            rcr.requestBody);
+            }
+
+            // 超时返回空结果
+            if (null == response && now >= rcr.deadline) {
+                response = RemotingCommand.createResponseCommand(null);
+                response.setCode(ResponseCode.SUCCESS_VALUE);
+                response.setRemark(null);
+            }
+
+            if (response != null) {
+                it.remove();
+                this.writeResponse(rcr, response);
+            }
+        }
+
+        if (!checkList.isEmpty()) {
+            synchronized (this.requestList) {
+                this.requestList.addAll(checkList);
+            }
+        }
+    }
+
+
+    private void writeResponse(final RouteChangeRequest rcr, final RemotingCommand response) {
+        response.setOpaque(rcr.request.getOpaque());
+        response.markResponseType();
+        try {
+            rcr.channel.writeAndFlush(response).addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    if (!future.isSuccess()) {
+                        log.error("route change response to " + future.channel().remoteAddress()
+                                + " failed", future.cause());
+                    }
+                }
+            });
+        }
+        catch (Throwable e) {
+            log.error("route change response failed", e);
+        }
+    }
+
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+        while (!this.isStoped()) {
+            try {
+                this.waitForRunning(CheckInterval);
+                this.checkHoldRequest();
+            }
+            catch (Exception e) {
+                log.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+
+        log.info(this.getServiceName() + " service end");
+    }
+
+
+    @Override
+    public String getServiceName() {
+        return RouteChangeHoldService.class.getSimpleName();
+    }
+
+    static class RouteChangeRequest {
+        private Channel channel;
+        private RemotingCommand request;
+        private TopicRouteBatchRequestBody requestBody;
+        private long routeVersion;
+        private long deadline;
+    }
+}
@@ -30,6 +30,8 @@ import com.alibaba.rocketmq.common.TopicConfig;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.namesrv.RegisterBrokerResult;
 import com.alibaba.rocketmq.common.protocol.body.ClusterInfoSerializeWrapper;
+import com.alibaba.rocketmq.common.protocol.body.TopicConfigDeltaWrapper;
+import com.alibaba.rocketmq.common.protocol.body.TopicRouteBatchResponseBody;
 import com.alibaba.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
 import com.alibaba.rocketmq.common.protocol.route.BrokerData;
 import com.alibaba.rocketmq.common.protocol.route.QueueData;
@@ -50,6 +52,28 @@ public class RouteInfoManager {
     private final HashMap<String/* brokerName */, BrokerData> brokerAddrTable;
     private final HashMap<String/* clusterName */, Set<String/* brokerName */>> clusterAddrTable;
     private final HashMap<String/* brokerAddr */, BrokerLiveInfo> brokerLiveTable;
+    // 路由数据版本号，路由变更时递增
+    private final DataVersion routeDataVersion = new DataVersion();
+    // 启动时随机生成，返回给客户端的Topic路由版本号都带上这个值，不同Name Server之间、重启前后的版本号不会相等
+    private final long routeEpoch = (new Random().nextInt(Integer.MAX_VALUE) + 1L) << 32;
+    // 已发布的路由数据，写锁内只替换发生变更的Topic与Broker，读请求无锁访问
+    private final ConcurrentHashMap<String/* topic */, TopicRouteEntry> publishedTopicTable =
+            new ConcurrentHashMap<String, TopicRouteEntry>(1024);
+    private final ConcurrentHashMap<String/* brokerName */, BrokerRouteEntry> publishedBrokerTable =
+            new ConcurrentHashMap<String, BrokerRouteEntry>(128);
+    // 已发布的集群信息，Broker或者集群变更时整体替换
+    private volatile ClusterInfoSnapshot clusterInfoSnapshot;
+    // 发布序号，发布过程中为奇数，读请求据此确认读到的Topic与Broker属于同一次发布
+    private volatile long publishSequence = 0;
+    // 已发布路由的版本号
+    private volatile long publishedVersion = 0;
+    // 写锁内记录自上次发布以来变更的Topic、Broker与集群
+    private final HashSet<String/* topic */> changedTopicSet = new HashSet<String>();
+    private final HashSet<String/* brokerName */> changedBrokerSet = new HashSet<String>();
+    private boolean clusterChanged = false;
+    // 每个Topic序列化后的路由数据，Topic路由版本号变化后失效
+    private final ConcurrentHashMap<String/* topic */, TopicRouteCache> topicRouteCacheTable =
+            new ConcurrentHashMap<String, TopicRouteCache>(1024);
 
 
     public RouteInfoManager() {
@@ -57,17 +81,101 @@ public class RouteInfoManager {
         this.brokerAddrTable = new HashMap<String, BrokerData>(128);
         this.clusterAddrTable = new HashMap<String, Set<String>>(32);
         this.brokerLiveTable = new HashMap<String, BrokerLiveInfo>(256);
+        this.clusterInfoSnapshot = new ClusterInfoSnapshot(this.brokerAddrTable, this.clusterAddrTable);
     }
 
 
     public byte[] getAllClusterInfo() {
+        ClusterInfoSnapshot snapshot = this.clusterInfoSnapshot;
         ClusterInfoSerializeWrapper clusterInfoSerializeWrapper = new ClusterInfoSerializeWrapper();
-        clusterInfoSerializeWrapper.setBrokerAddrTable(this.brokerAddrTable);
-        clusterInfoSerializeWrapper.setClusterAddrTable(this.clusterAddrTable);
+        clusterInfoSerializeWrapper.setBrokerAddrTable(snapshot.getBrokerAddrTable());
+        clusterInfoSerializeWrapper.setClusterAddrTable(snapshot.getClusterAddrTable());
         return clusterInfoSerializeWrapper.encode();
     }
 
 
+    /**
+     * 必须在写锁内调用，只复制并替换自上次发布以来变更的Topic与Broker，已缓存的序列化数据随之失效
+     */
+    private void publishRouteSnapshot() {
+        this.routeDataVersion.nextVersion();
+        final long version = this.routeDataVersion.getCounter().get();
+
+        this.publishSequence++;
+        try {
+            for (String topic : this.changedTopicSet) {
+                List<QueueData> queueDataList = this.topicQueueTable.get(topic);
+                if (null == queueDataList) {
+                    this.publishedTopicTable.remove(topic);
+                }
+                else {
+                    this.publishedTopicTable.put(topic, new TopicRouteEntry(version, queueDataList));
+                }
+            }
+
+            for (String brokerName : this.changedBrokerSet) {
+                BrokerData brokerData = this.brokerAddrTable.get(brokerName);
+                if (null == brokerData) {
+                    this.publishedBrokerTable.remove(brokerName);
+                }
+                else {
+                    this.publishedBrokerTable.put(brokerName, new BrokerRouteEntry(version, brokerData));
+                }
+            }
+        }
+        finally {
+            this.publishSequence++;
+        }
+
+        if (this.clusterChanged || !this.changedBrokerSet.isEmpty()) {
+            this.clusterInfoSnapshot = new ClusterInfoSnapshot(this.brokerAddrTable, this.clusterAddrTable);
+        }
+
+        this.changedTopicSet.clear();
+        this.changedBrokerSet.clear();
+        this.clusterChanged = false;
+        this.publishedVersion = version;
+    }
+
+
+    /**
+     * 必须在写锁内调用，记录Topic队列数据变更，下一次发布时替换
+     */
+    private void markTopicChanged(final String topic) {
+        this.changedTopicSet.add(topic);
+    }
+
+
+    /**
+     * 必须在写锁内调用，记录Broker主备地址变更，引用这个Broker的Topic版本号都随之变化
+     */
+    private void markBrokerChanged(final String brokerName) {
+        this.changedBrokerSet.add(brokerName);
+    }
+
+
+    /**
+     * Topic的顺序消息配置变化后调用，使Topic路由版本号变化
+     */
+    public void touchTopic(final String topic) {
+        try {
+            try {
+                this.lock.writeLock().lockInterruptibly();
+                if (this.topicQueueTable.containsKey(topic)) {
+                    this.markTopicChanged(topic);
+                    this.publishRouteSnapshot();
+                }
+            }
+            finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+        catch (Exception e) {
+            log.error("touchTopic Exception", e);
+        }
+    }
+
+
     /**
      * 判断Topic配置信息是否发生变更
      */
@@ -81,7 +189,10 @@ public class RouteInfoManager {
     }
 
 
-    private void createAndUpdateQueueData(final String brokerName, final TopicConfig topicConfig) {
+    /**
+     * @return 队列数据是否发生变更
+     */
+    private boolean createAndUpdateQueueData(final String brokerName, final TopicConfig topicConfig) {
         QueueData queueData = new QueueData();
         queueData.setBrokerName(brokerName);
         queueData.setWriteQueueNums(topicConfig.getWriteQueueNums());
@@ -93,7 +204,9 @@ public class RouteInfoManager {
             queueDataList = new LinkedList<QueueData>();
             queueDataList.add(queueData);
             this.topicQueueTable.put(topicConfig.getTopicName(), queueDataList);
+            this.markTopicChanged(topicConfig.getTopicName());
             log.info("new topic registerd, {} {}", topicConfig.getTopicName(), queueData);
+            return true;
         }
         else {
             boolean addNewOne = true;
@@ -115,7 +228,10 @@ public class RouteInfoManager {
 
             if (addNewOne) {
                 queueDataList.add(queueData);
+                this.markTopicChanged(topicConfig.getTopicName());
             }
+
+            return addNewOne;
         }
     }
 
@@ -136,6 +252,7 @@ public class RouteInfoManager {
         try {
             try {
                 this.lock.writeLock().lockInterruptibly();
+                boolean routeChanged = false;
 
                 // 更新集群信息
                 Set<String> brokerNames = this.clusterAddrTable.get(clusterName);
@@ -143,7 +260,10 @@ public class RouteInfoManager {
                     brokerNames = new HashSet<String>();
                     this.clusterAddrTable.put(clusterName, brokerNames);
                 }
-                brokerNames.add(brokerName);
+                if (brokerNames.add(brokerName)) {
+                    this.clusterChanged = true;
+                    routeChanged = true;
+                }
 
                 // 更新主备信息
                 BrokerData brokerData = this.brokerAddrTable.get(brokerName);
@@ -155,7 +275,11 @@ public class RouteInfoManager {
 
                     this.brokerAddrTable.put(brokerName, brokerData);
                 }
-                brokerData.getBrokerAddrs().put(brokerId, brokerAddr);
+                String oldAddr = brokerData.getBrokerAddrs().put(brokerId, brokerAddr);
+                if (!brokerAddr.equals(oldAddr)) {
+                    this.markBrokerChanged(brokerName);
+                    routeChanged = true;
+                }
 
                 // 更新Topic信息
                 if (null != topicConfigWrapper //
@@ -167,7 +291,24 @@ public class RouteInfoManager {
                         if (tcTable != null) {
                             for (String topic : tcTable.keySet()) {
                                 TopicConfig topicConfig = tcTable.get(topic);
-                                this.createAndUpdateQueueData(brokerName, topicConfig);
+                                routeChanged |= this.createAndUpdateQueueData(brokerName, topicConfig);
+                            }
+
+                            // 全量注册时，删除Broker上已经不存在的Topic
+                            Set<String> deletedTopicSet = new HashSet<String>();
+                            for (Entry<String, List<QueueData>> entry : this.topicQueueTable.entrySet()) {
+                                if (!tcTable.containsKey(entry.getKey())) {
+                                    for (QueueData qd : entry.getValue()) {
+                                        if (qd.getBrokerName().equals(brokerName)) {
+                                            deletedTopicSet.add(entry.getKey());
+                                            break;
+                                        }
+                                    }
+                                }
+                            }
+
+                            for (String topic : deletedTopicSet) {
+                                routeChanged |= this.removeQueueData(brokerName, topic);
                             }
                         }
                     }
@@ -184,17 +325,12 @@ public class RouteInfoManager {
                     log.info("new broker registerd, {} HAServer: {}", brokerAddr, haServerAddr);
                 }
 
-                // 返回值
-                if (MixAll.MASTER_ID != brokerId) {
-                    String masterAddr = brokerData.getBrokerAddrs().get(MixAll.MASTER_ID);
-                    if (masterAddr != null) {
-                        BrokerLiveInfo brokerLiveInfo = this.brokerLiveTable.get(masterAddr);
-                        if (brokerLiveInfo != null) {
-                            result.setHaServerAddr(brokerLiveInfo.getHaServerAddr());
-                            result.setMasterAddr(masterAddr);
-                        }
-                    }
+                if (routeChanged) {
+                    this.publishRouteSnapshot();
                 }
+
+                // 返回值
+                this.fillRegisterBrokerResult(brokerData, brokerId, result);
             }
             finally {
                 this.lock.writeLock().unlock();
@@ -208,6 +344,122 @@ public class RouteInfoManager {
     }
 
 
+    /**
+     * 必须在锁内调用，如果是slave，则返回master的ha地址
+     */
+    private void fillRegisterBrokerResult(final BrokerData brokerData, final long brokerId,
+            final RegisterBrokerResult result) {
+        if (MixAll.MASTER_ID != brokerId) {
+            String masterAddr = brokerData.getBrokerAddrs().get(MixAll.MASTER_ID);
+            if (masterAddr != null) {
+                BrokerLiveInfo brokerLiveInfo = this.brokerLiveTable.get(masterAddr);
+                if (brokerLiveInfo != null) {
+                    result.setHaServerAddr(brokerLiveInfo.getHaServerAddr());
+                    result.setMasterAddr(masterAddr);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * 增量注册，Broker已经注册过并且数据版本与基准版本一致时，只处理变化的Topic，否则需要Broker全量注册<br>
+     * 没有变化的Topic时即为心跳，只更新存活时间
+     * 
+     * @return 版本不一致返回null
+     */
+    public RegisterBrokerResult registerBrokerDelta(//
+            final String clusterName,// 1
+            final String brokerAddr,// 2
+            final String brokerName,// 3
+            final long brokerId,// 4
+            final String haServerAddr,// 5
+            final TopicConfigDeltaWrapper topicConfigDelta,// 6
+            final Channel channel// 7
+    ) {
+        try {
+            try {
+                this.lock.writeLock().lockInterruptibly();
+                BrokerLiveInfo brokerLiveInfo = this.brokerLiveTable.get(brokerAddr);
+                BrokerData brokerData = this.brokerAddrTable.get(brokerName);
+                if (null == brokerLiveInfo || null == brokerData
+                        || !brokerAddr.equals(brokerData.getBrokerAddrs().get(brokerId))
+                        || !brokerLiveInfo.getDataVersion().equals(topicConfigDelta.getBaseDataVersion())) {
+                    return null;
+                }
+
+                boolean routeChanged = false;
+                if (MixAll.MASTER_ID == brokerId) {
+                    for (TopicConfig topicConfig : topicConfigDelta.getUpdatedTopicConfigTable().values()) {
+                        routeChanged |= this.createAndUpdateQueueData(brokerName, topicConfig);
+                    }
+
+                    for (String topic : topicConfigDelta.getDeletedTopicSet()) {
+                        routeChanged |= this.removeQueueData(brokerName, topic);
+                    }
+                }
+
+                brokerLiveInfo.setLastUpdateTimestamp(System.currentTimeMillis());
+                brokerLiveInfo.setDataVersion(topicConfigDelta.getDataVersion());
+                brokerLiveInfo.setChannel(channel);
+                brokerLiveInfo.setHaServerAddr(haServerAddr);
+
+                if (routeChanged) {
+                    this.publishRouteSnapshot();
+                }
+
+                RegisterBrokerResult result = new RegisterBrokerResult();
+                this.fillRegisterBrokerResult(brokerData, brokerId, result);
+                return result;
+            }
+            finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+        catch (Exception e) {
+            log.error("registerBrokerDelta Exception", e);
+        }
+
+        return null;
+    }
+
+
+    /**
+     * 必须在写锁内调用，删除Broker上一个Topic的队列数据
+     * 
+     * @return 队列数据是否发生变更
+     */
+    private boolean removeQueueData(final String brokerName, final String topic) {
+        List<QueueData> queueDataList = this.topicQueueTable.get(topic);
+        if (null == queueDataList) {
+            return false;
+        }
+
+        boolean removed = false;
+        Iterator<QueueData> it = queueDataList.iterator();
+        while (it.hasNext()) {
+            QueueData qd = it.next();
+            if (qd.getBrokerName().equals(brokerName)) {
+                log.info("removeQueueData, remove one broker's topic {} {}", topic, qd);
+                it.remove();
+                removed = true;
+            }
+        }
+
+        if (removed) {
+            this.markTopicChanged(topic);
+        }
+
+        if (queueDataList.isEmpty()) {
+            log.info("removeQueueData, remove the topic all queue {}", topic);
+            this.topicQueueTable.remove(topic);
+            this.markTopicChanged(topic);
+        }
+
+        return removed;
+    }
+
+
     public void unregisterBroker(//
             final String clusterName,// 1
             final String brokerAddr,// 2
@@ -229,6 +481,7 @@ public class RouteInfoManager {
                 BrokerData brokerData = this.brokerAddrTable.get(brokerName);
                 if (null != brokerData) {
                     String addr = brokerData.getBrokerAddrs().remove(brokerId);
+                    this.markBrokerChanged(brokerName);
                     log.info("unregisterBroker, remove addr from brokerAddrTable {}, {}", //
                         (addr != null ? "OK" : "Failed"),//
                         brokerAddr//
@@ -253,6 +506,7 @@ public class RouteInfoManager {
                             brokerName//
                         );
 
+                        this.clusterChanged = true;
                         if (nameSet.isEmpty()) {
                             this.clusterAddrTable.remove(clusterName);
                             log.info("unregisterBroker, remove cluster from clusterAddrTable {}", //
@@ -264,6 +518,8 @@ public class RouteInfoManager {
                     // 删除相应的topic
                     this.removeTopicByBrokerName(brokerName);
                 }
+
+                this.publishRouteSnapshot();
             }
             finally {
                 this.lock.writeLock().unlock();
@@ -288,6 +544,7 @@ public class RouteInfoManager {
                 if (qd.getBrokerName().equals(brokerName)) {
                     log.info("removeTopicByBrokerName, remove one broker's topic {} {}", topic, qd);
                     it.remove();
+                    this.markTopicChanged(topic);
                 }
             }
 
@@ -299,59 +556,145 @@ public class RouteInfoManager {
     }
 
 
-    public TopicRouteData pickupTopicRouteData(final String topic) {
-        TopicRouteData topicRouteData = new TopicRouteData();
-        boolean foundQueueData = false;
-        boolean foundBrokerData = false;
-        Set<String> brokerNameSet = new HashSet<String>();
-        List<BrokerData> brokerDataList = new LinkedList<BrokerData>();
-        topicRouteData.setBrokerDatas(brokerDataList);
+    /**
+     * 从已发布的Topic与Broker中一致地读取Topic路由，不加锁，读取过程中有发布则重读
+     */
+    private PublishedTopicRoute readPublishedTopicRoute(final String topic, final boolean withRouteData) {
+        while (true) {
+            final long sequence = this.publishSequence;
+            if ((sequence & 1) == 0) {
+                PublishedTopicRoute route = this.buildPublishedTopicRoute(topic, withRouteData);
+                if (sequence == this.publishSequence) {
+                    return route;
+                }
+            }
 
-        try {
-            try {
-                this.lock.readLock().lockInterruptibly();
-                List<QueueData> queueDataList = this.topicQueueTable.get(topic);
-                if (queueDataList != null) {
-                    topicRouteData.setQueueDatas(queueDataList);
-                    foundQueueData = true;
-
-                    // BrokerName去重
-                    Iterator<QueueData> it = queueDataList.iterator();
-                    while (it.hasNext()) {
-                        QueueData qd = it.next();
-                        brokerNameSet.add(qd.getBrokerName());
-                    }
+            Thread.yield();
+        }
+    }
 
-                    for (String brokerName : brokerNameSet) {
-                        BrokerData brokerData = this.brokerAddrTable.get(brokerName);
-                        if (null != brokerData) {
-                            BrokerData brokerDataClone = new BrokerData();
-                            brokerDataClone.setBrokerName(brokerData.getBrokerName());
-                            brokerDataClone.setBrokerAddrs((HashMap<Long, String>) brokerData
-                                .getBrokerAddrs().clone());
-                            brokerDataList.add(brokerDataClone);
-                            foundBrokerData = true;
-                        }
-                    }
+
+    /**
+     * Topic路由版本号取队列数据与所引用Broker的最大变更版本号，Topic不存在时版本号为0
+     */
+    private PublishedTopicRoute buildPublishedTopicRoute(final String topic, final boolean withRouteData) {
+        TopicRouteEntry topicRouteEntry = this.publishedTopicTable.get(topic);
+        if (null == topicRouteEntry) {
+            return new PublishedTopicRoute(0, null);
+        }
+
+        long version = topicRouteEntry.getVersion();
+        // BrokerName去重
+        Set<String> brokerNameSet = new HashSet<String>();
+        List<BrokerData> brokerDataList = new LinkedList<BrokerData>();
+        for (QueueData qd : topicRouteEntry.getQueueDataList()) {
+            if (brokerNameSet.add(qd.getBrokerName())) {
+                BrokerRouteEntry brokerRouteEntry = this.publishedBrokerTable.get(qd.getBrokerName());
+                if (brokerRouteEntry != null) {
+                    version = Math.max(version, brokerRouteEntry.getVersion());
+                    brokerDataList.add(brokerRouteEntry.getBrokerData());
                 }
             }
-            finally {
-                this.lock.readLock().unlock();
-            }
         }
-        catch (Exception e) {
-            log.error("pickupTopicRouteData Exception", e);
+
+        if (!withRouteData || brokerDataList.isEmpty()) {
+            return new PublishedTopicRoute(version, null);
         }
 
+        TopicRouteData topicRouteData = new TopicRouteData();
+        topicRouteData.setQueueDatas(topicRouteEntry.getQueueDataList());
+        topicRouteData.setBrokerDatas(brokerDataList);
+        return new PublishedTopicRoute(version, topicRouteData);
+    }
+
+
+    /**
+     * 从已发布的路由数据中读取，不加锁
+     */
+    public TopicRouteData pickupTopicRouteData(final String topic) {
+        TopicRouteData topicRouteData = this.readPublishedTopicRoute(topic, true).getTopicRouteData();
+
         if (log.isDebugEnabled()) {
             log.debug("pickupTopicRouteData {} {}", topic, topicRouteData);
         }
 
-        if (foundBrokerData && foundQueueData) {
-            return topicRouteData;
+        return topicRouteData;
+    }
+
+
+    /**
+     * 获取序列化后的Topic路由数据，Topic路由版本与顺序消息配置都没有变化时直接返回缓存，不加锁也不序列化
+     * 
+     * @return Topic不存在返回null
+     */
+    public byte[] pickupTopicRouteDataEncoded(final String topic, final String orderTopicConf) {
+        final long topicRouteVersion = this.readPublishedTopicRoute(topic, false).getVersion();
+        TopicRouteCache cache = this.topicRouteCacheTable.get(topic);
+        if (cache != null && cache.isValid(topicRouteVersion, orderTopicConf)) {
+            return cache.getContent();
         }
 
-        return null;
+        PublishedTopicRoute route = this.readPublishedTopicRoute(topic, true);
+        TopicRouteData topicRouteData = route.getTopicRouteData();
+        if (null == topicRouteData) {
+            this.topicRouteCacheTable.remove(topic);
+            return null;
+        }
+
+        topicRouteData.setOrderTopicConf(orderTopicConf);
+        byte[] content = topicRouteData.encode();
+        this.topicRouteCacheTable.put(topic, new TopicRouteCache(route.getVersion(), orderTopicConf, content));
+        return content;
+    }
+
+
+    /**
+     * 批量获取Topic路由，只返回路由版本号与客户端已知版本号不同的Topic，不存在的Topic忽略<br>
+     * 返回的路由数据不包含顺序消息配置
+     */
+    public TopicRouteBatchResponseBody pickupTopicRouteDataChanged(final Map<String, Long> topicVersionTable) {
+        TopicRouteBatchResponseBody body = new TopicRouteBatchResponseBody();
+        for (Entry<String, Long> entry : topicVersionTable.entrySet()) {
+            final String topic = entry.getKey();
+            final long topicRouteVersion =
+                    this.qualifyTopicRouteVersion(this.readPublishedTopicRoute(topic, false).getVersion());
+            if (entry.getValue() != null && entry.getValue().longValue() == topicRouteVersion) {
+                continue;
+            }
+
+            PublishedTopicRoute route = this.readPublishedTopicRoute(topic, true);
+            if (route.getTopicRouteData() != null) {
+                body.getTopicRouteTable().put(topic, route.getTopicRouteData());
+                body.getTopicVersionTable().put(topic, this.qualifyTopicRouteVersion(route.getVersion()));
+            }
+        }
+
+        return body;
+    }
+
+
+    /**
+     * 客户端可能在多个Name Server之间切换，版本号只在本Name Server内有意义，高32位填入启动时生成的随机值
+     */
+    private long qualifyTopicRouteVersion(final long version) {
+        if (0 == version) {
+            return 0;
+        }
+
+        return this.routeEpoch | (version & 0xFFFFFFFFL);
+    }
+
+
+    public DataVersion getRouteDataVersion() {
+        return routeDataVersion;
+    }
+
+
+    /**
+     * 已发布路由快照的版本号
+     */
+    public long getRouteSnapshotVersion() {
+        return this.publishedVersion;
     }
 
 
@@ -414,6 +757,7 @@ public class RouteInfoManager {
                             if (brokerAddr.equals(brokerAddrFound)) {
                                 brokerNameFound = brokerData.getBrokerName();
                                 it.remove();
+                                this.markBrokerChanged(brokerNameFound);
                                 log.info(
                                     "remove brokerAddr[{}, {}] from brokerAddrTable, because channel destroyed",
                                     brokerId, brokerAddr);
@@ -439,6 +783,7 @@ public class RouteInfoManager {
                             Set<String> brokerNames = entry.getValue();
                             boolean removed = brokerNames.remove(brokerNameFound);
                             if (removed) {
+                                this.clusterChanged = true;
                                 log.info(
                                     "remove brokerName[{}], clusterName[{}] from clusterAddrTable, because channel destroyed",
                                     brokerNameFound, clusterName);
@@ -461,6 +806,7 @@ public class RouteInfoManager {
                                 QueueData queueData = itQueueData.next();
                                 if (queueData.getBrokerName().equals(brokerNameFound)) {
                                     itQueueData.remove();
+                                    this.markTopicChanged(topic);
                                     log.info(
                                         "remove topic[{} {}], from topicQueueTable, because channel destroyed",
                                         topic, queueData);
@@ -475,6 +821,8 @@ public class RouteInfoManager {
                             }
                         }
                     }
+
+                    this.publishRouteSnapshot();
                 }
                 finally {
                     this.lock.writeLock().unlock();
@@ -577,3 +925,153 @@ class BrokerLiveInfo {
                 + ", channel=" + channel + ", haServerAddr=" + haServerAddr + "]";
     }
 }
+
+
+/**
+ * 一个Topic已发布的队列数据，发布后不再修改
+ */
+class TopicRouteEntry {
+    private final long version;
+    private final List<QueueData> queueDataList;
+
+
+    /**
+     * QueueData变更时总是整体替换，可以共享，列表需要复制
+     */
+    public TopicRouteEntry(final long version, final List<QueueData> queueDataList) {
+        this.version = version;
+        this.queueDataList = Collections.unmodifiableList(new ArrayList<QueueData>(queueDataList));
+    }
+
+
+    public long getVersion() {
+        return version;
+    }
+
+
+    public List<QueueData> getQueueDataList() {
+        return queueDataList;
+    }
+}
+
+
+/**
+ * 一个Broker已发布的主备地址，发布后不再修改
+ */
+class BrokerRouteEntry {
+    private final long version;
+    private final BrokerData brokerData;
+
+
+    /**
+     * BrokerData会原地修改，需要复制
+     */
+    public BrokerRouteEntry(final long version, final BrokerData brokerData) {
+        this.version = version;
+        this.brokerData = new BrokerData();
+        this.brokerData.setBrokerName(brokerData.getBrokerName());
+        this.brokerData.setBrokerAddrs(new HashMap<Long, String>(brokerData.getBrokerAddrs()));
+    }
+
+
+    public long getVersion() {
+        return version;
+    }
+
+
+    public BrokerData getBrokerData() {
+        return brokerData;
+    }
+}
+
+
+/**
+ * 一次读取得到的Topic路由数据与版本号
+ */
+class PublishedTopicRoute {
+    private final long version;
+    private final TopicRouteData topicRouteData;
+
+
+    public PublishedTopicRoute(final long version, final TopicRouteData topicRouteData) {
+        this.version = version;
+        this.topicRouteData = topicRouteData;
+    }
+
+
+    public long getVersion() {
+        return version;
+    }
+
+
+    public TopicRouteData getTopicRouteData() {
+        return topicRouteData;
+    }
+}
+
+
+/**
+ * 集群信息的不可变快照，Broker或者集群变更时整体替换
+ */
+class ClusterInfoSnapshot {
+    private final HashMap<String/* brokerName */, BrokerData> brokerAddrTable;
+    private final HashMap<String/* clusterName */, Set<String/* brokerName */>> clusterAddrTable;
+
+
+    public ClusterInfoSnapshot(final HashMap<String, BrokerData> brokerAddrTable,
+            final HashMap<String, Set<String>> clusterAddrTable) {
+        this.brokerAddrTable = new HashMap<String, BrokerData>(brokerAddrTable.size());
+        for (Entry<String, BrokerData> entry : brokerAddrTable.entrySet()) {
+            BrokerData brokerDataClone = new BrokerData();
+            brokerDataClone.setBrokerName(entry.getValue().getBrokerName());
+            brokerDataClone.setBrokerAddrs(new HashMap<Long, String>(entry.getValue().getBrokerAddrs()));
+            this.brokerAddrTable.put(entry.getKey(), brokerDataClone);
+        }
+
+        this.clusterAddrTable = new HashMap<String, Set<String>>(clusterAddrTable.size());
+        for (Entry<String, Set<String>> entry : clusterAddrTable.entrySet()) {
+            this.clusterAddrTable.put(entry.getKey(), new HashSet<String>(entry.getValue()));
+        }
+    }
+
+
+    public HashMap<String, BrokerData> getBrokerAddrTable() {
+        return brokerAddrTable;
+    }
+
+
+    public HashMap<String, Set<String>> getClusterAddrTable() {
+        return clusterAddrTable;
+    }
+}
+
+
+/**
+ * 一个Topic序列化后的路由数据
+ */
+class TopicRouteCache {
+    private final long version;
+    private final String orderTopicConf;
+    private final byte[] content;
+
+
+    public TopicRouteCache(long version, String orderTopicConf, byte[] content) {
+        this.version = version;
+        this.orderTopicConf = orderTopicConf;
+        this.content = content;
+    }
+
+
+    public boolean isValid(final long version, final String orderTopicConf) {
+        if (this.version != version) {
+            return false;
+        }
+
+        return null == this.orderTopicConf ? null == orderTopicConf : this.orderTopicConf.equals(orderTopicConf);
+    }
+
+
+    public byte[] getContent() {
+        return content;
+    }
+}
@@ -38,6 +38,7 @@ import com.alibaba.rocketmq.store.config.BrokerRole;
 import com.alibaba.rocketmq.store.config.FlushDiskType;
 import com.alibaba.rocketmq.store.ha.HAService;
 import com.alibaba.rocketmq.store.schedule.ScheduleMessageService;
+import com.alibaba.rocketmq.store.schedule.TimerMessageService;
 
 
 /**
@@ -60,6 +61,8 @@ public class CommitLog {
     private final FlushCommitLogService flushCommitLogService;
     // 存储消息时的回调接口
     private final AppendMessageCallback appendMessageCallback;
+    // 批量写入存储格式消息的回调接口
+    private final RawAppendMessageCallback rawAppendMessageCallback = new RawAppendMessageCallback();
     // 用来保存每个ConsumeQueue的当前最大Offset信息
     private HashMap<String/* topic-queueid */, Long/* offset */> topicQueueTable = new HashMap<String, Long>(
         1024);
@@ -135,10 +138,12 @@ public class CommitLog {
             final long expiredTime, //
             final int deleteFilesInterval, //
             final long intervalForcibly,//
-            final boolean cleanImmediately//
+            final boolean cleanImmediately,//
+            final int deleteFilesMax,//
+            final int truncateStepSize//
     ) {
         return this.mapedFileQueue.deleteExpiredFileByTime(expiredTime, deleteFilesInterval,
-            intervalForcibly, cleanImmediately);
+            intervalForcibly, cleanImmediately, deleteFilesMax, truncateStepSize);
     }
 
 
@@ -331,6 +336,19 @@ public class CommitLog {
                             MessageExtBrokerInner.tagsString2tagsCode(
                                 MessageExt.parseTopicFilterType(sysFlag), tags);
                 }
+
+                // 定时消息队列里的tagsCode是投递时间，恢复与Slave重建队列时必须一致
+                if (TimerMessageService.TIMER_TOPIC.equals(topic)) {
+                    String deliverTime = propertiesMap.get(Message.PROPERTY_START_DELIVER_TIME);
+                    if (deliverTime != null) {
+                        try {
+                            tagsCode = Long.parseLong(deliverTime);
+                        }
+                        catch (NumberFormatException e) {
+                            log.warn("illegal start deliver time in timer message, " + deliverTime);
+                        }
+                    }
+                }
             }
 
             return new DispatchRequest(//
@@ -476,8 +494,22 @@ public class CommitLog {
         final int tranType = MessageSysFlag.getTransactionValue(msg.getSysFlag());
         if (tranType == MessageSysFlag.TransactionNotType//
                 || tranType == MessageSysFlag.TransactionCommitType) {
+            // 任意时间定时投递，优先于延时级别
+            if (msg.getStartDeliverTime() > msg.getStoreTimestamp()
+                    && this.defaultMessageStore.getTimerMessageService() != null) {
+                topic = TimerMessageService.TIMER_TOPIC;
+                queueId = TimerMessageService.TIMER_QUEUE_ID;
+                tagsCode = msg.getStartDeliverTime();
+
+                msg.putProperty(Message.PROPERTY_REAL_TOPIC, msg.getTopic());
+                msg.putProperty(Message.PROPERTY_REAL_QUEUE_ID, String.valueOf(msg.getQueueId()));
+                msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+
+                msg.setTopic(topic);
+                msg.setQueueId(queueId);
+            }
             // 延时投递
-            if (msg.getDelayTimeLevel() > 0) {
+            else if (msg.getDelayTimeLevel() > 0) {
                 if (msg.getDelayTimeLevel() > this.defaultMessageStore.getScheduleMessageService()
                     .getMaxDelayLevel()) {
                     msg.setDelayTimeLevel(this.defaultMessageStore.getScheduleMessageService()
@@ -505,6 +537,7 @@ public class CommitLog {
         // 写文件要加锁
         synchronized (this) {
             long beginLockTimestamp = this.defaultMessageStore.getSystemClock().now();
+            long beginLockNanos = System.nanoTime();
 
             // 这里设置存储时间戳，才能保证全局有序
             msg.setStoreTimestamp(beginLockTimestamp);
@@ -562,6 +595,7 @@ public class CommitLog {
 
             this.defaultMessageStore.putDispatchRequest(dispatchRequest);
 
+            storeStatsService.getPutMessageInLockLatency().recordNanos(System.nanoTime() - beginLockNanos);
             long eclipseTime = this.defaultMessageStore.getSystemClock().now() - beginLockTimestamp;
             if (eclipseTime > 1000) {
                 log.warn("putMessage in lock eclipse time(ms) " + eclipseTime);
@@ -582,9 +616,11 @@ public class CommitLog {
             if (msg.isWaitStoreMsgOK()) {
                 request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes());
                 service.putRequest(request);
+                long beginNanos = System.nanoTime();
                 boolean flushOK =
                         request.waitForFlush(this.defaultMessageStore.getMessageStoreConfig()
                             .getSyncFlushTimeout());
+                storeStatsService.getFlushWaitLatency().recordNanos(System.nanoTime() - beginNanos);
                 if (!flushOK) {
                     log.error("do groupcommit, wait for flush failed, topic: " + msg.getTopic() + " tags: "
                             + msg.getTags() + " client address: " + msg.getBornHostString());
@@ -613,10 +649,12 @@ public class CommitLog {
 
                     service.getWaitNotifyObject().wakeupAll();
 
+                    long beginNanos = System.nanoTime();
                     boolean flushOK =
                     // TODO 此处参数与刷盘公用是否合适
                             request.waitForFlush(this.defaultMessageStore.getMessageStoreConfig()
                                 .getSyncFlushTimeout());
+                    storeStatsService.getHaWaitLatency().recordNanos(System.nanoTime() - beginNanos);
                     if (!flushOK) {
                         log.error("do sync transfer other node, wait return, but failed, topic: "
                                 + msg.getTopic() + " tags: " + msg.getTags() + " client address: "
@@ -637,6 +675,73 @@ public class CommitLog {
     }
 
 
+    /**
+     * 批量写入已经是存储格式的消息，整批只加一次锁，尽量一次追加到同一个文件<br>
+     * 用于定时消息到期重新投递与事务提交回滚，不等待刷盘与同步双写
+     *
+     * @return 最后一次追加的结果，失败时前面已经写入的消息不会回滚，已写入条数见wroteMsgNums
+     */
+    public PutMessageResult putRawMessages(final List<RawMessageInner> msgs) {
+        final RawMessageBatch batch = new RawMessageBatch(msgs);
+        AppendMessageResult result = null;
+
+        // 写文件要加锁
+        synchronized (this) {
+            long beginLockTimestamp = this.defaultMessageStore.getSystemClock().now();
+            long beginLockNanos = System.nanoTime();
+            // 整批使用同一个存储时间戳
+            batch.storeTimestamp = beginLockTimestamp;
+
+            while (batch.cursor < msgs.size()) {
+                MapedFile mapedFile = this.mapedFileQueue.getLastMapedFile();
+                if (null == mapedFile) {
+                    log.error("create maped file error when put raw messages, topic: "
+                            + msgs.get(batch.cursor).getTopic());
+                    return this.rawPutResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, result, batch);
+                }
+
+                result = mapedFile.appendMessage(batch, this.rawAppendMessageCallback);
+                for (DispatchRequest dispatchRequest : batch.dispatchRequests) {
+                    this.defaultMessageStore.putDispatchRequest(dispatchRequest);
+                }
+                batch.dispatchRequests.clear();
+
+                // 走到文件末尾时下一轮写入新文件，其他状态说明出错
+                if (result.getStatus() != AppendMessageStatus.PUT_OK
+                        && result.getStatus() != AppendMessageStatus.END_OF_FILE) {
+                    return this.rawPutResult(PutMessageStatus.UNKNOWN_ERROR, result, batch);
+                }
+            }
+
+            this.defaultMessageStore.getStoreStatsService().getPutMessageInLockLatency()
+                .recordNanos(System.nanoTime() - beginLockNanos);
+            long eclipseTime = this.defaultMessageStore.getSystemClock().now() - beginLockTimestamp;
+            if (eclipseTime > 1000) {
+                log.warn("putRawMessages in lock eclipse time(ms) " + eclipseTime + " size " + msgs.size());
+            }
+        }
+
+        // 统计消息SIZE
+        StoreStatsService storeStatsService = this.defaultMessageStore.getStoreStatsService();
+        for (RawMessageInner msg : msgs) {
+            storeStatsService.getSinglePutMessageTopicSizeTotal(msg.getTopic()).addAndGet(
+                msg.getEncoded().length);
+        }
+
+        this.flushCommitLogService.wakeup();
+
+        return this.rawPutResult(PutMessageStatus.PUT_OK, result, batch);
+    }
+
+
+    private PutMessageResult rawPutResult(final PutMessageStatus status, final AppendMessageResult result,
+            final RawMessageBatch batch) {
+        PutMessageResult putMessageResult = new PutMessageResult(status, result);
+        putMessageResult.setWroteMsgNums(batch.cursor);
+        return putMessageResult;
+    }
+
+
     /**
      * 根据offset获取特定消息的存储时间 如果出错，则返回-1
      */
@@ -939,6 +1044,118 @@ public class CommitLog {
         }
     }
 
+    /**
+     * 一次批量写入的进度，只在CommitLog锁内访问
+     */
+    static class RawMessageBatch {
+        private final List<RawMessageInner> msgs;
+        private final List<DispatchRequest> dispatchRequests = new ArrayList<DispatchRequest>();
+        private int cursor = 0;
+        private long storeTimestamp = 0;
+
+
+        RawMessageBatch(final List<RawMessageInner> msgs) {
+            this.msgs = msgs;
+        }
+    }
+
+    /**
+     * 把存储格式的消息连续拷贝到文件中，只改写QUEUEOFFSET、PHYSICALOFFSET、STORETIMESTAMP<br>
+     * QUEUEOFFSET的取值与DefaultAppendMessageCallback一致<br>
+     * 当前文件放不下下一条消息时，如果本次还没有写入则填充文件末尾，否则先返回，由下一次调用填充
+     */
+    class RawAppendMessageCallback implements AppendMessageCallback {
+        // 文件末尾空洞最小定长
+        private static final int END_FILE_MIN_BLANK_LENGTH = 4 + 4;
+
+
+        public AppendMessageResult doAppend(final long fileFromOffset, final ByteBuffer byteBuffer,
+                final int maxBlank, final Object msg) {
+            RawMessageBatch batch = (RawMessageBatch) msg;
+            final long beginOffset = fileFromOffset + byteBuffer.position();
+            int wroteBytes = 0;
+            long queueOffset = 0;
+
+            while (batch.cursor < batch.msgs.size()) {
+                RawMessageInner msgInner = batch.msgs.get(batch.cursor);
+                final int msgLen = msgInner.getEncoded().length;
+                if ((msgLen + END_FILE_MIN_BLANK_LENGTH) > (maxBlank - wroteBytes)) {
+                    if (wroteBytes > 0) {
+                        break;
+                    }
+
+                    // 1 TOTALSIZE
+                    byteBuffer.putInt(maxBlank);
+                    // 2 MAGICCODE
+                    byteBuffer.putInt(CommitLog.BlankMagicCode);
+                    return new AppendMessageResult(AppendMessageStatus.END_OF_FILE, beginOffset, maxBlank,
+                        null, batch.storeTimestamp, 0);
+                }
+
+                String key = msgInner.getTopic() + "-" + msgInner.getQueueId();
+                final int tranType = MessageSysFlag.getTransactionValue(msgInner.getSysFlag());
+                switch (tranType) {
+                case MessageSysFlag.TransactionPreparedType:
+                    queueOffset =
+                            CommitLog.this.defaultMessageStore.getTransactionStateService()
+                                .getTranStateTableOffset().get();
+                    break;
+                case MessageSysFlag.TransactionRollbackType:
+                    queueOffset = msgInner.getTranStateTableOffset();
+                    break;
+                case MessageSysFlag.TransactionNotType:
+                case MessageSysFlag.TransactionCommitType:
+                default:
+                    Long offset = CommitLog.this.topicQueueTable.get(key);
+                    queueOffset = null == offset ? 0L : offset;
+                    break;
+                }
+
+                final int pos = byteBuffer.position();
+                final long wroteOffset = fileFromOffset + pos;
+                byteBuffer.put(msgInner.getEncoded());
+                byteBuffer.putLong(pos + MessageDecoder.MessageQueueOffsetPostion, queueOffset);
+                byteBuffer.putLong(pos + MessageDecoder.MessagePhysicOffsetPostion, wroteOffset);
+                byteBuffer.putLong(pos + MessageDecoder.MessageStoreTimestampPostion, batch.storeTimestamp);
+
+                batch.dispatchRequests.add(new DispatchRequest(//
+                    msgInner.getTopic(),// 1
+                    msgInner.getQueueId(),// 2
+                    wroteOffset,// 3
+                    msgLen,// 4
+                    msgInner.getTagsCode(),// 5
+                    batch.storeTimestamp,// 6
+                    queueOffset,// 7
+                    msgInner.getKeys(),// 8
+                    msgInner.getSysFlag(),// 9
+                    msgInner.getTranStateTableOffset(),// 10
+                    msgInner.getPreparedTransactionOffset(),// 11
+                    msgInner.getProducerGroup()// 12
+                ));
+
+                switch (tranType) {
+                case MessageSysFlag.TransactionPreparedType:
+                    CommitLog.this.defaultMessageStore.getTransactionStateService().getTranStateTableOffset()
+                        .incrementAndGet();
+                    break;
+                case MessageSysFlag.TransactionRollbackType:
+                    break;
+                case MessageSysFlag.TransactionNotType:
+                case MessageSysFlag.TransactionCommitType:
+                default:
+                    // 更新下一次的ConsumeQueue信息
+                    CommitLog.this.topicQueueTable.put(key, queueOffset + 1);
+                    break;
+                }
+                wroteBytes += msgLen;
+                batch.cursor++;
+            }
+
+            return new AppendMessageResult(AppendMessageStatus.PUT_OK, beginOffset, wroteBytes, null,
+                batch.storeTimestamp, queueOffset);
+        }
+    }
+
     class DefaultAppendMessageCallback implements AppendMessageCallback {
         // 文件末尾空洞最小定长
         private static final int END_FILE_MIN_BLANK_LENGTH = 4 + 4;
@@ -41,6 +41,7 @@ import com.alibaba.rocketmq.store.ha.HAService;
 import com.alibaba.rocketmq.store.index.IndexService;
 import com.alibaba.rocketmq.store.index.QueryOffsetResult;
 import com.alibaba.rocketmq.store.schedule.ScheduleMessageService;
+import com.alibaba.rocketmq.store.schedule.TimerMessageService;
 import com.alibaba.rocketmq.store.transaction.TransactionCheckExecuter;
 import com.alibaba.rocketmq.store.transaction.TransactionStateService;
 
@@ -79,6 +80,8 @@ public class DefaultMessageStore implements MessageStore {
     private final HAService haService;
     // 定时服务
     private final ScheduleMessageService scheduleMessageService;
+    // 任意时间定时消息
+    private final TimerMessageService timerMessageService;
     // 分布式事务服务
     private final TransactionStateService transactionStateService;
     // 运行时数据统计
@@ -126,15 +129,18 @@ public class DefaultMessageStore implements MessageStore {
         case SLAVE:
             this.reputMessageService = new ReputMessageService();
             this.scheduleMessageService = null;
+            this.timerMessageService = null;
             break;
         case ASYNC_MASTER:
         case SYNC_MASTER:
             this.reputMessageService = null;
             this.scheduleMessageService = new ScheduleMessageService(this);
+            this.timerMessageService = new TimerMessageService(this);
             break;
         default:
             this.reputMessageService = null;
             this.scheduleMessageService = null;
+            this.timerMessageService = null;
         }
 
         // load过程依赖此服务，所以提前启动
@@ -181,6 +187,11 @@ public class DefaultMessageStore implements MessageStore {
                 result = result && this.scheduleMessageService.load();
             }
 
+            // load 任意时间定时消息的时间轮
+            if (null != timerMessageService) {
+                result = result && this.timerMessageService.load();
+            }
+
             if (result) {
                 this.storeCheckpoint = new StoreCheckpoint(this.messageStoreConfig.getStoreCheckpoint());
 
@@ -342,6 +353,10 @@ public class DefaultMessageStore implements MessageStore {
             this.scheduleMessageService.start();
         }
 
+        if (this.timerMessageService != null) {
+            this.timerMessageService.start();
+        }
+
         if (this.reputMessageService != null) {
             this.reputMessageService.setReputFromOffset(this.commitLog.getMaxOffset());
             this.reputMessageService.start();
@@ -390,6 +405,10 @@ public class DefaultMessageStore implements MessageStore {
                 this.scheduleMessageService.shutdown();
             }
 
+            if (this.timerMessageService != null) {
+                this.timerMessageService.shutdown();
+            }
+
             this.haService.shutdown();
 
             this.storeStatsService.shutdown();
@@ -467,8 +486,10 @@ public class DefaultMessageStore implements MessageStore {
         }
 
         long beginTime = this.getSystemClock().now();
+        long beginNanos = System.nanoTime();
         PutMessageResult result = this.commitLog.putMessage(msg);
         // 性能数据统计
+        this.storeStatsService.getPutMessageLatency().recordNanos(System.nanoTime() - beginNanos);
         long eclipseTime = this.getSystemClock().now() - beginTime;
         if (eclipseTime > 1000) {
             log.warn("putMessage not in lock eclipse time(ms) " + eclipseTime);
@@ -484,6 +505,49 @@ public class DefaultMessageStore implements MessageStore {
     }
 
 
+    /**
+     * 批量写入已经是存储格式的消息，用于定时消息到期重新投递与事务提交
+     */
+    public PutMessageResult putRawMessages(final List<RawMessageInner> msgs) {
+        if (this.shutdown) {
+            log.warn("message store has shutdown, so putRawMessages is forbidden");
+            return new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null);
+        }
+
+        if (BrokerRole.SLAVE == this.messageStoreConfig.getBrokerRole()) {
+            return new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null);
+        }
+
+        if (!this.runningFlags.isWriteable()) {
+            long value = this.printTimes.getAndIncrement();
+            if ((value % 50000) == 0) {
+                log.warn("message store is not writeable, so putRawMessages is forbidden "
+                        + this.runningFlags.getFlagBits());
+            }
+
+            return new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null);
+        }
+
+        long beginTime = this.getSystemClock().now();
+        PutMessageResult result = this.commitLog.putRawMessages(msgs);
+        // 性能数据统计
+        long eclipseTime = this.getSystemClock().now() - beginTime;
+        if (eclipseTime > 1000) {
+            log.warn("putRawMessages not in lock eclipse time(ms) " + eclipseTime);
+        }
+        this.storeStatsService.setPutMessageEntireTimeMax(eclipseTime);
+        for (RawMessageInner msg : msgs) {
+            this.storeStatsService.getSinglePutMessageTopicTimesTotal(msg.getTopic()).incrementAndGet();
+        }
+
+        if (null == result || !result.isOk()) {
+            this.storeStatsService.getPutMessageFailedTimes().incrementAndGet();
+        }
+
+        return result;
+    }
+
+
     public GetMessageResult getMessage(final String topic, final int queueId, final long offset,
             final int maxMsgNums, final SubscriptionData subscriptionData) {
         if (this.shutdown) {
@@ -498,6 +562,7 @@ public class DefaultMessageStore implements MessageStore {
         }
 
         long beginTime = this.getSystemClock().now();
+        long beginNanos = System.nanoTime();
 
         // 枚举变量，取消息结果
         GetMessageStatus status = GetMessageStatus.NO_MESSAGE_IN_QUEUE;
@@ -629,6 +694,7 @@ public class DefaultMessageStore implements MessageStore {
         }
         long eclipseTime = this.getSystemClock().now() - beginTime;
         this.storeStatsService.setGetMessageEntireTimeMax(eclipseTime);
+        this.storeStatsService.getGetMessageLatency().recordNanos(System.nanoTime() - beginNanos);
 
         getResult.setStatus(status);
         getResult.setNextBeginOffset(nextBeginOffset);
@@ -814,8 +880,11 @@ public class DefaultMessageStore implements MessageStore {
 
     @Override
     public HashMap<String, String> getRuntimeInfo() {
-        // TODO Auto-generated method stub
-        return null;
+        HashMap<String, String> result = this.storeStatsService.getRuntimeInfo();
+        result.put("commitLogMinOffset", String.valueOf(this.commitLog.getMinOffset()));
+        result.put("commitLogMaxOffset", String.valueOf(this.commitLog.getMaxOffset()));
+        result.put("haAckQuorumOffset", String.valueOf(this.haService.getAckQuorumOffset()));
+        return result;
     }
 
 
@@ -1004,11 +1073,21 @@ public class DefaultMessageStore implements MessageStore {
     }
 
 
+    public TimerMessageService getTimerMessageService() {
+        return timerMessageService;
+    }
+
+
     public TransactionStateService getTransactionStateService() {
         return transactionStateService;
     }
 
 
+    CleanCommitLogService getCleanCommitLogService() {
+        return cleanCommitLogService;
+    }
+
+
     public RunningFlags getRunningFlags() {
         return runningFlags;
     }
@@ -1035,6 +1114,13 @@ public class DefaultMessageStore implements MessageStore {
         private volatile int manualDeleteFileSeveralTimes = 0;
         // 立刻开始强制删除文件
         private volatile boolean cleanImmediately = false;
+        // 写入出现慢请求时最多连续推迟删除的次数
+        final static int MaxDeleteBackoffTimes = 30;
+        // 删除限速的令牌桶，单位字节
+        private long deleteBudgetBytes = 0;
+        private long lastDeleteBudgetTimestamp = System.currentTimeMillis();
+        private long lastPutMessageSlowTimes = 0;
+        private int deleteBackoffTimes = 0;
 
 
         public void excuteDeleteFilesManualy() {
@@ -1071,6 +1157,8 @@ public class DefaultMessageStore implements MessageStore {
                     DefaultMessageStore.this.getMessageStoreConfig().getDeleteCommitLogFilesInterval();
             int destroyMapedFileIntervalForcibly =
                     DefaultMessageStore.this.getMessageStoreConfig().getDestroyMapedFileIntervalForcibly();
+            int deleteFilesMax = this.refillDeleteBudget(System.currentTimeMillis());
+            boolean putSlow = this.isPutMessageSlow();
 
             boolean timeup = this.isTimeToDelete();
             boolean spacefull = this.isSpaceToDelete();
@@ -1078,6 +1166,21 @@ public class DefaultMessageStore implements MessageStore {
 
             // 删除物理队列文件
             if (timeup || spacefull || manualDelete) {
+                // 是否立刻强制删除文件
+                boolean cleanAtOnce =
+                        DefaultMessageStore.this.getMessageStoreConfig().isCleanFileForciblyEnable()
+                                && this.cleanImmediately;
+
+                // 磁盘将满时不限速，否则避免删除文件与写入争抢IO
+                if (!cleanAtOnce) {
+                    if (this.isDeleteBackoff(putSlow) || deleteFilesMax <= 0) {
+                        return;
+                    }
+                }
+                else {
+                    deleteFilesMax = Integer.MAX_VALUE;
+                }
+
                 log.info("begin to delete before " + fileReservedTime + " hours file. timeup: " + timeup
                         + " spacefull: " + spacefull + " manualDeleteFileSeveralTimes: "
                         + this.manualDeleteFileSeveralTimes);
@@ -1088,15 +1191,16 @@ public class DefaultMessageStore implements MessageStore {
                 // 小时转化成毫秒
                 fileReservedTime *= 60 * 60 * 1000;
 
-                // 是否立刻强制删除文件
-                boolean cleanAtOnce =
-                        DefaultMessageStore.this.getMessageStoreConfig().isCleanFileForciblyEnable()
-                                && this.cleanImmediately;
-
+                // 强制删除时磁盘将满，不再分步截短
+                final int truncateStepSize =
+                        cleanAtOnce ? 0 : DefaultMessageStore.this.getMessageStoreConfig()
+                            .getDeleteCommitLogFilesTruncateStep();
                 deleteCount =
                         DefaultMessageStore.this.commitLog.deleteExpiredFile(fileReservedTime,
-                            deletePhysicFilesInterval, destroyMapedFileIntervalForcibly, cleanAtOnce);
+                            deletePhysicFilesInterval, destroyMapedFileIntervalForcibly, cleanAtOnce,
+                            deleteFilesMax, truncateStepSize);
                 if (deleteCount > 0) {
+                    this.consumeDeleteBudget(deleteCount);
                     DefaultMessageStore.this.cleanConsumeQueueService.wakeup();
                 }
                 // 危险情况：磁盘满了，但是又无法删除文件
@@ -1107,6 +1211,75 @@ public class DefaultMessageStore implements MessageStore {
         }
 
 
+        /**
+         * 按删除速度上限补充令牌
+         *
+         * @return 本次最多可以删除的文件数
+         */
+        int refillDeleteBudget(final long now) {
+            final long bytesPerSecond =
+                    DefaultMessageStore.this.getMessageStoreConfig().getDeleteCommitLogFilesBytesPerSecond();
+            if (bytesPerSecond <= 0) {
+                return Integer.MAX_VALUE;
+            }
+
+            final int mapedFileSize =
+                    DefaultMessageStore.this.getMessageStoreConfig().getMapedFileSizeCommitLog();
+            this.deleteBudgetBytes += (now - this.lastDeleteBudgetTimestamp) * bytesPerSecond / 1000;
+            this.lastDeleteBudgetTimestamp = now;
+
+            // 最多积攒一分钟的额度，且至少能删除一个文件
+            final long budgetMax = Math.max(bytesPerSecond * 60, mapedFileSize);
+            if (this.deleteBudgetBytes > budgetMax) {
+                this.deleteBudgetBytes = budgetMax;
+            }
+
+            return (int) Math.min(this.deleteBudgetBytes / mapedFileSize, Integer.MAX_VALUE);
+        }
+
+
+        /**
+         * 扣除已经删除的文件占用的令牌
+         */
+        void consumeDeleteBudget(final int deleteCount) {
+            final int mapedFileSize =
+                    DefaultMessageStore.this.getMessageStoreConfig().getMapedFileSizeCommitLog();
+            this.deleteBudgetBytes -= (long) deleteCount * mapedFileSize;
+            if (this.deleteBudgetBytes < 0) {
+                this.deleteBudgetBytes = 0;
+            }
+        }
+
+
+        /**
+         * 写入出现慢请求时推迟本次删除，连续推迟达到上限后必须删除一次
+         */
+        boolean isDeleteBackoff(final boolean putSlow) {
+            if (putSlow && this.deleteBackoffTimes < MaxDeleteBackoffTimes
+                    && DefaultMessageStore.this.getMessageStoreConfig()
+                        .isDeleteCommitLogFilesBackoffEnable()) {
+                this.deleteBackoffTimes++;
+                log.info("put message is slow, delay to delete commitlog files, backoff times "
+                        + this.deleteBackoffTimes);
+                return true;
+            }
+
+            this.deleteBackoffTimes = 0;
+            return false;
+        }
+
+
+        /**
+         * 上次检查之后写入是否出现了慢请求，出现则推迟删除，连续推迟次数有上限，避免文件一直删不掉
+         */
+        private boolean isPutMessageSlow() {
+            final long slowTimes = DefaultMessageStore.this.storeStatsService.getPutMessageSlowTimes();
+            final boolean slow = slowTimes > this.lastPutMessageSlowTimes;
+            this.lastPutMessageSlowTimes = slowTimes;
+            return slow;
+        }
+
+
         /**
          * 是否可以删除文件，时间是否满足
          */
@@ -1461,7 +1634,15 @@ public class DefaultMessageStore implements MessageStore {
 
         private void doDispatch() {
             if (!this.requestsRead.isEmpty()) {
+                // 本次启动之前存储的消息是恢复或者追赶数据，不计入分发延迟
+                final long bootTimestamp =
+                        DefaultMessageStore.this.storeStatsService.getMessageStoreBootTimestamp();
+                final long now = DefaultMessageStore.this.getSystemClock().now();
                 for (DispatchRequest req : this.requestsRead) {
+                    if (req.getStoreTimestamp() >= bootTimestamp) {
+                        DefaultMessageStore.this.storeStatsService.getDispatchLatency().record(
+                            (now - req.getStoreTimestamp()) * 1000);
+                    }
 
                     final int tranType = MessageSysFlag.getTransactionValue(req.getSysFlag());
                     // 1、分发消息位置信息到ConsumeQueue
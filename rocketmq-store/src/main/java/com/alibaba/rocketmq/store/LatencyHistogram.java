@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * 无锁耗时直方图，单位微秒<br>
+ * 16微秒以内每微秒一个桶，之后每个2的幂区间再分8个桶，相对误差不超过12.5%<br>
+ * 按线程分条带记录，读取时合并，避免多线程竞争同一个计数器
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-12
+ */
+public class LatencyHistogram {
+    private static final int LinearBuckets = 16;
+    private static final int SubBucketBits = 3;
+    private static final int SubBuckets = 1 << SubBucketBits;
+    // 最大可记录约2^40微秒，超过的计入最后一个桶
+    private static final int MaxExponent = 40;
+    public static final int BucketNums = LinearBuckets + (MaxExponent - 4 + 1) * SubBuckets;
+    private static final int Stripes = 8;
+
+    private final AtomicLongArray counts = new AtomicLongArray(Stripes * BucketNums);
+
+
+    private static int bucketIndex(final long value) {
+        if (value < LinearBuckets) {
+            return value < 0 ? 0 : (int) value;
+        }
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MaxExponent) {
+            return BucketNums - 1;
+        }
+
+        final int sub = (int) ((value >> (exponent - SubBucketBits)) & (SubBuckets - 1));
+        return LinearBuckets + (exponent - 4) * SubBuckets + sub;
+    }
+
+
+    /**
+     * 桶能容纳的最大值，用作该桶的统计值
+     */
+    public static long bucketUpperValue(final int index) {
+        if (index < LinearBuckets) {
+            return index;
+        }
+
+        final int exponent = (index - LinearBuckets) / SubBuckets + 4;
+        final int sub = (index - LinearBuckets) % SubBuckets;
+        return (1L << exponent) + ((long) (sub + 1) << (exponent - SubBucketBits)) - 1;
+    }
+
+
+    public void record(final long costMicros) {
+        final int stripe = (int) Thread.currentThread().getId() & (Stripes - 1);
+        this.counts.incrementAndGet(stripe * BucketNums + bucketIndex(costMicros));
+    }
+
+
+    public void recordNanos(final long costNanos) {
+        this.record(costNanos / 1000);
+    }
+
+
+    /**
+     * 合并各条带的计数
+     */
+    public long[] snapshot() {
+        long[] result = new long[BucketNums];
+        for (int s = 0; s < Stripes; s++) {
+            for (int i = 0; i < BucketNums; i++) {
+                result[i] += this.counts.get(s * BucketNums + i);
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * 两次快照之间的计数
+     */
+    public static long[] minus(final long[] now, final long[] before) {
+        long[] result = new long[BucketNums];
+        for (int i = 0; i < BucketNums; i++) {
+            result[i] = now[i] - (before != null ? before[i] : 0);
+        }
+        return result;
+    }
+
+
+    public static long total(final long[] snapshot) {
+        long result = 0;
+        for (long c : snapshot) {
+            result += c;
+        }
+        return result;
+    }
+
+
+    /**
+     * 计算百分位耗时
+     *
+     * @param percentile
+     *            取值(0, 1]，例如0.99
+     * @return 单位微秒，没有数据返回0
+     */
+    public static long percentile(final long[] snapshot, final double percentile) {
+        final long total = total(snapshot);
+        if (total <= 0) {
+            return 0;
+        }
+
+        final long rank = (long) Math.ceil(total * percentile);
+        long count = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            count += snapshot[i];
+            if (count >= rank) {
+                return bucketUpperValue(i);
+            }
+        }
+
+        return bucketUpperValue(snapshot.length - 1);
+    }
+}
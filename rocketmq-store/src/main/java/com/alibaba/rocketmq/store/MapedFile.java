@@ -387,6 +387,20 @@ public class MapedFile extends ReferenceResource {
      * @return 是否被destory成功，上层调用需要对失败情况处理，失败后尝试重试
      */
     public boolean destroy(final long intervalForcibly) {
+        return this.destroy(intervalForcibly, 0, 0);
+    }
+
+
+    /**
+     * 删除文件前先分步截短，避免一次释放大量磁盘块引起文件系统卡顿
+     *
+     * @param truncateStepSize
+     *            每次截短的字节数，0表示直接删除
+     * @param truncateStepInterval
+     *            每次截短之后的间隔时间（单位毫秒）
+     */
+    public boolean destroy(final long intervalForcibly, final int truncateStepSize,
+            final int truncateStepInterval) {
         this.shutdown(intervalForcibly);
 
         if (this.isCleanupOver()) {
@@ -394,6 +408,10 @@ public class MapedFile extends ReferenceResource {
                 this.fileChannel.close();
                 log.info("close file channel " + this.fileName + " OK");
 
+                if (truncateStepSize > 0) {
+                    this.truncateGradually(truncateStepSize, truncateStepInterval);
+                }
+
                 long beginTime = System.currentTimeMillis();
                 boolean result = this.file.delete();
                 log.info("delete file[REF:" + this.getRefCount() + "] " + this.fileName
@@ -416,6 +434,33 @@ public class MapedFile extends ReferenceResource {
     }
 
 
+    private void truncateGradually(final int truncateStepSize, final int truncateStepInterval)
+            throws IOException {
+        long beginTime = System.currentTimeMillis();
+        RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            for (long size = channel.size() - truncateStepSize; size > 0; size -= truncateStepSize) {
+                channel.truncate(size);
+                if (truncateStepInterval > 0) {
+                    try {
+                        Thread.sleep(truncateStepInterval);
+                    }
+                    catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+        }
+        finally {
+            raf.close();
+        }
+
+        log.info("truncate file " + this.fileName + " gradually OK, "
+                + UtilALl.computeEclipseTimeMilliseconds(beginTime));
+    }
+
+
     public int getWrotePostion() {
         return wrotePostion.get();
     }
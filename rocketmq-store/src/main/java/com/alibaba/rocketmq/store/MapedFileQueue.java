@@ -335,6 +335,27 @@ public class MapedFileQueue {
             final int deleteFilesInterval, //
             final long intervalForcibly,//
             final boolean cleanImmediately//
+    ) {
+        return this.deleteExpiredFileByTime(expiredTime, deleteFilesInterval, intervalForcibly,
+            cleanImmediately, DeleteFilesBatchMax, 0);
+    }
+
+
+    /**
+     * 按时间删除过期文件
+     *
+     * @param deleteFilesMax
+     *            本次最多删除的文件数
+     * @param truncateStepSize
+     *            删除前分步截短文件的步长，0表示直接删除，每步之间间隔deleteFilesInterval
+     */
+    public int deleteExpiredFileByTime(//
+            final long expiredTime, //
+            final int deleteFilesInterval, //
+            final long intervalForcibly,//
+            final boolean cleanImmediately,//
+            final int deleteFilesMax,//
+            final int truncateStepSize//
     ) {
         Object[] mfs = this.copyMapedFiles(0);
 
@@ -351,11 +372,11 @@ public class MapedFileQueue {
                 long liveMaxTimestamp = mapedFile.getLastModifiedTimestamp() + expiredTime;
                 if (System.currentTimeMillis() >= liveMaxTimestamp//
                         || cleanImmediately) {
-                    if (mapedFile.destroy(intervalForcibly)) {
+                    if (mapedFile.destroy(intervalForcibly, truncateStepSize, deleteFilesInterval)) {
                         files.add(mapedFile);
                         deleteCount++;
 
-                        if (files.size() >= DeleteFilesBatchMax) {
+                        if (files.size() >= Math.min(deleteFilesMax, DeleteFilesBatchMax)) {
                             break;
                         }
 
@@ -16,6 +16,7 @@
 package com.alibaba.rocketmq.store;
 
 import java.util.HashMap;
+import java.util.List;
 
 import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
@@ -59,6 +60,12 @@ public interface MessageStore {
     public PutMessageResult putMessage(final MessageExtBrokerInner msg);
 
 
+    /**
+     * 批量存储已经是存储格式的消息，不等待刷盘与同步双写
+     */
+    public PutMessageResult putRawMessages(final List<RawMessageInner> msgs);
+
+
     /**
      * 读取消息，如果types为null，则不做过滤
      */
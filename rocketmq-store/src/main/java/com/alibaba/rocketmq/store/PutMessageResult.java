@@ -24,6 +24,8 @@ package com.alibaba.rocketmq.store;
 public class PutMessageResult {
     private PutMessageStatus putMessageStatus;
     private AppendMessageResult appendMessageResult;
+    // 批量写入时已经写入的消息条数，失败时前面已经写入的消息不会回滚
+    private int wroteMsgNums = 0;
 
 
     public PutMessageResult(PutMessageStatus putMessageStatus, AppendMessageResult appendMessageResult) {
@@ -47,6 +49,16 @@ public class PutMessageResult {
     }
 
 
+    public int getWroteMsgNums() {
+        return wroteMsgNums;
+    }
+
+
+    public void setWroteMsgNums(int wroteMsgNums) {
+        this.wroteMsgNums = wroteMsgNums;
+    }
+
+
     public PutMessageStatus getPutMessageStatus() {
         return putMessageStatus;
     }
@@ -60,7 +72,7 @@ public class PutMessageResult {
     @Override
     public String toString() {
         return "PutMessageResult [putMessageStatus=" + putMessageStatus + ", appendMessageResult="
-                + appendMessageResult + "]";
+                + appendMessageResult + ", wroteMsgNums=" + wroteMsgNums + "]";
     }
     
 }
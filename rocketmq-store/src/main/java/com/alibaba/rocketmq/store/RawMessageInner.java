@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import com.alibaba.rocketmq.common.TopicFilterType;
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.message.MessageExt;
+
+
+/**
+ * 已经是存储格式的消息，用于定时消息到期与事务提交回滚时重新写入CommitLog<br>
+ * QUEUEOFFSET、PHYSICALOFFSET、STORETIMESTAMP在写入时直接在文件中改写，其他字段原样拷贝
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-12
+ */
+public class RawMessageInner {
+    // 完整的存储格式，长度等于TOTALSIZE
+    private final byte[] encoded;
+    private final String topic;
+    private final int queueId;
+    private final long tagsCode;
+    private final String keys;
+    private final int sysFlag;
+    // 回滚消息写入QUEUEOFFSET的值
+    private final long tranStateTableOffset;
+    private final long preparedTransactionOffset;
+    private final String producerGroup;
+
+
+    public RawMessageInner(byte[] encoded, String topic, int queueId, long tagsCode, String keys,
+            int sysFlag, long tranStateTableOffset, long preparedTransactionOffset, String producerGroup) {
+        this.encoded = encoded;
+        this.topic = topic;
+        this.queueId = queueId;
+        this.tagsCode = tagsCode;
+        this.keys = keys;
+        this.sysFlag = sysFlag;
+        this.tranStateTableOffset = tranStateTableOffset;
+        this.preparedTransactionOffset = preparedTransactionOffset;
+        this.producerGroup = producerGroup;
+    }
+
+
+    /**
+     * 只解析存储格式中的属性，不解码消息体
+     *
+     * @param byteBuffer
+     *            CommitLog中的一条消息，从position开始
+     * @return 消息不合法时返回null
+     */
+    public static Map<String, String> readProperties(final ByteBuffer byteBuffer) {
+        final int begin = byteBuffer.position();
+        final int totalSize = byteBuffer.getInt(begin);
+        final int bodyLength = byteBuffer.getInt(begin + MessageDecoder.MessageBodyLengthPostion);
+        if (bodyLength < 0 || MessageDecoder.MessageBodyLengthPostion + 4 + bodyLength + 1 > totalSize) {
+            return null;
+        }
+
+        final int topicLengthPostion = MessageDecoder.MessageBodyLengthPostion + 4 + bodyLength;
+        final int propertiesLengthPostion =
+                topicLengthPostion + 1 + byteBuffer.get(begin + topicLengthPostion);
+        final int propertiesLength = byteBuffer.getShort(begin + propertiesLengthPostion);
+        if (propertiesLengthPostion + 2 + propertiesLength != totalSize) {
+            return null;
+        }
+
+        byte[] propertiesData = new byte[propertiesLength];
+        ByteBuffer propertiesBuffer = byteBuffer.duplicate();
+        propertiesBuffer.position(begin + propertiesLengthPostion + 2);
+        propertiesBuffer.get(propertiesData);
+        return MessageDecoder.string2messageProperties(new String(propertiesData));
+    }
+
+
+    /**
+     * 只解析存储格式中的Topic，须先经过readProperties校验
+     */
+    public static String readTopic(final ByteBuffer byteBuffer) {
+        final int begin = byteBuffer.position();
+        final int bodyLength = byteBuffer.getInt(begin + MessageDecoder.MessageBodyLengthPostion);
+        final int topicLengthPostion = MessageDecoder.MessageBodyLengthPostion + 4 + bodyLength;
+        byte[] topicData = new byte[byteBuffer.get(begin + topicLengthPostion)];
+        ByteBuffer topicBuffer = byteBuffer.duplicate();
+        topicBuffer.position(begin + topicLengthPostion + 1);
+        topicBuffer.get(topicData);
+        return new String(topicData);
+    }
+
+
+    /**
+     * 拷贝存储格式的消息，替换QUEUEID、SYSFLAG、PREPARED TRANSACTION OFFSET、TOPIC、PROPERTIES，其他字段原样拷贝
+     *
+     * @param byteBuffer
+     *            CommitLog中的一条消息，从position开始，须先经过readProperties校验
+     * @param withBody
+     *            为false时不拷贝消息体，用于回滚等不会被消费的消息
+     */
+    public static RawMessageInner build(final ByteBuffer byteBuffer, final String topic, final int queueId,
+            final int sysFlag, final long tranStateTableOffset, final long preparedTransactionOffset,
+            final Map<String, String> properties, final boolean withBody) {
+        final int begin = byteBuffer.position();
+        final int bodyLength =
+                withBody ? byteBuffer.getInt(begin + MessageDecoder.MessageBodyLengthPostion) : 0;
+        final int topicLengthPostion = MessageDecoder.MessageBodyLengthPostion + 4 + bodyLength;
+        final byte[] topicData = topic.getBytes();
+        final byte[] propertiesData = MessageDecoder.messageProperties2String(properties).getBytes();
+        final int msgLen = topicLengthPostion + 1 + topicData.length + 2 + propertiesData.length;
+
+        // 消息头与消息体原样拷贝
+        ByteBuffer encoded = ByteBuffer.allocate(msgLen);
+        ByteBuffer headAndBody = byteBuffer.duplicate();
+        headAndBody.position(begin);
+        headAndBody.limit(begin + topicLengthPostion);
+        encoded.put(headAndBody);
+        encoded.putInt(0, msgLen);
+        encoded.putInt(MessageDecoder.MessageQueueIdPostion, queueId);
+        encoded.putInt(MessageDecoder.MessageSysFlagPostion, sysFlag);
+        encoded.putLong(MessageDecoder.MessagePreparedTransactionOffsetPostion, preparedTransactionOffset);
+        if (!withBody) {
+            encoded.putInt(MessageDecoder.MessageBodyCRCPostion, 0);
+            encoded.putInt(MessageDecoder.MessageBodyLengthPostion, 0);
+        }
+        encoded.put((byte) topicData.length);
+        encoded.put(topicData);
+        encoded.putShort((short) propertiesData.length);
+        encoded.put(propertiesData);
+
+        TopicFilterType topicFilterType = MessageExt.parseTopicFilterType(sysFlag);
+        long tagsCode =
+                MessageExtBrokerInner.tagsString2tagsCode(topicFilterType,
+                    properties.get(Message.PROPERTY_TAGS));
+
+        return new RawMessageInner(encoded.array(), topic, queueId, tagsCode,
+            properties.get(Message.PROPERTY_KEYS), sysFlag, tranStateTableOffset, preparedTransactionOffset,
+            properties.get(Message.PROPERTY_PRODUCER_GROUP));
+    }
+
+
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
+
+    public String getTopic() {
+        return topic;
+    }
+
+
+    public int getQueueId() {
+        return queueId;
+    }
+
+
+    public long getTagsCode() {
+        return tagsCode;
+    }
+
+
+    public String getKeys() {
+        return keys;
+    }
+
+
+    public int getSysFlag() {
+        return sysFlag;
+    }
+
+
+    public long getTranStateTableOffset() {
+        return tranStateTableOffset;
+    }
+
+
+    public long getPreparedTransactionOffset() {
+        return preparedTransactionOffset;
+    }
+
+
+    public String getProducerGroup() {
+        return producerGroup;
+    }
+}
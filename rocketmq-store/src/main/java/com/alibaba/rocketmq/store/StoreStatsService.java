@@ -17,6 +17,7 @@ package com.alibaba.rocketmq.store;
 
 import java.text.MessageFormat;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -76,6 +77,23 @@ public class StoreStatsService extends ServiceThread {
     private ReentrantLock lockGet = new ReentrantLock();
     // DispatchMessageService，缓冲区最大值
     private volatile long dispatchMaxBuffer = 0;
+    // 主从复制压缩前后的字节数
+    private final AtomicLong haCompressRawBytes = new AtomicLong(0);
+    private final AtomicLong haCompressedBytes = new AtomicLong(0);
+    // 主从复制压缩与解压耗时（单位纳秒）
+    private final AtomicLong haCompressTimeNanos = new AtomicLong(0);
+    private final AtomicLong haDecompressTimeNanos = new AtomicLong(0);
+    // 各阶段耗时直方图（单位微秒）
+    private final LatencyHistogram putMessageLatency = new LatencyHistogram();
+    private final LatencyHistogram putMessageInLockLatency = new LatencyHistogram();
+    private final LatencyHistogram flushWaitLatency = new LatencyHistogram();
+    private final LatencyHistogram haWaitLatency = new LatencyHistogram();
+    private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+    private final LatencyHistogram getMessageLatency = new LatencyHistogram();
+    private final Map<String, LatencyHistogram> latencyTable = new LinkedHashMap<String, LatencyHistogram>();
+    // 最近一个打印周期的直方图，每个周期更新一次
+    private volatile Map<String, long[]> latencyWindowTable = new HashMap<String, long[]>();
+    private Map<String, long[]> latencyLastSnapshotTable = new HashMap<String, long[]>();
     // 针对采样线程加锁
     private ReentrantLock lockSampling = new ReentrantLock();
     private long lastPrintTimestamp = System.currentTimeMillis();
@@ -85,6 +103,13 @@ public class StoreStatsService extends ServiceThread {
         for (int i = 0; i < this.putMessageDistributeTime.length; i++) {
             putMessageDistributeTime[i] = new AtomicLong(0);
         }
+
+        this.latencyTable.put("putMessage", this.putMessageLatency);
+        this.latencyTable.put("putMessageInLock", this.putMessageInLockLatency);
+        this.latencyTable.put("flushWait", this.flushWaitLatency);
+        this.latencyTable.put("haWait", this.haWaitLatency);
+        this.latencyTable.put("dispatch", this.dispatchLatency);
+        this.latencyTable.put("getMessage", this.getMessageLatency);
     }
 
 
@@ -132,6 +157,43 @@ public class StoreStatsService extends ServiceThread {
     }
 
 
+    /**
+     * 耗时100毫秒以上的putMessage次数
+     */
+    public long getPutMessageSlowTimes() {
+        long result = 0;
+        for (int i = 3; i < this.putMessageDistributeTime.length; i++) {
+            result += this.putMessageDistributeTime[i].get();
+        }
+        return result;
+    }
+
+
+    public void addHaCompress(final long rawBytes, final long compressedBytes, final long costNanos) {
+        this.haCompressRawBytes.addAndGet(rawBytes);
+        this.haCompressedBytes.addAndGet(compressedBytes);
+        this.haCompressTimeNanos.addAndGet(costNanos);
+    }
+
+
+    public void addHaDecompress(final long costNanos) {
+        this.haDecompressTimeNanos.addAndGet(costNanos);
+    }
+
+
+    /**
+     * 主从复制压缩后与压缩前的字节数之比，没有压缩过返回1
+     */
+    public double getHaCompressRatio() {
+        long raw = this.haCompressRawBytes.get();
+        if (raw <= 0) {
+            return 1;
+        }
+
+        return this.haCompressedBytes.get() / (double) raw;
+    }
+
+
     public long getGetMessageEntireTimeMax() {
         return getMessageEntireTimeMax;
     }
@@ -180,10 +242,56 @@ public class StoreStatsService extends ServiceThread {
         sb.append("\tgetMissTps: " + this.getGetMissTps() + "\r\n");
         sb.append("\tgetTotalTps: " + this.getGetTotalTps() + "\r\n");
         sb.append("\tgetTransferedTps: " + this.getGetTransferedTps() + "\r\n");
+        sb.append("\thaCompressRatio: " + this.getHaCompressRatio() + "\r\n");
+        sb.append("\thaCompressTimeMs: " + this.haCompressTimeNanos.get() / 1000000 + "\r\n");
+        sb.append("\thaDecompressTimeMs: " + this.haDecompressTimeNanos.get() / 1000000 + "\r\n");
+        for (String name : this.latencyTable.keySet()) {
+            sb.append("\t" + name + "Latency: " + this.getLatencyStringInfo(name) + "\r\n");
+        }
         return sb.toString();
     }
 
 
+    /**
+     * 最近一个打印周期的耗时直方图，第一个周期还没结束时取启动以来的数据
+     */
+    private long[] getLatencyWindow(final String name) {
+        long[] window = this.latencyWindowTable.get(name);
+        if (null == window) {
+            window = this.latencyTable.get(name).snapshot();
+        }
+        return window;
+    }
+
+
+    private String getLatencyStringInfo(final String name) {
+        long[] window = this.getLatencyWindow(name);
+        return "count " + LatencyHistogram.total(window) //
+                + " p50 " + LatencyHistogram.percentile(window, 0.5) + "us" //
+                + " p99 " + LatencyHistogram.percentile(window, 0.99) + "us" //
+                + " p999 " + LatencyHistogram.percentile(window, 0.999) + "us" //
+                + " max " + LatencyHistogram.percentile(window, 1) + "us";
+    }
+
+
+    /**
+     * 滚动各直方图的统计周期
+     */
+    private void rollLatencyWindow() {
+        Map<String, long[]> windowTable = new HashMap<String, long[]>();
+        Map<String, long[]> snapshotTable = new HashMap<String, long[]>();
+        for (Map.Entry<String, LatencyHistogram> entry : this.latencyTable.entrySet()) {
+            long[] snapshot = entry.getValue().snapshot();
+            snapshotTable.put(entry.getKey(), snapshot);
+            windowTable.put(entry.getKey(),
+                LatencyHistogram.minus(snapshot, this.latencyLastSnapshotTable.get(entry.getKey())));
+        }
+
+        this.latencyLastSnapshotTable = snapshotTable;
+        this.latencyWindowTable = windowTable;
+    }
+
+
     private String getPutMessageDistributeTimeStringInfo(Long total) {
         final StringBuilder sb = new StringBuilder(512);
 
@@ -426,6 +534,20 @@ public class StoreStatsService extends ServiceThread {
         result.put("putMessageAverageSize",
             String.valueOf((this.getPutMessageSizeTotal() / totalTimes.doubleValue())));
         result.put("dispatchMaxBuffer", String.valueOf(this.dispatchMaxBuffer));
+        result.put("haCompressRawBytes", String.valueOf(this.haCompressRawBytes.get()));
+        result.put("haCompressedBytes", String.valueOf(this.haCompressedBytes.get()));
+        result.put("haCompressRatio", String.valueOf(this.getHaCompressRatio()));
+        result.put("haCompressTimeMs", String.valueOf(this.haCompressTimeNanos.get() / 1000000));
+        result.put("haDecompressTimeMs", String.valueOf(this.haDecompressTimeNanos.get() / 1000000));
+
+        // 各阶段耗时百分位（单位微秒）
+        for (String name : this.latencyTable.keySet()) {
+            long[] window = this.getLatencyWindow(name);
+            result.put(name + "LatencyP50", String.valueOf(LatencyHistogram.percentile(window, 0.5)));
+            result.put(name + "LatencyP99", String.valueOf(LatencyHistogram.percentile(window, 0.99)));
+            result.put(name + "LatencyP999", String.valueOf(LatencyHistogram.percentile(window, 0.999)));
+            result.put(name + "LatencyMax", String.valueOf(LatencyHistogram.percentile(window, 1)));
+        }
 
         return result;
     }
@@ -495,6 +617,11 @@ public class StoreStatsService extends ServiceThread {
             log.info("get_miss_tps {}", this.getGetMissTps(PrintTPSInterval));
 
             log.info("get_transfered_tps {}", this.getGetTransferedTps(PrintTPSInterval));
+
+            this.rollLatencyWindow();
+            for (String name : this.latencyTable.keySet()) {
+                log.info("{}_latency {}", name, this.getLatencyStringInfo(name));
+            }
         }
     }
 
@@ -505,6 +632,41 @@ public class StoreStatsService extends ServiceThread {
     }
 
 
+    public long getMessageStoreBootTimestamp() {
+        return messageStoreBootTimestamp;
+    }
+
+
+    public LatencyHistogram getPutMessageLatency() {
+        return putMessageLatency;
+    }
+
+
+    public LatencyHistogram getPutMessageInLockLatency() {
+        return putMessageInLockLatency;
+    }
+
+
+    public LatencyHistogram getFlushWaitLatency() {
+        return flushWaitLatency;
+    }
+
+
+    public LatencyHistogram getHaWaitLatency() {
+        return haWaitLatency;
+    }
+
+
+    public LatencyHistogram getDispatchLatency() {
+        return dispatchLatency;
+    }
+
+
+    public LatencyHistogram getGetMessageLatency() {
+        return getMessageLatency;
+    }
+
+
     public AtomicLong getGetMessageTimesTotalFound() {
         return getMessageTimesTotalFound;
     }
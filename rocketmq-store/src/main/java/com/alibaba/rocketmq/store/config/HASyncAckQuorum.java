@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.config;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * 同步双写时需要多少个Slave应答
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-12
+ */
+public enum HASyncAckQuorum {
+    // 任意一个Slave应答
+    ANY_ONE,
+    // 超过半数的Slave应答
+    MAJORITY,
+    // 所有连接的Slave应答
+    ALL;
+
+    /**
+     * 计算需要应答的Slave个数
+     */
+    public int requiredAcks(final int slaveNums) {
+        switch (this) {
+        case MAJORITY:
+            return slaveNums / 2 + 1;
+        case ALL:
+            return Math.max(slaveNums, 1);
+        default:
+            return 1;
+        }
+    }
+
+
+    /**
+     * 根据每个Slave的应答Offset计算满足应答个数要求的Offset<br>
+     * 刚连上还没有应答过的Slave（Offset小于0）不参与计算，否则ALL会因为新连接退回到0
+     *
+     * @return 没有满足要求的Offset时返回0
+     */
+    public long quorumOffset(final Collection<Long> slaveAckOffsets) {
+        List<Long> ackOffsets = new ArrayList<Long>(slaveAckOffsets.size());
+        for (Long offset : slaveAckOffsets) {
+            if (offset >= 0) {
+                ackOffsets.add(offset);
+            }
+        }
+
+        final int requiredAcks = this.requiredAcks(ackOffsets.size());
+        if (ackOffsets.size() < requiredAcks) {
+            return 0;
+        }
+
+        Collections.sort(ackOffsets, Collections.reverseOrder());
+        return ackOffsets.get(requiredAcks - 1);
+    }
+}
@@ -19,6 +19,7 @@ import java.io.File;
 
 import com.alibaba.rocketmq.common.annotation.ImportantField;
 import com.alibaba.rocketmq.store.ConsumeQueue;
+import com.alibaba.rocketmq.store.schedule.TimerLog;
 import com.alibaba.rocketmq.store.transaction.TransactionStateService;
 
 
@@ -61,6 +62,12 @@ public class MessageStoreConfig {
     private int cleanResourceInterval = 10000;
     // 删除多个CommitLog文件的间隔时间（单位毫秒）
     private int deleteCommitLogFilesInterval = 100;
+    // 删除CommitLog文件的速度上限（单位字节/秒），磁盘将满需要强制删除时不限速，0表示不限速
+    private long deleteCommitLogFilesBytesPerSecond = 1024L * 1024 * 128;
+    // 删除CommitLog文件前分步截短的步长，0表示直接删除
+    private int deleteCommitLogFilesTruncateStep = 1024 * 1024 * 64;
+    // 写入出现慢请求时推迟删除CommitLog文件
+    private boolean deleteCommitLogFilesBackoffEnable = true;
     // 删除多个ConsumeQueue文件的间隔时间（单位毫秒）
     private int deleteConsumeQueueFilesInterval = 100;
     // 强制删除文件间隔时间（单位毫秒）
@@ -115,6 +122,12 @@ public class MessageStoreConfig {
     private int haSendHeartbeatInterval = 1000 * 5;
     private int haHousekeepingInterval = 1000 * 20;
     private int haTransferBatchSize = 1024 * 32;
+    // 主从复制是否压缩传输，Slave开启表示申请压缩，Master开启表示允许压缩，须先升级Master
+    private boolean haCompressEnable = false;
+    // 主从复制压缩级别，取值同java.util.zip.Deflater
+    private int haCompressLevel = 1;
+    // 主从复制不压缩时通过FileChannel.transferTo（sendfile）直接从Pagecache发送数据
+    private boolean haTransferZeroCopyEnable = true;
     // 如果不设置，则从NameServer获取Master HA服务地址
     @ImportantField
     private String haMasterAddress = null;
@@ -122,6 +135,8 @@ public class MessageStoreConfig {
     private int haSlaveFallbehindMax = 1024 * 1024 * 256;
     @ImportantField
     private BrokerRole brokerRole = BrokerRole.ASYNC_MASTER;
+    // 同步双写时需要多少个Slave应答
+    private HASyncAckQuorum haSyncAckQuorum = HASyncAckQuorum.ANY_ONE;
     @ImportantField
     private FlushDiskType flushDiskType = FlushDiskType.ASYNC_FLUSH;
     // 同步刷盘超时时间
@@ -130,8 +145,23 @@ public class MessageStoreConfig {
     private String messageDelayLevel =
             "1s 5s 10s 30s 1m 2m 3m 4m 5m 6m 7m 8m 9m 10m 20m 30m 40m 50m 1h 2h 6h 12h 1d";
     private long flushDelayOffsetInterval = 1000 * 10;
+    // 延时级别到期后一次批量写入CommitLog的最大消息数
+    private int scheduleRePutBatchSize = 256;
     private String delayOffsetStorePath = System.getProperty("user.home") + File.separator + "store"
             + File.separator + "config" + File.separator + "delayOffset.json";
+    // 任意时间定时消息，时间轮的精度，单位毫秒
+    private int timerPrecisionMs = 1000;
+    // 时间轮的槽位数，超出时间轮范围的消息先放到最远的槽位，到期时重新放入时间轮
+    private int timerWheelSlots = 60 * 60 * 24 * 2;
+    private int timerLogMapedFileSize = 1000000 * TimerLog.TLStoreUnitSize;
+    // 到期消息重新投递的线程数
+    private int timerDeliverThreadNums = 4;
+    // 每个投递线程一次投递的消息数
+    private int timerDeliverBatchSize = 32;
+    private String timerStorePath = System.getProperty("user.home") + File.separator + "store"
+            + File.separator + "timer";
+    private String timerCheckpointStorePath = System.getProperty("user.home") + File.separator + "store"
+            + File.separator + "config" + File.separator + "timerCheckpoint.json";
     // 分布式事务配置
     private String tranStateTableStorePath = System.getProperty("user.home") + File.separator + "store"
             + File.separator + "transaction" + File.separator + "statetable";
@@ -145,6 +175,8 @@ public class MessageStoreConfig {
     private long checkTransactionMessageTimerInterval = 1000 * 60;
     // 是否开启事务Check过程，双十一时，可以关闭
     private boolean checkTransactionMessageEnable = true;
+    // 每轮回查中，同一个Producer Group最多回查的事务数，超出的留到下一轮
+    private int checkTransactionMessageMaxPerGroup = 2000;
     // 磁盘空间超过90%警戒水位，自动开始删除文件
     private boolean cleanFileForciblyEnable = true;
 
@@ -302,6 +334,36 @@ public class MessageStoreConfig {
     }
 
 
+    public long getDeleteCommitLogFilesBytesPerSecond() {
+        return deleteCommitLogFilesBytesPerSecond;
+    }
+
+
+    public void setDeleteCommitLogFilesBytesPerSecond(long deleteCommitLogFilesBytesPerSecond) {
+        this.deleteCommitLogFilesBytesPerSecond = deleteCommitLogFilesBytesPerSecond;
+    }
+
+
+    public int getDeleteCommitLogFilesTruncateStep() {
+        return deleteCommitLogFilesTruncateStep;
+    }
+
+
+    public void setDeleteCommitLogFilesTruncateStep(int deleteCommitLogFilesTruncateStep) {
+        this.deleteCommitLogFilesTruncateStep = deleteCommitLogFilesTruncateStep;
+    }
+
+
+    public boolean isDeleteCommitLogFilesBackoffEnable() {
+        return deleteCommitLogFilesBackoffEnable;
+    }
+
+
+    public void setDeleteCommitLogFilesBackoffEnable(boolean deleteCommitLogFilesBackoffEnable) {
+        this.deleteCommitLogFilesBackoffEnable = deleteCommitLogFilesBackoffEnable;
+    }
+
+
     public int getDeleteConsumeQueueFilesInterval() {
         return deleteConsumeQueueFilesInterval;
     }
@@ -537,6 +599,51 @@ public class MessageStoreConfig {
     }
 
 
+    public HASyncAckQuorum getHaSyncAckQuorum() {
+        return haSyncAckQuorum;
+    }
+
+
+    public void setHaSyncAckQuorum(HASyncAckQuorum haSyncAckQuorum) {
+        this.haSyncAckQuorum = haSyncAckQuorum;
+    }
+
+
+    public void setHaSyncAckQuorum(String haSyncAckQuorum) {
+        this.haSyncAckQuorum = HASyncAckQuorum.valueOf(haSyncAckQuorum);
+    }
+
+
+    public boolean isHaCompressEnable() {
+        return haCompressEnable;
+    }
+
+
+    public void setHaCompressEnable(boolean haCompressEnable) {
+        this.haCompressEnable = haCompressEnable;
+    }
+
+
+    public int getHaCompressLevel() {
+        return haCompressLevel;
+    }
+
+
+    public void setHaCompressLevel(int haCompressLevel) {
+        this.haCompressLevel = haCompressLevel;
+    }
+
+
+    public boolean isHaTransferZeroCopyEnable() {
+        return haTransferZeroCopyEnable;
+    }
+
+
+    public void setHaTransferZeroCopyEnable(boolean haTransferZeroCopyEnable) {
+        this.haTransferZeroCopyEnable = haTransferZeroCopyEnable;
+    }
+
+
     public int getHaTransferBatchSize() {
         return haTransferBatchSize;
     }
@@ -592,6 +699,16 @@ public class MessageStoreConfig {
     }
 
 
+    public int getScheduleRePutBatchSize() {
+        return scheduleRePutBatchSize;
+    }
+
+
+    public void setScheduleRePutBatchSize(int scheduleRePutBatchSize) {
+        this.scheduleRePutBatchSize = scheduleRePutBatchSize;
+    }
+
+
     public String getMessageDelayLevel() {
         return messageDelayLevel;
     }
@@ -692,6 +809,16 @@ public class MessageStoreConfig {
     }
 
 
+    public int getCheckTransactionMessageMaxPerGroup() {
+        return checkTransactionMessageMaxPerGroup;
+    }
+
+
+    public void setCheckTransactionMessageMaxPerGroup(int checkTransactionMessageMaxPerGroup) {
+        this.checkTransactionMessageMaxPerGroup = checkTransactionMessageMaxPerGroup;
+    }
+
+
     public boolean isCheckTransactionMessageEnable() {
         return checkTransactionMessageEnable;
     }
@@ -700,4 +827,74 @@ public class MessageStoreConfig {
     public void setCheckTransactionMessageEnable(boolean checkTransactionMessageEnable) {
         this.checkTransactionMessageEnable = checkTransactionMessageEnable;
     }
+
+
+    public int getTimerPrecisionMs() {
+        return timerPrecisionMs;
+    }
+
+
+    public void setTimerPrecisionMs(int timerPrecisionMs) {
+        this.timerPrecisionMs = timerPrecisionMs;
+    }
+
+
+    public int getTimerWheelSlots() {
+        return timerWheelSlots;
+    }
+
+
+    public void setTimerWheelSlots(int timerWheelSlots) {
+        this.timerWheelSlots = timerWheelSlots;
+    }
+
+
+    public int getTimerLogMapedFileSize() {
+        return timerLogMapedFileSize;
+    }
+
+
+    public void setTimerLogMapedFileSize(int timerLogMapedFileSize) {
+        this.timerLogMapedFileSize = timerLogMapedFileSize;
+    }
+
+
+    public int getTimerDeliverThreadNums() {
+        return timerDeliverThreadNums;
+    }
+
+
+    public void setTimerDeliverThreadNums(int timerDeliverThreadNums) {
+        this.timerDeliverThreadNums = timerDeliverThreadNums;
+    }
+
+
+    public int getTimerDeliverBatchSize() {
+        return timerDeliverBatchSize;
+    }
+
+
+    public void setTimerDeliverBatchSize(int timerDeliverBatchSize) {
+        this.timerDeliverBatchSize = timerDeliverBatchSize;
+    }
+
+
+    public String getTimerStorePath() {
+        return timerStorePath;
+    }
+
+
+    public void setTimerStorePath(String timerStorePath) {
+        this.timerStorePath = timerStorePath;
+    }
+
+
+    public String getTimerCheckpointStorePath() {
+        return timerCheckpointStorePath;
+    }
+
+
+    public void setTimerCheckpointStorePath(String timerCheckpointStorePath) {
+        this.timerCheckpointStorePath = timerCheckpointStorePath;
+    }
 }
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.ha;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * 主从复制数据压缩，每个连接一个实例，非线程安全<br>
+ * 压缩帧协议 <Phy Offset> <-Compressed Size> <Raw Size> <Compressed Data>
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-12
+ */
+public class HACompressCodec {
+    // Slave向Master申请压缩传输，Offset不会为负数，所以用最高位区分
+    public static final long CompressRequestFlag = 0x8000000000000001L;
+
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater();
+    private byte[] rawBuffer = new byte[0];
+    private byte[] compressedBuffer = new byte[0];
+    // 解压满rawSize之后探测是否还有多余的数据
+    private final byte[] probeBuffer = new byte[1];
+
+
+    public HACompressCodec(final int level) {
+        this.deflater = new Deflater(level);
+    }
+
+
+    /**
+     * 压缩byteBuffer中剩余的数据，不改变byteBuffer的position
+     *
+     * @return 压缩后的数据，没有变小则返回null
+     */
+    public ByteBuffer compress(final ByteBuffer byteBuffer) {
+        final int size = byteBuffer.remaining();
+        if (this.rawBuffer.length < size) {
+            this.rawBuffer = new byte[size];
+            // 数据不可压缩时Deflater输出会略大于原始数据
+            this.compressedBuffer = new byte[size + (size >> 3) + 64];
+        }
+        byteBuffer.duplicate().get(this.rawBuffer, 0, size);
+
+        this.deflater.reset();
+        this.deflater.setInput(this.rawBuffer, 0, size);
+        this.deflater.finish();
+        int compressedSize = 0;
+        while (!this.deflater.finished() && compressedSize < size) {
+            compressedSize +=
+                    this.deflater.deflate(this.compressedBuffer, compressedSize, this.compressedBuffer.length
+                            - compressedSize);
+        }
+
+        if (!this.deflater.finished() || compressedSize >= size) {
+            return null;
+        }
+
+        return ByteBuffer.wrap(this.compressedBuffer, 0, compressedSize);
+    }
+
+
+    /**
+     * 解压后的长度必须正好等于rawSize，多了或者少了都认为数据错误
+     */
+    public byte[] decompress(final byte[] data, final int rawSize) throws DataFormatException {
+        byte[] result = new byte[rawSize];
+        this.inflater.reset();
+        this.inflater.setInput(data);
+        int size = 0;
+        while (size < rawSize && !this.inflater.finished()) {
+            int n = this.inflater.inflate(result, size, rawSize - size);
+            if (n == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary())) {
+                break;
+            }
+            size += n;
+        }
+
+        if (size != rawSize
+                || (!this.inflater.finished() && this.inflater.inflate(this.probeBuffer) > 0)) {
+            throw new DataFormatException("decompress data not match raw size " + rawSize + ", read " + size);
+        }
+
+        return result;
+    }
+
+
+    public void end() {
+        this.deflater.end();
+        this.inflater.end();
+    }
+}
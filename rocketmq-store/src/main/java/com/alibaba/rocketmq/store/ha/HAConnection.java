@@ -20,6 +20,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,6 +28,7 @@ import org.slf4j.LoggerFactory;
 import com.alibaba.rocketmq.common.ServiceThread;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.remoting.common.RemotingUtil;
+import com.alibaba.rocketmq.store.MapedFile;
 import com.alibaba.rocketmq.store.SelectMapedBufferResult;
 
 
@@ -47,6 +49,8 @@ public class HAConnection {
     private volatile long slaveRequestOffset = -1;
     // Slave收到数据后，应答Offset
     private volatile long slaveAckOffset = -1;
+    // Slave申请并且Master允许压缩传输
+    private volatile boolean compressEnable = false;
 
 
     public HAConnection(final HAService haService, final SocketChannel socketChannel) throws IOException {
@@ -66,7 +70,8 @@ public class HAConnection {
 
     /**
      * 向Slave传输数据协议 <Phy Offset> <Body Size> <Body Data><br>
-     * 从Slave接收数据协议 <Phy Offset>
+     * 压缩传输时 <Phy Offset> <-Compressed Size> <Raw Size> <Compressed Data>，压缩后没有变小则按原协议传输<br>
+     * 从Slave接收数据协议 <Phy Offset>，申请压缩传输时先发送HACompressCodec.CompressRequestFlag
      */
 
     public void start() {
@@ -98,6 +103,32 @@ public class HAConnection {
         return socketChannel;
     }
 
+
+    public String getClientAddr() {
+        return clientAddr;
+    }
+
+
+    public long getSlaveAckOffset() {
+        return slaveAckOffset;
+    }
+
+
+    /**
+     * 从文件直接发送body中还没有发送的部分，body的position记录发送进度，发送后前移
+     *
+     * @return 本次发送的字节数
+     */
+    static int transferBody(final SelectMapedBufferResult selectMapedBufferResult, final ByteBuffer body,
+            final WritableByteChannel target) throws IOException {
+        MapedFile mapedFile = selectMapedBufferResult.getMapedFile();
+        long position =
+                selectMapedBufferResult.getStartOffset() - mapedFile.getFileFromOffset() + body.position();
+        int writeSize = (int) mapedFile.getFileChannel().transferTo(position, body.remaining(), target);
+        body.position(body.position() + writeSize);
+        return writeSize;
+    }
+
     /**
      * 读取Slave请求，一般为push ack
      * 
@@ -155,6 +186,7 @@ public class HAConnection {
 
             // 只有读线程需要执行
             HAConnection.this.haService.getConnectionCount().decrementAndGet();
+            HAConnection.this.haService.removeConnection(HAConnection.this);
 
             SelectionKey sk = this.socketChannel.keyFor(this.selector);
             if (sk != null) {
@@ -189,11 +221,19 @@ public class HAConnection {
                         this.lastReadTimestamp =
                                 HAConnection.this.haService.getDefaultMessageStore().getSystemClock().now();
                         // 接收Slave上传的offset
-                        if ((this.byteBufferRead.position() - this.processPostion) >= 8) {
-                            int pos = this.byteBufferRead.position() - (this.byteBufferRead.position() % 8);
-                            long readOffset = this.byteBufferRead.getLong(pos - 8);
-                            this.processPostion = pos;
+                        int pos = this.byteBufferRead.position() - (this.byteBufferRead.position() % 8);
+                        long readOffset = -1;
+                        for (; this.processPostion + 8 <= pos; this.processPostion += 8) {
+                            long value = this.byteBufferRead.getLong(this.processPostion);
+                            if (HACompressCodec.CompressRequestFlag == value) {
+                                this.processCompressRequest();
+                            }
+                            else {
+                                readOffset = value;
+                            }
+                        }
 
+                        if (readOffset >= 0) {
                             // 处理Slave的请求
                             HAConnection.this.slaveAckOffset = readOffset;
                             if (HAConnection.this.slaveRequestOffset < 0) {
@@ -226,6 +266,19 @@ public class HAConnection {
         }
 
 
+        private void processCompressRequest() {
+            if (HAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig()
+                .isHaCompressEnable()) {
+                HAConnection.this.compressEnable = true;
+                log.info("slave[" + HAConnection.this.clientAddr + "] request compress transfer, accepted");
+            }
+            else {
+                log.info("slave[" + HAConnection.this.clientAddr
+                        + "] request compress transfer, but master disable it");
+            }
+        }
+
+
         @Override
         public String getServiceName() {
             return ReadSocketService.class.getSimpleName();
@@ -242,9 +295,15 @@ public class HAConnection {
         private final SocketChannel socketChannel;
         // 要传输的数据
         private final int HEADER_SIZE = 8 + 4;
-        private final ByteBuffer byteBufferHeader = ByteBuffer.allocate(HEADER_SIZE);
+        private final int COMPRESS_HEADER_SIZE = HEADER_SIZE + 4;
+        private final ByteBuffer byteBufferHeader = ByteBuffer.allocate(COMPRESS_HEADER_SIZE);
         private long nextTransferFromWhere = -1;
         private SelectMapedBufferResult selectMapedBufferResult;
+        // 正在传输的Body，原始数据或者压缩后的数据
+        private ByteBuffer byteBufferBody;
+        // 原始数据通过FileChannel.transferTo发送，byteBufferBody只用来记录发送进度
+        private boolean bodyZeroCopy = false;
+        private HACompressCodec compressCodec;
         private boolean lastWriteOver = true;
         private long lastWriteTimestamp = System.currentTimeMillis();
 
@@ -345,12 +404,31 @@ public class HAConnection {
 
                         selectResult.getByteBuffer().limit(size);
                         this.selectMapedBufferResult = selectResult;
+                        this.byteBufferBody = selectResult.getByteBuffer();
+                        this.bodyZeroCopy = false;
+
+                        ByteBuffer compressed = null;
+                        if (HAConnection.this.compressEnable) {
+                            compressed = this.compress(this.byteBufferBody);
+                        }
 
                         // Build Header
                         this.byteBufferHeader.position(0);
-                        this.byteBufferHeader.limit(HEADER_SIZE);
+                        this.byteBufferHeader.limit(COMPRESS_HEADER_SIZE);
                         this.byteBufferHeader.putLong(thisOffset);
-                        this.byteBufferHeader.putInt(size);
+                        if (compressed != null) {
+                            this.byteBufferHeader.putInt(-compressed.remaining());
+                            this.byteBufferHeader.putInt(size);
+                            this.byteBufferBody = compressed;
+                            this.selectMapedBufferResult.release();
+                            this.selectMapedBufferResult = null;
+                        }
+                        else {
+                            this.byteBufferHeader.putInt(size);
+                            this.bodyZeroCopy =
+                                    HAConnection.this.haService.getDefaultMessageStore()
+                                        .getMessageStoreConfig().isHaTransferZeroCopyEnable();
+                        }
                         this.byteBufferHeader.flip();
 
                         this.lastWriteOver = this.transferData();
@@ -372,6 +450,10 @@ public class HAConnection {
                 this.selectMapedBufferResult.release();
             }
 
+            if (this.compressCodec != null) {
+                this.compressCodec.end();
+            }
+
             this.makeStop();
 
             SelectionKey sk = this.socketChannel.keyFor(this.selector);
@@ -391,6 +473,28 @@ public class HAConnection {
         }
 
 
+        /**
+         * 压缩要传输的数据
+         *
+         * @return 压缩后没有变小返回null
+         */
+        private ByteBuffer compress(final ByteBuffer body) {
+            if (null == this.compressCodec) {
+                this.compressCodec =
+                        new HACompressCodec(HAConnection.this.haService.getDefaultMessageStore()
+                            .getMessageStoreConfig().getHaCompressLevel());
+            }
+
+            final long beginTime = System.nanoTime();
+            final int rawSize = body.remaining();
+            ByteBuffer compressed = this.compressCodec.compress(body);
+            HAConnection.this.haService.getDefaultMessageStore().getStoreStatsService()
+                .addHaCompress(rawSize, compressed != null ? compressed.remaining() : rawSize,
+                    System.nanoTime() - beginTime);
+            return compressed;
+        }
+
+
         /**
          * 表示是否传输完成
          */
@@ -414,7 +518,7 @@ public class HAConnection {
                 }
             }
 
-            if (null == this.selectMapedBufferResult) {
+            if (null == this.byteBufferBody) {
                 return !this.byteBufferHeader.hasRemaining();
             }
 
@@ -422,8 +526,8 @@ public class HAConnection {
 
             // Write Body
             if (!this.byteBufferHeader.hasRemaining()) {
-                while (this.selectMapedBufferResult.getByteBuffer().hasRemaining()) {
-                    int writeSize = this.socketChannel.write(this.selectMapedBufferResult.getByteBuffer());
+                while (this.byteBufferBody.hasRemaining()) {
+                    int writeSize = this.writeBody();
                     if (writeSize > 0) {
                         writeSizeZeroTimes = 0;
                         this.lastWriteTimestamp =
@@ -440,19 +544,32 @@ public class HAConnection {
                 }
             }
 
-            boolean result =
-                    !this.byteBufferHeader.hasRemaining()
-                            && !this.selectMapedBufferResult.getByteBuffer().hasRemaining();
+            boolean result = !this.byteBufferHeader.hasRemaining() && !this.byteBufferBody.hasRemaining();
 
-            if (!this.selectMapedBufferResult.getByteBuffer().hasRemaining()) {
-                this.selectMapedBufferResult.release();
-                this.selectMapedBufferResult = null;
+            if (!this.byteBufferBody.hasRemaining()) {
+                if (this.selectMapedBufferResult != null) {
+                    this.selectMapedBufferResult.release();
+                    this.selectMapedBufferResult = null;
+                }
+                this.byteBufferBody = null;
             }
 
             return result;
         }
 
 
+        /**
+         * 零拷贝时由内核直接从Pagecache发送到Socket，多个Slave共享同一份Pagecache，不再经过用户态拷贝
+         */
+        private int writeBody() throws IOException {
+            if (!this.bodyZeroCopy) {
+                return this.socketChannel.write(this.byteBufferBody);
+            }
+
+            return transferBody(this.selectMapedBufferResult, this.byteBufferBody, this.socketChannel);
+        }
+
+
         @Override
         public String getServiceName() {
             return WriteSocketService.class.getSimpleName();
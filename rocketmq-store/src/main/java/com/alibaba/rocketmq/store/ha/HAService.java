@@ -21,12 +21,14 @@ import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.DataFormatException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,6 +60,8 @@ public class HAService {
     private final WaitNotifyObject waitNotifyObject = new WaitNotifyObject();
     // 写入到Slave的最大Offset
     private final AtomicLong push2SlaveMaxOffset = new AtomicLong(0);
+    // 满足应答个数要求的Slave已经写入的Offset，同步双写以此为准
+    private final AtomicLong ackQuorumOffset = new AtomicLong(0);
     // 主从复制通知服务
     private final GroupTransferService groupTransferService;
     // Slave订阅对象
@@ -94,7 +98,7 @@ public class HAService {
         boolean result = this.connectionCount.get() > 0;
         result =
                 result
-                        && ((masterPutWhere - this.push2SlaveMaxOffset.get()) < this.defaultMessageStore
+                        && ((masterPutWhere - this.ackQuorumOffset.get()) < this.defaultMessageStore
                             .getMessageStoreConfig().getHaSlaveFallbehindMax());
         return result;
     }
@@ -107,13 +111,58 @@ public class HAService {
         for (long value = this.push2SlaveMaxOffset.get(); offset > value;) {
             boolean ok = this.push2SlaveMaxOffset.compareAndSet(value, offset);
             if (ok) {
-                this.groupTransferService.notifyTransferSome();
                 break;
             }
             else {
                 value = this.push2SlaveMaxOffset.get();
             }
         }
+
+        this.updateAckQuorumOffset();
+    }
+
+
+    /**
+     * 根据每个Slave的应答Offset重新计算满足应答个数要求的Offset，Slave断开或者新加入时可能变小
+     */
+    private void updateAckQuorumOffset() {
+        long prev = 0;
+        long quorumOffset = 0;
+        // 多个连接的读线程并发更新，计算与赋值须在同一把锁内
+        synchronized (this.connectionList) {
+            List<Long> ackOffsets = new ArrayList<Long>(this.connectionList.size());
+            for (HAConnection c : this.connectionList) {
+                ackOffsets.add(c.getSlaveAckOffset());
+            }
+
+            quorumOffset =
+                    this.defaultMessageStore.getMessageStoreConfig().getHaSyncAckQuorum()
+                        .quorumOffset(ackOffsets);
+            prev = this.ackQuorumOffset.getAndSet(quorumOffset);
+        }
+
+        if (quorumOffset > prev) {
+            this.groupTransferService.notifyTransferSome();
+        }
+    }
+
+
+    /**
+     * 每个Slave应答的Offset，Key为Slave地址
+     */
+    public HashMap<String, Long> getSlaveAckOffsetTable() {
+        HashMap<String, Long> result = new HashMap<String, Long>();
+        synchronized (this.connectionList) {
+            for (HAConnection c : this.connectionList) {
+                result.put(c.getClientAddr(), c.getSlaveAckOffset());
+            }
+        }
+        return result;
+    }
+
+
+    public long getAckQuorumOffset() {
+        return ackQuorumOffset.get();
     }
 
 
@@ -145,6 +194,8 @@ public class HAService {
         synchronized (this.connectionList) {
             this.connectionList.remove(conn);
         }
+
+        this.updateAckQuorumOffset();
     }
 
 
@@ -157,13 +208,16 @@ public class HAService {
 
 
     public void destroyConnections() {
+        // 连接关闭时会从列表中删除自己，所以不能持锁关闭
+        List<HAConnection> connections = null;
         synchronized (this.connectionList) {
-            for (HAConnection c : this.connectionList) {
-                c.shutdown();
-            }
-
+            connections = new ArrayList<HAConnection>(this.connectionList);
             this.connectionList.clear();
         }
+
+        for (HAConnection c : connections) {
+            c.shutdown();
+        }
     }
 
 
@@ -292,10 +346,10 @@ public class HAService {
         private void doWaitTransfer() {
             if (!this.requestsRead.isEmpty()) {
                 for (GroupCommitRequest req : this.requestsRead) {
-                    boolean transferOK = HAService.this.push2SlaveMaxOffset.get() >= req.getNextOffset();
-                    for (int i = 0; !transferOK && i < 5;) {
+                    boolean transferOK = HAService.this.ackQuorumOffset.get() >= req.getNextOffset();
+                    for (int i = 0; !transferOK && i < 5; i++) {
                         this.notifyTransferObject.waitForRunning(1000);
-                        transferOK = HAService.this.push2SlaveMaxOffset.get() >= req.getNextOffset();
+                        transferOK = HAService.this.ackQuorumOffset.get() >= req.getNextOffset();
                     }
 
                     if (!transferOK) {
@@ -354,6 +408,8 @@ public class HAService {
         // 从Master接收数据Buffer
         private ByteBuffer byteBufferRead = ByteBuffer.allocate(ReadMaxBufferSize);
         private ByteBuffer byteBufferBackup = ByteBuffer.allocate(ReadMaxBufferSize);
+        // 解压Master压缩传输的数据
+        private HACompressCodec compressCodec;
 
 
         public HAClient() throws IOException {
@@ -403,6 +459,30 @@ public class HAService {
         }
 
 
+        /**
+         * 向Master申请压缩传输，同时汇报最大物理Offset
+         */
+        private boolean reportCompressRequest(final long maxOffset) {
+            ByteBuffer request = ByteBuffer.allocate(8 + 8);
+            request.putLong(HACompressCodec.CompressRequestFlag);
+            request.putLong(maxOffset);
+            request.flip();
+
+            for (int i = 0; i < 3 && request.hasRemaining(); i++) {
+                try {
+                    this.socketChannel.write(request);
+                }
+                catch (IOException e) {
+                    log.error(this.getServiceName()
+                            + "reportCompressRequest this.socketChannel.write exception", e);
+                    return false;
+                }
+            }
+
+            return !request.hasRemaining();
+        }
+
+
         // private void reallocateByteBuffer() {
         // ByteBuffer bb = ByteBuffer.allocate(ReadMaxBufferSize);
         // int remain = this.byteBufferRead.limit() - this.dispatchPostion;
@@ -483,6 +563,12 @@ public class HAService {
                 if (diff >= MSG_HEADER_SIZE) {
                     long masterPhyOffset = this.byteBufferRead.getLong(this.dispatchPostion);
                     int bodySize = this.byteBufferRead.getInt(this.dispatchPostion + 8);
+                    // Body Size为负数表示压缩传输，后面紧跟原始数据大小
+                    final boolean compressed = bodySize < 0;
+                    final int headerSize = compressed ? MSG_HEADER_SIZE + 4 : MSG_HEADER_SIZE;
+                    if (compressed) {
+                        bodySize = -bodySize;
+                    }
 
                     long slavePhyOffset = HAService.this.defaultMessageStore.getMaxPhyOffset();
 
@@ -496,16 +582,24 @@ public class HAService {
                     }
 
                     // 可以凑够一个请求
-                    if (diff >= (MSG_HEADER_SIZE + bodySize)) {
+                    if (diff >= (headerSize + bodySize)) {
                         byte[] bodyData = new byte[bodySize];
-                        this.byteBufferRead.position(this.dispatchPostion + MSG_HEADER_SIZE);
+                        this.byteBufferRead.position(this.dispatchPostion + headerSize);
                         this.byteBufferRead.get(bodyData);
 
+                        if (compressed) {
+                            int rawSize = this.byteBufferRead.getInt(this.dispatchPostion + MSG_HEADER_SIZE);
+                            bodyData = this.decompress(bodyData, rawSize);
+                            if (null == bodyData) {
+                                return false;
+                            }
+                        }
+
                         // TODO 结果是否需要处理，暂时不处理
                         HAService.this.defaultMessageStore.appendToCommitLog(masterPhyOffset, bodyData);
 
                         this.byteBufferRead.position(readSocketPos);
-                        this.dispatchPostion += MSG_HEADER_SIZE + bodySize;
+                        this.dispatchPostion += headerSize + bodySize;
 
                         if (!reportSlaveMaxOffsetPlus()) {
                             return false;
@@ -526,6 +620,27 @@ public class HAService {
         }
 
 
+        private byte[] decompress(final byte[] data, final int rawSize) {
+            if (null == this.compressCodec) {
+                this.compressCodec =
+                        new HACompressCodec(HAService.this.defaultMessageStore.getMessageStoreConfig()
+                            .getHaCompressLevel());
+            }
+
+            final long beginTime = System.nanoTime();
+            try {
+                byte[] result = this.compressCodec.decompress(data, rawSize);
+                HAService.this.defaultMessageStore.getStoreStatsService().addHaDecompress(
+                    System.nanoTime() - beginTime);
+                return result;
+            }
+            catch (DataFormatException e) {
+                log.error("HAClient, decompress data from master error", e);
+                return null;
+            }
+        }
+
+
         private boolean reportSlaveMaxOffsetPlus() {
             boolean result = true;
             // 只要本地有更新，就汇报最大物理Offset
@@ -561,6 +676,13 @@ public class HAService {
                 this.currentReportedOffset = HAService.this.defaultMessageStore.getMaxPhyOffset();
 
                 this.lastWriteTimestamp = System.currentTimeMillis();
+
+                if (this.socketChannel != null
+                        && HAService.this.defaultMessageStore.getMessageStoreConfig().isHaCompressEnable()) {
+                    if (!this.reportCompressRequest(this.currentReportedOffset)) {
+                        this.closeMaster();
+                    }
+                }
             }
 
             return this.socketChannel != null;
@@ -15,7 +15,11 @@
  */
 package com.alibaba.rocketmq.store.schedule;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
@@ -24,11 +28,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alibaba.rocketmq.common.ConfigManager;
-import com.alibaba.rocketmq.common.TopicFilterType;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.message.Message;
 import com.alibaba.rocketmq.common.message.MessageDecoder;
-import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.store.*;
 
 
@@ -165,6 +167,40 @@ public class ScheduleMessageService extends ConfigManager {
     }
 
 
+    /**
+     * 到期消息恢复真实的Topic与QueueId，定时相关的属性不再带给Consumer<br>
+     * 不解码消息，直接拷贝存储格式，只改写QUEUEID、TOPIC、PROPERTIES
+     *
+     * @param byteBuffer
+     *            CommitLog中的一条消息，从position开始
+     * @return 存储格式的消息，消息不合法时返回null
+     */
+    static RawMessageInner messageTimeupRaw(final ByteBuffer byteBuffer) {
+        final Map<String, String> properties = RawMessageInner.readProperties(byteBuffer);
+        if (null == properties) {
+            log.error("time up message illegal, total size {}", byteBuffer.getInt(byteBuffer.position()));
+            return null;
+        }
+
+        String topic = properties.get(Message.PROPERTY_REAL_TOPIC);
+        String queueIdStr = properties.get(Message.PROPERTY_REAL_QUEUE_ID);
+        if (null == topic || null == queueIdStr) {
+            log.error("time up message has no real topic or queue id, properties {}", properties);
+            return null;
+        }
+        properties.remove(Message.PROPERTY_DELAY_TIME_LEVEL);
+        properties.remove(Message.PROPERTY_START_DELIVER_TIME);
+
+        final int begin = byteBuffer.position();
+        return RawMessageInner.build(byteBuffer, topic, Integer.parseInt(queueIdStr),//
+            byteBuffer.getInt(begin + MessageDecoder.MessageSysFlagPostion),//
+            0L,//
+            byteBuffer.getLong(begin + MessageDecoder.MessagePreparedTransactionOffsetPostion),//
+            properties,//
+            true);
+    }
+
+
     public boolean parseDelayLevel() {
         HashMap<String, Long> timeUnitTable = new HashMap<String, Long>();
         timeUnitTable.put("s", 1000L);
@@ -222,6 +258,42 @@ public class ScheduleMessageService extends ConfigManager {
         }
 
 
+        /**
+         * 到期的消息攒成一批，一次写入CommitLog，批量失败时从第一条没有写入的消息开始重试
+         *
+         * @param batchOffsets
+         *            每条消息在延时队列中的逻辑位置，与batch一一对应
+         * @return 是否写入成功
+         */
+        private boolean putBatch(final List<RawMessageInner> batch, final List<Long> batchOffsets) {
+            if (batch.isEmpty()) {
+                return true;
+            }
+
+            PutMessageResult putMessageResult =
+                    ScheduleMessageService.this.defaultMessageStore.putRawMessages(batch);
+            // 成功
+            if (putMessageResult != null
+                    && putMessageResult.getPutMessageStatus() == PutMessageStatus.PUT_OK) {
+                batch.clear();
+                batchOffsets.clear();
+                return true;
+            }
+
+            // 失败，前面已经写入的消息不会回滚，跳过它们避免重复投递
+            int wroteMsgNums = putMessageResult != null ? putMessageResult.getWroteMsgNums() : 0;
+            long resumeOffset =
+                    wroteMsgNums < batch.size() ? batchOffsets.get(wroteMsgNums) : batchOffsets.get(batch
+                        .size() - 1) + 1;
+            log.error("{} messages time up, but reput them failed, wrote {}, delay level {} offset {}",
+                batch.size(), wroteMsgNums, this.delayLevel, resumeOffset);
+            ScheduleMessageService.this.timer.schedule(new DeliverDelayedMessageTimerTask(this.delayLevel,
+                resumeOffset), DELAY_FOR_A_PERIOD);
+            ScheduleMessageService.this.updateOffset(this.delayLevel, resumeOffset);
+            return false;
+        }
+
+
         public void executeOnTimeup() {
             ConsumeQueue cq =
                     ScheduleMessageService.this.defaultMessageStore.findConsumeQueue(SCHEDULE_TOPIC,
@@ -230,6 +302,11 @@ public class ScheduleMessageService extends ConfigManager {
                 SelectMapedBufferResult bufferCQ = cq.getIndexBuffer(this.offset);
                 if (bufferCQ != null) {
                     try {
+                        final int batchSize =
+                                ScheduleMessageService.this.defaultMessageStore.getMessageStoreConfig()
+                                    .getScheduleRePutBatchSize();
+                        List<RawMessageInner> batch = new ArrayList<RawMessageInner>(batchSize);
+                        List<Long> batchOffsets = new ArrayList<Long>(batchSize);
                         long nextOffset = offset;
                         int i = 0;
                         for (; i < bufferCQ.getSize(); i += ConsumeQueue.CQStoreUnitSize) {
@@ -245,34 +322,32 @@ public class ScheduleMessageService extends ConfigManager {
                             long countdown = deliverTimestamp - System.currentTimeMillis();
                             // 时间到了，该投递
                             if (countdown <= 0) {
-                                MessageExt msgExt =
-                                        ScheduleMessageService.this.defaultMessageStore.lookMessageByOffset(
-                                            offsetPy, sizePy);
-                                if (msgExt != null) {
-                                    MessageExtBrokerInner msgInner = this.messageTimeup(msgExt);
-                                    PutMessageResult putMessageResult =
-                                            ScheduleMessageService.this.defaultMessageStore
-                                                .putMessage(msgInner);
-                                    // 成功
-                                    if (putMessageResult != null
-                                            && putMessageResult.getPutMessageStatus() == PutMessageStatus.PUT_OK) {
-                                        continue;
+                                SelectMapedBufferResult bufferPy =
+                                        ScheduleMessageService.this.defaultMessageStore
+                                            .selectOneMessageByOffset(offsetPy, sizePy);
+                                if (bufferPy != null) {
+                                    try {
+                                        RawMessageInner msg = messageTimeupRaw(bufferPy.getByteBuffer());
+                                        if (msg != null) {
+                                            batch.add(msg);
+                                            batchOffsets.add(nextOffset);
+                                        }
                                     }
-                                    // 失败
-                                    else {
-                                        log.error(
-                                            "a message time up, but reput it failed, topic: {} msgId {}",
-                                            msgExt.getTopic(), msgExt.getMsgId());
-                                        ScheduleMessageService.this.timer.schedule(
-                                            new DeliverDelayedMessageTimerTask(this.delayLevel, nextOffset),
-                                            DELAY_FOR_A_PERIOD);
-                                        ScheduleMessageService.this.updateOffset(this.delayLevel, nextOffset);
-                                        return;
+                                    finally {
+                                        bufferPy.release();
                                     }
                                 }
+
+                                if (batch.size() >= batchSize && !this.putBatch(batch, batchOffsets)) {
+                                    return;
+                                }
                             }
                             // 时候未到，继续定时
                             else {
+                                if (!this.putBatch(batch, batchOffsets)) {
+                                    return;
+                                }
+
                                 ScheduleMessageService.this.timer.schedule(
                                     new DeliverDelayedMessageTimerTask(this.delayLevel, nextOffset),
                                     countdown);
@@ -281,6 +356,10 @@ public class ScheduleMessageService extends ConfigManager {
                             }
                         } // end of for
 
+                        if (!this.putBatch(batch, batchOffsets)) {
+                            return;
+                        }
+
                         nextOffset = offset + (i / ConsumeQueue.CQStoreUnitSize);
                         ScheduleMessageService.this.timer.schedule(new DeliverDelayedMessageTimerTask(
                             this.delayLevel, nextOffset), DELAY_FOR_A_WHILE);
@@ -297,38 +376,5 @@ public class ScheduleMessageService extends ConfigManager {
             ScheduleMessageService.this.timer.schedule(new DeliverDelayedMessageTimerTask(this.delayLevel,
                 this.offset), DELAY_FOR_A_WHILE);
         }
-
-
-        private MessageExtBrokerInner messageTimeup(MessageExt msgExt) {
-            MessageExtBrokerInner msgInner = new MessageExtBrokerInner();
-            msgInner.setBody(msgExt.getBody());
-            msgInner.setFlag(msgExt.getFlag());
-            msgInner.setProperties(msgExt.getProperties());
-
-            TopicFilterType topicFilterType = MessageExt.parseTopicFilterType(msgInner.getSysFlag());
-            long tagsCodeValue =
-                    MessageExtBrokerInner.tagsString2tagsCode(topicFilterType, msgInner.getTags());
-            msgInner.setTagsCode(tagsCodeValue);
-            msgInner.setPropertiesString(MessageDecoder.messageProperties2String(msgExt.getProperties()));
-
-            msgInner.setSysFlag(msgExt.getSysFlag());
-            msgInner.setBornTimestamp(msgExt.getBornTimestamp());
-            msgInner.setBornHost(msgExt.getBornHost());
-            msgInner.setStoreHost(msgExt.getStoreHost());
-            msgInner.setReconsumeTimes(msgExt.getReconsumeTimes());
-
-            msgInner.setWaitStoreMsgOK(false);
-            msgInner.clearProperty(Message.PROPERTY_DELAY_TIME_LEVEL);
-
-            // 恢复Topic
-            msgInner.setTopic(msgInner.getProperty(Message.PROPERTY_REAL_TOPIC));
-
-            // 恢复QueueId
-            String queueIdStr = msgInner.getProperty(Message.PROPERTY_REAL_QUEUE_ID);
-            int queueId = Integer.parseInt(queueIdStr);
-            msgInner.setQueueId(queueId);
-
-            return msgInner;
-        }
     }
 }
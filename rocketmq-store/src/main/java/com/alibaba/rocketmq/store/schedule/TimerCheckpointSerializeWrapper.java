@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.schedule;
+
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * 任意时间定时消息的检查点，序列化包装
+ * 
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-12
+ */
+public class TimerCheckpointSerializeWrapper extends RemotingSerializable {
+    // 消费队列中已经挂入时间轮的位置
+    private long enqueueOffset = 0;
+    // 早于该时间的槽位都已经投递完成
+    private long readTimestamp = -1;
+
+
+    public long getEnqueueOffset() {
+        return enqueueOffset;
+    }
+
+
+    public void setEnqueueOffset(long enqueueOffset) {
+        this.enqueueOffset = enqueueOffset;
+    }
+
+
+    public long getReadTimestamp() {
+        return readTimestamp;
+    }
+
+
+    public void setReadTimestamp(long readTimestamp) {
+        this.readTimestamp = readTimestamp;
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.schedule;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.MapedFile;
+import com.alibaba.rocketmq.store.MapedFileQueue;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+
+
+/**
+ * 定时消息的时间轮日志，只追加，同一个槽位的记录通过PrevPos串成链表<br>
+ * Record：PrevPos(8) + PhyOffset(8) + Size(4) + DeliverTimestamp(8) + Magic(4)
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-12
+ */
+public class TimerLog {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    public static final int TLStoreUnitSize = 8 + 8 + 4 + 8 + 4;
+    private static final int RecordMagicCode = 0xCCDDEEFF;
+
+    private final MapedFileQueue mapedFileQueue;
+    private final int mapedFileSize;
+    // 追加记录用，只有时间轮线程写
+    private final ByteBuffer byteBufferRecord = ByteBuffer.allocate(TLStoreUnitSize);
+
+
+    public TimerLog(final String storePath, final int mapedFileSize) {
+        this.mapedFileSize = mapedFileSize;
+        this.mapedFileQueue = new MapedFileQueue(storePath, mapedFileSize, null);
+    }
+
+
+    public boolean load() {
+        boolean result = this.mapedFileQueue.load();
+        log.info("load timer log " + (result ? "OK" : "Failed"));
+        return result;
+    }
+
+
+    /**
+     * 从倒数第三个文件开始按Magic找到最后一条完整的记录，截掉之后的数据
+     */
+    public void recover() {
+        final List<MapedFile> mapedFiles = this.mapedFileQueue.getMapedFiles();
+        if (!mapedFiles.isEmpty()) {
+            int index = mapedFiles.size() - 3;
+            if (index < 0)
+                index = 0;
+
+            MapedFile mapedFile = mapedFiles.get(index);
+            ByteBuffer byteBuffer = mapedFile.sliceByteBuffer();
+            long processOffset = mapedFile.getFileFromOffset();
+            long mapedFileOffset = 0;
+            while (true) {
+                for (int i = 0; i < this.mapedFileSize; i += TLStoreUnitSize) {
+                    byteBuffer.position(i + TLStoreUnitSize - 4);
+                    if (byteBuffer.getInt() == RecordMagicCode) {
+                        mapedFileOffset = i + TLStoreUnitSize;
+                    }
+                    else {
+                        break;
+                    }
+                }
+
+                if (mapedFileOffset == this.mapedFileSize && index + 1 < mapedFiles.size()) {
+                    index++;
+                    mapedFile = mapedFiles.get(index);
+                    byteBuffer = mapedFile.sliceByteBuffer();
+                    processOffset = mapedFile.getFileFromOffset();
+                    mapedFileOffset = 0;
+                }
+                else {
+                    break;
+                }
+            }
+
+            processOffset += mapedFileOffset;
+            this.mapedFileQueue.truncateDirtyFiles(processOffset);
+            log.info("recover timer log over, max offset " + processOffset);
+        }
+    }
+
+
+    /**
+     * 追加一条记录
+     *
+     * @return 记录的位置，失败返回-1
+     */
+    public long append(final long prevPos, final long phyOffset, final int size,
+            final long deliverTimestamp) {
+        MapedFile mapedFile = this.mapedFileQueue.getLastMapedFile();
+        if (null == mapedFile) {
+            log.error("create timer log maped file error");
+            return -1;
+        }
+
+        this.byteBufferRecord.clear();
+        this.byteBufferRecord.putLong(prevPos);
+        this.byteBufferRecord.putLong(phyOffset);
+        this.byteBufferRecord.putInt(size);
+        this.byteBufferRecord.putLong(deliverTimestamp);
+        this.byteBufferRecord.putInt(RecordMagicCode);
+
+        final long pos = mapedFile.getFileFromOffset() + mapedFile.getWrotePostion();
+        if (mapedFile.appendMessage(this.byteBufferRecord.array())) {
+            return pos;
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * 读取一条记录，调用方用完后必须释放
+     */
+    public SelectMapedBufferResult getRecord(final long pos) {
+        MapedFile mapedFile = this.mapedFileQueue.findMapedFileByOffset(pos);
+        if (mapedFile != null) {
+            return mapedFile.selectMapedBuffer((int) (pos % this.mapedFileSize), TLStoreUnitSize);
+        }
+
+        return null;
+    }
+
+
+    public void commit() {
+        this.mapedFileQueue.commit(0);
+    }
+
+
+    /**
+     * 删除过期的日志文件，记录写入后最多被引用一个时间轮周期
+     */
+    public int deleteExpiredFile(final long expiredTime, final long intervalForcibly) {
+        return this.mapedFileQueue.deleteExpiredFileByTime(expiredTime, 0, intervalForcibly, false);
+    }
+
+
+    public void shutdown() {
+        this.mapedFileQueue.commit(0);
+        this.mapedFileQueue.shutdown(1000 * 3);
+    }
+}
@@ -0,0 +1,583 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.schedule;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.ConfigManager;
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.ConsumeQueue;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.PutMessageResult;
+import com.alibaba.rocketmq.store.PutMessageStatus;
+import com.alibaba.rocketmq.store.RawMessageInner;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import com.alibaba.rocketmq.store.schedule.TimerWheel.Slot;
+
+
+/**
+ * 任意时间定时消息服务<br>
+ * 消息先写入TIMER_TOPIC的消费队列，tagsCode为投递时间，时间轮线程把新消息挂到对应槽位的TimerLog链表上，
+ * 槽位到期后取出，交给投递线程池分批重新投递<br>
+ * 超出时间轮范围的消息先挂在最远的槽位上，取出时重新挂入时间轮，相当于多层时间轮的降级<br>
+ * 检查点记录挂入时间轮的消费队列位置与投递完成的时间，重启后从检查点继续，检查点之后的消息可能重复投递
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-12
+ */
+public class TimerMessageService extends ConfigManager {
+    public static final String TIMER_TOPIC = "TIMER_TOPIC_XXXX";
+    public static final int TIMER_QUEUE_ID = 0;
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    private static final long DELAY_FOR_A_WHILE = 100L;
+    private static final long DELAY_FOR_A_PERIOD = 10000L;
+    // 一次最多取出的槽位数，追赶积压时与挂入时间轮交替进行
+    private static final int DequeueSlotsMax = 16;
+    // 一批消息写入CommitLog失败时的最多尝试次数，之后交还给时间轮线程
+    private static final int DeliverRetryTimesMax = 3;
+    // 日志文件超过时间轮跨度之后再保留的时间
+    private static final long TimerLogReservedTime = 1000L * 60 * 60;
+
+    private final DefaultMessageStore defaultMessageStore;
+    private final TimerWheel timerWheel;
+    private final TimerLog timerLog;
+    private final TimerFlowService timerFlowService = new TimerFlowService();
+    private ExecutorService deliverExecutor;
+
+    // 以下状态只有时间轮线程修改
+    private volatile long enqueueOffset = 0;
+    private volatile long readTimestamp = -1;
+    // 时间轮重建时，这个位置之前投递时间早于readTimestamp的消息已经投递过
+    private long rebuildEndOffset = -1;
+    private long lastPersistTimestamp = 0;
+    // 没有处理完的槽位，重试时从这里继续
+    private long pendingSlotTime = -1;
+    private long pendingLastPos = -1;
+    private int pendingReadNums = 0;
+    private final List<TimerRecord> pendingRehangList = new ArrayList<TimerRecord>();
+    private final List<TimerRecord> pendingDeliverList = new ArrayList<TimerRecord>();
+    // 槽位处理失败后，这个时间之前不再取出槽位
+    private long dequeueSuspendTimestamp = 0;
+    // 读不到的TimerLog记录数，这些消息无法投递
+    private volatile long lostRecordNums = 0;
+
+
+    public TimerMessageService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+        MessageStoreConfig config = defaultMessageStore.getMessageStoreConfig();
+        this.timerWheel =
+                new TimerWheel(config.getTimerStorePath() + File.separator + "timerwheel",
+                    config.getTimerWheelSlots(), config.getTimerPrecisionMs());
+        this.timerLog =
+                new TimerLog(config.getTimerStorePath() + File.separator + "timerlog",
+                    config.getTimerLogMapedFileSize());
+    }
+
+
+    public boolean load() {
+        boolean result = super.load();
+        result = result && this.timerWheel.load();
+        result = result && this.timerLog.load();
+        if (result) {
+            this.timerLog.recover();
+            if (this.timerWheel.isRebuilt() && this.enqueueOffset > 0) {
+                log.warn("timer wheel rebuilt, enqueue again from the beginning, old enqueue offset {}",
+                    this.enqueueOffset);
+                this.rebuildEndOffset = this.enqueueOffset;
+                this.enqueueOffset = 0;
+            }
+        }
+
+        return result;
+    }
+
+
+    public void start() {
+        if (this.readTimestamp < 0) {
+            this.readTimestamp = this.timerWheel.alignTime(System.currentTimeMillis());
+        }
+
+        this.deliverExecutor =
+                Executors.newFixedThreadPool(this.defaultMessageStore.getMessageStoreConfig()
+                    .getTimerDeliverThreadNums(), new ThreadFactory() {
+                    private AtomicInteger threadIndex = new AtomicInteger(0);
+
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread =
+                                new Thread(r, "TimerDeliverThread_" + this.threadIndex.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        this.timerFlowService.start();
+    }
+
+
+    public void shutdown() {
+        this.timerFlowService.shutdown();
+        if (this.deliverExecutor != null) {
+            this.deliverExecutor.shutdown();
+        }
+
+        this.persist();
+        this.timerWheel.shutdown();
+        this.timerLog.shutdown();
+    }
+
+
+    /**
+     * 把消费队列中新的定时消息挂到时间轮上
+     *
+     * @return 是否处理了消息
+     */
+    private boolean enqueue() {
+        ConsumeQueue cq = this.defaultMessageStore.findConsumeQueue(TIMER_TOPIC, TIMER_QUEUE_ID);
+        if (null == cq) {
+            return false;
+        }
+
+        if (this.enqueueOffset < cq.getMinOffsetInQuque()) {
+            log.warn("timer enqueue offset {} less than min offset {}, correct it", this.enqueueOffset,
+                cq.getMinOffsetInQuque());
+            this.enqueueOffset = cq.getMinOffsetInQuque();
+        }
+
+        SelectMapedBufferResult bufferCQ = cq.getIndexBuffer(this.enqueueOffset);
+        if (null == bufferCQ) {
+            return false;
+        }
+
+        final long beginOffset = this.enqueueOffset;
+        try {
+            long offset = beginOffset;
+            for (int i = 0; i < bufferCQ.getSize(); i += ConsumeQueue.CQStoreUnitSize) {
+                long offsetPy = bufferCQ.getByteBuffer().getLong();
+                int sizePy = bufferCQ.getByteBuffer().getInt();
+                // 队列里存储的tagsCode实际是投递时间
+                long deliverTimestamp = bufferCQ.getByteBuffer().getLong();
+
+                boolean delivered = offset < this.rebuildEndOffset && deliverTimestamp < this.readTimestamp;
+                if (!delivered && !this.addToWheel(offsetPy, sizePy, deliverTimestamp)) {
+                    break;
+                }
+
+                offset++;
+                this.enqueueOffset = offset;
+            }
+        }
+        finally {
+            bufferCQ.release();
+        }
+
+        return this.enqueueOffset > beginOffset;
+    }
+
+
+    /**
+     * 挂到投递时间所在的槽位，已经到期的挂到当前槽位，超出时间轮范围的挂到最远的槽位
+     */
+    private boolean addToWheel(final long phyOffset, final int size, final long deliverTimestamp) {
+        long slotTime = this.timerWheel.alignTime(deliverTimestamp);
+        if (slotTime < this.readTimestamp) {
+            slotTime = this.readTimestamp;
+        }
+
+        final long maxSlotTime =
+                this.readTimestamp + this.timerWheel.getWheelSpanMs() - this.timerWheel.getPrecisionMs();
+        if (slotTime > maxSlotTime) {
+            slotTime = maxSlotTime;
+        }
+
+        Slot slot = this.timerWheel.getSlot(slotTime);
+        long pos = this.timerLog.append(slot.getLastPos(), phyOffset, size, deliverTimestamp);
+        if (pos < 0) {
+            log.error("append timer log failed, commit log offset {}", phyOffset);
+            return false;
+        }
+
+        this.timerWheel.putSlot(slotTime, slot.getFirstPos() < 0 ? pos : slot.getFirstPos(), pos,
+            slot.getNum() + 1);
+        return true;
+    }
+
+
+    /**
+     * 依次取出到期的槽位并投递，槽位全部投递成功才前进，失败时暂停一段时间再从失败的位置继续
+     *
+     * @return 是否取出了槽位
+     */
+    private boolean dequeue() {
+        final long now = System.currentTimeMillis();
+        if (now < this.dequeueSuspendTimestamp) {
+            return false;
+        }
+
+        final int precisionMs = this.timerWheel.getPrecisionMs();
+        int slots = 0;
+        while (this.readTimestamp + precisionMs <= now && slots < DequeueSlotsMax) {
+            if (!this.dequeueSlot(this.readTimestamp)) {
+                this.dequeueSuspendTimestamp = now + DELAY_FOR_A_PERIOD;
+                return false;
+            }
+
+            this.readTimestamp += precisionMs;
+            slots++;
+        }
+
+        return slots > 0;
+    }
+
+
+    /**
+     * 读出槽位中的记录，先把超出时间轮范围的重新挂入，再投递到期的<br>
+     * 处理失败时保留没有完成的记录，重试时只处理这些记录和失败后新挂到这个槽位的记录，不重复挂入也不重复投递
+     */
+    private boolean dequeueSlot(final long slotTime) {
+        if (this.pendingSlotTime != slotTime) {
+            this.pendingSlotTime = slotTime;
+            this.pendingLastPos = -1;
+            this.pendingReadNums = 0;
+            this.pendingRehangList.clear();
+            this.pendingDeliverList.clear();
+        }
+
+        this.readSlot(this.timerWheel.getSlot(slotTime));
+
+        int rehangNums = 0;
+        for (TimerRecord record : this.pendingRehangList) {
+            if (!this.addToWheel(record.phyOffset, record.size, record.deliverTimestamp)) {
+                break;
+            }
+            rehangNums++;
+        }
+        this.pendingRehangList.subList(0, rehangNums).clear();
+        if (!this.pendingRehangList.isEmpty()) {
+            return false;
+        }
+
+        List<TimerRecord> failedList = this.deliver(this.pendingDeliverList);
+        this.pendingDeliverList.clear();
+        this.pendingDeliverList.addAll(failedList);
+        if (!this.pendingDeliverList.isEmpty()) {
+            return false;
+        }
+
+        this.pendingSlotTime = -1;
+        return true;
+    }
+
+
+    /**
+     * 读出槽位中上次之后新挂入的记录，链表是倒序的，按写入顺序加到待处理列表
+     */
+    private void readSlot(final Slot slot) {
+        final int newNums = slot.getNum() - this.pendingReadNums;
+        if (newNums <= 0) {
+            return;
+        }
+
+        final long slotEndTime = slot.getTimestamp() + this.timerWheel.getPrecisionMs();
+        List<TimerRecord> rehangList = new ArrayList<TimerRecord>();
+        List<TimerRecord> deliverList = new ArrayList<TimerRecord>(newNums);
+        long pos = slot.getLastPos();
+        int count = 0;
+        for (; pos >= 0 && pos != this.pendingLastPos && count < newNums; count++) {
+            SelectMapedBufferResult result = this.timerLog.getRecord(pos);
+            if (null == result) {
+                break;
+            }
+
+            try {
+                ByteBuffer byteBuffer = result.getByteBuffer();
+                long prevPos = byteBuffer.getLong();
+                long phyOffset = byteBuffer.getLong();
+                int size = byteBuffer.getInt();
+                long deliverTimestamp = byteBuffer.getLong();
+
+                // 超出时间轮范围的消息，重新挂入时间轮
+                if (deliverTimestamp >= slotEndTime) {
+                    rehangList.add(new TimerRecord(phyOffset, size, deliverTimestamp));
+                }
+                else {
+                    deliverList.add(new TimerRecord(phyOffset, size, deliverTimestamp));
+                }
+
+                pos = prevPos;
+            }
+            finally {
+                result.release();
+            }
+        }
+
+        // 日志文件已经被删除等原因读不到的记录无法恢复，记录下来继续处理后面的槽位
+        if (count < newNums) {
+            this.lostRecordNums += newNums - count;
+            log.error("timer log record not found, pos {}, slot {}, {} records lost", pos,
+                slot.getTimestamp(), newNums - count);
+        }
+
+        Collections.reverse(rehangList);
+        Collections.reverse(deliverList);
+        this.pendingRehangList.addAll(rehangList);
+        this.pendingDeliverList.addAll(deliverList);
+        this.pendingReadNums = slot.getNum();
+        this.pendingLastPos = slot.getLastPos();
+    }
+
+
+    /**
+     * 分批交给投递线程池，等待全部投递完成
+     *
+     * @return 没有投递成功的记录
+     */
+    private List<TimerRecord> deliver(final List<TimerRecord> deliverList) {
+        List<TimerRecord> failedList = new ArrayList<TimerRecord>();
+        if (deliverList.isEmpty()) {
+            return failedList;
+        }
+
+        final int batchSize = this.defaultMessageStore.getMessageStoreConfig().getTimerDeliverBatchSize();
+        final int batchNums = deliverList.size() / batchSize + 1;
+        List<List<TimerRecord>> batches = new ArrayList<List<TimerRecord>>(batchNums);
+        List<Future<List<TimerRecord>>> futures = new ArrayList<Future<List<TimerRecord>>>(batchNums);
+        for (int i = 0; i < deliverList.size(); i += batchSize) {
+            final List<TimerRecord> batch =
+                    new ArrayList<TimerRecord>(deliverList.subList(i, Math.min(i + batchSize,
+                        deliverList.size())));
+            batches.add(batch);
+            futures.add(this.deliverExecutor.submit(new Callable<List<TimerRecord>>() {
+                @Override
+                public List<TimerRecord> call() throws Exception {
+                    return TimerMessageService.this.deliverBatch(batch);
+                }
+            }));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                failedList.addAll(futures.get(i).get());
+            }
+            catch (Exception e) {
+                log.error("deliver timer messages exception", e);
+                failedList.addAll(batches.get(i));
+            }
+        }
+
+        return failedList;
+    }
+
+
+    /**
+     * 整批不解码直接转换为存储格式，一次写入CommitLog，失败时只重试没有写入的部分，重试有限次数
+     *
+     * @return 没有投递成功的记录
+     */
+    private List<TimerRecord> deliverBatch(final List<TimerRecord> batch) {
+        List<TimerRecord> records = new ArrayList<TimerRecord>(batch.size());
+        List<RawMessageInner> msgs = new ArrayList<RawMessageInner>(batch.size());
+        for (TimerRecord record : batch) {
+            SelectMapedBufferResult bufferPy =
+                    this.defaultMessageStore.selectOneMessageByOffset(record.phyOffset, record.size);
+            if (null == bufferPy) {
+                log.warn("timer message not found in commit log, maybe deleted, offset {}", record.phyOffset);
+                continue;
+            }
+
+            try {
+                RawMessageInner msg = ScheduleMessageService.messageTimeupRaw(bufferPy.getByteBuffer());
+                if (msg != null) {
+                    records.add(record);
+                    msgs.add(msg);
+                }
+            }
+            finally {
+                bufferPy.release();
+            }
+        }
+
+        for (int times = 0; !msgs.isEmpty(); times++) {
+            PutMessageResult putMessageResult = this.defaultMessageStore.putRawMessages(msgs);
+            if (putMessageResult != null
+                    && putMessageResult.getPutMessageStatus() == PutMessageStatus.PUT_OK) {
+                break;
+            }
+
+            // 前面已经写入的消息不会回滚，只重试没有写入的部分，避免重复投递
+            int wroteMsgNums = putMessageResult != null ? putMessageResult.getWroteMsgNums() : 0;
+            log.error("{} timer messages time up, but reput them failed, wrote {}, first offset {}",
+                msgs.size(), wroteMsgNums, records.get(0).phyOffset);
+            if (wroteMsgNums > 0) {
+                msgs = new ArrayList<RawMessageInner>(msgs.subList(wroteMsgNums, msgs.size()));
+                records = new ArrayList<TimerRecord>(records.subList(wroteMsgNums, records.size()));
+                continue;
+            }
+
+            // 交还给时间轮线程，暂停后再重试，停止时放弃，重启后从检查点重新投递
+            if (times + 1 >= DeliverRetryTimesMax || this.timerFlowService.isStoped()) {
+                return records;
+            }
+
+            try {
+                Thread.sleep(DELAY_FOR_A_WHILE);
+            }
+            catch (InterruptedException e) {
+                return records;
+            }
+        }
+
+        return Collections.emptyList();
+    }
+
+
+    private void persistPeriodically() {
+        final long now = System.currentTimeMillis();
+        if (now - this.lastPersistTimestamp < this.defaultMessageStore.getMessageStoreConfig()
+            .getFlushDelayOffsetInterval()) {
+            return;
+        }
+
+        this.lastPersistTimestamp = now;
+        this.persist();
+
+        // 投递追上之后，超过一个时间轮周期没有写入的日志文件不再被引用
+        if (this.readTimestamp + this.timerWheel.getPrecisionMs() * 2 >= now) {
+            this.timerLog.deleteExpiredFile(this.timerWheel.getWheelSpanMs() + TimerLogReservedTime,
+                this.defaultMessageStore.getMessageStoreConfig().getDestroyMapedFileIntervalForcibly());
+        }
+    }
+
+
+    /**
+     * 先刷时间轮与日志，再写检查点，检查点之前的数据一定已经落盘
+     */
+    @Override
+    public synchronized void persist() {
+        this.timerLog.commit();
+        this.timerWheel.flush();
+        super.persist();
+    }
+
+
+    public String encode() {
+        return this.encode(false);
+    }
+
+
+    public String encode(final boolean prettyFormat) {
+        TimerCheckpointSerializeWrapper timerCheckpoint = new TimerCheckpointSerializeWrapper();
+        timerCheckpoint.setEnqueueOffset(this.enqueueOffset);
+        timerCheckpoint.setReadTimestamp(this.readTimestamp);
+        return timerCheckpoint.toJson(prettyFormat);
+    }
+
+
+    @Override
+    public void decode(String jsonString) {
+        if (jsonString != null) {
+            TimerCheckpointSerializeWrapper timerCheckpoint =
+                    TimerCheckpointSerializeWrapper.fromJson(jsonString,
+                        TimerCheckpointSerializeWrapper.class);
+            if (timerCheckpoint != null) {
+                this.enqueueOffset = timerCheckpoint.getEnqueueOffset();
+                this.readTimestamp = timerCheckpoint.getReadTimestamp();
+            }
+        }
+    }
+
+
+    @Override
+    public String configFilePath() {
+        return this.defaultMessageStore.getMessageStoreConfig().getTimerCheckpointStorePath();
+    }
+
+
+    public long getEnqueueOffset() {
+        return enqueueOffset;
+    }
+
+
+    public long getReadTimestamp() {
+        return readTimestamp;
+    }
+
+
+    public long getLostRecordNums() {
+        return lostRecordNums;
+    }
+
+    static class TimerRecord {
+        final long phyOffset;
+        final int size;
+        final long deliverTimestamp;
+
+
+        TimerRecord(long phyOffset, int size, long deliverTimestamp) {
+            this.phyOffset = phyOffset;
+            this.size = size;
+            this.deliverTimestamp = deliverTimestamp;
+        }
+    }
+
+    class TimerFlowService extends ServiceThread {
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            final long interval =
+                    Math.min(DELAY_FOR_A_WHILE, TimerMessageService.this.timerWheel.getPrecisionMs());
+            while (!this.isStoped()) {
+                try {
+                    boolean busy = TimerMessageService.this.enqueue();
+                    busy = TimerMessageService.this.dequeue() || busy;
+                    TimerMessageService.this.persistPeriodically();
+                    if (!busy) {
+                        this.waitForRunning(interval);
+                    }
+                }
+                catch (Exception e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                    this.waitForRunning(interval);
+                }
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+
+        @Override
+        public String getServiceName() {
+            return TimerFlowService.class.getSimpleName();
+        }
+    }
+}
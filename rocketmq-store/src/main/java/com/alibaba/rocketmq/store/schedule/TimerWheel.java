@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.schedule;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.MapedFile;
+
+
+/**
+ * 定时消息的时间轮，每个槽位对应一个精度的时间段，记录该时间段在TimerLog中的链表头尾<br>
+ * Slot：Timestamp(8) + FirstPos(8) + LastPos(8) + Num(4)，槽位中的时间不一致说明是上一轮的旧数据
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ * @since 2013-8-12
+ */
+public class TimerWheel {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    public static final int SlotSize = 8 + 8 + 8 + 4;
+
+    private final String fileName;
+    private final int slotsTotal;
+    private final int precisionMs;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel fileChannel;
+    private MappedByteBuffer mappedByteBuffer;
+    // 文件不存在或者被丢弃，需要从消费队列重建
+    private boolean rebuilt = false;
+
+
+    public TimerWheel(final String fileName, final int slotsTotal, final int precisionMs) {
+        this.fileName = fileName;
+        this.slotsTotal = slotsTotal;
+        this.precisionMs = precisionMs;
+    }
+
+
+    public boolean load() {
+        try {
+            File file = new File(this.fileName);
+            MapedFile.ensureDirOK(file.getParent());
+            final long fileSize = (long) this.slotsTotal * SlotSize;
+            if (file.exists() && file.length() != fileSize) {
+                // 槽位数或者精度变化后旧数据无法使用，依赖检查点从消费队列重建
+                log.warn("timer wheel file size {} not match {}, rebuild it", file.length(), fileSize);
+                file.delete();
+            }
+            this.rebuilt = !file.exists();
+
+            this.randomAccessFile = new RandomAccessFile(file, "rw");
+            this.fileChannel = this.randomAccessFile.getChannel();
+            this.mappedByteBuffer = this.fileChannel.map(MapMode.READ_WRITE, 0, fileSize);
+            log.info("load timer wheel OK, slots {}, precision {}ms", this.slotsTotal, this.precisionMs);
+            return true;
+        }
+        catch (IOException e) {
+            log.error("load timer wheel exception", e);
+            return false;
+        }
+    }
+
+
+    private int slotIndex(final long timestamp) {
+        return (int) ((timestamp / this.precisionMs) % this.slotsTotal);
+    }
+
+
+    /**
+     * 取时间点所在的槽位，槽位里是上一轮的数据时返回空槽位
+     */
+    public Slot getSlot(final long timestamp) {
+        final int index = this.slotIndex(timestamp) * SlotSize;
+        final long slotTime = this.mappedByteBuffer.getLong(index);
+        if (slotTime != timestamp) {
+            return new Slot(timestamp, -1, -1, 0);
+        }
+
+        return new Slot(slotTime, this.mappedByteBuffer.getLong(index + 8),
+            this.mappedByteBuffer.getLong(index + 16), this.mappedByteBuffer.getInt(index + 24));
+    }
+
+
+    public void putSlot(final long timestamp, final long firstPos, final long lastPos, final int num) {
+        final int index = this.slotIndex(timestamp) * SlotSize;
+        this.mappedByteBuffer.putLong(index, timestamp);
+        this.mappedByteBuffer.putLong(index + 8, firstPos);
+        this.mappedByteBuffer.putLong(index + 16, lastPos);
+        this.mappedByteBuffer.putInt(index + 24, num);
+    }
+
+
+    /**
+     * 时间点按精度向下取整
+     */
+    public long alignTime(final long timestamp) {
+        return timestamp - timestamp % this.precisionMs;
+    }
+
+
+    /**
+     * 时间轮能够覆盖的时间跨度
+     */
+    public long getWheelSpanMs() {
+        return (long) this.slotsTotal * this.precisionMs;
+    }
+
+
+    public boolean isRebuilt() {
+        return rebuilt;
+    }
+
+
+    public int getPrecisionMs() {
+        return precisionMs;
+    }
+
+
+    public void flush() {
+        this.mappedByteBuffer.force();
+    }
+
+
+    public void shutdown() {
+        this.flush();
+        MapedFile.clean(this.mappedByteBuffer);
+        try {
+            this.fileChannel.close();
+            this.randomAccessFile.close();
+        }
+        catch (IOException e) {
+            log.error("close timer wheel exception", e);
+        }
+    }
+
+    public static class Slot {
+        private final long timestamp;
+        private final long firstPos;
+        private final long lastPos;
+        private final int num;
+
+
+        public Slot(long timestamp, long firstPos, long lastPos, int num) {
+            this.timestamp = timestamp;
+            this.firstPos = firstPos;
+            this.lastPos = lastPos;
+            this.num = num;
+        }
+
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+
+        public long getFirstPos() {
+            return firstPos;
+        }
+
+
+        public long getLastPos() {
+            return lastPos;
+        }
+
+
+        public int getNum() {
+            return num;
+        }
+    }
+}
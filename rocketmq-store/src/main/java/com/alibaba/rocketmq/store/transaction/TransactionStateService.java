@@ -17,6 +17,7 @@ package com.alibaba.rocketmq.store.transaction;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
@@ -63,6 +64,9 @@ public class TransactionStateService {
     private final Timer timer = new Timer("CheckTransactionMessageTimer", true);
     // 存储事务状态的表格
     private MapedFileQueue tranStateTable;
+    // 仍处于Prepared状态的事务，按tsOffset排序，即按Prepare时间排序，回查时只遍历这些事务
+    private final ConcurrentSkipListMap<Long/* tsOffset */, PreparedTransaction> preparedTransactionTable =
+            new ConcurrentSkipListMap<Long, PreparedTransaction>();
 
 
     public TransactionStateService(final DefaultMessageStore defaultMessageStore) {
@@ -94,21 +98,9 @@ public class TransactionStateService {
 
 
     private void initTimerTask() {
-        final List<MapedFile> mapedFiles = this.tranStateTable.getMapedFiles();
-        for (MapedFile mf : mapedFiles) {
-            this.addTimerTask(mf);
-        }
-    }
-
-
-    private void addTimerTask(final MapedFile mf) {
         this.timer.scheduleAtFixedRate(new TimerTask() {
-            private final MapedFile mapedFile = mf;
             private final TransactionCheckExecuter transactionCheckExecuter =
                     TransactionStateService.this.defaultMessageStore.getTransactionCheckExecuter();
-            private final long checkTransactionMessageAtleastInterval =
-                    TransactionStateService.this.defaultMessageStore.getMessageStoreConfig()
-                        .getCheckTransactionMessageAtleastInterval();
             private final boolean slave = TransactionStateService.this.defaultMessageStore
                 .getMessageStoreConfig().getBrokerRole() == BrokerRole.SLAVE;
 
@@ -126,96 +118,75 @@ public class TransactionStateService {
                 }
 
                 try {
-                    SelectMapedBufferResult selectMapedBufferResult = mapedFile.selectMapedBuffer(0);
-                    if (selectMapedBufferResult != null) {
-                        long preparedMessageCountInThisMapedFile = 0;
-                        int i = 0;
-                        try {
-
-                            for (; i < selectMapedBufferResult.getSize(); i += TSStoreUnitSize) {
-                                selectMapedBufferResult.getByteBuffer().position(i);
-
-                                // Commit Log Offset
-                                long clOffset = selectMapedBufferResult.getByteBuffer().getLong();
-                                // Message Size
-                                int msgSize = selectMapedBufferResult.getByteBuffer().getInt();
-                                // Timestamp
-                                int timestamp = selectMapedBufferResult.getByteBuffer().getInt();
-                                // Producer Group Hashcode
-                                int groupHashCode = selectMapedBufferResult.getByteBuffer().getInt();
-                                // Transaction State
-                                int tranType = selectMapedBufferResult.getByteBuffer().getInt();
-
-                                // 已经提交或者回滚的消息跳过
-                                if (tranType != MessageSysFlag.TransactionPreparedType) {
-                                    continue;
-                                }
-
-                                // 遇到时间不符合，终止
-                                long timestampLong = timestamp * 1000;
-                                long diff = System.currentTimeMillis() - timestampLong;
-                                if (diff < checkTransactionMessageAtleastInterval) {
-                                    break;
-                                }
-
-                                preparedMessageCountInThisMapedFile++;
-
-                                try {
-                                    this.transactionCheckExecuter.gotoCheck(//
-                                        groupHashCode,//
-                                        getTranStateOffset(i),//
-                                        clOffset,//
-                                        msgSize);
-                                }
-                                catch (Exception e) {
-                                    tranlog.warn("gotoCheck Exception", e);
-                                }
-                            }
-
-                            // 无Prepared消息，且遍历完，则终止定时任务
-                            if (0 == preparedMessageCountInThisMapedFile //
-                                    && i == mapedFile.getFileSize()) {
-                                tranlog
-                                    .info(
-                                        "remove the transaction timer task, because no prepared message in this mapedfile[{}]",
-                                        mapedFile.getFileName());
-                                this.cancel();
-                            }
-                        }
-                        finally {
-                            selectMapedBufferResult.release();
-                        }
-
-                        tranlog
-                            .info(
-                                "the transaction timer task execute over in this period, {} Prepared Message: {} Check Progress: {}/{}",
-                                mapedFile.getFileName(),//
-                                preparedMessageCountInThisMapedFile,//
-                                i / TSStoreUnitSize,//
-                                mapedFile.getFileSize() / TSStoreUnitSize//
-                            );
-                    }
-                    else if (mapedFile.isFull()) {
-                        tranlog.info("the mapedfile[{}] maybe deleted, cancel check transaction timer task",
-                            mapedFile.getFileName());
-                        this.cancel();
-                        return;
-                    }
+                    TransactionStateService.this.checkPreparedTransaction(this.transactionCheckExecuter);
                 }
                 catch (Exception e) {
                     log.error("check transaction timer task Exception", e);
                 }
             }
+        }, 1000 * 60, this.defaultMessageStore.getMessageStoreConfig()
+            .getCheckTransactionMessageTimerInterval());
+    }
 
 
-            private long getTranStateOffset(final long currentIndex) {
-                long offset =
-                        (this.mapedFile.getFileFromOffset() + currentIndex)
-                                / TransactionStateService.TSStoreUnitSize;
-                return offset;
+    /**
+     * 按Prepare时间顺序回查仍处于Prepared状态的事务，每个Producer Group每轮回查的次数有上限
+     *
+     * @return 本轮回查的事务数
+     */
+    long checkPreparedTransaction(final TransactionCheckExecuter transactionCheckExecuter) {
+        final long checkTransactionMessageAtleastInterval =
+                this.defaultMessageStore.getMessageStoreConfig().getCheckTransactionMessageAtleastInterval();
+        final int maxCheckTimesPerGroup =
+                this.defaultMessageStore.getMessageStoreConfig().getCheckTransactionMessageMaxPerGroup();
+        // 每个Producer Group本轮已经回查的次数
+        final HashMap<Integer, Integer> checkTimesTable = new HashMap<Integer, Integer>();
+        long checkTimes = 0;
+        long limitedTimes = 0;
+
+        final Set<Map.Entry<Long, PreparedTransaction>> entrySet = this.preparedTransactionTable.entrySet();
+        for (Map.Entry<Long, PreparedTransaction> entry : entrySet) {
+            final PreparedTransaction tran = entry.getValue();
+
+            // 按Prepare时间有序，遇到时间不符合，终止
+            long diff = System.currentTimeMillis() - tran.timestamp * 1000L;
+            if (diff < checkTransactionMessageAtleastInterval) {
+                break;
             }
-        }, 1000 * 60, this.defaultMessageStore.getMessageStoreConfig()
-            .getCheckTransactionMessageTimerInterval());
+
+            // 同一个Producer Group回查过多时，剩余的留到下一轮，避免压垮Producer
+            Integer times = checkTimesTable.get(tran.groupHashCode);
+            if (null == times) {
+                times = 0;
+            }
+            if (times >= maxCheckTimesPerGroup) {
+                limitedTimes++;
+                continue;
+            }
+            checkTimesTable.put(tran.groupHashCode, times + 1);
+            checkTimes++;
+
+            try {
+                transactionCheckExecuter.gotoCheck(//
+                    tran.groupHashCode,//
+                    entry.getKey(),//
+                    tran.clOffset,//
+                    tran.size);
+            }
+            catch (Exception e) {
+                tranlog.warn("gotoCheck Exception", e);
+            }
+        }
+
+        tranlog.info("the transaction timer task execute over in this period, Prepared Transaction: {} "
+                + "Check: {} Limited: {} Groups: {}",//
+            this.preparedTransactionTable.size(),//
+            checkTimes,//
+            limitedTimes,//
+            checkTimesTable.size()//
+            );
+
+        return checkTimes;
     }
 
 
@@ -226,6 +197,11 @@ public class TransactionStateService {
 
     public int deleteExpiredStateFile(long offset) {
         int cnt = this.tranStateTable.deleteExpiredFileByOffset(offset, TSStoreUnitSize);
+        if (cnt > 0) {
+            // 文件已经删除的事务不再回查
+            final long minTsOffset = this.tranStateTable.getMinOffset() / TSStoreUnitSize;
+            this.preparedTransactionTable.headMap(minTsOffset).clear();
+        }
         return cnt;
     }
 
@@ -233,6 +209,7 @@ public class TransactionStateService {
     public void recoverStateTable(final boolean lastExitOK) {
         if (lastExitOK) {
             this.recoverStateTableNormal();
+            this.loadPreparedTransaction();
         }
         else {
             // 第一步，删除State Table
@@ -302,6 +279,42 @@ public class TransactionStateService {
     }
 
 
+    /**
+     * 启动时扫描一遍State Table，找出仍处于Prepared状态的事务
+     */
+    private void loadPreparedTransaction() {
+        this.preparedTransactionTable.clear();
+        final List<MapedFile> mapedFiles = this.tranStateTable.getMapedFiles();
+        for (MapedFile mapedFile : mapedFiles) {
+            SelectMapedBufferResult selectMapedBufferResult = mapedFile.selectMapedBuffer(0);
+            if (selectMapedBufferResult != null) {
+                try {
+                    ByteBuffer byteBuffer = selectMapedBufferResult.getByteBuffer();
+                    final int size = selectMapedBufferResult.getSize();
+                    for (int i = 0; i + TSStoreUnitSize <= size; i += TSStoreUnitSize) {
+                        final long clOffset_read = byteBuffer.getLong();
+                        final int size_read = byteBuffer.getInt();
+                        final int timestamp_read = byteBuffer.getInt();
+                        final int groupHashCode_read = byteBuffer.getInt();
+                        final int state_read = byteBuffer.getInt();
+                        if (MessageSysFlag.TransactionPreparedType == state_read) {
+                            final long tsOffset = (mapedFile.getFileFromOffset() + i) / TSStoreUnitSize;
+                            this.preparedTransactionTable.put(tsOffset, new PreparedTransaction(clOffset_read,
+                                size_read, timestamp_read, groupHashCode_read));
+                        }
+                    }
+                }
+                finally {
+                    selectMapedBufferResult.release();
+                }
+            }
+        }
+
+        log.info("load prepared transaction over, Prepared Transaction Count: {}",
+            this.preparedTransactionTable.size());
+    }
+
+
     /**
      * 单线程调用
      */
@@ -317,10 +330,8 @@ public class TransactionStateService {
             return false;
         }
 
-        // 首次创建，加入定时任务中
-        if (0 == mapedFile.getWrotePostion()) {
-            this.addTimerTask(mapedFile);
-        }
+        final long tsOffset =
+                (mapedFile.getFileFromOffset() + mapedFile.getWrotePostion()) / TSStoreUnitSize;
 
         this.byteBufferAppend.position(0);
         this.byteBufferAppend.limit(TSStoreUnitSize);
@@ -336,7 +347,13 @@ public class TransactionStateService {
         // Transaction State
         this.byteBufferAppend.putInt(MessageSysFlag.TransactionPreparedType);
 
-        return mapedFile.appendMessage(this.byteBufferAppend.array());
+        boolean result = mapedFile.appendMessage(this.byteBufferAppend.array());
+        if (result) {
+            this.preparedTransactionTable.put(tsOffset, new PreparedTransaction(clOffset, size, timestamp,
+                groupHashCode));
+        }
+
+        return result;
     }
 
 
@@ -454,11 +471,13 @@ public class TransactionStateService {
                 // 判断是否已经更新过
                 if (MessageSysFlag.TransactionPreparedType != state_read) {
                     log.warn("updateTransactionState error, the transaction is updated before.");
+                    this.preparedTransactionTable.remove(tsOffset);
                     return true;
                 }
 
                 // 更新事务状态
                 selectMapedBufferResult.getByteBuffer().putInt(TS_STATE_POS, state);
+                this.preparedTransactionTable.remove(tsOffset);
             }
             catch (Exception e) {
                 log.error("updateTransactionState exception", e);
@@ -494,4 +513,27 @@ public class TransactionStateService {
     public ConsumeQueue getTranRedoLog() {
         return tranRedoLog;
     }
+
+
+    public int getPreparedTransactionNums() {
+        return this.preparedTransactionTable.size();
+    }
+
+    /**
+     * 内存中Prepared事务的索引项，内容与State Table中的存储单元一致
+     */
+    static class PreparedTransaction {
+        private final long clOffset;
+        private final int size;
+        private final int timestamp;
+        private final int groupHashCode;
+
+
+        PreparedTransaction(long clOffset, int size, int timestamp, int groupHashCode) {
+            this.clOffset = clOffset;
+            this.size = size;
+            this.timestamp = timestamp;
+            this.groupHashCode = groupHashCode;
+        }
+    }
 }
@@ -0,0 +1,105 @@
+package com.alibaba.rocketmq.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * 删除CommitLog文件限速：令牌按时间补充、有上限，写入变慢时推迟删除、连续推迟有上限
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class CleanCommitLogServiceTest {
+    private static final int MapedFileSize = 1024 * 1024;
+    private static final long BytesPerSecond = MapedFileSize / 2;
+
+    private MessageStoreConfig config;
+    private DefaultMessageStore.CleanCommitLogService cleanCommitLogService;
+
+
+    @Before
+    public void setUp() throws Exception {
+        final String root =
+                System.getProperty("java.io.tmpdir") + File.separator + "cleantest_" + System.nanoTime()
+                        + File.separator;
+        this.config = new MessageStoreConfig();
+        this.config.setMapedFileSizeCommitLog(MapedFileSize);
+        this.config.setStorePathCommitLog(root + "commitlog");
+        this.config.setStorePathConsumeQueue(root + "consumequeue");
+        this.config.setStorePathIndex(root + "index");
+        this.config.setStoreCheckpoint(root + "checkpoint");
+        this.config.setAbortFile(root + "abort");
+        this.config.setDeleteCommitLogFilesBytesPerSecond(BytesPerSecond);
+        this.config.setDeleteCommitLogFilesBackoffEnable(true);
+        this.cleanCommitLogService = new DefaultMessageStore(this.config).getCleanCommitLogService();
+    }
+
+
+    @Test
+    public void test_refillDeleteBudget() throws Exception {
+        // 从空的令牌桶开始
+        final long now = System.currentTimeMillis() + 10;
+        this.cleanCommitLogService.refillDeleteBudget(now);
+        this.cleanCommitLogService.consumeDeleteBudget(100);
+        assertEquals(0, this.cleanCommitLogService.refillDeleteBudget(now));
+
+        // 每秒补充半个文件的额度
+        assertEquals(0, this.cleanCommitLogService.refillDeleteBudget(now + 1000));
+        assertEquals(1, this.cleanCommitLogService.refillDeleteBudget(now + 2000));
+        assertEquals(1, this.cleanCommitLogService.refillDeleteBudget(now + 2000));
+
+        // 删除后扣除额度
+        this.cleanCommitLogService.consumeDeleteBudget(1);
+        assertEquals(0, this.cleanCommitLogService.refillDeleteBudget(now + 2000));
+        this.cleanCommitLogService.consumeDeleteBudget(5);
+        assertEquals(1, this.cleanCommitLogService.refillDeleteBudget(now + 4000));
+
+        // 长时间没有删除，最多积攒一分钟的额度
+        final int budgetMaxFiles = (int) (BytesPerSecond * 60 / MapedFileSize);
+        assertEquals(budgetMaxFiles, this.cleanCommitLogService.refillDeleteBudget(now + 1000 * 3600));
+
+        // 不限速
+        this.config.setDeleteCommitLogFilesBytesPerSecond(0);
+        assertEquals(Integer.MAX_VALUE, this.cleanCommitLogService.refillDeleteBudget(now + 1000 * 3600));
+    }
+
+
+    @Test
+    public void test_refillDeleteBudget_at_least_one_file() throws Exception {
+        // 速度上限很低时，积攒满之后也至少可以删除一个文件
+        this.config.setDeleteCommitLogFilesBytesPerSecond(1024);
+        final long now = System.currentTimeMillis() + 10;
+        assertEquals(1, this.cleanCommitLogService.refillDeleteBudget(now + 1000L * 3600 * 24));
+    }
+
+
+    @Test
+    public void test_delete_backoff() throws Exception {
+        for (int i = 0; i < DefaultMessageStore.CleanCommitLogService.MaxDeleteBackoffTimes; i++) {
+            assertTrue(this.cleanCommitLogService.isDeleteBackoff(true));
+        }
+
+        // 连续推迟达到上限，必须删除一次，之后重新计数
+        assertFalse(this.cleanCommitLogService.isDeleteBackoff(true));
+        assertTrue(this.cleanCommitLogService.isDeleteBackoff(true));
+
+        // 写入恢复正常时不推迟，计数清零
+        assertFalse(this.cleanCommitLogService.isDeleteBackoff(false));
+        for (int i = 0; i < DefaultMessageStore.CleanCommitLogService.MaxDeleteBackoffTimes; i++) {
+            assertTrue(this.cleanCommitLogService.isDeleteBackoff(true));
+        }
+        assertFalse(this.cleanCommitLogService.isDeleteBackoff(true));
+
+        // 关闭推迟
+        this.config.setDeleteCommitLogFilesBackoffEnable(false);
+        assertFalse(this.cleanCommitLogService.isDeleteBackoff(true));
+    }
+}
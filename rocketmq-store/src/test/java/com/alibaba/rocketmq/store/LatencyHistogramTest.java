@@ -0,0 +1,43 @@
+package com.alibaba.rocketmq.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+public class LatencyHistogramTest {
+    @Test
+    public void test_percentile() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        histogram.record(5000000);
+
+        long[] snapshot = histogram.snapshot();
+        assertEquals(1001, LatencyHistogram.total(snapshot));
+
+        // 相对误差不超过12.5%
+        long p50 = LatencyHistogram.percentile(snapshot, 0.5);
+        assertTrue(p50 >= 500 && p50 <= 500 * 1.125);
+        long p99 = LatencyHistogram.percentile(snapshot, 0.99);
+        assertTrue(p99 >= 990 && p99 <= 990 * 1.125);
+        long max = LatencyHistogram.percentile(snapshot, 1);
+        assertTrue(max >= 5000000 && max <= 5000000 * 1.125);
+    }
+
+
+    @Test
+    public void test_window() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        long[] before = histogram.snapshot();
+        histogram.record(100000);
+
+        long[] window = LatencyHistogram.minus(histogram.snapshot(), before);
+        assertEquals(1, LatencyHistogram.total(window));
+        assertTrue(LatencyHistogram.percentile(window, 0.5) >= 100000);
+        assertEquals(0, LatencyHistogram.percentile(new long[LatencyHistogram.BucketNums], 0.99));
+    }
+}
@@ -0,0 +1,293 @@
+package com.alibaba.rocketmq.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * 存储格式的消息批量写入CommitLog：跨文件写入、解码与ConsumeQueue位置，事务提交与回滚记录
+ */
+public class PutRawMessagesTest {
+    private static final String SourceTopic = "RawSourceTopic";
+    private static final String Topic = "RawTopic";
+    private static final int MapedFileSizeCommitLog = 1024 * 16;
+
+    private File rootDir;
+    private DefaultMessageStore store;
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.rootDir = new File(System.getProperty("java.io.tmpdir"), "rawtest_" + System.nanoTime());
+        final String root = this.rootDir.getAbsolutePath() + File.separator;
+        MessageStoreConfig config = new MessageStoreConfig();
+        config.setMapedFileSizeCommitLog(MapedFileSizeCommitLog);
+        config.setMapedFileSizeConsumeQueue(1024 * 16);
+        config.setMaxHashSlotNum(100);
+        config.setMaxIndexNum(1000);
+        config.setStorePathCommitLog(root + "commitlog");
+        config.setStorePathConsumeQueue(root + "consumequeue");
+        config.setStorePathIndex(root + "index");
+        config.setStoreCheckpoint(root + "checkpoint");
+        config.setAbortFile(root + "abort");
+        config.setDelayOffsetStorePath(root + "config" + File.separator + "delayOffset.json");
+        config.setTranStateTableStorePath(root + "transaction" + File.separator + "statetable");
+        config.setTranRedoLogStorePath(root + "transaction" + File.separator + "redolog");
+        config.setTimerStorePath(root + "timer");
+        config.setTimerCheckpointStorePath(root + "config" + File.separator + "timerCheckpoint.json");
+
+        this.store = new DefaultMessageStore(config);
+        assertTrue(this.store.load());
+        this.store.start();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.store != null) {
+            this.store.shutdown();
+            this.store.destroy();
+        }
+        deleteFile(this.rootDir);
+    }
+
+
+    private static void deleteFile(final File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteFile(f);
+            }
+        }
+        file.delete();
+    }
+
+
+    private static MessageExtBrokerInner buildMessage(final int index) throws Exception {
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic(SourceTopic);
+        msg.setQueueId(0);
+        msg.setTags("TAG" + index);
+        msg.setKeys("KEY" + index);
+        msg.setBody(("raw message " + index).getBytes());
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setBornHost(new InetSocketAddress(InetAddress.getLocalHost(), 0));
+        msg.setStoreHost(new InetSocketAddress(InetAddress.getLocalHost(), 8123));
+        return msg;
+    }
+
+
+    /**
+     * 先按普通消息写入，再从CommitLog中取出，转换成另一个Topic的存储格式
+     */
+    private List<RawMessageInner> buildRawMessages(final int nums) throws Exception {
+        List<RawMessageInner> msgs = new ArrayList<RawMessageInner>(nums);
+        for (int i = 0; i < nums; i++) {
+            PutMessageResult result = this.store.putMessage(buildMessage(i));
+            assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+
+            SelectMapedBufferResult bufferPy =
+                    this.store.selectOneMessageByOffset(result.getAppendMessageResult().getWroteOffset(),
+                        result.getAppendMessageResult().getWroteBytes());
+            assertNotNull(bufferPy);
+            try {
+                Map<String, String> properties = RawMessageInner.readProperties(bufferPy.getByteBuffer());
+                assertNotNull(properties);
+                msgs.add(RawMessageInner.build(bufferPy.getByteBuffer(), Topic, 0, 0, 0, 0, properties, true));
+            }
+            finally {
+                bufferPy.release();
+            }
+        }
+        return msgs;
+    }
+
+
+    private void waitConsumeQueue(final long expected, final long timeoutMillis) throws Exception {
+        final long begin = System.currentTimeMillis();
+        while (this.store.getMaxOffsetInQuque(Topic, 0) < expected
+                && System.currentTimeMillis() - begin < timeoutMillis) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, this.store.getMaxOffsetInQuque(Topic, 0));
+    }
+
+
+    @Test
+    public void test_put_batch_across_file() throws Exception {
+        final int nums = 200;
+        List<RawMessageInner> msgs = this.buildRawMessages(nums);
+        final long beginPhyOffset = this.store.getMaxPhyOffset();
+
+        // 一批的总长度超过一个文件，中间会填充文件末尾并切换到新文件
+        int totalSize = 0;
+        for (RawMessageInner msg : msgs) {
+            totalSize += msg.getEncoded().length;
+        }
+        assertTrue(totalSize > MapedFileSizeCommitLog);
+
+        PutMessageResult result = this.store.putRawMessages(msgs);
+        assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+        assertEquals(nums, result.getWroteMsgNums());
+        this.waitConsumeQueue(nums, 3000);
+
+        ConsumeQueue cq = this.store.findConsumeQueue(Topic, 0);
+        long lastPhyOffset = -1;
+        boolean crossFile = false;
+        for (int i = 0; i < nums; i++) {
+            SelectMapedBufferResult bufferCQ = cq.getIndexBuffer(i);
+            assertNotNull(bufferCQ);
+            long offsetPy;
+            int sizePy;
+            try {
+                offsetPy = bufferCQ.getByteBuffer().getLong();
+                sizePy = bufferCQ.getByteBuffer().getInt();
+            }
+            finally {
+                bufferCQ.release();
+            }
+
+            assertTrue(offsetPy >= beginPhyOffset);
+            assertTrue(offsetPy > lastPhyOffset);
+            if (lastPhyOffset >= 0
+                    && lastPhyOffset / MapedFileSizeCommitLog != offsetPy / MapedFileSizeCommitLog) {
+                crossFile = true;
+            }
+            lastPhyOffset = offsetPy;
+
+            // 改写后的QUEUEOFFSET、PHYSICALOFFSET与ConsumeQueue一致，其他字段原样保留
+            SelectMapedBufferResult bufferPy = this.store.selectOneMessageByOffset(offsetPy, sizePy);
+            assertNotNull(bufferPy);
+            try {
+                MessageExt msg = MessageDecoder.decode(bufferPy.getByteBuffer());
+                assertNotNull(msg);
+                assertEquals(Topic, msg.getTopic());
+                assertEquals(0, msg.getQueueId());
+                assertEquals(i, msg.getQueueOffset());
+                assertEquals(offsetPy, msg.getCommitLogOffset());
+                assertEquals(sizePy, msg.getStoreSize());
+                assertEquals("TAG" + i, msg.getTags());
+                assertEquals("KEY" + i, msg.getKeys());
+                assertEquals("raw message " + i, new String(msg.getBody()));
+            }
+            finally {
+                bufferPy.release();
+            }
+        }
+        assertTrue(crossFile);
+
+        // 紧跟着的普通消息接着使用批量写入之后的逻辑位置
+        MessageExtBrokerInner next = buildMessage(nums);
+        next.setTopic(Topic);
+        PutMessageResult nextResult = this.store.putMessage(next);
+        assertEquals(PutMessageStatus.PUT_OK, nextResult.getPutMessageStatus());
+        assertEquals(nums, nextResult.getAppendMessageResult().getLogicsOffset());
+    }
+
+
+    private MessageExt lookMessage(final long offsetPy, final int sizePy) {
+        SelectMapedBufferResult bufferPy = this.store.selectOneMessageByOffset(offsetPy, sizePy);
+        assertNotNull(bufferPy);
+        try {
+            return MessageDecoder.decode(bufferPy.getByteBuffer());
+        }
+        finally {
+            bufferPy.release();
+        }
+    }
+
+
+    private RawMessageInner buildEndRecord(final MessageExt prepared, final int commitOrRollback) {
+        SelectMapedBufferResult bufferPy =
+                this.store.selectOneMessageByOffset(prepared.getCommitLogOffset(), prepared.getStoreSize());
+        assertNotNull(bufferPy);
+        try {
+            Map<String, String> properties = RawMessageInner.readProperties(bufferPy.getByteBuffer());
+            assertNotNull(properties);
+            return RawMessageInner.build(bufferPy.getByteBuffer(), Topic, 0,
+                MessageSysFlag.resetTransactionValue(prepared.getSysFlag(), commitOrRollback),
+                prepared.getQueueOffset(), prepared.getCommitLogOffset(), properties,
+                MessageSysFlag.TransactionCommitType == commitOrRollback);
+        }
+        finally {
+            bufferPy.release();
+        }
+    }
+
+
+    @Test
+    public void test_transaction_end_records() throws Exception {
+        MessageExt[] prepared = new MessageExt[2];
+        for (int i = 0; i < prepared.length; i++) {
+            MessageExtBrokerInner msg = buildMessage(i);
+            msg.setTopic(Topic);
+            msg.setSysFlag(MessageSysFlag.TransactionPreparedType);
+            PutMessageResult result = this.store.putMessage(msg);
+            assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+            prepared[i] =
+                    this.lookMessage(result.getAppendMessageResult().getWroteOffset(), result
+                        .getAppendMessageResult().getWroteBytes());
+        }
+        // Prepared消息的QUEUEOFFSET是事务状态表中的位置
+        assertEquals(prepared[0].getQueueOffset() + 1, prepared[1].getQueueOffset());
+
+        RawMessageInner commit = this.buildEndRecord(prepared[0], MessageSysFlag.TransactionCommitType);
+        RawMessageInner rollback = this.buildEndRecord(prepared[1], MessageSysFlag.TransactionRollbackType);
+        List<RawMessageInner> msgs = new ArrayList<RawMessageInner>();
+        msgs.add(commit);
+        msgs.add(rollback);
+        final long beginPhyOffset = this.store.getMaxPhyOffset();
+        PutMessageResult result = this.store.putRawMessages(msgs);
+        assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+        assertEquals(2, result.getWroteMsgNums());
+
+        // 提交记录拷贝消息体，改写事务状态与Prepared消息位置，进入ConsumeQueue
+        MessageExt commitMsg = this.lookMessage(beginPhyOffset, commit.getEncoded().length);
+        assertEquals(MessageSysFlag.TransactionCommitType,
+            MessageSysFlag.getTransactionValue(commitMsg.getSysFlag()));
+        assertEquals(prepared[0].getCommitLogOffset(), commitMsg.getPreparedTransactionOffset());
+        assertEquals(beginPhyOffset, commitMsg.getCommitLogOffset());
+        assertEquals(0, commitMsg.getQueueOffset());
+        assertEquals(prepared[0].getBodyCRC(), commitMsg.getBodyCRC());
+        assertEquals("raw message 0", new String(commitMsg.getBody()));
+        assertEquals("TAG0", commitMsg.getTags());
+
+        // 回滚记录不带消息体，QUEUEOFFSET是事务状态表中的位置
+        final long rollbackPhyOffset = beginPhyOffset + commit.getEncoded().length;
+        MessageExt rollbackMsg = this.lookMessage(rollbackPhyOffset, rollback.getEncoded().length);
+        assertEquals(MessageSysFlag.TransactionRollbackType,
+            MessageSysFlag.getTransactionValue(rollbackMsg.getSysFlag()));
+        assertEquals(prepared[1].getCommitLogOffset(), rollbackMsg.getPreparedTransactionOffset());
+        assertEquals(rollbackPhyOffset, rollbackMsg.getCommitLogOffset());
+        assertEquals(prepared[1].getQueueOffset(), rollbackMsg.getQueueOffset());
+        assertEquals(rollback.getEncoded().length, rollbackMsg.getStoreSize());
+        assertEquals(0, rollbackMsg.getBodyCRC());
+        assertNull(rollbackMsg.getBody());
+        assertEquals("TAG1", rollbackMsg.getTags());
+        assertEquals(rollbackPhyOffset + rollback.getEncoded().length, this.store.getMaxPhyOffset());
+
+        // 只有提交记录进入ConsumeQueue
+        this.waitConsumeQueue(1, 3000);
+        Thread.sleep(100);
+        assertEquals(1, this.store.getMaxOffsetInQuque(Topic, 0));
+    }
+}
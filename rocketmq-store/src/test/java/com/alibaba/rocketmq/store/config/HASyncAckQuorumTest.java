@@ -0,0 +1,70 @@
+package com.alibaba.rocketmq.store.config;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+
+/**
+ * 同步双写应答个数：ANY_ONE取最快的Slave，MAJORITY取过半，ALL取最慢的，没有应答过的Slave不参与
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class HASyncAckQuorumTest {
+    private static List<Long> offsets(final long... values) {
+        List<Long> list = new ArrayList<Long>(values.length);
+        for (long value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+
+    @Test
+    public void test_requiredAcks() throws Exception {
+        assertEquals(1, HASyncAckQuorum.ANY_ONE.requiredAcks(3));
+        assertEquals(2, HASyncAckQuorum.MAJORITY.requiredAcks(3));
+        assertEquals(3, HASyncAckQuorum.MAJORITY.requiredAcks(4));
+        assertEquals(3, HASyncAckQuorum.ALL.requiredAcks(3));
+        assertEquals(1, HASyncAckQuorum.ALL.requiredAcks(0));
+    }
+
+
+    @Test
+    public void test_quorumOffset() throws Exception {
+        List<Long> ackOffsets = offsets(300, 100, 200);
+        assertEquals(300, HASyncAckQuorum.ANY_ONE.quorumOffset(ackOffsets));
+        assertEquals(200, HASyncAckQuorum.MAJORITY.quorumOffset(ackOffsets));
+        assertEquals(100, HASyncAckQuorum.ALL.quorumOffset(ackOffsets));
+
+        // 只有一个Slave时三种方式相同
+        ackOffsets = offsets(500);
+        assertEquals(500, HASyncAckQuorum.ANY_ONE.quorumOffset(ackOffsets));
+        assertEquals(500, HASyncAckQuorum.MAJORITY.quorumOffset(ackOffsets));
+        assertEquals(500, HASyncAckQuorum.ALL.quorumOffset(ackOffsets));
+    }
+
+
+    @Test
+    public void test_quorumOffset_without_ack() throws Exception {
+        // 没有Slave或者都没有应答过
+        for (HASyncAckQuorum quorum : HASyncAckQuorum.values()) {
+            assertEquals(0, quorum.quorumOffset(new ArrayList<Long>()));
+            assertEquals(0, quorum.quorumOffset(offsets(-1, -1)));
+        }
+
+        // 新连上的Slave还没有应答，不会让ALL退回到0
+        List<Long> ackOffsets = offsets(300, -1, 200);
+        assertEquals(300, HASyncAckQuorum.ANY_ONE.quorumOffset(ackOffsets));
+        assertEquals(200, HASyncAckQuorum.MAJORITY.quorumOffset(ackOffsets));
+        assertEquals(200, HASyncAckQuorum.ALL.quorumOffset(ackOffsets));
+
+        // 应答之后参与计算
+        ackOffsets = offsets(300, 50, 200);
+        assertEquals(50, HASyncAckQuorum.ALL.quorumOffset(ackOffsets));
+        assertEquals(200, HASyncAckQuorum.MAJORITY.quorumOffset(offsets(300, 50, 200, -1)));
+    }
+}
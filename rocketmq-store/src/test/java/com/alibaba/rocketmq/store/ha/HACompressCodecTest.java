@@ -0,0 +1,127 @@
+package com.alibaba.rocketmq.store.ha;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * 主从复制数据压缩：压缩解压往返、不可压缩数据、长度不一致
+ */
+public class HACompressCodecTest {
+    private HACompressCodec codec;
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.codec = new HACompressCodec(Deflater.BEST_SPEED);
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        this.codec.end();
+    }
+
+
+    private static byte[] buildCompressible(final int size) {
+        byte[] data = new byte[size];
+        byte[] pattern = "Once, there was a chance for me!".getBytes();
+        for (int i = 0; i < size; i++) {
+            data[i] = pattern[i % pattern.length];
+        }
+        return data;
+    }
+
+
+    private static byte[] toArray(final ByteBuffer byteBuffer) {
+        byte[] data = new byte[byteBuffer.remaining()];
+        byteBuffer.get(data);
+        return data;
+    }
+
+
+    @Test
+    public void test_round_trip() throws Exception {
+        // 缓冲区随数据变大重新分配，同一个实例可以反复使用
+        for (int size : new int[] { 1024, 1024 * 64, 512 }) {
+            byte[] raw = buildCompressible(size);
+            ByteBuffer byteBuffer = ByteBuffer.allocate(size + 16);
+            byteBuffer.position(16);
+            byteBuffer.put(raw);
+            byteBuffer.position(16);
+
+            ByteBuffer compressed = this.codec.compress(byteBuffer);
+            assertNotNull(compressed);
+            assertTrue(compressed.remaining() < size);
+            // 不改变原始数据的position
+            assertEquals(16, byteBuffer.position());
+            assertEquals(size, byteBuffer.remaining());
+
+            assertArrayEquals(raw, this.codec.decompress(toArray(compressed), size));
+        }
+    }
+
+
+    @Test
+    public void test_incompressible() throws Exception {
+        byte[] raw = new byte[1024 * 32];
+        new Random(0).nextBytes(raw);
+        assertNull(this.codec.compress(ByteBuffer.wrap(raw)));
+
+        // 不可压缩之后仍然可以继续压缩其他数据
+        byte[] next = buildCompressible(1024);
+        ByteBuffer compressed = this.codec.compress(ByteBuffer.wrap(next));
+        assertNotNull(compressed);
+        assertArrayEquals(next, this.codec.decompress(toArray(compressed), next.length));
+    }
+
+
+    @Test
+    public void test_size_mismatch() throws Exception {
+        final int size = 4096;
+        byte[] raw = buildCompressible(size);
+        byte[] compressed = toArray(this.codec.compress(ByteBuffer.wrap(raw)));
+
+        // 声明的原始长度比实际数据长
+        try {
+            this.codec.decompress(compressed, size + 1);
+            fail("decompress should reject larger raw size");
+        }
+        catch (DataFormatException e) {
+        }
+
+        // 声明的原始长度比实际数据短
+        try {
+            this.codec.decompress(compressed, size - 1);
+            fail("decompress should reject smaller raw size");
+        }
+        catch (DataFormatException e) {
+        }
+
+        // 数据被截断
+        byte[] truncated = new byte[compressed.length / 2];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+        try {
+            this.codec.decompress(truncated, size);
+            fail("decompress should reject truncated data");
+        }
+        catch (DataFormatException e) {
+        }
+
+        // 出错之后实例仍然可用
+        assertArrayEquals(raw, this.codec.decompress(compressed, size));
+    }
+}
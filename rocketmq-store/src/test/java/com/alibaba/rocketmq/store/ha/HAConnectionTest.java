@@ -0,0 +1,180 @@
+package com.alibaba.rocketmq.store.ha;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.store.MapedFile;
+import com.alibaba.rocketmq.store.SelectMapedBufferResult;
+
+
+/**
+ * 零拷贝发送：按文件内位置与已发送进度计算transferTo的起点，部分发送后从断点继续
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class HAConnectionTest {
+    private static final int FileSize = 1024 * 64;
+    // 文件在CommitLog中的起始位置不为0，检查位置换算
+    private static final long FileFromOffset = FileSize * 3;
+
+    private File rootDir;
+    private MapedFile mapedFile;
+    private byte[] data;
+
+
+    /**
+     * 每次最多接收maxWriteSize字节，模拟Socket发送缓冲区满
+     */
+    static class LimitedChannel implements WritableByteChannel {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final int maxWriteSize;
+
+
+        LimitedChannel(final int maxWriteSize) {
+            this.maxWriteSize = maxWriteSize;
+        }
+
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            final int size = Math.min(src.remaining(), this.maxWriteSize);
+            for (int i = 0; i < size; i++) {
+                this.bytes.write(src.get());
+            }
+            return size;
+        }
+
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+
+        @Override
+        public void close() throws IOException {
+        }
+
+
+        byte[] toByteArray() {
+            return this.bytes.toByteArray();
+        }
+    }
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.rootDir =
+                new File(System.getProperty("java.io.tmpdir"), "haconnectiontest_" + System.nanoTime());
+        File file = new File(this.rootDir, String.format("%020d", FileFromOffset));
+        this.mapedFile = new MapedFile(file.getAbsolutePath(), FileSize);
+        this.data = new byte[1024 * 16];
+        for (int i = 0; i < this.data.length; i++) {
+            this.data[i] = (byte) (i % 251);
+        }
+        assertTrue(this.mapedFile.appendMessage(this.data));
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        this.mapedFile.destroy(1000);
+        this.rootDir.delete();
+    }
+
+
+    private byte[] expected(final int from, final int size) {
+        byte[] bytes = new byte[size];
+        System.arraycopy(this.data, from, bytes, 0, size);
+        return bytes;
+    }
+
+
+    @Test
+    public void test_transferBody_from_middle() throws Exception {
+        // 从文件中间开始，只发送前size字节
+        final int pos = 1000;
+        final int size = 5000;
+        SelectMapedBufferResult result = this.mapedFile.selectMapedBuffer(pos);
+        try {
+            assertEquals(FileFromOffset + pos, result.getStartOffset());
+            ByteBuffer body = result.getByteBuffer();
+            body.limit(size);
+
+            LimitedChannel channel = new LimitedChannel(Integer.MAX_VALUE);
+            int total = 0;
+            while (body.hasRemaining()) {
+                total += HAConnection.transferBody(result, body, channel);
+            }
+            assertEquals(size, total);
+            assertEquals(size, body.position());
+            assertArrayEquals(this.expected(pos, size), channel.toByteArray());
+        }
+        finally {
+            result.release();
+        }
+    }
+
+
+    @Test
+    public void test_transferBody_partial_write() throws Exception {
+        // 每次只发送一部分，下次从body的position继续
+        final int pos = 333;
+        final int size = 10000;
+        SelectMapedBufferResult result = this.mapedFile.selectMapedBuffer(pos);
+        try {
+            ByteBuffer body = result.getByteBuffer();
+            body.limit(size);
+
+            LimitedChannel channel = new LimitedChannel(777);
+            int times = 0;
+            while (body.hasRemaining()) {
+                final int writeSize = HAConnection.transferBody(result, body, channel);
+                assertTrue(writeSize > 0 && writeSize <= 777);
+                times++;
+            }
+            assertTrue(times > 1);
+            assertArrayEquals(this.expected(pos, size), channel.toByteArray());
+        }
+        finally {
+            result.release();
+        }
+    }
+
+
+    @Test
+    public void test_transferBody_mixed_with_copy() throws Exception {
+        // 先按普通方式发送一部分，再切换为零拷贝，发送的数据连续
+        final int pos = 2048;
+        final int size = 4096;
+        SelectMapedBufferResult result = this.mapedFile.selectMapedBuffer(pos);
+        try {
+            ByteBuffer body = result.getByteBuffer();
+            body.limit(size);
+
+            LimitedChannel channel = new LimitedChannel(Integer.MAX_VALUE);
+            ByteBuffer head = body.duplicate();
+            head.limit(100);
+            channel.write(head);
+            body.position(100);
+            while (body.hasRemaining()) {
+                HAConnection.transferBody(result, body, channel);
+            }
+            assertArrayEquals(this.expected(pos, size), channel.toByteArray());
+        }
+        finally {
+            result.release();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.alibaba.rocketmq.store.schedule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.GetMessageResult;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageResult;
+import com.alibaba.rocketmq.store.PutMessageStatus;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * 任意时间定时消息：挂入时间轮、到期投递、超出时间轮范围重新挂入、重启恢复、日志记录丢失
+ */
+public class TimerMessageServiceTest {
+    private static final String Topic = "TimerTestTopic";
+    // 时间轮跨度 20 * 100ms = 2s
+    private static final int PrecisionMs = 100;
+    private static final int WheelSlots = 20;
+
+    private File rootDir;
+    private DefaultMessageStore store;
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.rootDir = new File(System.getProperty("java.io.tmpdir"), "timertest_" + System.nanoTime());
+        this.store = this.startStore();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.store != null) {
+            this.store.shutdown();
+            this.store.destroy();
+        }
+        deleteFile(this.rootDir);
+    }
+
+
+    private static void deleteFile(final File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteFile(f);
+            }
+        }
+        file.delete();
+    }
+
+
+    private DefaultMessageStore startStore() throws Exception {
+        final String root = this.rootDir.getAbsolutePath() + File.separator;
+        MessageStoreConfig config = new MessageStoreConfig();
+        config.setMapedFileSizeCommitLog(1024 * 64);
+        config.setMapedFileSizeConsumeQueue(1024 * 16);
+        config.setMaxHashSlotNum(100);
+        config.setMaxIndexNum(1000);
+        config.setStorePathCommitLog(root + "commitlog");
+        config.setStorePathConsumeQueue(root + "consumequeue");
+        config.setStorePathIndex(root + "index");
+        config.setStoreCheckpoint(root + "checkpoint");
+        config.setAbortFile(root + "abort");
+        config.setDelayOffsetStorePath(root + "config" + File.separator + "delayOffset.json");
+        config.setTranStateTableStorePath(root + "transaction" + File.separator + "statetable");
+        config.setTranRedoLogStorePath(root + "transaction" + File.separator + "redolog");
+        config.setTimerStorePath(root + "timer");
+        config.setTimerCheckpointStorePath(root + "config" + File.separator + "timerCheckpoint.json");
+        config.setTimerPrecisionMs(PrecisionMs);
+        config.setTimerWheelSlots(WheelSlots);
+        config.setTimerLogMapedFileSize(1000 * TimerLog.TLStoreUnitSize);
+
+        DefaultMessageStore messageStore = new DefaultMessageStore(config);
+        assertTrue(messageStore.load());
+        messageStore.start();
+        return messageStore;
+    }
+
+
+    private static MessageExtBrokerInner buildMessage(final int index, final long deliverTimestamp)
+            throws Exception {
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic(Topic);
+        msg.setQueueId(0);
+        msg.setTags("TAG" + index);
+        msg.setKeys("KEY" + index);
+        msg.setBody(("timer message " + index).getBytes());
+        msg.setStartDeliverTime(deliverTimestamp);
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setBornHost(new InetSocketAddress(InetAddress.getLocalHost(), 0));
+        msg.setStoreHost(new InetSocketAddress(InetAddress.getLocalHost(), 8123));
+        return msg;
+    }
+
+
+    private void putMessages(final int nums, final long deliverTimestamp) throws Exception {
+        for (int i = 0; i < nums; i++) {
+            PutMessageResult result = this.store.putMessage(buildMessage(i, deliverTimestamp));
+            assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+        }
+    }
+
+
+    private long realQueueMaxOffset() {
+        return this.store.getMaxOffsetInQuque(Topic, 0);
+    }
+
+
+    private void waitRealQueue(final long expected, final long timeoutMillis) throws Exception {
+        final long begin = System.currentTimeMillis();
+        while (this.realQueueMaxOffset() < expected && System.currentTimeMillis() - begin < timeoutMillis) {
+            Thread.sleep(20);
+        }
+    }
+
+
+    private void waitEnqueue(final long expected, final long timeoutMillis) throws Exception {
+        final long begin = System.currentTimeMillis();
+        while (this.store.getTimerMessageService().getEnqueueOffset() < expected
+                && System.currentTimeMillis() - begin < timeoutMillis) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, this.store.getTimerMessageService().getEnqueueOffset());
+    }
+
+
+    @Test
+    public void test_enqueue_and_fire() throws Exception {
+        final int nums = 30;
+        final long deliverTimestamp = System.currentTimeMillis() + 1500;
+        this.putMessages(nums, deliverTimestamp);
+
+        // 先写入定时Topic挂到时间轮上，真实队列里还没有
+        this.waitEnqueue(nums, 3000);
+        assertEquals(nums, this.store.getMaxOffsetInQuque(TimerMessageService.TIMER_TOPIC,
+            TimerMessageService.TIMER_QUEUE_ID));
+        assertEquals(0, this.realQueueMaxOffset());
+
+        this.waitRealQueue(nums, 10000);
+        assertTrue(System.currentTimeMillis() >= deliverTimestamp);
+        assertEquals(nums, this.realQueueMaxOffset());
+
+        // 到期投递的消息恢复真实Topic，定时属性不再带给Consumer，按写入顺序投递
+        // 一次最多返回maxMsgNums - 1条
+        GetMessageResult result = this.store.getMessage(Topic, 0, 0, nums + 1, null);
+        try {
+            assertEquals(nums, result.getMessageCount());
+            int index = 0;
+            for (ByteBuffer bb : result.getMessageBufferList()) {
+                MessageExt msg = MessageDecoder.decode(bb);
+                assertEquals(Topic, msg.getTopic());
+                assertEquals("TAG" + index, msg.getTags());
+                assertEquals("timer message " + index, new String(msg.getBody()));
+                assertNull(msg.getProperty(Message.PROPERTY_START_DELIVER_TIME));
+                index++;
+            }
+        }
+        finally {
+            result.release();
+        }
+    }
+
+
+    @Test
+    public void test_far_future_rehang() throws Exception {
+        // 超出时间轮跨度，先挂在最远的槽位上，取出后重新挂入
+        final long deliverTimestamp = System.currentTimeMillis() + 2 * PrecisionMs * WheelSlots;
+        this.putMessages(10, deliverTimestamp);
+        this.waitEnqueue(10, 3000);
+
+        // 经过一个时间轮跨度后还没有到期
+        Thread.sleep(PrecisionMs * WheelSlots + 500);
+        assertTrue(System.currentTimeMillis() < deliverTimestamp);
+        assertEquals(0, this.realQueueMaxOffset());
+
+        this.waitRealQueue(10, 10000);
+        assertTrue(System.currentTimeMillis() >= deliverTimestamp);
+        assertEquals(10, this.realQueueMaxOffset());
+    }
+
+
+    @Test
+    public void test_recover_from_checkpoint() throws Exception {
+        final long deliverTimestamp = System.currentTimeMillis() + 2500;
+        this.putMessages(20, deliverTimestamp);
+        this.waitEnqueue(20, 3000);
+
+        // 重启后从检查点继续，不重复挂入
+        this.store.shutdown();
+        this.store = this.startStore();
+        assertEquals(20, this.store.getTimerMessageService().getEnqueueOffset());
+
+        this.waitRealQueue(20, 10000);
+        Thread.sleep(PrecisionMs * 5);
+        assertEquals(20, this.realQueueMaxOffset());
+    }
+
+
+    @Test
+    public void test_recover_rebuild_wheel() throws Exception {
+        final long deliverTimestamp = System.currentTimeMillis() + 2500;
+        this.putMessages(20, deliverTimestamp);
+        this.waitEnqueue(20, 3000);
+
+        // 时间轮文件丢失，从消费队列头重新挂入
+        this.store.shutdown();
+        assertTrue(new File(this.rootDir, "timer" + File.separator + "timerwheel").delete());
+        this.store = this.startStore();
+
+        this.waitRealQueue(20, 10000);
+        Thread.sleep(PrecisionMs * 5);
+        assertEquals(20, this.realQueueMaxOffset());
+    }
+
+
+    @Test
+    public void test_lost_record_skipped() throws Exception {
+        final long deliverTimestamp = System.currentTimeMillis() + 1500;
+        this.putMessages(20, deliverTimestamp);
+        this.waitEnqueue(20, 3000);
+
+        // TimerLog文件丢失，槽位中的记录读不到，记录丢失数后继续处理后面的槽位
+        this.store.shutdown();
+        deleteFile(new File(this.rootDir, "timer" + File.separator + "timerlog"));
+        this.store = this.startStore();
+
+        final long begin = System.currentTimeMillis();
+        while (this.store.getTimerMessageService().getReadTimestamp() <= deliverTimestamp
+                && System.currentTimeMillis() - begin < 10000) {
+            Thread.sleep(20);
+        }
+        assertEquals(20, this.store.getTimerMessageService().getLostRecordNums());
+        assertEquals(0, this.realQueueMaxOffset());
+
+        this.putMessages(5, System.currentTimeMillis() + 500);
+        this.waitRealQueue(5, 10000);
+        assertEquals(5, this.realQueueMaxOffset());
+    }
+}
@@ -0,0 +1,174 @@
+package com.alibaba.rocketmq.store.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+
+
+/**
+ * Prepared事务索引：Prepare时加入，Commit/Rollback与删除State Table文件时移除，回查按Prepare时间顺序、每组限量
+ *
+ * @author shijia.wxr<vintage.wang@gmail.com>
+ */
+public class TransactionStateServiceTest {
+    private static final int GroupA = "GroupA".hashCode();
+    private static final int GroupB = "GroupB".hashCode();
+    // 每个State Table文件4个存储单元
+    private static final int UnitsPerFile = 4;
+
+    private File rootDir;
+    private TransactionStateService transactionStateService;
+    private final List<Long> checkedList = new ArrayList<Long>();
+    private final List<Integer> checkedGroupList = new ArrayList<Integer>();
+
+
+    @Before
+    public void setUp() throws Exception {
+        this.rootDir = new File(System.getProperty("java.io.tmpdir"), "transactiontest_" + System.nanoTime());
+        final String root = this.rootDir.getAbsolutePath() + File.separator;
+        MessageStoreConfig config = new MessageStoreConfig();
+        config.setStorePathCommitLog(root + "commitlog");
+        config.setStorePathConsumeQueue(root + "consumequeue");
+        config.setStorePathIndex(root + "index");
+        config.setStoreCheckpoint(root + "checkpoint");
+        config.setAbortFile(root + "abort");
+        config.setTranStateTableStorePath(root + "transaction" + File.separator + "statetable");
+        config.setTranRedoLogStorePath(root + "transaction" + File.separator + "redolog");
+        config.setTranStateTableMapedFileSize(UnitsPerFile * TransactionStateService.TSStoreUnitSize);
+        config.setCheckTransactionMessageAtleastInterval(1000 * 60);
+        config.setCheckTransactionMessageMaxPerGroup(2);
+
+        DefaultMessageStore messageStore = new DefaultMessageStore(config);
+        this.transactionStateService = messageStore.getTransactionStateService();
+        assertTrue(this.transactionStateService.load());
+    }
+
+
+    @After
+    public void tearDown() {
+        deleteFile(this.rootDir);
+    }
+
+
+    private static void deleteFile(final File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteFile(f);
+            }
+        }
+        file.delete();
+    }
+
+
+    /**
+     * 回查时记录tsOffset与Producer Group
+     */
+    private long check() {
+        this.checkedList.clear();
+        this.checkedGroupList.clear();
+        return this.transactionStateService.checkPreparedTransaction(new TransactionCheckExecuter() {
+            @Override
+            public void gotoCheck(int producerGroupHashCode, long tranStateTableOffset, long commitLogOffset,
+                    int msgSize) {
+                TransactionStateServiceTest.this.checkedList.add(tranStateTableOffset);
+                TransactionStateServiceTest.this.checkedGroupList.add(producerGroupHashCode);
+            }
+        });
+    }
+
+
+    /**
+     * @param ageSeconds
+     *            Prepare距今的秒数
+     */
+    private void prepare(final long clOffset, final int groupHashCode, final int ageSeconds) {
+        final int timestamp = (int) (System.currentTimeMillis() / 1000) - ageSeconds;
+        assertTrue(this.transactionStateService.appendPreparedTransaction(clOffset, 100, timestamp,
+            groupHashCode));
+    }
+
+
+    @Test
+    public void test_prepared_index() throws Exception {
+        this.prepare(1000, GroupA, 120);
+        this.prepare(2000, GroupB, 120);
+        this.prepare(3000, GroupB, 120);
+        assertEquals(3, this.transactionStateService.getPreparedTransactionNums());
+
+        // Commit之后不再回查，重复提交也不会出错
+        this.transactionStateService.updateTransactionState(1, 2000, GroupB,
+            MessageSysFlag.TransactionCommitType);
+        this.transactionStateService.updateTransactionState(1, 2000, GroupB,
+            MessageSysFlag.TransactionCommitType);
+        assertEquals(2, this.transactionStateService.getPreparedTransactionNums());
+
+        assertEquals(2, this.check());
+        assertEquals(0L, this.checkedList.get(0).longValue());
+        assertEquals(2L, this.checkedList.get(1).longValue());
+    }
+
+
+    @Test
+    public void test_check_stop_at_young() throws Exception {
+        this.prepare(1000, GroupA, 120);
+        this.prepare(2000, GroupB, 120);
+        // 还没到回查时间，后面的事务Prepare更晚，不再遍历
+        this.prepare(3000, GroupA, 0);
+        this.prepare(4000, GroupB, 0);
+
+        assertEquals(2, this.check());
+        assertEquals(0L, this.checkedList.get(0).longValue());
+        assertEquals(1L, this.checkedList.get(1).longValue());
+    }
+
+
+    @Test
+    public void test_check_max_per_group() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            this.prepare(1000 + i, GroupA, 120);
+        }
+        this.prepare(2000, GroupB, 120);
+
+        // GroupA每轮最多回查2个，不影响GroupB
+        assertEquals(3, this.check());
+        assertEquals(2, this.checkedGroupList.lastIndexOf(GroupA) + 1);
+        assertTrue(this.checkedGroupList.contains(GroupB));
+        assertEquals(0L, this.checkedList.get(0).longValue());
+        assertEquals(1L, this.checkedList.get(1).longValue());
+
+        // 回查过的事务提交后，下一轮回查剩下的
+        this.transactionStateService.updateTransactionState(0, 1000, GroupA,
+            MessageSysFlag.TransactionCommitType);
+        this.transactionStateService.updateTransactionState(1, 1001, GroupA,
+            MessageSysFlag.TransactionRollbackType);
+        assertEquals(3, this.check());
+        assertEquals(2L, this.checkedList.get(0).longValue());
+        assertEquals(3L, this.checkedList.get(1).longValue());
+    }
+
+
+    @Test
+    public void test_delete_expired_state_file() throws Exception {
+        for (int i = 0; i < UnitsPerFile + 2; i++) {
+            this.prepare(1000 + i, GroupA, 120);
+        }
+
+        // 第一个文件的事务对应的消息都已经删除
+        assertEquals(1, this.transactionStateService.deleteExpiredStateFile(1000 + UnitsPerFile));
+        assertEquals(2, this.transactionStateService.getPreparedTransactionNums());
+        assertEquals(2, this.check());
+        assertEquals((long) UnitsPerFile, this.checkedList.get(0).longValue());
+    }
+}
@@ -23,6 +23,7 @@ import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.TopicConfig;
 import com.alibaba.rocketmq.common.admin.ConsumerProgress;
 import com.alibaba.rocketmq.common.admin.TopicOffsetTable;
+import com.alibaba.rocketmq.common.protocol.body.KVTable;
 import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.message.MessageQueue;
 import com.alibaba.rocketmq.common.subscription.SubscriptionGroupConfig;
@@ -168,6 +169,13 @@ public class DefaultMQAdminExt extends ClientConfig implements MQAdminExt {
     }
 
 
+    @Override
+    public KVTable fetchBrokerRuntimeStats(String brokerAddr) throws RemotingException, MQBrokerException,
+            InterruptedException {
+        return defaultMQAdminExtImpl.fetchBrokerRuntimeStats(brokerAddr);
+    }
+
+
     public String getAdminExtGroup() {
         return adminExtGroup;
     }
@@ -21,6 +21,7 @@ import com.alibaba.rocketmq.client.exception.MQClientException;
 import com.alibaba.rocketmq.common.TopicConfig;
 import com.alibaba.rocketmq.common.admin.ConsumerProgress;
 import com.alibaba.rocketmq.common.admin.TopicOffsetTable;
+import com.alibaba.rocketmq.common.protocol.body.KVTable;
 import com.alibaba.rocketmq.common.subscription.SubscriptionGroupConfig;
 import com.alibaba.rocketmq.remoting.exception.RemotingException;
 
@@ -144,4 +145,14 @@ public interface MQAdminExt extends MQAdmin {
      * @return
      */
     public String getKVConfig(final String namespace, final String key);
+
+
+    /**
+     * 查询Broker运行时统计信息，包括各阶段耗时百分位
+     * 
+     * @param brokerAddr
+     * @return
+     */
+    public KVTable fetchBrokerRuntimeStats(final String brokerAddr) throws RemotingException,
+            MQBrokerException, InterruptedException;
 }
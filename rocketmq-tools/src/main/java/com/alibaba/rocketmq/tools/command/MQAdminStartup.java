@@ -30,6 +30,7 @@ import ch.qos.logback.core.joran.spi.JoranException;
 import com.alibaba.rocketmq.common.MQVersion;
 import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import com.alibaba.rocketmq.tools.command.broker.BrokerStatusSubCommand;
 import com.alibaba.rocketmq.tools.command.consumer.UpdateSubGroupSubCommand;
 import com.alibaba.rocketmq.tools.command.topic.UpdateTopicSubCommand;
 
@@ -46,6 +47,7 @@ public class MQAdminStartup {
     static {
         subCommandList.add(new UpdateTopicSubCommand());
         subCommandList.add(new UpdateSubGroupSubCommand());
+        subCommandList.add(new BrokerStatusSubCommand());
         // subCommandList.add(new ClusterSubCommand());
         // subCommandList.add(new BrokerSubCommand());
         // subCommandList.add(new NamesrvSubCommand());